@@ -39,17 +39,24 @@ import org.apache.mesos.SchedulerDriver;
 
 import com.twitter.aurora.GuiceUtils.AllowUnchecked;
 import com.twitter.aurora.codec.ThriftBinaryCodec;
+import com.twitter.aurora.gen.HostAttributes;
 import com.twitter.aurora.gen.comm.SchedulerMessage;
 import com.twitter.aurora.scheduler.base.Conversions;
 import com.twitter.aurora.scheduler.base.SchedulerException;
 import com.twitter.aurora.scheduler.configuration.Resources;
+import com.twitter.aurora.scheduler.events.PubsubEvent;
+import com.twitter.aurora.scheduler.events.PubsubEvent.HostAttributesChanged;
 import com.twitter.aurora.scheduler.events.PubsubEvent.Interceptors.Event;
 import com.twitter.aurora.scheduler.events.PubsubEvent.Interceptors.SendNotification;
 import com.twitter.aurora.scheduler.state.SchedulerCore;
+import com.twitter.aurora.scheduler.storage.AttributeStore;
 import com.twitter.aurora.scheduler.storage.Storage;
 import com.twitter.aurora.scheduler.storage.Storage.MutableStoreProvider;
 import com.twitter.aurora.scheduler.storage.Storage.MutateWork;
+import com.twitter.aurora.scheduler.storage.Storage.StoreProvider;
+import com.twitter.aurora.scheduler.storage.Storage.Work;
 import com.twitter.common.application.Lifecycle;
+import com.twitter.common.base.Closure;
 import com.twitter.common.inject.TimedInterceptor.Timed;
 import com.twitter.common.stats.Stats;
 
@@ -69,12 +76,15 @@ class MesosSchedulerImpl implements Scheduler {
   private final AtomicLong frameworkReregisters =
       Stats.exportLong("scheduler_framework_reregisters");
   private final AtomicLong lostExecutors = Stats.exportLong("scheduler_lost_executors");
+  private final AtomicLong unchangedAttributes =
+      Stats.exportLong("scheduler_offer_attributes_unchanged");
 
   private final List<TaskLauncher> taskLaunchers;
 
   private final Storage storage;
   private final SchedulerCore schedulerCore;
   private final Lifecycle lifecycle;
+  private final Closure<PubsubEvent> eventSink;
   private volatile boolean registered = false;
 
   /**
@@ -83,18 +93,21 @@ class MesosSchedulerImpl implements Scheduler {
    * @param schedulerCore Core scheduler.
    * @param lifecycle Application lifecycle manager.
    * @param taskLaunchers Task launchers.
+   * @param eventSink Pubsub sink to notify of host attribute changes.
    */
   @Inject
   public MesosSchedulerImpl(
       Storage storage,
       SchedulerCore schedulerCore,
       final Lifecycle lifecycle,
-      List<TaskLauncher> taskLaunchers) {
+      List<TaskLauncher> taskLaunchers,
+      Closure<PubsubEvent> eventSink) {
 
     this.storage = checkNotNull(storage);
     this.schedulerCore = checkNotNull(schedulerCore);
     this.lifecycle = checkNotNull(lifecycle);
     this.taskLaunchers = checkNotNull(taskLaunchers);
+    this.eventSink = checkNotNull(eventSink);
   }
 
   @Override
@@ -136,19 +149,57 @@ class MesosSchedulerImpl implements Scheduler {
     return Resources.from(offer).greaterThanOrEqual(Resources.from(task.getResourcesList()));
   }
 
+  /**
+   * Stores the host attributes advertised by {@code offers}, skipping hosts whose attributes
+   * already match what is stored.  Slaves re-advertise the same attributes with every offer, so
+   * without this check each offer would cost a storage write and a log entry.
+   *
+   * @param offers Offers received in a single callback.
+   */
+  private void saveChangedAttributes(final List<Offer> offers) {
+    final List<HostAttributes> changed = storage.weaklyConsistentRead(
+        new Work.Quiet<List<HostAttributes>>() {
+          @Override public List<HostAttributes> apply(StoreProvider storeProvider) {
+            AttributeStore store = storeProvider.getAttributeStore();
+            ImmutableList.Builder<HostAttributes> builder = ImmutableList.builder();
+            for (Offer offer : offers) {
+              HostAttributes attributes = Conversions.getAttributes(offer);
+              Optional<HostAttributes> stored = store.getHostAttributes(attributes.getHost());
+              if (stored.isPresent()
+                  && stored.get().getAttributes().equals(attributes.getAttributes())) {
+                unchangedAttributes.incrementAndGet();
+              } else {
+                builder.add(attributes);
+              }
+            }
+            return builder.build();
+          }
+        });
+
+    if (!changed.isEmpty()) {
+      storage.write(new MutateWork.NoResult.Quiet() {
+        @Override protected void execute(MutableStoreProvider storeProvider) {
+          for (HostAttributes attributes : changed) {
+            storeProvider.getAttributeStore().saveHostAttributes(attributes);
+          }
+        }
+      });
+      for (HostAttributes attributes : changed) {
+        eventSink.execute(new HostAttributesChanged(attributes.deepCopy()));
+      }
+    }
+  }
+
   @Timed("scheduler_resource_offers")
   @Override
   public void resourceOffers(SchedulerDriver driver, List<Offer> offers) {
     Preconditions.checkState(registered, "Must be registered before receiving offers.");
 
+    saveChangedAttributes(offers);
+
     for (final Offer offer : offers) {
       log(Level.FINE, "Received offer: %s", offer);
       resourceOffers.incrementAndGet();
-      storage.write(new MutateWork.NoResult.Quiet() {
-        @Override protected void execute(MutableStoreProvider storeProvider) {
-          storeProvider.getAttributeStore().saveHostAttributes(Conversions.getAttributes(offer));
-        }
-      });
 
       // Ordering of task launchers is important here, since offers are consumed greedily.
       // TODO(William Farner): Refactor this area of code now that the primary task launcher
@@ -92,6 +92,30 @@ public final class ResourceSlot {
     return new ResourceSlot(new Resources(totalCPU, totalRAM, disk, ports));
   }
 
+  /**
+   * Tests whether this slot is at least as large as another in every resource dimension.
+   *
+   * @param other Slot to compare against.
+   * @return {@code true} if {@code other} fits within this slot.
+   */
+  public boolean greaterThanOrEqual(ResourceSlot other) {
+    return resources.greaterThanOrEqual(other.resources);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof ResourceSlot)) {
+      return false;
+    }
+    ResourceSlot other = (ResourceSlot) o;
+    return resources.equals(other.resources);
+  }
+
+  @Override
+  public int hashCode() {
+    return resources.hashCode();
+  }
+
   public static ResourceSlot sum(ResourceSlot... rs) {
     return sum(Arrays.asList(rs));
   }
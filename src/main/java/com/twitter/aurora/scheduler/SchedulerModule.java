@@ -16,6 +16,8 @@
 package com.twitter.aurora.scheduler;
 
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
@@ -24,6 +26,7 @@ import javax.inject.Singleton;
 import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.AbstractModule;
 import com.google.inject.PrivateModule;
@@ -38,13 +41,17 @@ import com.twitter.aurora.scheduler.PulseMonitor.PulseMonitorImpl;
 import com.twitter.aurora.scheduler.SchedulerLifecycle.DriverReference;
 import com.twitter.aurora.scheduler.SchedulerLifecycle.LeadingOptions;
 import com.twitter.aurora.scheduler.TaskIdGenerator.TaskIdGeneratorImpl;
+import com.twitter.aurora.scheduler.UserTaskLauncher.BatchOptions;
 import com.twitter.aurora.scheduler.events.PubsubEventModule;
 import com.twitter.aurora.scheduler.periodic.GcExecutorLauncher;
 import com.twitter.aurora.scheduler.periodic.GcExecutorLauncher.GcExecutor;
+import com.twitter.common.application.ShutdownRegistry;
 import com.twitter.common.args.Arg;
 import com.twitter.common.args.CmdLine;
+import com.twitter.common.args.constraints.Positive;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
+import com.twitter.common.util.concurrent.ExecutorServiceShutdown;
 
 /**
  * Binding module for top-level scheduling logic.
@@ -69,6 +76,21 @@ public class SchedulerModule extends AbstractModule {
   private static final Arg<Amount<Long, Time>> MAX_LEADING_DURATION =
       Arg.create(Amount.of(1L, Time.DAYS));
 
+  @CmdLine(name = "batch_status_updates",
+      help = "Queue task status updates and apply them in batches, each in a single storage "
+          + "transaction.  Updates are acknowledged to mesos before they are stored, so updates "
+          + "that are queued or in a batch that is not yet durable are lost if the scheduler "
+          + "fails, and a batch that cannot be stored shuts down the scheduler.")
+  private static final Arg<Boolean> BATCH_STATUS_UPDATES = Arg.create(false);
+
+  @Positive
+  @CmdLine(name = "max_status_update_batch_size",
+      help = "Maximum number of task status updates to apply in a single storage transaction.")
+  private static final Arg<Integer> MAX_STATUS_UPDATE_BATCH_SIZE = Arg.create(1000);
+
+  private static final Amount<Long, Time> STATUS_UPDATE_SHUTDOWN_GRACE_PERIOD =
+      Amount.of(1L, Time.SECONDS);
+
   @Override
   protected void configure() {
     bind(Driver.class).to(DriverImpl.class);
@@ -88,7 +110,30 @@ public class SchedulerModule extends AbstractModule {
         .toInstance(new PulseMonitorImpl<String>(EXECUTOR_GC_INTERVAL.get()));
 
     bind(GcExecutorLauncher.class).in(Singleton.class);
-    bind(UserTaskLauncher.class).in(Singleton.class);
+
+    install(new PrivateModule() {
+      @Override protected void configure() {
+        bind(BatchOptions.class).toInstance(
+            new BatchOptions(BATCH_STATUS_UPDATES.get(), MAX_STATUS_UPDATE_BATCH_SIZE.get()));
+        bind(UserTaskLauncher.class).in(Singleton.class);
+        expose(UserTaskLauncher.class);
+      }
+
+      @Provides
+      @Singleton
+      Executor provideStatusUpdateExecutor(ShutdownRegistry shutdownRegistry) {
+        if (!BATCH_STATUS_UPDATES.get()) {
+          // Unbatched updates are applied on the thread that received them.
+          return MoreExecutors.sameThreadExecutor();
+        }
+
+        ExecutorService executor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("StatusUpdate-%d").setDaemon(true).build());
+        shutdownRegistry.addAction(
+            new ExecutorServiceShutdown(executor, STATUS_UPDATE_SHUTDOWN_GRACE_PERIOD));
+        return executor;
+      }
+    });
 
     install(new PrivateModule() {
       @Override protected void configure() {
@@ -104,7 +149,7 @@ public class SchedulerModule extends AbstractModule {
     });
 
     PubsubEventModule.bindSubscriber(binder(), SchedulerLifecycle.class);
-    PubsubEventModule.bindSubscriber(binder(), TaskVars.class);
+    PubsubEventModule.bindQueuedSubscriber(binder(), TaskVars.class);
   }
 
   @Provides
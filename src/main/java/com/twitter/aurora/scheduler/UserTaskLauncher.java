@@ -15,6 +15,12 @@
  */
 package com.twitter.aurora.scheduler;
 
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,6 +29,7 @@ import javax.inject.Inject;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
 
 import org.apache.mesos.Protos.Offer;
 import org.apache.mesos.Protos.OfferID;
@@ -35,7 +42,13 @@ import com.twitter.aurora.scheduler.base.Conversions;
 import com.twitter.aurora.scheduler.base.Query;
 import com.twitter.aurora.scheduler.base.SchedulerException;
 import com.twitter.aurora.scheduler.state.StateManager;
+import com.twitter.aurora.scheduler.storage.Storage;
+import com.twitter.aurora.scheduler.storage.Storage.MutableStoreProvider;
+import com.twitter.aurora.scheduler.storage.Storage.MutateWork;
+import com.twitter.common.application.Lifecycle;
+import com.twitter.common.stats.Stats;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -51,13 +64,65 @@ class UserTaskLauncher implements TaskLauncher {
   @VisibleForTesting
   static final String MEMORY_LIMIT_DISPLAY = "Task used more memory than requested.";
 
+  private static final AtomicLong STATUS_UPDATE_BATCHES =
+      Stats.exportLong("scheduler_status_update_batches");
+  private static final AtomicLong BATCHED_STATUS_UPDATES =
+      Stats.exportLong("scheduler_status_updates_batched");
+  private static final AtomicLong FAILED_STATUS_UPDATE_BATCHES =
+      Stats.exportLong("scheduler_status_update_batch_failures");
+
   private final OfferQueue offerQueue;
   private final StateManager stateManager;
+  private final Storage storage;
+  private final BatchOptions batchOptions;
+  private final Executor executor;
+  private final Lifecycle lifecycle;
+
+  private final BlockingQueue<TaskStatus> pendingUpdates = new LinkedBlockingQueue<>();
+  private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+  // Set once a batch fails to be stored, after which queued updates are no longer applied.
+  private volatile boolean batchFailed = false;
+
+  /**
+   * Settings for applying status updates in batches.
+   */
+  static class BatchOptions {
+    static final BatchOptions DISABLED = new BatchOptions(false, 1);
+
+    private final boolean enabled;
+    private final int maxBatchSize;
+
+    /**
+     * Creates status update batching settings.
+     *
+     * @param enabled Whether status updates are queued and applied in batches.  If disabled,
+     *     each update is applied before
+     *     {@link UserTaskLauncher#statusUpdate(TaskStatus)} returns.
+     * @param maxBatchSize Maximum number of updates to apply in one storage transaction.
+     */
+    BatchOptions(boolean enabled, int maxBatchSize) {
+      checkArgument(maxBatchSize > 0, "Batch size must be positive.");
+
+      this.enabled = enabled;
+      this.maxBatchSize = maxBatchSize;
+    }
+  }
 
   @Inject
-  UserTaskLauncher(OfferQueue offerQueue, StateManager stateManager) {
+  UserTaskLauncher(
+      OfferQueue offerQueue,
+      StateManager stateManager,
+      Storage storage,
+      BatchOptions batchOptions,
+      Executor executor,
+      Lifecycle lifecycle) {
+
     this.offerQueue = checkNotNull(offerQueue);
     this.stateManager = checkNotNull(stateManager);
+    this.storage = checkNotNull(storage);
+    this.batchOptions = checkNotNull(batchOptions);
+    this.executor = checkNotNull(executor);
+    this.lifecycle = checkNotNull(lifecycle);
   }
 
   @Override
@@ -69,7 +134,71 @@ class UserTaskLauncher implements TaskLauncher {
   }
 
   @Override
-  public synchronized boolean statusUpdate(TaskStatus status) {
+  public boolean statusUpdate(TaskStatus status) {
+    if (!batchOptions.enabled) {
+      synchronized (this) {
+        applyStatusUpdate(status);
+      }
+      return true;
+    }
+
+    // Updates are applied by a single drainer at a time, in the order they were received, which
+    // preserves the order of updates for each task.
+    pendingUpdates.add(status);
+    if (drainScheduled.compareAndSet(false, true)) {
+      executor.execute(drainer);
+    }
+    return true;
+  }
+
+  private final Runnable drainer = new Runnable() {
+    @Override public void run() {
+      do {
+        try {
+          while (!batchFailed && !pendingUpdates.isEmpty()) {
+            applyBatch();
+          }
+        } finally {
+          drainScheduled.set(false);
+        }
+        // An update may have been queued after the queue was found empty, but before the flag
+        // was cleared, without scheduling another drain.
+      } while (!batchFailed
+          && !pendingUpdates.isEmpty()
+          && drainScheduled.compareAndSet(false, true));
+    }
+  };
+
+  private void applyBatch() {
+    final List<TaskStatus> batch = Lists.newArrayList();
+    pendingUpdates.drainTo(batch, batchOptions.maxBatchSize);
+
+    // State changes made within an outer write join its transaction, so the whole batch is
+    // persisted with a single log append.
+    try {
+      storage.write(new MutateWork.NoResult.Quiet() {
+        @Override protected void execute(MutableStoreProvider storeProvider) {
+          for (TaskStatus status : batch) {
+            applyStatusUpdate(status);
+          }
+        }
+      });
+      STATUS_UPDATE_BATCHES.incrementAndGet();
+      BATCHED_STATUS_UPDATES.addAndGet(batch.size());
+    } catch (RuntimeException e) {
+      // The updates were already acknowledged to mesos, which will not send them again.  A failed
+      // write is not rolled back in memory, so some of the updates may already be applied and the
+      // batch cannot safely be retried.  This is treated like a failed unbatched update, which
+      // aborts the driver, and no later updates are applied on top of the lost ones.
+      LOG.log(Level.SEVERE,
+          "Failed to apply a batch of " + batch.size() + " acknowledged status updates", e);
+      FAILED_STATUS_UPDATE_BATCHES.incrementAndGet();
+      batchFailed = true;
+      lifecycle.shutdown();
+    }
+  }
+
+  private void applyStatusUpdate(TaskStatus status) {
     @Nullable String message = null;
     if (status.hasMessage()) {
       message = status.getMessage();
@@ -93,7 +222,6 @@ class UserTaskLauncher implements TaskLauncher {
       LOG.log(Level.WARNING, "Failed to update status for: " + status, e);
       throw e;
     }
-    return true;
   }
 
   @Override
@@ -44,6 +44,7 @@ import com.twitter.aurora.scheduler.cron.CronPredictor;
 import com.twitter.aurora.scheduler.cron.CronScheduler;
 import com.twitter.aurora.scheduler.cron.noop.NoopCronModule;
 import com.twitter.aurora.scheduler.local.IsolatedSchedulerModule;
+import com.twitter.aurora.scheduler.log.file.SegmentedFileLogModule;
 import com.twitter.aurora.scheduler.log.mesos.MesosLogStreamModule;
 import com.twitter.aurora.scheduler.storage.backup.BackupModule;
 import com.twitter.aurora.scheduler.storage.log.LogStorage;
@@ -84,6 +85,11 @@ public class SchedulerMain extends AbstractApplication {
       help = "If true, run in a testing mode with the scheduler isolated from other components.")
   private static final Arg<Boolean> ISOLATED_SCHEDULER = Arg.create(false);
 
+  @CmdLine(name = "use_segmented_log",
+      help = "If true, store the scheduler log in segment files on local disk rather than in the "
+          + "replicated mesos native log.  Only suitable for schedulers run on a single host.")
+  private static final Arg<Boolean> USE_SEGMENTED_LOG = Arg.create(false);
+
   @NotNull
   @CmdLine(name = "cluster_name", help = "Name to identify the cluster being served.")
   private static final Arg<String> CLUSTER_NAME = Arg.create();
@@ -185,7 +191,11 @@ public class SchedulerMain extends AbstractApplication {
         @Override protected void configure() {
           bind(DriverFactory.class).to(DriverFactoryImpl.class);
           bind(DriverFactoryImpl.class).in(Singleton.class);
-          install(new MesosLogStreamModule(zkClientConfig));
+          if (USE_SEGMENTED_LOG.get()) {
+            install(new SegmentedFileLogModule());
+          } else {
+            install(new MesosLogStreamModule(zkClientConfig));
+          }
         }
       };
     }
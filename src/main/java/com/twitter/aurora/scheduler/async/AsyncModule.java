@@ -15,6 +15,8 @@
  */
 package com.twitter.aurora.scheduler.async;
 
+import java.util.Set;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.logging.Logger;
@@ -22,6 +24,7 @@ import java.util.logging.Logger;
 import javax.inject.Singleton;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.RateLimiter;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.AbstractModule;
@@ -30,12 +33,16 @@ import com.google.inject.TypeLiteral;
 
 import com.twitter.aurora.scheduler.async.OfferQueue.OfferQueueImpl;
 import com.twitter.aurora.scheduler.async.OfferQueue.OfferReturnDelay;
+import com.twitter.aurora.scheduler.async.PreemptionPass.PreemptionExecutor;
+import com.twitter.aurora.scheduler.async.PreemptionPass.PreemptionInterval;
 import com.twitter.aurora.scheduler.async.RescheduleCalculator.RescheduleCalculatorImpl;
 import com.twitter.aurora.scheduler.async.TaskGroups.SchedulingAction;
 import com.twitter.aurora.scheduler.async.TaskGroups.TaskGroupsSettings;
 import com.twitter.aurora.scheduler.events.PubsubEventModule;
+import com.twitter.common.application.modules.LifecycleModule;
 import com.twitter.common.args.Arg;
 import com.twitter.common.args.CmdLine;
+import com.twitter.common.args.constraints.Positive;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.stats.StatImpl;
@@ -88,6 +95,18 @@ public class AsyncModule extends AbstractModule {
       help = "Maximum number of scheduling attempts to make per second.")
   private static final Arg<Double> MAX_SCHEDULE_ATTEMPTS_PER_SEC = Arg.create(10D);
 
+  @Positive
+  @CmdLine(name = "max_tasks_per_schedule_attempt",
+      help = "Maximum number of tasks from the same task group to place in a single scheduling "
+          + "attempt.  Values greater than 1 pack multiple tasks into each offer.")
+  private static final Arg<Integer> MAX_TASKS_PER_SCHEDULE_ATTEMPT = Arg.create(1);
+
+  @Positive
+  @CmdLine(name = "scheduling_threads",
+      help = "Number of threads to make scheduling attempts with.  Values greater than 1 evaluate "
+          + "several task groups against resource offers in parallel.")
+  private static final Arg<Integer> SCHEDULING_THREADS = Arg.create(1);
+
   @CmdLine(name = "flapping_task_threshold",
       help = "A task that repeatedly runs for less than this time is considered to be flapping.")
   private static final Arg<Amount<Long, Time>> FLAPPING_THRESHOLD =
@@ -113,6 +132,11 @@ public class AsyncModule extends AbstractModule {
   private static final Arg<Amount<Long, Time>> PREEMPTION_DELAY =
       Arg.create(Amount.of(10L, Time.MINUTES));
 
+  @CmdLine(name = "preemption_pass_interval",
+      help = "Time interval between attempts to preempt tasks for pending tasks.")
+  private static final Arg<Amount<Long, Time>> PREEMPTION_PASS_INTERVAL =
+      Arg.create(Amount.of(30L, Time.SECONDS));
+
   @CmdLine(name = "enable_preemptor",
       help = "Enable the preemptor and preemption")
   private static final Arg<Boolean> ENABLE_PREEMPTOR = Arg.create(true);
@@ -121,6 +145,10 @@ public class AsyncModule extends AbstractModule {
     @Override public Optional<String> findPreemptionSlotFor(String taskId) {
       return Optional.absent();
     }
+
+    @Override public Set<String> preemptForGroups(Iterable<Set<String>> taskGroups) {
+      return ImmutableSet.of();
+    }
   };
 
   @Override
@@ -155,7 +183,9 @@ public class AsyncModule extends AbstractModule {
       @Override protected void configure() {
         bind(TaskGroupsSettings.class).toInstance(new TaskGroupsSettings(
             new TruncatedBinaryBackoff(INITIAL_SCHEDULE_DELAY.get(), MAX_SCHEDULE_DELAY.get()),
-            RateLimiter.create(MAX_SCHEDULE_ATTEMPTS_PER_SEC.get())));
+            RateLimiter.create(MAX_SCHEDULE_ATTEMPTS_PER_SEC.get()),
+            MAX_TASKS_PER_SCHEDULE_ATTEMPT.get(),
+            SCHEDULING_THREADS.get()));
 
         bind(RescheduleCalculatorImpl.RescheduleCalculatorSettings.class)
             .toInstance(new RescheduleCalculatorImpl.RescheduleCalculatorSettings(
@@ -169,6 +199,15 @@ public class AsyncModule extends AbstractModule {
         if (ENABLE_PREEMPTOR.get()) {
           bind(Preemptor.class).to(PreemptorImpl.class);
           bind(PreemptorImpl.class).in(Singleton.class);
+          bind(PreemptionVictimIndex.class).in(Singleton.class);
+          expose(PreemptionVictimIndex.class);
+          bind(ScheduledExecutorService.class).annotatedWith(PreemptionExecutor.class)
+              .toInstance(Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                  .setNameFormat("Preemptor-%d").setDaemon(true).build()));
+          bind(new TypeLiteral<Amount<Long, Time>>() { }).annotatedWith(PreemptionInterval.class)
+              .toInstance(PREEMPTION_PASS_INTERVAL.get());
+          bind(PreemptionPass.class).in(Singleton.class);
+          expose(PreemptionPass.class);
           LOG.info("Preemptor Enabled.");
         } else {
           bind(Preemptor.class).toInstance(NULL_PREEMPTOR);
@@ -181,6 +220,10 @@ public class AsyncModule extends AbstractModule {
       }
     });
     PubsubEventModule.bindSubscriber(binder(), TaskGroups.class);
+    if (ENABLE_PREEMPTOR.get()) {
+      PubsubEventModule.bindSubscriber(binder(), PreemptionVictimIndex.class);
+      LifecycleModule.bindStartupAction(binder(), PreemptionPass.class);
+    }
 
     binder().install(new PrivateModule() {
       @Override protected void configure() {
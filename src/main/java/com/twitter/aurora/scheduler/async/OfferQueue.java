@@ -16,11 +16,14 @@
 package com.twitter.aurora.scheduler.async;
 
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.NavigableSet;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
@@ -33,23 +36,33 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
 import com.google.common.collect.Ordering;
 import com.google.common.eventbus.Subscribe;
 
 import org.apache.mesos.Protos.Offer;
 import org.apache.mesos.Protos.OfferID;
+import org.apache.mesos.Protos.SlaveID;
 import org.apache.mesos.Protos.TaskInfo;
 
 import com.twitter.aurora.gen.HostStatus;
 import com.twitter.aurora.gen.MaintenanceMode;
 import com.twitter.aurora.scheduler.Driver;
+import com.twitter.aurora.scheduler.ResourceSlot;
+import com.twitter.aurora.scheduler.events.PubsubEvent;
 import com.twitter.aurora.scheduler.events.PubsubEvent.DriverDisconnected;
 import com.twitter.aurora.scheduler.events.PubsubEvent.EventSubscriber;
 import com.twitter.aurora.scheduler.events.PubsubEvent.HostMaintenanceStateChange;
+import com.twitter.aurora.scheduler.events.PubsubEvent.OfferAvailable;
 import com.twitter.aurora.scheduler.state.MaintenanceController;
+import com.twitter.common.base.Closure;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.StatImpl;
 import com.twitter.common.stats.Stats;
 
 import static com.twitter.aurora.gen.MaintenanceMode.DRAINED;
@@ -63,7 +76,9 @@ import static com.twitter.aurora.gen.MaintenanceMode.SCHEDULED;
 public interface OfferQueue extends EventSubscriber {
 
   /**
-   * Notifies the scheduler of a new resource offer.
+   * Notifies the scheduler of a new resource offer.  An
+   * {@link com.twitter.aurora.scheduler.events.PubsubEvent.OfferAvailable} event is sent if the
+   * offer is held for scheduling.
    *
    * @param offer Newly-available resource offer.
    */
@@ -79,14 +94,37 @@ public interface OfferQueue extends EventSubscriber {
 
   /**
    * Launches the first task that satisfies the {@code acceptor} by returning a {@link TaskInfo}.
+   * Offers that are too small to hold {@code required} are skipped without consulting the
+   * {@code acceptor}.
+   * <p>
+   * This may be called concurrently.  An offer is reserved while it is presented to an acceptor,
+   * and offers reserved by other callers are skipped.
    *
+   * @param required Resources the task needs, used to rule out offers that cannot hold it.
    * @param acceptor Function that determines if an offer is accepted.
    * @return {@code true} if the task was launched, {@code false} if no offers satisfied the
    *         {@code acceptor}.
    * @throws LaunchException If the acceptor accepted an offer, but there was an error launching the
    *                         task.
    */
-  boolean launchFirst(Function<Offer, Optional<TaskInfo>> acceptor) throws LaunchException;
+  boolean launchFirst(ResourceSlot required, Function<Offer, Optional<TaskInfo>> acceptor)
+      throws LaunchException;
+
+  /**
+   * Launches all tasks that the {@code acceptor} assigns, where the acceptor may pack several tasks
+   * into a single offer.  Offers are presented to the acceptor in preference order until
+   * {@code maxTasks} tasks have been launched or every offer has been presented.  As with
+   * {@link #launchFirst(ResourceSlot, Function)}, offers reserved by other callers are skipped.
+   *
+   * @param acceptor Function that assigns tasks to an offer, returning an empty list if the offer
+   *                 is not accepted.
+   * @param maxTasks Maximum number of tasks to launch.
+   * @return The number of tasks launched.
+   * @throws BatchLaunchException If the acceptor accepted an offer, but there was an error
+   *                              launching its tasks.
+   */
+  int launchAll(Function<Offer, List<TaskInfo>> acceptor, int maxTasks)
+      throws BatchLaunchException;
 
   /**
    * Notifies the offer queue that a host has changed state.
@@ -123,58 +161,110 @@ public interface OfferQueue extends EventSubscriber {
     }
   }
 
+  /**
+   * Thrown when there was an unexpected failure trying to launch a batch of tasks.  Tasks that
+   * were launched against offers accepted before the failure are unaffected.
+   */
+  static class BatchLaunchException extends LaunchException {
+    private final List<TaskInfo> failedTasks;
+
+    BatchLaunchException(String msg, List<TaskInfo> failedTasks) {
+      super(msg);
+      this.failedTasks = failedTasks;
+    }
+
+    BatchLaunchException(String msg, List<TaskInfo> failedTasks, Throwable cause) {
+      super(msg, cause);
+      this.failedTasks = failedTasks;
+    }
+
+    /**
+     * Gets the tasks that were assigned to the offer that could not be launched.
+     *
+     * @return Tasks that failed to launch.
+     */
+    List<TaskInfo> getFailedTasks() {
+      return failedTasks;
+    }
+  }
+
   class OfferQueueImpl implements OfferQueue {
     private static final Logger LOG = Logger.getLogger(OfferQueueImpl.class.getName());
 
-    static final Comparator<HostOffer> PREFERENCE_COMPARATOR =
-        // Currently, the only preference is based on host maintenance status.
-        Ordering.explicit(NONE, SCHEDULED, DRAINING, DRAINED)
-            .onResultOf(new Function<HostOffer, MaintenanceMode>() {
-              @Override public MaintenanceMode apply(HostOffer offer) {
-                return offer.mode;
-              }
-            })
-            .compound(Ordering.arbitrary());
+    private static final List<MaintenanceMode> MODE_PREFERENCE =
+        ImmutableList.of(NONE, SCHEDULED, DRAINING, DRAINED);
 
-    private final Set<HostOffer> hostOffers = new ConcurrentSkipListSet<>(PREFERENCE_COMPARATOR);
+    private static final Ordering<HostOffer> MODE_ORDER = Ordering.explicit(MODE_PREFERENCE)
+        .onResultOf(new Function<HostOffer, MaintenanceMode>() {
+          @Override public MaintenanceMode apply(HostOffer offer) {
+            return offer.mode;
+          }
+        });
+
+    private static final Ordering<HostOffer> ARRIVAL_ORDER = Ordering.natural()
+        .onResultOf(new Function<HostOffer, Long>() {
+          @Override public Long apply(HostOffer offer) {
+            return offer.sequence;
+          }
+        });
+
+    // Currently, the only preference is based on host maintenance status.  Within a status,
+    // offers are presented in the order they arrived.
+    static final Comparator<HostOffer> PREFERENCE_COMPARATOR = MODE_ORDER.compound(ARRIVAL_ORDER);
+
+    // Orders offers within a status by available CPU, so that offers too small for a task can be
+    // skipped by range.
+    private static final Comparator<HostOffer> CPUS_COMPARATOR = MODE_ORDER
+        .compound(Ordering.natural().onResultOf(new Function<HostOffer, Double>() {
+          @Override public Double apply(HostOffer offer) {
+            return offer.cpus;
+          }
+        }))
+        .compound(ARRIVAL_ORDER);
+
+    private final HostOffers hostOffers = new HostOffers();
+    private final AtomicLong offerSequence = new AtomicLong();
     private final AtomicLong offerRaces = Stats.exportLong("offer_accept_races");
+    private final AtomicLong reservationRaces = Stats.exportLong("offer_reservation_races");
 
     private final Driver driver;
     private final OfferReturnDelay returnDelay;
     private final ScheduledExecutorService executor;
     private final MaintenanceController maintenance;
+    private final Closure<PubsubEvent> eventSink;
 
     @Inject
     OfferQueueImpl(Driver driver,
         OfferReturnDelay returnDelay,
         ScheduledExecutorService executor,
-        MaintenanceController maintenance) {
+        MaintenanceController maintenance,
+        Closure<PubsubEvent> eventSink) {
 
       this.driver = driver;
       this.returnDelay = returnDelay;
       this.executor = executor;
       this.maintenance = maintenance;
-      // Potential gotcha - since this is now a ConcurrentSkipListSet, size() is more expensive.
-      // Could track this separately if it turns out to pose problems.
-      Stats.exportSize("outstanding_offers", hostOffers);
+      this.eventSink = eventSink;
+      Stats.export(new StatImpl<Integer>("outstanding_offers") {
+        @Override public Integer read() {
+          return hostOffers.size();
+        }
+      });
     }
 
     @Override
     public void addOffer(final Offer offer) {
-      // We run a slight risk of a race here, which is acceptable.  The worst case is that we
-      // temporarily hold two offers for the same host, which should be corrected when we return
-      // them after the return delay.
-      // There's also a chance that we return an offer for compaction ~simultaneously with the
-      // same-host offer being canceled/returned.  This is also fine.
-      List<HostOffer> sameSlave = FluentIterable.from(hostOffers)
-          .filter(new Predicate<HostOffer>() {
-            @Override public boolean apply(HostOffer hostOffer) {
-              return hostOffer.offer.getSlaveId().equals(offer.getSlaveId());
-            }
-          })
-          .toList();
+      // The maintenance mode is looked up before touching the offer indexes, since doing so may
+      // block on the storage lock.
+      // There's a chance that we return an offer for compaction ~simultaneously with the
+      // same-host offer being canceled/returned.  This is fine.
+      HostOffer hostOffer = new HostOffer(
+          offer,
+          maintenance.getMode(offer.getHostname()),
+          offerSequence.getAndIncrement());
+      List<HostOffer> sameSlave = hostOffers.addOrRemoveSameSlave(hostOffer);
       if (sameSlave.isEmpty()) {
-        hostOffers.add(new HostOffer(offer, maintenance.getMode(offer.getHostname())));
+        eventSink.execute(new OfferAvailable(hostOffer.resources));
         executor.schedule(
             new Runnable() {
               @Override public void run() {
@@ -190,13 +280,23 @@ public interface OfferQueue extends EventSubscriber {
             + " offers for " + offer.getSlaveId().getValue() + " for compaction.");
         decline(offer.getId());
         for (HostOffer sameSlaveOffer : sameSlave) {
-          removeAndDecline(sameSlaveOffer.offer.getId());
+          decline(sameSlaveOffer.offer.getId());
         }
       }
     }
 
+    /**
+     * Releases an offer that a scheduling attempt declined.  Other attempts that skipped the offer
+     * while it was reserved are told that it is available again.
+     */
+    private void release(HostOffer hostOffer) {
+      if (hostOffer.release()) {
+        eventSink.execute(new OfferAvailable(hostOffer.resources));
+      }
+    }
+
     void removeAndDecline(OfferID id) {
-      if (removeFromHostOffers(id)) {
+      if (hostOffers.remove(id)) {
         decline(id);
       }
     }
@@ -208,20 +308,9 @@ public interface OfferQueue extends EventSubscriber {
 
     @Override
     public void cancelOffer(final OfferID offerId) {
-      removeFromHostOffers(offerId);
-    }
-
-    private boolean removeFromHostOffers(final OfferID offerId) {
-      Preconditions.checkNotNull(offerId);
-
       // The small risk of inconsistency is acceptable here - if we have an accept/remove race
       // on an offer, the master will mark the task as LOST and it will be retried.
-      return Iterables.removeIf(hostOffers,
-          new Predicate<HostOffer>() {
-            @Override public boolean apply(HostOffer input) {
-              return input.offer.getId().equals(offerId);
-            }
-          });
+      hostOffers.remove(offerId);
     }
 
     @Override
@@ -242,25 +331,8 @@ public interface OfferQueue extends EventSubscriber {
      */
     @Subscribe
     public void hostChangedState(HostMaintenanceStateChange change) {
-      final HostStatus hostStatus = change.getStatus();
-
-      // Remove and re-add a host's offers to re-sort based on its new hostStatus
-      Set<HostOffer> changedOffers = FluentIterable.from(hostOffers)
-          .filter(new Predicate<HostOffer>() {
-            @Override public boolean apply(HostOffer hostOffer) {
-              return hostOffer.offer.getHostname().equals(hostStatus.getHost());
-            }
-          })
-          .toSet();
-      hostOffers.removeAll(changedOffers);
-      hostOffers.addAll(
-          FluentIterable.from(changedOffers)
-              .transform(new Function<HostOffer, HostOffer>() {
-                @Override public HostOffer apply(HostOffer hostOffer) {
-                  return new HostOffer(hostOffer.offer, hostStatus.getMode());
-                }
-              })
-              .toSet());
+      HostStatus hostStatus = change.getStatus();
+      hostOffers.updateMode(hostStatus.getHost(), hostStatus.getMode());
     }
 
     /**
@@ -277,16 +349,213 @@ public interface OfferQueue extends EventSubscriber {
       hostOffers.clear();
     }
 
+    /**
+     * The offers currently held, in preference order, along with indexes by available CPU,
+     * offer ID, slave ID and host name.
+     * <p>
+     * Mutations are serialized so that the indexes stay consistent with each other.  Iteration
+     * does not lock, and is weakly consistent with concurrent mutations.
+     */
+    private static class HostOffers implements Iterable<HostOffer> {
+      private final NavigableSet<HostOffer> offers =
+          new ConcurrentSkipListSet<>(PREFERENCE_COMPARATOR);
+      private final NavigableSet<HostOffer> offersByCpus =
+          new ConcurrentSkipListSet<>(CPUS_COMPARATOR);
+      private final Map<OfferID, HostOffer> offersById = Maps.newHashMap();
+      private final Multimap<SlaveID, OfferID> offersBySlave = HashMultimap.create();
+      private final Multimap<String, OfferID> offersByHost = HashMultimap.create();
+      private volatile int size = 0;
+
+      int size() {
+        return size;
+      }
+
+      @Override
+      public Iterator<HostOffer> iterator() {
+        return offers.iterator();
+      }
+
+      /**
+       * Gets the offers that could hold {@code required}, in preference order.  Offers with too
+       * little CPU are skipped by range using the CPU index, and the remaining resources are
+       * checked against the offer's cached resources.  The offers of each maintenance mode are
+       * only collected and put back in preference order once the preceding modes are exhausted.
+       *
+       * @param required Resources needed.
+       * @return Offers large enough for {@code required}.
+       */
+      Iterable<HostOffer> candidates(final ResourceSlot required) {
+        final Predicate<HostOffer> fits = new Predicate<HostOffer>() {
+          @Override public boolean apply(HostOffer hostOffer) {
+            return hostOffer.resources.greaterThanOrEqual(required);
+          }
+        };
+        return Iterables.concat(Iterables.transform(MODE_PREFERENCE,
+            new Function<MaintenanceMode, Iterable<HostOffer>>() {
+              @Override public Iterable<HostOffer> apply(MaintenanceMode mode) {
+                Iterable<HostOffer> largeEnough = offersByCpus.subSet(
+                    HostOffer.bound(mode, required.getNumCpus()), true,
+                    HostOffer.bound(mode, Double.POSITIVE_INFINITY), false);
+                return ARRIVAL_ORDER.sortedCopy(Iterables.filter(largeEnough, fits));
+              }
+            }));
+      }
+
+      /**
+       * Adds an offer, unless offers are already held for the same slave.  In that case the
+       * held offers are removed instead, so that they may be returned for compaction.
+       *
+       * @param hostOffer Offer to add.
+       * @return Offers that were removed for the same slave, empty if the offer was added.
+       */
+      synchronized List<HostOffer> addOrRemoveSameSlave(HostOffer hostOffer) {
+        SlaveID slaveId = hostOffer.offer.getSlaveId();
+        if (offersBySlave.containsKey(slaveId)) {
+          ImmutableList.Builder<HostOffer> removed = ImmutableList.builder();
+          for (OfferID id : ImmutableList.copyOf(offersBySlave.get(slaveId))) {
+            removed.add(removeInternal(id));
+          }
+          return removed.build();
+        }
+
+        OfferID id = hostOffer.offer.getId();
+        offersById.put(id, hostOffer);
+        offersBySlave.put(slaveId, id);
+        offersByHost.put(hostOffer.offer.getHostname(), id);
+        offers.add(hostOffer);
+        offersByCpus.add(hostOffer);
+        size = offersById.size();
+        return ImmutableList.of();
+      }
+
+      synchronized boolean remove(OfferID id) {
+        Preconditions.checkNotNull(id);
+
+        return removeInternal(id) != null;
+      }
+
+      private HostOffer removeInternal(OfferID id) {
+        HostOffer hostOffer = offersById.remove(id);
+        if (hostOffer != null) {
+          offers.remove(hostOffer);
+          offersByCpus.remove(hostOffer);
+          offersBySlave.remove(hostOffer.offer.getSlaveId(), id);
+          offersByHost.remove(hostOffer.offer.getHostname(), id);
+          size = offersById.size();
+        }
+        return hostOffer;
+      }
+
+      /**
+       * Removes and re-adds a host's offers to re-sort them based on the host's new mode.
+       *
+       * @param host Host whose mode changed.
+       * @param mode New maintenance mode of the host.
+       */
+      synchronized void updateMode(String host, MaintenanceMode mode) {
+        for (OfferID id : offersByHost.get(host)) {
+          HostOffer old = offersById.get(id);
+          HostOffer updated = old.withMode(mode);
+          offers.remove(old);
+          offersByCpus.remove(old);
+          offers.add(updated);
+          offersByCpus.add(updated);
+          offersById.put(id, updated);
+        }
+      }
+
+      synchronized void clear() {
+        offers.clear();
+        offersByCpus.clear();
+        offersById.clear();
+        offersBySlave.clear();
+        offersByHost.clear();
+        size = 0;
+      }
+    }
+
     /**
      * Encapsulate an offer from a host, and the host's maintenance mode.
      */
     private static class HostOffer {
       private final Offer offer;
+      private final ResourceSlot resources;
       private final MaintenanceMode mode;
+      // Sort keys, extracted so that search bounds may be created without an offer.
+      private final double cpus;
+      // Order in which the offer arrived, which is kept when the host's mode changes.
+      private final long sequence;
+      // Set while a scheduling attempt is evaluating the offer, and shared with copies of the
+      // offer made when the host's mode changes.
+      private final AtomicInteger reservation;
+
+      private static final int FREE = 0;
+      private static final int RESERVED = 1;
+      // Reserved, and another attempt was turned away while the reservation was held.
+      private static final int CONTENDED = 2;
+
+      HostOffer(Offer offer, MaintenanceMode mode, long sequence) {
+        this(offer, ResourceSlot.from(offer), mode, sequence, new AtomicInteger(FREE));
+      }
+
+      private HostOffer(
+          Offer offer,
+          ResourceSlot resources,
+          MaintenanceMode mode,
+          long sequence,
+          AtomicInteger reservation) {
+
+        this(offer, resources, mode, resources.getNumCpus(), sequence, reservation);
+      }
+
+      private HostOffer(
+          Offer offer,
+          ResourceSlot resources,
+          MaintenanceMode mode,
+          double cpus,
+          long sequence,
+          AtomicInteger reservation) {
 
-      HostOffer(Offer offer, MaintenanceMode mode) {
         this.offer = offer;
+        this.resources = resources;
         this.mode = mode;
+        this.cpus = cpus;
+        this.sequence = sequence;
+        this.reservation = reservation;
+      }
+
+      /**
+       * Creates a search bound that sorts before any offer in {@code mode} with at least
+       * {@code cpus} available.
+       */
+      static HostOffer bound(MaintenanceMode mode, double cpus) {
+        return new HostOffer(null, null, mode, cpus, Long.MIN_VALUE, null);
+      }
+
+      HostOffer withMode(MaintenanceMode newMode) {
+        return new HostOffer(offer, resources, newMode, sequence, reservation);
+      }
+
+      /**
+       * Reserves the offer for the calling thread.
+       *
+       * @return {@code true} if the offer was reserved, {@code false} if it is already reserved.
+       */
+      boolean reserve() {
+        if (reservation.compareAndSet(FREE, RESERVED)) {
+          return true;
+        }
+        reservation.compareAndSet(RESERVED, CONTENDED);
+        return false;
+      }
+
+      /**
+       * Releases a reservation made with {@link #reserve()}.
+       *
+       * @return {@code true} if another attempt failed to reserve the offer in the meantime.
+       */
+      boolean release() {
+        return reservation.getAndSet(FREE) == CONTENDED;
       }
 
       @Override
@@ -305,19 +574,32 @@ public interface OfferQueue extends EventSubscriber {
     }
 
     @Override
-    public boolean launchFirst(Function<Offer, Optional<TaskInfo>> acceptor)
-        throws LaunchException {
+    public boolean launchFirst(
+        ResourceSlot required,
+        Function<Offer, Optional<TaskInfo>> acceptor) throws LaunchException {
+
+      for (HostOffer hostOffer : hostOffers.candidates(required)) {
+        // Offers are reserved before they are presented, so that concurrent callers do not accept
+        // the same offer.  A caller that finds an offer reserved moves on to the next one.
+        if (!hostOffer.reserve()) {
+          reservationRaces.incrementAndGet();
+          continue;
+        }
 
-      // It's important that this method is not called concurrently - doing so would open up the
-      // possibility of a race between the same offers being accepted by different threads.
+        Optional<TaskInfo> assignment;
+        try {
+          assignment = acceptor.apply(hostOffer.offer);
+        } catch (RuntimeException e) {
+          release(hostOffer);
+          throw e;
+        }
 
-      for (HostOffer hostOffer : hostOffers) {
-        Optional<TaskInfo> assignment = acceptor.apply(hostOffer.offer);
         if (assignment.isPresent()) {
+          // The offer is left reserved, since the assignment consumes it.
           // Guard against an offer being removed after we grabbed it from the iterator.
           // If that happens, the offer will not exist in hostOffers, and we can immediately
           // send it back to LOST for quick reschedule.
-          if (hostOffers.remove(hostOffer)) {
+          if (hostOffers.remove(hostOffer.offer.getId())) {
             try {
               driver.launchTask(hostOffer.offer.getId(), assignment.get());
               return true;
@@ -333,9 +615,56 @@ public interface OfferQueue extends EventSubscriber {
                 "Accepted offer no longer exists in offer queue, likely data race.");
           }
         }
+        release(hostOffer);
       }
 
       return false;
     }
+
+    @Override
+    public int launchAll(Function<Offer, List<TaskInfo>> acceptor, int maxTasks)
+        throws BatchLaunchException {
+
+      int launched = 0;
+      for (HostOffer hostOffer : hostOffers) {
+        if (launched >= maxTasks) {
+          break;
+        }
+
+        if (!hostOffer.reserve()) {
+          reservationRaces.incrementAndGet();
+          continue;
+        }
+
+        List<TaskInfo> assignments;
+        try {
+          assignments = acceptor.apply(hostOffer.offer);
+        } catch (RuntimeException e) {
+          release(hostOffer);
+          throw e;
+        }
+
+        if (assignments.isEmpty()) {
+          release(hostOffer);
+        } else {
+          // As with launchFirst, the offer is left reserved since the assignments consume it.
+          if (hostOffers.remove(hostOffer.offer.getId())) {
+            try {
+              driver.launchTasks(hostOffer.offer.getId(), assignments);
+              launched += assignments.size();
+            } catch (IllegalStateException e) {
+              throw new BatchLaunchException("Failed to launch tasks.", assignments, e);
+            }
+          } else {
+            offerRaces.incrementAndGet();
+            throw new BatchLaunchException(
+                "Accepted offer no longer exists in offer queue, likely data race.",
+                assignments);
+          }
+        }
+      }
+
+      return launched;
+    }
   }
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.async;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.inject.Inject;
+
+import com.google.common.collect.ImmutableList;
+import com.google.inject.BindingAnnotation;
+
+import com.twitter.common.base.Command;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.SlidingStats;
+import com.twitter.common.stats.Stats;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.PARAMETER;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Periodically preempts active tasks in favor of the tasks waiting in task groups.
+ * <p>
+ * Preemption runs on its own thread rather than on the task scheduling thread, so that searching
+ * for preemption slots in a saturated cluster does not delay scheduling attempts.  Each pass
+ * hands all pending tasks to the preemptor at once, grouped by task group, and the preemptor only
+ * acts on tasks that have been pending longer than the preemption delay.
+ */
+class PreemptionPass implements Command, Runnable {
+
+  private static final Logger LOG = Logger.getLogger(PreemptionPass.class.getName());
+
+  /**
+   * Binding annotation for the executor that preemption passes are run on.
+   */
+  @BindingAnnotation
+  @Target({ FIELD, PARAMETER, METHOD }) @Retention(RUNTIME)
+  @interface PreemptionExecutor { }
+
+  /**
+   * Binding annotation for the time interval between preemption passes.
+   */
+  @BindingAnnotation
+  @Target({ FIELD, PARAMETER, METHOD }) @Retention(RUNTIME)
+  @interface PreemptionInterval { }
+
+  private final SlidingStats passTiming = new SlidingStats("preemptor_pass", "nanos");
+  private final AtomicLong passTasks = Stats.exportLong("preemptor_pass_pending_tasks");
+  private final AtomicLong passTasksPreempted =
+      Stats.exportLong("preemptor_pass_pending_tasks_preempted");
+  private final AtomicLong passFailures = Stats.exportLong("preemptor_pass_failures");
+
+  private final ScheduledExecutorService executor;
+  private final Amount<Long, Time> interval;
+  private final TaskGroups taskGroups;
+  private final Preemptor preemptor;
+
+  @Inject
+  PreemptionPass(
+      @PreemptionExecutor ScheduledExecutorService executor,
+      @PreemptionInterval Amount<Long, Time> interval,
+      TaskGroups taskGroups,
+      Preemptor preemptor) {
+
+    this.executor = checkNotNull(executor);
+    this.interval = checkNotNull(interval);
+    this.taskGroups = checkNotNull(taskGroups);
+    this.preemptor = checkNotNull(preemptor);
+  }
+
+  @Override
+  public void execute() {
+    long intervalMs = interval.as(Time.MILLISECONDS);
+    executor.scheduleWithFixedDelay(this, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void run() {
+    // Exceptions are caught here since they would otherwise cancel subsequent passes.
+    try {
+      preempt();
+    } catch (RuntimeException e) {
+      LOG.log(Level.WARNING, "Preemption pass failed", e);
+      passFailures.incrementAndGet();
+    }
+  }
+
+  private void preempt() {
+    ImmutableList.Builder<Set<String>> builder = ImmutableList.builder();
+    int numTasks = 0;
+    for (TaskGroup group : taskGroups.getGroups()) {
+      Set<String> taskIds = group.getTaskIds();
+      if (!taskIds.isEmpty()) {
+        builder.add(taskIds);
+        numTasks += taskIds.size();
+      }
+    }
+
+    ImmutableList<Set<String>> groups = builder.build();
+    if (groups.isEmpty()) {
+      return;
+    }
+
+    long start = System.nanoTime();
+    Set<String> preempted = preemptor.preemptForGroups(groups);
+    passTiming.accumulate(System.nanoTime() - start);
+    passTasks.addAndGet(numTasks);
+    passTasksPreempted.addAndGet(preempted.size());
+  }
+}
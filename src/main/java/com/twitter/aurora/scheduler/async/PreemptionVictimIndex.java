@@ -0,0 +1,215 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.async;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
+import com.google.common.eventbus.Subscribe;
+
+import com.twitter.aurora.gen.ScheduleStatus;
+import com.twitter.aurora.scheduler.base.Query;
+import com.twitter.aurora.scheduler.base.Tasks;
+import com.twitter.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import com.twitter.aurora.scheduler.events.PubsubEvent.StorageStarted;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import com.twitter.aurora.scheduler.storage.Storage;
+import com.twitter.aurora.scheduler.storage.Storage.StoreProvider;
+import com.twitter.aurora.scheduler.storage.Storage.Work.Quiet;
+import com.twitter.aurora.scheduler.storage.entities.IAssignedTask;
+import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import static com.twitter.aurora.gen.ScheduleStatus.PENDING;
+import static com.twitter.aurora.gen.ScheduleStatus.PREEMPTING;
+
+/**
+ * Indexes the tasks that may be preempted by the slave they are assigned to, so that the
+ * preemptor does not need to fetch and sort every active task in the cluster for each pending
+ * task.
+ * <p>
+ * The index is loaded from storage the first time it is queried, and is kept up to date from task
+ * events after that.  Task configurations may be rewritten in place without a task event, so the
+ * index only holds the IDs of the candidates on each slave, and the candidates are read from
+ * storage and ordered when the slave is evaluated.
+ * <p>
+ * Storage reads are weakly consistent and are performed while holding this object's monitor,
+ * which is also taken by event handlers running inside storage writes.  This relies on weakly
+ * consistent reads not blocking on storage writes.
+ */
+class PreemptionVictimIndex implements EventSubscriber {
+
+  private static final Set<ScheduleStatus> CANDIDATE_STATES =
+      EnumSet.copyOf(Sets.difference(Tasks.ACTIVE_STATES, EnumSet.of(PENDING, PREEMPTING)));
+
+  @VisibleForTesting
+  static final Query.Builder CANDIDATE_QUERY = Query.statusScoped(CANDIDATE_STATES);
+
+  @VisibleForTesting
+  static Query.Builder victimQuery(Iterable<String> taskIds) {
+    return Query.taskScoped(taskIds).byStatus(CANDIDATE_STATES);
+  }
+
+  private static final Ordering<IAssignedTask> VICTIM_ORDER = Tasks.SCHEDULING_ORDER.reverse();
+
+  private final Storage storage;
+
+  // Null until the index is loaded.
+  @Nullable private Map<String, Set<String>> bySlave;
+  private final Map<String, String> slaveByTaskId = Maps.newHashMap();
+
+  @Inject
+  PreemptionVictimIndex(Storage storage) {
+    this.storage = checkNotNull(storage);
+  }
+
+  private Map<String, Set<String>> load() {
+    if (bySlave == null) {
+      bySlave = Maps.newHashMap();
+      Set<IScheduledTask> tasks = storage.weaklyConsistentRead(new Quiet<Set<IScheduledTask>>() {
+        @Override public Set<IScheduledTask> apply(StoreProvider storeProvider) {
+          return storeProvider.getTaskStore().fetchTasks(CANDIDATE_QUERY);
+        }
+      });
+      for (IScheduledTask task : tasks) {
+        add(task.getAssignedTask());
+      }
+    }
+    return bySlave;
+  }
+
+  private void add(IAssignedTask task) {
+    if (task.getSlaveId() == null) {
+      return;
+    }
+
+    remove(task.getTaskId());
+    slaveByTaskId.put(task.getTaskId(), task.getSlaveId());
+    Set<String> taskIds = bySlave.get(task.getSlaveId());
+    if (taskIds == null) {
+      taskIds = Sets.newHashSet();
+      bySlave.put(task.getSlaveId(), taskIds);
+    }
+    taskIds.add(task.getTaskId());
+  }
+
+  private void remove(String taskId) {
+    String slaveId = slaveByTaskId.remove(taskId);
+    if (slaveId != null) {
+      Set<String> taskIds = bySlave.get(slaveId);
+      taskIds.remove(taskId);
+      if (taskIds.isEmpty()) {
+        bySlave.remove(slaveId);
+      }
+    }
+  }
+
+  /**
+   * Gets the slaves that have tasks which may be preempted.
+   *
+   * @return IDs of slaves with preemption candidates.
+   */
+  synchronized Set<String> getSlaves() {
+    return ImmutableSet.copyOf(load().keySet());
+  }
+
+  /**
+   * Gets the tasks on a slave that may be preempted, in reverse scheduling order.  Tasks are read
+   * from storage, so that their configurations are current.
+   *
+   * @param slaveId Slave to get tasks for.
+   * @return Preemption candidates on the slave, which may be empty.
+   */
+  ImmutableList<IAssignedTask> getVictims(String slaveId) {
+    checkNotNull(slaveId);
+
+    final Set<String> taskIds;
+    synchronized (this) {
+      Set<String> victims = load().get(slaveId);
+      if (victims == null) {
+        return ImmutableList.of();
+      }
+      taskIds = ImmutableSet.copyOf(victims);
+    }
+
+    Set<IScheduledTask> tasks = storage.weaklyConsistentRead(new Quiet<Set<IScheduledTask>>() {
+      @Override public Set<IScheduledTask> apply(StoreProvider storeProvider) {
+        return storeProvider.getTaskStore().fetchTasks(victimQuery(taskIds));
+      }
+    });
+    return FluentIterable.from(tasks)
+        .transform(Tasks.SCHEDULED_TO_ASSIGNED)
+        .toSortedList(VICTIM_ORDER);
+  }
+
+  /**
+   * Indexes a task that became a preemption candidate, or drops a task that no longer is.
+   *
+   * @param change Task state change.
+   */
+  @Subscribe
+  public synchronized void taskChangedState(TaskStateChange change) {
+    if (bySlave == null) {
+      return;
+    }
+
+    if (CANDIDATE_STATES.contains(change.getNewState())) {
+      add(change.getTask().getAssignedTask());
+    } else {
+      remove(change.getTaskId());
+    }
+  }
+
+  /**
+   * Drops deleted tasks.
+   *
+   * @param deleted Deleted tasks.
+   */
+  @Subscribe
+  public synchronized void tasksDeleted(TasksDeleted deleted) {
+    if (bySlave == null) {
+      return;
+    }
+
+    for (IScheduledTask task : deleted.getTasks()) {
+      remove(Tasks.id(task));
+    }
+  }
+
+  /**
+   * Drops the index, since storage may have been populated without task events.
+   *
+   * @param started Storage start notification.
+   */
+  @Subscribe
+  public synchronized void storageStarted(StorageStarted started) {
+    bySlave = null;
+    slaveByTaskId.clear();
+  }
+}
@@ -17,9 +17,8 @@ package com.twitter.aurora.scheduler.async;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
-import java.util.Collections;
-import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
@@ -27,15 +26,17 @@ import java.util.logging.Logger;
 
 import javax.inject.Inject;
 
-import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.Ordering;
@@ -53,6 +54,7 @@ import com.twitter.aurora.scheduler.storage.entities.IAssignedTask;
 import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.StatImpl;
 import com.twitter.common.stats.Stats;
 import com.twitter.common.util.Clock;
 
@@ -66,7 +68,6 @@ import org.apache.mesos.Protos.Offer;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import static com.twitter.aurora.gen.ScheduleStatus.PENDING;
-import static com.twitter.aurora.gen.ScheduleStatus.PREEMPTING;
 import static com.twitter.aurora.scheduler.base.Tasks.SCHEDULED_TO_ASSIGNED;
 
 /**
@@ -82,6 +83,17 @@ public interface Preemptor {
    */
   Optional<String> findPreemptionSlotFor(String taskId);
 
+  /**
+   * Preempts active tasks in favor of groups of pending tasks.  All of the tasks are matched
+   * against a single view of the offers and active tasks in the cluster, and preemptions are
+   * issued once matching is complete.  Tasks in a group are expected to be equivalent for
+   * scheduling purposes, so matching stops for a group when one of its tasks does not fit.
+   *
+   * @param taskGroups IDs of pending tasks, grouped by task group.
+   * @return IDs of the pending tasks that slots were found for.
+   */
+  Set<String> preemptForGroups(Iterable<Set<String>> taskGroups);
+
   /**
    * A task preemptor that tries to find tasks that are waiting to be scheduled, which are of higher
    * priority than tasks that are currently running.
@@ -100,10 +112,6 @@ public interface Preemptor {
     @Target({ FIELD, PARAMETER, METHOD }) @Retention(RUNTIME)
     @interface PreemptionDelay { }
 
-    @VisibleForTesting
-    static final Query.Builder CANDIDATE_QUERY = Query.statusScoped(
-        EnumSet.copyOf(Sets.difference(Tasks.ACTIVE_STATES, EnumSet.of(PENDING, PREEMPTING))));
-
     private static final Logger LOG = Logger.getLogger(PreemptorImpl.class.getName());
 
     private static final Function<IAssignedTask, Integer> GET_PRIORITY =
@@ -115,10 +123,14 @@ public interface Preemptor {
 
     private final AtomicLong tasksPreempted = Stats.exportLong("preemptor_tasks_preempted");
     private final AtomicLong failedPreemptions = Stats.exportLong("preemptor_failed_preemptions");
-    // Incremented every time the preemptor is invoked and finds tasks pending and preemptable tasks
+    // Incremented for every pending task the preemptor tries to find a slot for.
     private final AtomicLong attemptedPreemptions = Stats.exportLong("preemptor_attempts");
     // Incremented every time we fail to find tasks to preempt for a pending task.
     private final AtomicLong noSlotsFound = Stats.exportLong("preemptor_no_slots_found");
+    // Incremented every time tasks are preempted to make room for a pending task.
+    private final AtomicLong slotsFound = Stats.exportLong("preemptor_slots_found");
+    // Incremented for every scheduling filter evaluation, as a measure of the cost of preemption.
+    private final AtomicLong filterEvaluations = Stats.exportLong("preemptor_filter_evaluations");
 
     private final Predicate<IScheduledTask> isIdleTask = new Predicate<IScheduledTask>() {
       @Override public boolean apply(IScheduledTask task) {
@@ -128,6 +140,7 @@ public interface Preemptor {
     };
 
     private final Storage storage;
+    private final PreemptionVictimIndex victimIndex;
     private final SchedulerCore scheduler;
     private final OfferQueue offerQueue;
     private final SchedulingFilter schedulingFilter;
@@ -138,6 +151,7 @@ public interface Preemptor {
      * Creates a new preemptor.
      *
      * @param storage Backing store for tasks.
+     * @param victimIndex Index of the tasks that may be preempted.
      * @param scheduler Scheduler to fetch task information from, and instruct when preempting
      *                  tasks.
      * @param offerQueue Queue that contains available Mesos resource offers.
@@ -149,6 +163,7 @@ public interface Preemptor {
     @Inject
     PreemptorImpl(
         Storage storage,
+        PreemptionVictimIndex victimIndex,
         SchedulerCore scheduler,
         OfferQueue offerQueue,
         SchedulingFilter schedulingFilter,
@@ -156,11 +171,19 @@ public interface Preemptor {
         Clock clock) {
 
       this.storage = checkNotNull(storage);
+      this.victimIndex = checkNotNull(victimIndex);
       this.scheduler = checkNotNull(scheduler);
       this.offerQueue = checkNotNull(offerQueue);
       this.schedulingFilter = checkNotNull(schedulingFilter);
       this.preemptionCandidacyDelay = checkNotNull(preemptionCandidacyDelay);
       this.clock = checkNotNull(clock);
+
+      Stats.export(new StatImpl<Double>("preemptor_victims_per_slot") {
+        @Override public Double read() {
+          long slots = slotsFound.get();
+          return (slots == 0) ? 0 : ((double) tasksPreempted.get()) / slots;
+        }
+      });
     }
 
     private List<IAssignedTask> fetch(Query.Builder query, Predicate<IScheduledTask> filter) {
@@ -169,17 +192,6 @@ public interface Preemptor {
           SCHEDULED_TO_ASSIGNED));
     }
 
-    private List<IAssignedTask> fetch(Query.Builder query) {
-      return fetch(query, Predicates.<IScheduledTask>alwaysTrue());
-    }
-
-    private static final Function<IAssignedTask, String> TASK_TO_SLAVE_ID =
-        new Function<IAssignedTask, String>() {
-          @Override public String apply(IAssignedTask input) {
-            return input.getSlaveId();
-          }
-        };
-
     private static final Function<IAssignedTask, String> TASK_TO_HOST =
         new Function<IAssignedTask, String>() {
           @Override public String apply(IAssignedTask input) {
@@ -221,6 +233,19 @@ public interface Preemptor {
     private static final Ordering<IAssignedTask> RESOURCE_ORDER =
         ResourceSlot.ORDER.onResultOf(TASK_TO_RESOURCES).reverse();
 
+    private Set<SchedulingFilter.Veto> filter(
+        ResourceSlot resources,
+        String host,
+        IAssignedTask pendingTask) {
+
+      filterEvaluations.incrementAndGet();
+      return schedulingFilter.filter(
+          resources,
+          host,
+          pendingTask.getTask(),
+          pendingTask.getTaskId());
+    }
+
     /**
      * Optional.absent indicates that this slave does not have enough resources to satisfy the task.
      * The empty set indicates the offers (slack) are enough.
@@ -243,11 +268,7 @@ public interface Preemptor {
           ResourceSlot.sum(Iterables.transform(offers, OFFER_TO_RESOURCE_SLOT));
 
       if (!Iterables.isEmpty(offers)) {
-        Set<SchedulingFilter.Veto> vetos = schedulingFilter.filter(
-            slackResources,
-            host,
-            pendingTask.getTask(),
-            pendingTask.getTaskId());
+        Set<SchedulingFilter.Veto> vetos = filter(slackResources, host, pendingTask);
 
         if (vetos.isEmpty()) {
           return Optional.<Set<IAssignedTask>>of(ImmutableSet.<IAssignedTask>of());
@@ -272,11 +293,7 @@ public interface Preemptor {
             ResourceSlot.sum(Iterables.transform(toPreemptTasks, TASK_TO_RESOURCES)),
             slackResources);
 
-        Set<SchedulingFilter.Veto> vetos = schedulingFilter.filter(
-            totalResource,
-            host,
-            pendingTask.getTask(),
-            pendingTask.getTaskId());
+        Set<SchedulingFilter.Veto> vetos = filter(totalResource, host, pendingTask);
 
         if (vetos.isEmpty()) {
           return Optional.<Set<IAssignedTask>>of(ImmutableSet.copyOf(toPreemptTasks));
@@ -292,71 +309,132 @@ public interface Preemptor {
           }
         };
 
-    private Multimap<String, IAssignedTask> getSlavesToActiveTasks() {
-      // Only non-pending active tasks may be preempted.
-      List<IAssignedTask> activeTasks = fetch(CANDIDATE_QUERY);
+    /**
+     * Tasks to preempt on a slave to make room for a pending task.
+     */
+    private static class Slot {
+      private final String slaveId;
+      private final IAssignedTask pendingTask;
+      private final Set<IAssignedTask> victims;
+
+      Slot(String slaveId, IAssignedTask pendingTask, Set<IAssignedTask> victims) {
+        this.slaveId = slaveId;
+        this.pendingTask = pendingTask;
+        this.victims = victims;
+      }
+    }
+
+    /**
+     * A view of the offers and preemption candidates in the cluster, taken once and shared by all
+     * pending tasks in a preemption pass.  A slave is claimed by the first pending task that fits
+     * on it, and is not considered for other tasks, since that task is expected to consume the
+     * slack and preempted resources on the slave.
+     */
+    private class SlotView {
+      // Group the offers by slave id so they can be paired with active tasks from the same slave.
+      private final Multimap<String, Offer> slavesToOffers =
+          Multimaps.index(offerQueue.getOffers(), OFFER_TO_SLAVE_ID);
+      private final Map<String, List<IAssignedTask>> slavesToVictims = Maps.newHashMap();
+      private final Set<String> unclaimedSlaves;
 
-      // Walk through the preemption candidates in reverse scheduling order.
-      Collections.sort(activeTasks, Tasks.SCHEDULING_ORDER.reverse());
+      SlotView(Set<String> slavesWithActiveTasks) {
+        unclaimedSlaves = Sets.newLinkedHashSet(
+            Iterables.concat(slavesToOffers.keySet(), slavesWithActiveTasks));
+      }
 
-      // Group the tasks by slave id so they can be paired with offers from the same slave.
-      return Multimaps.index(activeTasks, TASK_TO_SLAVE_ID);
+      private List<IAssignedTask> getVictims(String slaveId) {
+        List<IAssignedTask> victims = slavesToVictims.get(slaveId);
+        if (victims == null) {
+          victims = victimIndex.getVictims(slaveId);
+          slavesToVictims.put(slaveId, victims);
+        }
+        return victims;
+      }
+
+      Optional<Slot> claimSlotFor(IAssignedTask pendingTask) {
+        for (String slaveId : unclaimedSlaves) {
+          Optional<Set<IAssignedTask>> toPreemptTasks = getTasksToPreempt(
+              getVictims(slaveId),
+              slavesToOffers.get(slaveId),
+              pendingTask);
+
+          if (toPreemptTasks.isPresent()) {
+            unclaimedSlaves.remove(slaveId);
+            return Optional.of(new Slot(slaveId, pendingTask, toPreemptTasks.get()));
+          }
+        }
+        return Optional.absent();
+      }
     }
 
-    // TODO(zmanji): Add throttling to prevent how much preemption a single task can cause over
-    // time.
-    // TODO(zmanji): Get the offer queue to associate a slave with a pending task.
     @Override
     public synchronized Optional<String> findPreemptionSlotFor(String taskId) {
-      List<IAssignedTask> pendingTasks =
-          fetch(Query.statusScoped(PENDING).byId(taskId), isIdleTask);
+      Map<String, String> slaves =
+          preempt(ImmutableList.<Set<String>>of(ImmutableSet.of(taskId)));
+      return Optional.fromNullable(slaves.get(taskId));
+    }
+
+    @Override
+    public synchronized Set<String> preemptForGroups(Iterable<Set<String>> taskGroups) {
+      return preempt(taskGroups).keySet();
+    }
+
+    // TODO(zmanji): Add throttling to prevent how much preemption a single task can cause over
+    // time.
+    private Map<String, String> preempt(Iterable<Set<String>> taskGroups) {
+      Map<String, IAssignedTask> pendingTasks = Maps.uniqueIndex(
+          fetch(Query.statusScoped(PENDING).byId(Iterables.concat(taskGroups)), isIdleTask),
+          Tasks.ASSIGNED_TO_ID);
 
-      // Task is no longer PENDING no need to preempt
+      // Tasks are no longer PENDING no need to preempt
       if (pendingTasks.isEmpty()) {
-        return Optional.absent();
+        return ImmutableMap.of();
       }
 
-      IAssignedTask pendingTask = Iterables.getOnlyElement(pendingTasks);
-
-      Multimap<String, IAssignedTask> slavesToActiveTasks = getSlavesToActiveTasks();
+      Set<String> slavesWithActiveTasks = victimIndex.getSlaves();
 
-      if (slavesToActiveTasks.isEmpty()) {
-        return Optional.absent();
+      if (slavesWithActiveTasks.isEmpty()) {
+        return ImmutableMap.of();
       }
 
-      attemptedPreemptions.incrementAndGet();
-
-      // Group the offers by slave id so they can be paired with active tasks from the same slave.
-      Multimap<String, Offer> slavesToOffers =
-          Multimaps.index(offerQueue.getOffers(), OFFER_TO_SLAVE_ID);
+      SlotView view = new SlotView(slavesWithActiveTasks);
+      List<Slot> slots = Lists.newArrayList();
+      for (Set<String> group : taskGroups) {
+        for (String taskId : group) {
+          IAssignedTask pendingTask = pendingTasks.get(taskId);
+          if (pendingTask == null) {
+            continue;
+          }
 
-      Set<String> allSlaves = ImmutableSet.<String>builder()
-          .addAll(slavesToOffers.keySet())
-          .addAll(slavesToActiveTasks.keySet())
-          .build();
-
-      for (String slaveID : allSlaves) {
-        Optional<Set<IAssignedTask>> toPreemptTasks = getTasksToPreempt(
-            slavesToActiveTasks.get(slaveID),
-            slavesToOffers.get(slaveID),
-            pendingTask);
-
-        if (toPreemptTasks.isPresent()) {
-          try {
-            for (IAssignedTask toPreempt : toPreemptTasks.get()) {
-              scheduler.preemptTask(toPreempt, pendingTask);
-              tasksPreempted.incrementAndGet();
-            }
-            return Optional.of(slaveID);
-          } catch (ScheduleException e) {
-            LOG.log(Level.SEVERE, "Preemption failed", e);
-            failedPreemptions.incrementAndGet();
+          attemptedPreemptions.incrementAndGet();
+          Optional<Slot> slot = view.claimSlotFor(pendingTask);
+          if (slot.isPresent()) {
+            slots.add(slot.get());
+          } else {
+            noSlotsFound.incrementAndGet();
+            // The remaining tasks in the group are equivalent, so they will not fit either.
+            break;
           }
         }
       }
 
-      noSlotsFound.incrementAndGet();
-      return Optional.absent();
+      Map<String, String> preempted = Maps.newHashMap();
+      for (Slot slot : slots) {
+        try {
+          for (IAssignedTask toPreempt : slot.victims) {
+            scheduler.preemptTask(toPreempt, slot.pendingTask);
+            tasksPreempted.incrementAndGet();
+          }
+          if (!slot.victims.isEmpty()) {
+            slotsFound.incrementAndGet();
+          }
+          preempted.put(slot.pendingTask.getTaskId(), slot.slaveId);
+        } catch (ScheduleException e) {
+          LOG.log(Level.SEVERE, "Preemption failed", e);
+          failedPreemptions.incrementAndGet();
+        }
+      }
+      return preempted;
     }
 
     private static final Predicate<IAssignedTask> IS_PRODUCTION =
@@ -15,16 +15,19 @@
  */
 package com.twitter.aurora.scheduler.async;
 
-import java.util.Queue;
+import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
-import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.atomic.AtomicLong;
 
+import javax.annotation.Nullable;
+
 import com.google.common.base.Preconditions;
-import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
 
 import com.twitter.aurora.scheduler.async.TaskGroups.GroupKey;
 import com.twitter.common.base.Function;
@@ -32,6 +35,11 @@ import com.twitter.common.util.BackoffStrategy;
 
 /**
  * A group of task IDs that are eligible for scheduling, but may be waiting for a backoff to expire.
+ * <p>
+ * Tasks are kept in the order they are ready to be scheduled, and are indexed by ID so that
+ * removing a task does not require a scan of the group.  A snapshot of the task IDs is kept until
+ * the tasks change, so that repeatedly reading an unchanged group does not copy it or block
+ * scheduling.
  */
 class TaskGroup {
   private final GroupKey key;
@@ -43,10 +51,24 @@ class TaskGroup {
     }
   };
 
-  // Order the tasks by the time they are ready to be scheduled
-  private static final Ordering<Task> TASK_ORDERING = Ordering.natural().onResultOf(TO_TIMESTAMP);
-  // 11 is the magic number used by PriorityBlockingQueue as the initial size.
-  private final Queue<Task> tasks = new PriorityBlockingQueue<>(11, TASK_ORDERING);
+  private static final Function<Task, String> TO_TASK_ID =
+      new Function<Task, String>() {
+        @Override public String apply(Task item) {
+          return item.taskId;
+        }
+      };
+
+  // Order the tasks by the time they are ready to be scheduled, and then by ID so that distinct
+  // tasks never compare as equal.
+  private static final Ordering<Task> TASK_ORDERING = Ordering.natural().onResultOf(TO_TIMESTAMP)
+      .compound(Ordering.natural().onResultOf(TO_TASK_ID));
+
+  // Guarded by this object's monitor.  Both collections always hold the same tasks.
+  private final NavigableSet<Task> tasks = Sets.newTreeSet(TASK_ORDERING);
+  private final Map<String, Task> tasksById = Maps.newHashMap();
+  // Task IDs in ready order, or null if the tasks changed since the snapshot was taken.  Cleared
+  // while holding this object's monitor.
+  @Nullable private volatile ImmutableSet<String> taskIdsSnapshot = ImmutableSet.of();
   // Penalty for the task group for failing to schedule.
   private final AtomicLong penaltyMs;
 
@@ -61,31 +83,71 @@ class TaskGroup {
     return key;
   }
 
-  private static final Function<Task, String> TO_TASK_ID =
-      new Function<Task, String>() {
-        @Override public String apply(Task item) {
-          return item.taskId;
-        }
-      };
-
   /**
    * Removes the task at the head of the queue.
    *
    * @return String the id of the head task.
    * @throws IllegalStateException if the queue is empty.
    */
-  String pop() throws IllegalStateException {
-    Task head = tasks.poll();
+  synchronized String pop() throws IllegalStateException {
+    Task head = tasks.pollFirst();
     Preconditions.checkState(head != null);
+    tasksById.remove(head.taskId);
+    taskIdsSnapshot = null;
     return head.taskId;
   }
 
-  void remove(String taskId) {
-    Iterables.removeIf(tasks, Predicates.compose(Predicates.equalTo(taskId), TO_TASK_ID));
+  /**
+   * Removes up to {@code maxTasks} tasks from the head of the queue that are ready to be scheduled.
+   *
+   * @param maxTasks Maximum number of tasks to remove.
+   * @param nowMs The current time, used to determine whether a task is ready.
+   * @return The ids of the removed tasks, in the order they became ready.
+   */
+  synchronized Set<String> pop(int maxTasks, long nowMs) {
+    Preconditions.checkArgument(maxTasks > 0);
+
+    ImmutableSet.Builder<String> ready = ImmutableSet.builder();
+    for (int i = 0; i < maxTasks; i++) {
+      if (tasks.isEmpty() || (tasks.first().readyTimestampMs > nowMs)) {
+        break;
+      }
+      Task head = tasks.pollFirst();
+      tasksById.remove(head.taskId);
+      taskIdsSnapshot = null;
+      ready.add(head.taskId);
+    }
+    return ready.build();
   }
 
-  void push(final String taskId, long readyTimestamp) {
-    tasks.offer(new Task(taskId, readyTimestamp));
+  synchronized void remove(String taskId) {
+    Task task = tasksById.remove(taskId);
+    if (task != null) {
+      tasks.remove(task);
+      taskIdsSnapshot = null;
+    }
+  }
+
+  /**
+   * Adds a task to the group, replacing the task's ready time if it is already in the group.
+   *
+   * @param taskId Task to add.
+   * @param readyTimestamp Time at which the task is ready to be scheduled.
+   */
+  synchronized void push(final String taskId, long readyTimestamp) {
+    remove(taskId);
+    Task task = new Task(taskId, readyTimestamp);
+    tasks.add(task);
+    tasksById.put(taskId, task);
+    taskIdsSnapshot = null;
+  }
+
+  synchronized boolean isEmpty() {
+    return tasksById.isEmpty();
+  }
+
+  synchronized int size() {
+    return tasksById.size();
   }
 
   synchronized long resetPenaltyAndGet() {
@@ -98,13 +160,12 @@ class TaskGroup {
     return getPenaltyMs();
   }
 
-  GroupState isReady(long nowMs) {
-    Task task = tasks.peek();
-    if (task == null) {
+  synchronized GroupState isReady(long nowMs) {
+    if (tasks.isEmpty()) {
       return GroupState.EMPTY;
     }
 
-    if (task.readyTimestampMs > nowMs) {
+    if (tasks.first().readyTimestampMs > nowMs) {
       return GroupState.NOT_READY;
     }
     return GroupState.READY;
@@ -116,8 +177,19 @@ class TaskGroup {
   }
 
   // TODO(zmanji): Return Task instances here. Can use them to display flapping penalty on web UI.
+  // Returns a snapshot, in the order the tasks are ready to be scheduled.
   public Set<String> getTaskIds() {
-    return ImmutableSet.copyOf(Iterables.transform(tasks, TO_TASK_ID));
+    ImmutableSet<String> snapshot = taskIdsSnapshot;
+    if (snapshot == null) {
+      synchronized (this) {
+        snapshot = taskIdsSnapshot;
+        if (snapshot == null) {
+          snapshot = ImmutableSet.copyOf(Iterables.transform(tasks, TO_TASK_ID));
+          taskIdsSnapshot = snapshot;
+        }
+      }
+    }
+    return snapshot;
   }
 
   public long getPenaltyMs() {
@@ -15,9 +15,18 @@
  */
 package com.twitter.aurora.scheduler.async;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import javax.inject.Inject;
@@ -28,14 +37,19 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.eventbus.Subscribe;
 import com.google.common.util.concurrent.RateLimiter;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import com.twitter.aurora.scheduler.ResourceSlot;
 import com.twitter.aurora.scheduler.base.JobKeys;
 import com.twitter.aurora.scheduler.base.Query;
 import com.twitter.aurora.scheduler.base.Tasks;
 import com.twitter.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import com.twitter.aurora.scheduler.events.PubsubEvent.OfferAvailable;
 import com.twitter.aurora.scheduler.events.PubsubEvent.StorageStarted;
 import com.twitter.aurora.scheduler.events.PubsubEvent.TaskStateChange;
 import com.twitter.aurora.scheduler.events.PubsubEvent.TasksDeleted;
@@ -52,6 +66,7 @@ import com.twitter.common.util.BackoffStrategy;
 import com.twitter.common.util.Clock;
 import com.twitter.common.util.concurrent.ExecutorServiceShutdown;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import static com.twitter.aurora.gen.ScheduleStatus.PENDING;
@@ -72,17 +87,42 @@ public class TaskGroups implements EventSubscriber {
 
   private final Storage storage;
   private final LoadingCache<GroupKey, TaskGroup> groups;
+  private final ConcurrentMap<GroupKey, GroupMonitor> monitors = Maps.newConcurrentMap();
+  private final Set<GroupMonitor> wakeableMonitors =
+      Collections.newSetFromMap(Maps.<GroupMonitor, Boolean>newConcurrentMap());
+  private final ScheduledExecutorService executor;
+  private final Queue<ResourceSlot> availableOffers = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean wakePassScheduled = new AtomicBoolean(false);
+  private final AtomicLong groupWakeups = Stats.exportLong("task_group_wakeups");
   private final Clock clock;
   private final RescheduleCalculator rescheduleCalculator;
-  private final Preemptor preemptor;
 
   static class TaskGroupsSettings {
     private final BackoffStrategy taskGroupBackoff;
     private final RateLimiter rateLimiter;
+    private final int batchSize;
+    private final int schedulingThreads;
 
     TaskGroupsSettings(BackoffStrategy taskGroupBackoff, RateLimiter rateLimiter) {
+      this(taskGroupBackoff, rateLimiter, 1);
+    }
+
+    TaskGroupsSettings(BackoffStrategy taskGroupBackoff, RateLimiter rateLimiter, int batchSize) {
+      this(taskGroupBackoff, rateLimiter, batchSize, 1);
+    }
+
+    TaskGroupsSettings(
+        BackoffStrategy taskGroupBackoff,
+        RateLimiter rateLimiter,
+        int batchSize,
+        int schedulingThreads) {
+
       this.taskGroupBackoff = checkNotNull(taskGroupBackoff);
       this.rateLimiter = checkNotNull(rateLimiter);
+      checkArgument(batchSize > 0);
+      this.batchSize = batchSize;
+      checkArgument(schedulingThreads > 0);
+      this.schedulingThreads = schedulingThreads;
     }
   }
 
@@ -93,18 +133,37 @@ public class TaskGroups implements EventSubscriber {
       TaskGroupsSettings settings,
       SchedulingAction schedulingAction,
       Clock clock,
-      RescheduleCalculator rescheduleCalculator,
-      Preemptor preemptor) {
+      RescheduleCalculator rescheduleCalculator) {
 
     this(
-        createThreadPool(shutdownRegistry),
+        createThreadPool(shutdownRegistry, settings.schedulingThreads),
         storage,
         settings.taskGroupBackoff,
         settings.rateLimiter,
+        settings.batchSize,
         schedulingAction,
         clock,
-        rescheduleCalculator,
-        preemptor);
+        rescheduleCalculator);
+  }
+
+  TaskGroups(
+      ScheduledExecutorService executor,
+      Storage storage,
+      BackoffStrategy taskGroupBackoffStrategy,
+      RateLimiter rateLimiter,
+      SchedulingAction schedulingAction,
+      Clock clock,
+      RescheduleCalculator rescheduleCalculator) {
+
+    this(
+        executor,
+        storage,
+        taskGroupBackoffStrategy,
+        rateLimiter,
+        1,
+        schedulingAction,
+        clock,
+        rescheduleCalculator);
   }
 
   TaskGroups(
@@ -112,90 +171,228 @@ public class TaskGroups implements EventSubscriber {
       final Storage storage,
       final BackoffStrategy taskGroupBackoffStrategy,
       final RateLimiter rateLimiter,
+      final int batchSize,
       final SchedulingAction schedulingAction,
       final Clock clock,
-      final RescheduleCalculator rescheduleCalculator,
-      final Preemptor preemptor) {
+      final RescheduleCalculator rescheduleCalculator) {
 
     this.storage = checkNotNull(storage);
-    checkNotNull(executor);
+    this.executor = checkNotNull(executor);
     checkNotNull(taskGroupBackoffStrategy);
     checkNotNull(rateLimiter);
+    checkArgument(batchSize > 0);
     checkNotNull(schedulingAction);
     this.clock = checkNotNull(clock);
     this.rescheduleCalculator = checkNotNull(rescheduleCalculator);
-    this.preemptor = checkNotNull(preemptor);
 
     final SchedulingAction rateLimitedAction = new SchedulingAction() {
       @Override public boolean schedule(String taskId) {
         rateLimiter.acquire();
         return schedulingAction.schedule(taskId);
       }
+
+      @Override public Set<String> scheduleBatch(Set<String> taskIds) {
+        rateLimiter.acquire();
+        return schedulingAction.scheduleBatch(taskIds);
+      }
     };
 
     groups = CacheBuilder.newBuilder().build(new CacheLoader<GroupKey, TaskGroup>() {
       @Override public TaskGroup load(GroupKey key) {
         TaskGroup group = new TaskGroup(key, taskGroupBackoffStrategy);
         LOG.info("Evaluating group " + key + " in " + group.getPenaltyMs() + " ms");
-        startGroup(group, executor, rateLimitedAction);
+        GroupMonitor monitor = new GroupMonitor(group, executor, rateLimitedAction, batchSize);
+        monitors.put(key, monitor);
+        monitor.evaluateIn(group.getPenaltyMs(), false);
         return group;
       }
     });
   }
 
-  private synchronized boolean maybeInvalidate(TaskGroup group) {
-    if (group.getTaskIds().isEmpty()) {
+  private synchronized boolean maybeInvalidate(GroupMonitor monitor) {
+    TaskGroup group = monitor.group;
+    if (group.isEmpty()) {
       groups.invalidate(group.getKey());
+      monitors.remove(group.getKey(), monitor);
+      wakeableMonitors.remove(monitor);
       return true;
     }
     return false;
   }
 
-  private void startGroup(
-      final TaskGroup group,
-      final ScheduledExecutorService executor,
-      final SchedulingAction action) {
+  /**
+   * Evaluates a task group on the scheduling executor.  At most one evaluation of a group is
+   * pending or running at any time.
+   * <p>
+   * A group that failed to schedule on its regular evaluation may be woken once before its backoff
+   * expires, when an offer that could hold its tasks becomes available.  A woken group that still
+   * fails to schedule continues to back off, and is not woken again until its next regular
+   * evaluation fails.
+   */
+  private class GroupMonitor {
+    private final TaskGroup group;
+    private final ScheduledExecutorService executor;
+    private final SchedulingAction action;
+    private final int batchSize;
+    private final ResourceSlot required;
+
+    // Guarded by this monitor.  The pending evaluation is null while an evaluation is running.
+    private ScheduledFuture<?> evaluation;
+    private long generation;
+    private boolean wakeable;
+    private boolean woken;
+
+    GroupMonitor(
+        TaskGroup group,
+        ScheduledExecutorService executor,
+        SchedulingAction action,
+        int batchSize) {
+
+      this.group = group;
+      this.executor = executor;
+      this.action = action;
+      this.batchSize = batchSize;
+      this.required = ResourceSlot.from(group.getKey().canonicalTask);
+    }
+
+    synchronized void evaluateIn(long delayMs, boolean backingOff) {
+      final long scheduledGeneration = ++generation;
+      wakeable = backingOff;
+      if (backingOff) {
+        wakeableMonitors.add(this);
+      } else {
+        wakeableMonitors.remove(this);
+      }
+      evaluation = executor.schedule(
+          new Runnable() {
+            @Override public void run() {
+              if (begin(scheduledGeneration)) {
+                evaluate();
+              }
+            }
+          },
+          delayMs,
+          TimeUnit.MILLISECONDS);
+    }
+
+    private boolean fitsAny(Iterable<ResourceSlot> available) {
+      for (ResourceSlot resources : available) {
+        if (resources.greaterThanOrEqual(required)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Evaluates the group immediately if it is backing off, its next task is ready, and any of
+     * {@code available} could hold the group's tasks.
+     *
+     * @param available Resources of offers that became available.
+     * @param nowMs The current time, used to determine whether a task is ready.
+     * @return {@code true} if the group was woken.
+     */
+    synchronized boolean wake(Iterable<ResourceSlot> available, long nowMs) {
+      if (!wakeable
+          || (evaluation == null)
+          || !fitsAny(available)
+          || (group.isReady(nowMs) != GroupState.READY)) {
+
+        return false;
+      }
+
+      // The cancelled evaluation may already be starting, in which case it is discarded by
+      // begin() since its generation is stale.
+      evaluation.cancel(false);
+      woken = true;
+      evaluateIn(0, false);
+      return true;
+    }
 
-    Runnable monitor = new Runnable() {
-      @Override public void run() {
-        GroupState state = group.isReady(clock.nowMillis());
+    private synchronized boolean begin(long scheduledGeneration) {
+      if (scheduledGeneration != generation) {
+        return false;
+      }
+      evaluation = null;
+      return true;
+    }
 
-        switch (state) {
-          case EMPTY:
-            maybeInvalidate(group);
-            break;
+    private synchronized boolean takeWoken() {
+      boolean wasWoken = woken;
+      woken = false;
+      return wasWoken;
+    }
+
+    private void evaluate() {
+      boolean wasWoken = takeWoken();
+      GroupState state = group.isReady(clock.nowMillis());
+
+      switch (state) {
+        case EMPTY:
+          maybeInvalidate(this);
+          break;
 
-          case READY:
+        case READY:
+          if (batchSize == 1) {
             String id = group.pop();
             if (action.schedule(id)) {
-              if (!maybeInvalidate(group)) {
-                executor.schedule(this, group.resetPenaltyAndGet(), TimeUnit.MILLISECONDS);
+              if (!maybeInvalidate(this)) {
+                evaluateIn(group.resetPenaltyAndGet(), false);
               }
             } else {
               group.push(id, clock.nowMillis());
-              executor.schedule(this, group.penalizeAndGet(), TimeUnit.MILLISECONDS);
-              // TODO(zmanji): Use the return value in a slave <-> task matching manner
-              preemptor.findPreemptionSlotFor(id);
+              evaluateIn(group.penalizeAndGet(), !wasWoken);
             }
-            break;
+          } else {
+            scheduleBatch(group.pop(batchSize, clock.nowMillis()), wasWoken);
+          }
+          break;
 
-          case NOT_READY:
-            executor.schedule(this, group.getPenaltyMs(), TimeUnit.MILLISECONDS);
-            break;
+        case NOT_READY:
+          evaluateIn(group.getPenaltyMs(), false);
+          break;
 
-          default:
-            throw new IllegalStateException("Unknown GroupState " + state);
+        default:
+          throw new IllegalStateException("Unknown GroupState " + state);
+      }
+    }
+
+    private void scheduleBatch(Set<String> ids, boolean wasWoken) {
+      if (ids.isEmpty()) {
+        // The ready tasks were removed concurrently.
+        if (!maybeInvalidate(this)) {
+          evaluateIn(group.getPenaltyMs(), false);
         }
+        return;
       }
-    };
-    executor.schedule(monitor, group.getPenaltyMs(), TimeUnit.MILLISECONDS);
+
+      Set<String> scheduled = action.scheduleBatch(ids);
+      Set<String> unscheduled = ImmutableSet.copyOf(Sets.difference(ids, scheduled));
+      for (String id : unscheduled) {
+        group.push(id, clock.nowMillis());
+      }
+
+      if (!scheduled.isEmpty()) {
+        // Progress was made, so any remaining tasks are retried without backing off further.
+        if (!maybeInvalidate(this)) {
+          evaluateIn(group.resetPenaltyAndGet(), false);
+        }
+      } else {
+        evaluateIn(group.penalizeAndGet(), !wasWoken);
+      }
+    }
   }
 
-  private static ScheduledExecutorService createThreadPool(ShutdownRegistry shutdownRegistry) {
+  private static ScheduledExecutorService createThreadPool(
+      ShutdownRegistry shutdownRegistry,
+      int threads) {
+
     // TODO(William Farner): Leverage ExceptionHandlingScheduledExecutorService:
     // com.twitter.common.util.concurrent.ExceptionHandlingScheduledExecutorService
+    // Each task group is evaluated by a single task on this executor at any time, so additional
+    // threads evaluate different task groups in parallel.
     final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
-        1,
+        threads,
         new ThreadFactoryBuilder().setDaemon(true).setNameFormat("TaskScheduler-%d").build());
     Stats.exportSize("schedule_queue_size", executor.getQueue());
     shutdownRegistry.addAction(new Command() {
@@ -260,6 +457,48 @@ public class TaskGroups implements EventSubscriber {
     }
   }
 
+  /**
+   * Wakes task groups that are backing off after failing to schedule, if the newly-available
+   * offer could hold their tasks.
+   * <p>
+   * Groups are woken on the scheduling executor rather than on the thread that posted the event.
+   * Offers that become available before a pending wake pass runs are handled together by that
+   * pass, which only visits groups that are backing off.
+   *
+   * @param event Offer available notification.
+   */
+  @Subscribe
+  public void offerAvailable(OfferAvailable event) {
+    availableOffers.add(event.getResources());
+    if (wakePassScheduled.compareAndSet(false, true)) {
+      executor.execute(wakePass);
+    }
+  }
+
+  private final Runnable wakePass = new Runnable() {
+    @Override public void run() {
+      // Cleared before draining, so that an offer added after the drain schedules another pass.
+      wakePassScheduled.set(false);
+      List<ResourceSlot> available = Lists.newArrayList();
+      for (ResourceSlot resources = availableOffers.poll();
+           resources != null;
+           resources = availableOffers.poll()) {
+
+        available.add(resources);
+      }
+      if (available.isEmpty()) {
+        return;
+      }
+
+      long nowMs = clock.nowMillis();
+      for (GroupMonitor monitor : wakeableMonitors) {
+        if (monitor.wake(available, nowMs)) {
+          groupWakeups.incrementAndGet();
+        }
+      }
+    }
+  };
+
   public Iterable<TaskGroup> getGroups() {
     return ImmutableSet.copyOf(groups.asMap().values());
   }
@@ -299,5 +538,14 @@ public class TaskGroups implements EventSubscriber {
      * @return {@code true} if the task was scheduled, {@code false} otherwise.
      */
     boolean schedule(String taskId);
+
+    /**
+     * Attempts to schedule a batch of tasks, possibly performing irreversible actions.  All tasks
+     * in a batch are expected to belong to the same task group.
+     *
+     * @param taskIds The tasks to attempt to schedule.
+     * @return The IDs of tasks that were scheduled or no longer need to be scheduled.
+     */
+    Set<String> scheduleBatch(Set<String> taskIds);
   }
 }
@@ -15,6 +15,10 @@
  */
 package com.twitter.aurora.scheduler.async;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -24,19 +28,28 @@ import javax.inject.Inject;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
 
 import org.apache.mesos.Protos.Offer;
 import org.apache.mesos.Protos.TaskInfo;
 
+import com.twitter.aurora.scheduler.ResourceSlot;
 import com.twitter.aurora.scheduler.async.TaskGroups.SchedulingAction;
 import com.twitter.aurora.scheduler.base.Query;
+import com.twitter.aurora.scheduler.base.Tasks;
+import com.twitter.aurora.scheduler.configuration.Resources;
+import com.twitter.aurora.scheduler.filter.SchedulingFilter;
+import com.twitter.aurora.scheduler.filter.SchedulingFilter.Veto;
 import com.twitter.aurora.scheduler.state.StateManager;
 import com.twitter.aurora.scheduler.state.TaskAssigner;
 import com.twitter.aurora.scheduler.storage.Storage;
 import com.twitter.aurora.scheduler.storage.Storage.MutableStoreProvider;
 import com.twitter.aurora.scheduler.storage.Storage.MutateWork;
 import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
 import com.twitter.common.inject.TimedInterceptor.Timed;
 import com.twitter.common.stats.Stats;
 
@@ -47,7 +60,7 @@ import static com.twitter.aurora.gen.ScheduleStatus.PENDING;
 
 /**
  * An asynchronous task scheduler.  Scheduling of tasks is performed on a delay, where each task
- * backs off after a failed scheduling attempt.
+ * backs off after a failed scheduling attempt.  Scheduling attempts may be made concurrently.
  * <p>
  * Pending tasks are advertised to the scheduler via internal pubsub notifications.
  */
@@ -58,21 +71,25 @@ class TaskScheduler implements SchedulingAction {
   private final Storage storage;
   private final StateManager stateManager;
   private final TaskAssigner assigner;
+  private final SchedulingFilter filter;
   private final OfferQueue offerQueue;
 
   private final AtomicLong scheduleAttemptsFired = Stats.exportLong("schedule_attempts_fired");
   private final AtomicLong scheduleAttemptsFailed = Stats.exportLong("schedule_attempts_failed");
+  private final AtomicLong batchTasksLaunched = Stats.exportLong("schedule_batch_tasks_launched");
 
   @Inject
   TaskScheduler(
       Storage storage,
       StateManager stateManager,
       TaskAssigner assigner,
+      SchedulingFilter filter,
       OfferQueue offerQueue) {
 
     this.storage = checkNotNull(storage);
     this.stateManager = checkNotNull(stateManager);
     this.assigner = checkNotNull(assigner);
+    this.filter = checkNotNull(filter);
     this.offerQueue = checkNotNull(offerQueue);
   }
 
@@ -85,41 +102,59 @@ class TaskScheduler implements SchedulingAction {
   public boolean schedule(final String taskId) {
     scheduleAttemptsFired.incrementAndGet();
     try {
-      return storage.write(new MutateWork.Quiet<Boolean>() {
-        @Override public Boolean apply(MutableStoreProvider store) {
-          LOG.fine("Attempting to schedule task " + taskId);
-          Query.Builder pendingTaskQuery = Query.taskScoped(taskId).byStatus(PENDING);
-          final IScheduledTask task =
-              Iterables.getOnlyElement(store.getTaskStore().fetchTasks(pendingTaskQuery), null);
-          if (task == null) {
-            LOG.warning("Failed to look up task " + taskId + ", it may have been deleted.");
-          } else {
-            Function<Offer, Optional<TaskInfo>> assignment =
-                new Function<Offer, Optional<TaskInfo>>() {
-                  @Override public Optional<TaskInfo> apply(Offer offer) {
-                    return assigner.maybeAssign(offer, task);
-                  }
-                };
-            try {
-              if (!offerQueue.launchFirst(assignment)) {
-                // Task could not be scheduled.
-                return false;
+      LOG.fine("Attempting to schedule task " + taskId);
+      final Query.Builder pendingTaskQuery = Query.taskScoped(taskId).byStatus(PENDING);
+      final IScheduledTask task = Iterables.getOnlyElement(
+          Storage.Util.consistentFetchTasks(storage, pendingTaskQuery), null);
+      if (task == null) {
+        LOG.warning("Failed to look up task " + taskId + ", it may have been deleted.");
+        return true;
+      }
+
+      // Offers are evaluated outside of a storage write, so that scheduling attempts on other
+      // threads may evaluate offers at the same time.  Only an offer that passes the filter is
+      // assigned in a write, which checks the offer against the latest state of the task.
+      final ITaskConfig config = task.getAssignedTask().getTask();
+      Function<Offer, Optional<TaskInfo>> assignment = new Function<Offer, Optional<TaskInfo>>() {
+        @Override public Optional<TaskInfo> apply(final Offer offer) {
+          Set<Veto> vetoes =
+              filter.filter(ResourceSlot.from(offer), offer.getHostname(), config, taskId);
+          if (!vetoes.isEmpty()) {
+            return Optional.absent();
+          }
+
+          return storage.write(new MutateWork.Quiet<Optional<TaskInfo>>() {
+            @Override public Optional<TaskInfo> apply(MutableStoreProvider store) {
+              IScheduledTask current = Iterables.getOnlyElement(
+                  store.getTaskStore().fetchTasks(pendingTaskQuery), null);
+              if (current == null) {
+                // The task was scheduled by another attempt or changed state.
+                return Optional.absent();
               }
-            } catch (OfferQueue.LaunchException e) {
-              LOG.log(Level.WARNING, "Failed to launch task.", e);
-              scheduleAttemptsFailed.incrementAndGet();
-
-              // The attempt to schedule the task failed, so we need to backpedal on the assignment.
-              // It is in the LOST state and a new task will move to PENDING to replace it.
-              // Should the state change fail due to storage issues, that's okay.  The task will
-              // time out in the ASSIGNED state and be moved to LOST.
-              stateManager.changeState(pendingTaskQuery, LOST, LAUNCH_FAILED_MSG);
+              return assigner.maybeAssign(offer, current);
             }
-          }
+          });
+        }
+      };
 
-          return true;
+      try {
+        ResourceSlot required = ResourceSlot.from(config);
+        if (!offerQueue.launchFirst(required, assignment)) {
+          // Task could not be scheduled.
+          return false;
         }
-      });
+      } catch (OfferQueue.LaunchException e) {
+        LOG.log(Level.WARNING, "Failed to launch task.", e);
+        scheduleAttemptsFailed.incrementAndGet();
+
+        // The attempt to schedule the task failed, so we need to backpedal on the assignment.
+        // It is in the LOST state and a new task will move to PENDING to replace it.
+        // Should the state change fail due to storage issues, that's okay.  The task will
+        // time out in the ASSIGNED state and be moved to LOST.
+        stateManager.changeState(pendingTaskQuery, LOST, LAUNCH_FAILED_MSG);
+      }
+
+      return true;
     } catch (RuntimeException e) {
       // We catch the generic unchecked exception here to ensure tasks are not abandoned
       // if there is a transient issue resulting in an unchecked exception.
@@ -128,4 +163,78 @@ class TaskScheduler implements SchedulingAction {
       return false;
     }
   }
+
+  @Timed("task_schedule_batch_attempt")
+  @Override
+  public Set<String> scheduleBatch(final Set<String> taskIds) {
+    scheduleAttemptsFired.incrementAndGet();
+    try {
+      LOG.fine("Attempting to schedule tasks " + taskIds);
+      final Deque<IScheduledTask> pending = new ArrayDeque<>(Storage.Util.consistentFetchTasks(
+          storage,
+          Query.taskScoped(taskIds).byStatus(PENDING)));
+      if (pending.size() < taskIds.size()) {
+        LOG.warning("Failed to look up tasks "
+            + Sets.difference(taskIds, Tasks.ids(pending)) + ", they may have been deleted.");
+      }
+
+      // Tasks in a batch share a configuration, so once a task does not fit in what remains of an
+      // offer, no other task in the batch will either.  As with a single task, tasks are assigned
+      // to each offer in a separate write, so that the write is bounded by the size of an offer.
+      Function<Offer, List<TaskInfo>> packer = new Function<Offer, List<TaskInfo>>() {
+        @Override public List<TaskInfo> apply(final Offer offer) {
+          return storage.write(new MutateWork.Quiet<List<TaskInfo>>() {
+            @Override public List<TaskInfo> apply(MutableStoreProvider store) {
+              ImmutableList.Builder<TaskInfo> assigned = ImmutableList.builder();
+              Offer remainder = offer;
+              while (!pending.isEmpty()) {
+                IScheduledTask current = Iterables.getOnlyElement(
+                    store.getTaskStore().fetchTasks(
+                        Query.taskScoped(Tasks.id(pending.peek())).byStatus(PENDING)),
+                    null);
+                if (current == null) {
+                  // The task was scheduled by another attempt or changed state.
+                  pending.pop();
+                  continue;
+                }
+
+                Optional<TaskInfo> assignment = assigner.maybeAssign(remainder, current);
+                if (!assignment.isPresent()) {
+                  break;
+                }
+                pending.pop();
+                assigned.add(assignment.get());
+                remainder = Resources.subtract(remainder, assignment.get());
+              }
+              return assigned.build();
+            }
+          });
+        }
+      };
+
+      try {
+        batchTasksLaunched.addAndGet(offerQueue.launchAll(packer, pending.size()));
+      } catch (OfferQueue.BatchLaunchException e) {
+        LOG.log(Level.WARNING, "Failed to launch tasks.", e);
+        scheduleAttemptsFailed.incrementAndGet();
+
+        // As with a single task, backpedal on the assignments that could not be launched.
+        ImmutableSet.Builder<String> failedIds = ImmutableSet.builder();
+        for (TaskInfo failed : e.getFailedTasks()) {
+          failedIds.add(failed.getTaskId().getValue());
+        }
+        stateManager.changeState(Query.taskScoped(failedIds.build()), LOST, LAUNCH_FAILED_MSG);
+      }
+
+      // Tasks remaining in the pending queue were not assigned and should be retried.
+      return ImmutableSet.copyOf(Sets.difference(taskIds, Tasks.ids(pending)));
+    } catch (RuntimeException e) {
+      // We catch the generic unchecked exception here to ensure tasks are not abandoned
+      // if there is a transient issue resulting in an unchecked exception.  Tasks that were
+      // assigned before the failure are no longer pending, so retrying them is a no-op.
+      LOG.log(Level.WARNING, "Batch task scheduling unexpectedly failed, will be retried", e);
+      scheduleAttemptsFailed.incrementAndGet();
+      return ImmutableSet.of();
+    }
+  }
 }
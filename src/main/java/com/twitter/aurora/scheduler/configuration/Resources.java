@@ -17,6 +17,7 @@ package com.twitter.aurora.scheduler.configuration;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.google.common.base.Function;
@@ -30,12 +31,14 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.mesos.Protos.Offer;
 import org.apache.mesos.Protos.Resource;
+import org.apache.mesos.Protos.TaskInfo;
 import org.apache.mesos.Protos.Value.Range;
 import org.apache.mesos.Protos.Value.Ranges;
 import org.apache.mesos.Protos.Value.Scalar;
@@ -215,6 +218,56 @@ public class Resources {
         a.getNumPorts() - b.getNumPorts());
   }
 
+  /**
+   * Calculates the resources left in an offer after a task is launched against it.  This allows
+   * multiple tasks to be packed into a single offer.
+   *
+   * @param offer Offer the task is launched against.
+   * @param task Task being launched, whose resources and executor resources are consumed.
+   * @return A copy of {@code offer} with the task's resources and ports removed.
+   */
+  public static Offer subtract(Offer offer, TaskInfo task) {
+    checkNotNull(offer);
+    checkNotNull(task);
+
+    Map<String, Double> consumedScalars = Maps.newHashMap();
+    Set<Integer> consumedPorts = Sets.newHashSet();
+    for (Resource resource
+        : Iterables.concat(task.getResourcesList(), task.getExecutor().getResourcesList())) {
+
+      if (resource.getType() == Type.SCALAR) {
+        Double consumed = consumedScalars.get(resource.getName());
+        consumedScalars.put(
+            resource.getName(),
+            resource.getScalar().getValue() + ((consumed == null) ? 0 : consumed));
+      } else if (resource.getName().equals(PORTS)) {
+        consumedPorts.addAll(getPorts(resource));
+      }
+    }
+
+    Offer.Builder remainder = offer.toBuilder().clearResources();
+    for (Resource resource : offer.getResourcesList()) {
+      Double consumed = consumedScalars.get(resource.getName());
+      if ((resource.getType() == Type.SCALAR) && (consumed != null)) {
+        double available = Math.max(0, resource.getScalar().getValue() - consumed);
+        remainder.addResources(
+            resource.toBuilder().setScalar(Scalar.newBuilder().setValue(available)));
+      } else if ((resource.getType() == Type.RANGES) && resource.getName().equals(PORTS)) {
+        Set<Integer> available = Sets.difference(getPorts(resource), consumedPorts);
+        remainder.addResources(resource.toBuilder().setRanges(Ranges.newBuilder()
+            .addAllRange(Iterables.transform(Numbers.toRanges(available), RANGE_TRANSFORM))));
+      } else {
+        remainder.addResources(resource);
+      }
+    }
+    return remainder.build();
+  }
+
+  private static Set<Integer> getPorts(Resource resource) {
+    return ImmutableSet.copyOf(Iterables.concat(
+        Iterables.transform(resource.getRanges().getRangeList(), RANGE_TO_MEMBERS)));
+  }
+
   /**
    * sum(a, b)
    */
@@ -21,8 +21,10 @@ import java.util.Set;
 
 import com.google.common.base.Objects;
 
+import com.twitter.aurora.gen.HostAttributes;
 import com.twitter.aurora.gen.HostStatus;
 import com.twitter.aurora.gen.ScheduleStatus;
+import com.twitter.aurora.scheduler.ResourceSlot;
 import com.twitter.aurora.scheduler.base.Tasks;
 import com.twitter.aurora.scheduler.filter.SchedulingFilter.Veto;
 import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
@@ -164,6 +166,36 @@ public interface PubsubEvent {
     }
   }
 
+  /**
+   * Event sent when the attributes advertised by a host changed.
+   */
+  public static class HostAttributesChanged implements PubsubEvent {
+    private final HostAttributes attributes;
+
+    public HostAttributesChanged(HostAttributes attributes) {
+      this.attributes = checkNotNull(attributes);
+    }
+
+    public HostAttributes getAttributes() {
+      return attributes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof HostAttributesChanged)) {
+        return false;
+      }
+
+      HostAttributesChanged other = (HostAttributesChanged) o;
+      return Objects.equal(attributes, other.attributes);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(attributes);
+    }
+  }
+
   /**
    * Event sent when a scheduling assignment was vetoed.
    */
@@ -266,6 +298,37 @@ public interface PubsubEvent {
     }
   }
 
+  /**
+   * Event sent when an offer becomes available to scheduling attempts, either because it was
+   * received or because a scheduling attempt that other attempts raced with released it.
+   */
+  public static class OfferAvailable implements PubsubEvent {
+    private final ResourceSlot resources;
+
+    public OfferAvailable(ResourceSlot resources) {
+      this.resources = checkNotNull(resources);
+    }
+
+    public ResourceSlot getResources() {
+      return resources;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof OfferAvailable)) {
+        return false;
+      }
+
+      OfferAvailable other = (OfferAvailable) o;
+      return Objects.equal(resources, other.resources);
+    }
+
+    @Override
+    public int hashCode() {
+      return resources.hashCode();
+    }
+  }
+
   public static class DriverDisconnected implements PubsubEvent {
     @Override
     public boolean equals(Object o) {
@@ -15,6 +15,8 @@
  */
 package com.twitter.aurora.scheduler.events;
 
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
 import java.util.Set;
 import java.util.logging.Logger;
 
@@ -27,6 +29,7 @@ import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 import com.google.inject.AbstractModule;
 import com.google.inject.Binder;
+import com.google.inject.BindingAnnotation;
 import com.google.inject.TypeLiteral;
 import com.google.inject.matcher.Matchers;
 import com.google.inject.multibindings.Multibinder;
@@ -38,9 +41,17 @@ import com.twitter.aurora.scheduler.events.PubsubEvent.EventSubscriber;
 import com.twitter.aurora.scheduler.events.PubsubEvent.Interceptors.SendNotification;
 import com.twitter.aurora.scheduler.filter.SchedulingFilter;
 import com.twitter.common.application.modules.LifecycleModule;
+import com.twitter.common.args.Arg;
+import com.twitter.common.args.CmdLine;
+import com.twitter.common.args.constraints.Positive;
 import com.twitter.common.base.Closure;
 import com.twitter.common.base.Command;
 
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.PARAMETER;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
@@ -50,17 +61,77 @@ public final class PubsubEventModule extends AbstractModule {
 
   private static final Logger LOG = Logger.getLogger(PubsubEventModule.class.getName());
 
-  private PubsubEventModule() {
+  @CmdLine(name = "async_event_dispatch",
+      help = "Deliver pubsub events to subscribers that allow it on their own threads through "
+          + "bounded queues, rather than on the thread that posted the event.")
+  private static final Arg<Boolean> ASYNC_EVENT_DISPATCH = Arg.create(false);
+
+  @Positive
+  @CmdLine(name = "event_queue_capacity",
+      help = "Maximum number of events queued for each subscriber when events are dispatched "
+          + "asynchronously.  Posters wait for space when a subscriber's queue is full.")
+  private static final Arg<Integer> EVENT_QUEUE_CAPACITY = Arg.create(100000);
+
+  /**
+   * Binding annotation for subscribers that may receive events on their own thread.
+   */
+  @BindingAnnotation
+  @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+  @interface QueuedDelivery { }
+
+  private final boolean asyncDispatch;
+
+  private PubsubEventModule(boolean asyncDispatch) {
     // Must be constructed through factory.
+    this.asyncDispatch = asyncDispatch;
   }
 
   @VisibleForTesting
   public static void installForTest(Binder binder) {
-    binder.install(new PubsubEventModule());
+    binder.install(new PubsubEventModule(false));
   }
 
   @Override
   protected void configure() {
+    if (asyncDispatch) {
+      configureQueuedDispatch();
+    } else {
+      configureEventBus();
+    }
+
+    // Ensure at least an empty binding is present.
+    getSubscriberBinder(binder());
+    getQueuedSubscriberBinder(binder());
+    bindNotifyingInterceptor(binder());
+  }
+
+  private void configureQueuedDispatch() {
+    final QueuedEventDispatcher dispatcher =
+        new QueuedEventDispatcher(EVENT_QUEUE_CAPACITY.get());
+    bind(QueuedEventDispatcher.class).toInstance(dispatcher);
+
+    final EventBus eventBus = new EventBus("TaskEvents");
+    eventBus.register(new Object() {
+      @Subscribe public void logDeadEvent(DeadEvent event) {
+        if (!dispatcher.handles((PubsubEvent) event.getEvent())) {
+          LOG.warning("Captured dead event " + event.getEvent());
+        }
+      }
+    });
+    bind(EventBus.class).toInstance(eventBus);
+
+    Closure<PubsubEvent> eventPoster = new Closure<PubsubEvent>() {
+      @Override public void execute(PubsubEvent event) {
+        dispatcher.post(event);
+        eventBus.post(event);
+      }
+    };
+    bind(new TypeLiteral<Closure<PubsubEvent>>() { }).toInstance(eventPoster);
+
+    LifecycleModule.bindStartupAction(binder(), RegisterQueuedSubscribers.class);
+  }
+
+  private void configureEventBus() {
     final EventBus eventBus = new EventBus("TaskEvents");
     eventBus.register(new Object() {
       @Subscribe public void logDeadEvent(DeadEvent event) {
@@ -77,27 +148,65 @@ public final class PubsubEventModule extends AbstractModule {
     };
     bind(new TypeLiteral<Closure<PubsubEvent>>() { }).toInstance(eventPoster);
 
-    // Ensure at least an empty binding is present.
-    getSubscriberBinder(binder());
     LifecycleModule.bindStartupAction(binder(), RegisterSubscribers.class);
-    bindNotifyingInterceptor(binder());
   }
 
   static class RegisterSubscribers implements Command {
     private final EventBus eventBus;
     private final Set<EventSubscriber> subscribers;
+    private final Set<EventSubscriber> queuedSubscribers;
+
+    @Inject
+    RegisterSubscribers(
+        EventBus eventBus,
+        Set<EventSubscriber> subscribers,
+        @QueuedDelivery Set<EventSubscriber> queuedSubscribers) {
+
+      this.eventBus = checkNotNull(eventBus);
+      this.subscribers = checkNotNull(subscribers);
+      this.queuedSubscribers = checkNotNull(queuedSubscribers);
+    }
+
+    @Override
+    public void execute() {
+      for (EventSubscriber subscriber : subscribers) {
+        eventBus.register(subscriber);
+      }
+      for (EventSubscriber subscriber : queuedSubscribers) {
+        eventBus.register(subscriber);
+      }
+    }
+  }
+
+  static class RegisterQueuedSubscribers implements Command {
+    private final EventBus eventBus;
+    private final QueuedEventDispatcher dispatcher;
+    private final Set<EventSubscriber> subscribers;
+    private final Set<EventSubscriber> queuedSubscribers;
 
     @Inject
-    RegisterSubscribers(EventBus eventBus, Set<EventSubscriber> subscribers) {
+    RegisterQueuedSubscribers(
+        EventBus eventBus,
+        QueuedEventDispatcher dispatcher,
+        Set<EventSubscriber> subscribers,
+        @QueuedDelivery Set<EventSubscriber> queuedSubscribers) {
+
       this.eventBus = checkNotNull(eventBus);
+      this.dispatcher = checkNotNull(dispatcher);
       this.subscribers = checkNotNull(subscribers);
+      this.queuedSubscribers = checkNotNull(queuedSubscribers);
     }
 
     @Override
     public void execute() {
+      // Subscribers that were not bound for queued delivery may rely on seeing events before the
+      // posting storage write completes, so they remain on the posting thread.
       for (EventSubscriber subscriber : subscribers) {
         eventBus.register(subscriber);
       }
+      for (EventSubscriber subscriber : queuedSubscribers) {
+        dispatcher.register(subscriber);
+      }
     }
   }
 
@@ -111,7 +220,7 @@ public final class PubsubEventModule extends AbstractModule {
     binder.bind(SchedulingFilter.class).annotatedWith(NotifyDelegate.class).to(filterClass);
     binder.bind(SchedulingFilter.class).to(NotifyingSchedulingFilter.class);
     binder.bind(NotifyingSchedulingFilter.class).in(Singleton.class);
-    binder.install(new PubsubEventModule());
+    binder.install(new PubsubEventModule(ASYNC_EVENT_DISPATCH.get()));
   }
 
   private static Multibinder<EventSubscriber> getSubscriberBinder(Binder binder) {
@@ -128,6 +237,25 @@ public final class PubsubEventModule extends AbstractModule {
     getSubscriberBinder(binder).addBinding().to(subscriber);
   }
 
+  private static Multibinder<EventSubscriber> getQueuedSubscriberBinder(Binder binder) {
+    return Multibinder.newSetBinder(binder, EventSubscriber.class, QueuedDelivery.class);
+  }
+
+  /**
+   * Binds a subscriber that may receive events on its own thread when asynchronous dispatch is
+   * enabled.  This is only safe for subscribers that keep no state read by the scheduler in the
+   * write that posted an event, such as stats, and that never wait on a storage write.
+   *
+   * @param binder Binder to bind the subscriber with.
+   * @param subscriber Subscriber implementation class to register for events.
+   */
+  public static void bindQueuedSubscriber(
+      Binder binder,
+      Class<? extends EventSubscriber> subscriber) {
+
+    getQueuedSubscriberBinder(binder).addBinding().to(subscriber);
+  }
+
   /**
    * Binds a method interceptor to all methods annotated with {@link SendNotification}.
    * <p>
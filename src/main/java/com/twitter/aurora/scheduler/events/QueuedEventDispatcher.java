@@ -0,0 +1,208 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.events;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import com.twitter.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import com.twitter.common.stats.SlidingStats;
+import com.twitter.common.stats.Stats;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Delivers events to each subscriber on a dedicated thread, through a bounded queue.
+ * <p>
+ * A subscriber receives events in the order they were posted, and a slow subscriber does not
+ * delay other subscribers.  When a subscriber's queue is full, the poster waits for space rather
+ * than dropping the event.  Since events are usually posted inside storage writes, subscribers
+ * registered here must never wait on a storage write themselves.
+ */
+class QueuedEventDispatcher {
+
+  private static final Logger LOG = Logger.getLogger(QueuedEventDispatcher.class.getName());
+
+  private final int queueCapacity;
+  private final List<SubscriberQueue> queues = new CopyOnWriteArrayList<>();
+
+  /**
+   * Creates a dispatcher with no subscribers.
+   *
+   * @param queueCapacity Maximum number of events to queue for each subscriber.
+   */
+  QueuedEventDispatcher(int queueCapacity) {
+    checkArgument(queueCapacity > 0, "Queue capacity must be positive.");
+    this.queueCapacity = queueCapacity;
+  }
+
+  /**
+   * Registers a subscriber, and starts the thread that delivers its events.
+   *
+   * @param subscriber Subscriber to deliver events to.
+   */
+  void register(EventSubscriber subscriber) {
+    SubscriberQueue queue = new SubscriberQueue(subscriber, queueCapacity);
+    queues.add(queue);
+    new ThreadFactoryBuilder()
+        .setNameFormat("PubsubEvent-" + queue.name + "-%d")
+        .setDaemon(true)
+        .build()
+        .newThread(queue)
+        .start();
+  }
+
+  /**
+   * Queues an event for every subscriber that handles it.
+   *
+   * @param event Event to post.
+   */
+  void post(PubsubEvent event) {
+    checkNotNull(event);
+
+    for (SubscriberQueue queue : queues) {
+      if (queue.handles(event)) {
+        queue.put(event);
+      }
+    }
+  }
+
+  /**
+   * Checks whether any registered subscriber handles an event.
+   *
+   * @param event Event to check.
+   * @return {@code true} if the event is delivered to at least one subscriber.
+   */
+  boolean handles(PubsubEvent event) {
+    for (SubscriberQueue queue : queues) {
+      if (queue.handles(event)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @VisibleForTesting
+  static String subscriberName(Class<?> subscriberClass) {
+    // Strip the suffix of classes generated by guice for method interception.
+    String name = subscriberClass.getName();
+    int generated = name.indexOf("$$");
+    return (generated == -1) ? name : name.substring(0, generated);
+  }
+
+  @VisibleForTesting
+  static Set<Class<?>> handledEventTypes(Class<?> subscriberClass) {
+    ImmutableSet.Builder<Class<?>> types = ImmutableSet.builder();
+    for (Class<?> clazz = subscriberClass; clazz != null; clazz = clazz.getSuperclass()) {
+      for (Method method : clazz.getDeclaredMethods()) {
+        if (method.isAnnotationPresent(Subscribe.class)
+            && (method.getParameterTypes().length == 1)) {
+
+          types.add(method.getParameterTypes()[0]);
+        }
+      }
+    }
+    return types.build();
+  }
+
+  private static class Delivery {
+    private final PubsubEvent event;
+    private final long queuedNanos;
+
+    Delivery(PubsubEvent event, long queuedNanos) {
+      this.event = event;
+      this.queuedNanos = queuedNanos;
+    }
+  }
+
+  private static class SubscriberQueue implements Runnable {
+    private final String name;
+    private final Set<Class<?>> eventTypes;
+    private final EventBus eventBus;
+    private final BlockingQueue<Delivery> queue;
+    private final SlidingStats latency;
+    private final AtomicLong fullQueueWaits;
+
+    SubscriberQueue(EventSubscriber subscriber, int capacity) {
+      name = subscriberName(subscriber.getClass());
+      eventTypes = handledEventTypes(subscriber.getClass());
+      // The subscriber is the only one registered with this bus, which invokes its handler
+      // methods and logs any exceptions they throw.
+      eventBus = new EventBus(name);
+      eventBus.register(subscriber);
+      queue = new LinkedBlockingQueue<>(capacity);
+      String statPrefix = Stats.normalizeName("pubsub_" + name);
+      Stats.exportSize(statPrefix + "_queue_depth", queue);
+      latency = new SlidingStats(statPrefix + "_event_latency", "nanos");
+      fullQueueWaits = Stats.exportLong(statPrefix + "_full_queue_waits");
+    }
+
+    boolean handles(PubsubEvent event) {
+      for (Class<?> type : eventTypes) {
+        if (type.isInstance(event)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    void put(PubsubEvent event) {
+      Delivery delivery = new Delivery(event, System.nanoTime());
+      if (queue.offer(delivery)) {
+        return;
+      }
+
+      LOG.warning("Event queue for " + name + " is full, waiting to deliver " + event);
+      fullQueueWaits.incrementAndGet();
+      try {
+        queue.put(delivery);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while delivering event to " + name, e);
+      }
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        Delivery delivery;
+        try {
+          delivery = queue.take();
+        } catch (InterruptedException e) {
+          LOG.log(Level.WARNING, "Interrupted while waiting for events for " + name, e);
+          Thread.currentThread().interrupt();
+          return;
+        }
+        eventBus.post(delivery.event);
+        latency.accumulate(System.nanoTime() - delivery.queuedNanos);
+      }
+    }
+  }
+}
@@ -15,25 +15,19 @@
  */
 package com.twitter.aurora.scheduler.filter;
 
-import java.util.Collection;
 import java.util.Set;
 import java.util.logging.Logger;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
-import com.google.common.base.Predicate;
-import com.google.common.base.Supplier;
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
+import com.google.common.collect.SetMultimap;
 
 import com.twitter.aurora.gen.Attribute;
 import com.twitter.aurora.scheduler.base.SchedulerException;
 import com.twitter.aurora.scheduler.filter.SchedulingFilter.Veto;
-import com.twitter.aurora.scheduler.filter.SchedulingFilterImpl.AttributeLoader;
 import com.twitter.aurora.scheduler.storage.entities.IConstraint;
 import com.twitter.aurora.scheduler.storage.entities.IJobKey;
-import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
 import com.twitter.aurora.scheduler.storage.entities.ITaskConstraint;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -46,27 +40,23 @@ class ConstraintFilter implements Function<IConstraint, Optional<Veto>> {
   private static final Logger LOG = Logger.getLogger(ConstraintFilter.class.getName());
 
   private final IJobKey jobKey;
-  private final Supplier<Collection<IScheduledTask>> activeTasksSupplier;
-  private final AttributeLoader attributeLoader;
-  private final Iterable<Attribute> hostAttributes;
+  private final JobAttributeCounts attributeCounts;
+  private final SetMultimap<String, Attribute> hostAttributes;
 
   /**
    * Creates a new constraint filer for a given job.
    *
    * @param jobKey Key for the job.
-   * @param activeTasksSupplier Supplier to fetch active tasks (if necessary).
-   * @param attributeLoader Interface to fetch host attributes (if necessary).
-   * @param hostAttributes The attributes of the host to test against.
+   * @param attributeCounts Counts of active tasks by host attribute (used if necessary).
+   * @param hostAttributes The attributes of the host to test against, indexed by name.
    */
   ConstraintFilter(
       IJobKey jobKey,
-      Supplier<Collection<IScheduledTask>> activeTasksSupplier,
-      AttributeLoader attributeLoader,
-      Iterable<Attribute> hostAttributes) {
+      JobAttributeCounts attributeCounts,
+      SetMultimap<String, Attribute> hostAttributes) {
 
     this.jobKey = checkNotNull(jobKey);
-    this.activeTasksSupplier = checkNotNull(activeTasksSupplier);
-    this.attributeLoader = checkNotNull(attributeLoader);
+    this.attributeCounts = checkNotNull(attributeCounts);
     this.hostAttributes = checkNotNull(hostAttributes);
   }
 
@@ -87,8 +77,7 @@ class ConstraintFilter implements Function<IConstraint, Optional<Veto>> {
 
   @Override
   public Optional<Veto> apply(IConstraint constraint) {
-    Set<Attribute> attributes =
-        ImmutableSet.copyOf(Iterables.filter(hostAttributes, new NameFilter(constraint.getName())));
+    Set<Attribute> attributes = hostAttributes.get(constraint.getName());
 
     ITaskConstraint taskConstraint = constraint.getConstraint();
     switch (taskConstraint.getSetField()) {
@@ -104,12 +93,8 @@ class ConstraintFilter implements Function<IConstraint, Optional<Veto>> {
           return Optional.of(mismatchVeto(constraint.getName()));
         }
 
-        boolean satisfied = AttributeFilter.matches(
-            attributes,
-            jobKey,
-            taskConstraint.getLimit().getLimit(),
-            activeTasksSupplier.get(),
-            attributeLoader);
+        boolean satisfied =
+            taskConstraint.getLimit().getLimit() > attributeCounts.count(jobKey, attributes);
         return satisfied
             ? Optional.<Veto>absent()
             : Optional.of(limitVeto(constraint.getName()));
@@ -120,19 +105,4 @@ class ConstraintFilter implements Function<IConstraint, Optional<Veto>> {
             + taskConstraint.getSetField());
     }
   }
-
-  /**
-   * A filter to find attributes matching a name.
-   */
-  static class NameFilter implements Predicate<Attribute> {
-    private final String attributeName;
-
-    NameFilter(String attributeName) {
-      this.attributeName = attributeName;
-    }
-
-    @Override public boolean apply(Attribute attribute) {
-      return attributeName.equals(attribute.getName());
-    }
-  }
 }
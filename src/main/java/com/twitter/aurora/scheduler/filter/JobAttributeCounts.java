@@ -0,0 +1,301 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.filter;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.inject.Inject;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+import com.google.common.eventbus.Subscribe;
+
+import com.twitter.aurora.gen.Attribute;
+import com.twitter.aurora.gen.HostAttributes;
+import com.twitter.aurora.gen.ScheduleStatus;
+import com.twitter.aurora.scheduler.base.Query;
+import com.twitter.aurora.scheduler.base.Tasks;
+import com.twitter.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import com.twitter.aurora.scheduler.events.PubsubEvent.HostAttributesChanged;
+import com.twitter.aurora.scheduler.events.PubsubEvent.StorageStarted;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import com.twitter.aurora.scheduler.storage.AttributeStore;
+import com.twitter.aurora.scheduler.storage.Storage;
+import com.twitter.aurora.scheduler.storage.Storage.StoreProvider;
+import com.twitter.aurora.scheduler.storage.Storage.Work.Quiet;
+import com.twitter.aurora.scheduler.storage.entities.IJobKey;
+import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+import com.twitter.common.args.Arg;
+import com.twitter.common.args.CmdLine;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.Stats;
+import com.twitter.common.util.Clock;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Counts the active tasks of each job by the attributes of the hosts they are assigned to, so
+ * that limit constraints can be evaluated without scanning the job's tasks.
+ * <p>
+ * Counts for a job are loaded from storage the first time the job is queried, and are kept up to
+ * date from task and host attribute events after that.  Keeping them up to date relies on events
+ * being delivered synchronously, inside the storage write that posted them.  Since an event
+ * handler may still fail, a job's counts are reloaded from storage when they are queried after
+ * the reload interval has passed.
+ * <p>
+ * Storage reads are weakly consistent and are performed while holding this object's monitor,
+ * which is also taken by event handlers running inside storage writes.  This relies on weakly
+ * consistent reads not blocking on the storage write lock.
+ */
+public class JobAttributeCounts implements EventSubscriber {
+
+  private static final Logger LOG = Logger.getLogger(JobAttributeCounts.class.getName());
+
+  @CmdLine(name = "job_attribute_count_reload_interval",
+      help = "Maximum age of the task counts used to evaluate a job's limit constraints before "
+          + "they are reloaded from storage.")
+  private static final Arg<Amount<Long, Time>> RELOAD_INTERVAL =
+      Arg.create(Amount.of(5L, Time.MINUTES));
+
+  private static final AtomicLong COUNT_CORRECTIONS =
+      Stats.exportLong("job_attribute_count_corrections");
+
+  private static final Set<ScheduleStatus> COUNTED_STATES =
+      EnumSet.copyOf(Sets.difference(Tasks.ACTIVE_STATES, EnumSet.of(ScheduleStatus.PENDING)));
+
+  private final Storage storage;
+  private final Clock clock;
+  private final long reloadIntervalMs;
+
+  private final Map<IJobKey, JobCounts> jobs = Maps.newHashMap();
+  private final Map<String, CountedTask> counted = Maps.newHashMap();
+  private final SetMultimap<String, String> tasksByHost = HashMultimap.create();
+
+  @Inject
+  public JobAttributeCounts(Storage storage, Clock clock) {
+    this(storage, clock, RELOAD_INTERVAL.get());
+  }
+
+  @VisibleForTesting
+  JobAttributeCounts(Storage storage, Clock clock, Amount<Long, Time> reloadInterval) {
+    this.storage = checkNotNull(storage);
+    this.clock = checkNotNull(clock);
+    this.reloadIntervalMs = reloadInterval.as(Time.MILLISECONDS);
+  }
+
+  private static class JobCounts {
+    private final long loadedAtMs;
+    private final Set<String> taskIds = Sets.newHashSet();
+
+    // Task IDs of the job's active tasks, by the attributes of their hosts.
+    private final SetMultimap<Attribute, String> byAttribute = HashMultimap.create();
+
+    JobCounts(long loadedAtMs) {
+      this.loadedAtMs = loadedAtMs;
+    }
+  }
+
+  private static class CountedTask {
+    private final IJobKey job;
+    private final String host;
+    private final Set<Attribute> attributes;
+
+    CountedTask(IJobKey job, String host, Set<Attribute> attributes) {
+      this.job = job;
+      this.host = host;
+      this.attributes = attributes;
+    }
+  }
+
+  /**
+   * Counts the active tasks of a job that are on hosts with any of {@code attributes}.
+   *
+   * @param job Job to count tasks for.
+   * @param attributes Attributes to match against.
+   * @return The number of the job's active, non-pending tasks on hosts with matching attributes.
+   */
+  public synchronized int count(IJobKey job, Set<Attribute> attributes) {
+    checkNotNull(job);
+    checkNotNull(attributes);
+
+    JobCounts jobCounts = jobs.get(job);
+    if (jobCounts == null) {
+      jobCounts = load(job);
+    } else if (clock.nowMillis() - jobCounts.loadedAtMs >= reloadIntervalMs) {
+      jobCounts = reload(job, jobCounts);
+    }
+
+    SetMultimap<Attribute, String> byAttribute = jobCounts.byAttribute;
+    if (attributes.size() == 1) {
+      return byAttribute.get(Iterables.getOnlyElement(attributes)).size();
+    }
+
+    Set<String> taskIds = Sets.newHashSet();
+    for (Attribute attribute : attributes) {
+      taskIds.addAll(byAttribute.get(attribute));
+    }
+    return taskIds.size();
+  }
+
+  private JobCounts reload(IJobKey job, JobCounts stale) {
+    for (String taskId : ImmutableList.copyOf(stale.taskIds)) {
+      remove(taskId);
+    }
+    jobs.remove(job);
+
+    JobCounts reloaded = load(job);
+    if (!reloaded.byAttribute.equals(stale.byAttribute)) {
+      LOG.warning("Corrected task counts for job " + job + " that had diverged from storage.");
+      COUNT_CORRECTIONS.incrementAndGet();
+    }
+    return reloaded;
+  }
+
+  private JobCounts load(final IJobKey job) {
+    JobCounts jobCounts = new JobCounts(clock.nowMillis());
+    jobs.put(job, jobCounts);
+
+    Collection<IScheduledTask> tasks = storage.weaklyConsistentRead(
+        new Quiet<Collection<IScheduledTask>>() {
+          @Override public Collection<IScheduledTask> apply(StoreProvider storeProvider) {
+            return storeProvider.getTaskStore().fetchTasks(
+                Query.jobScoped(job).byStatus(COUNTED_STATES));
+          }
+        });
+    for (IScheduledTask task : tasks) {
+      if (job.equals(Tasks.SCHEDULED_TO_JOB_KEY.apply(task))) {
+        add(task);
+      }
+    }
+    return jobCounts;
+  }
+
+  private void add(IScheduledTask task) {
+    final String host = task.getAssignedTask().getSlaveHost();
+    Iterable<Attribute> attributes = (host == null)
+        ? ImmutableSet.<Attribute>of()
+        : storage.weaklyConsistentRead(new Quiet<Iterable<Attribute>>() {
+            @Override public Iterable<Attribute> apply(StoreProvider storeProvider) {
+              return AttributeStore.Util.attributesOrNone(storeProvider, host);
+            }
+          });
+    add(Tasks.id(task), Tasks.SCHEDULED_TO_JOB_KEY.apply(task), host, attributes);
+  }
+
+  private void add(String taskId, IJobKey job, String host, Iterable<Attribute> attributes) {
+    JobCounts jobCounts = jobs.get(job);
+    if (jobCounts == null || counted.containsKey(taskId)) {
+      return;
+    }
+
+    CountedTask task = new CountedTask(job, host, ImmutableSet.copyOf(attributes));
+    counted.put(taskId, task);
+    jobCounts.taskIds.add(taskId);
+    if (host != null) {
+      tasksByHost.put(host, taskId);
+    }
+    for (Attribute attribute : task.attributes) {
+      jobCounts.byAttribute.put(attribute, taskId);
+    }
+  }
+
+  private CountedTask remove(String taskId) {
+    CountedTask task = counted.remove(taskId);
+    if (task != null) {
+      if (task.host != null) {
+        tasksByHost.remove(task.host, taskId);
+      }
+      JobCounts jobCounts = jobs.get(task.job);
+      jobCounts.taskIds.remove(taskId);
+      for (Attribute attribute : task.attributes) {
+        jobCounts.byAttribute.remove(attribute, taskId);
+      }
+    }
+    return task;
+  }
+
+  /**
+   * Counts a task that became active, or stops counting a task that is no longer active.
+   *
+   * @param change Task state change.
+   */
+  @Subscribe
+  public synchronized void taskChangedState(TaskStateChange change) {
+    if (COUNTED_STATES.contains(change.getNewState())) {
+      if (!counted.containsKey(change.getTaskId())
+          && jobs.containsKey(Tasks.SCHEDULED_TO_JOB_KEY.apply(change.getTask()))) {
+
+        add(change.getTask());
+      }
+    } else {
+      remove(change.getTaskId());
+    }
+  }
+
+  /**
+   * Stops counting deleted tasks.
+   *
+   * @param deleted Deleted tasks.
+   */
+  @Subscribe
+  public synchronized void tasksDeleted(TasksDeleted deleted) {
+    for (IScheduledTask task : deleted.getTasks()) {
+      remove(Tasks.id(task));
+    }
+  }
+
+  /**
+   * Re-counts the tasks on a host whose attributes changed.
+   *
+   * @param change Attribute change.
+   */
+  @Subscribe
+  public synchronized void hostAttributesChanged(HostAttributesChanged change) {
+    HostAttributes attributes = change.getAttributes();
+    Set<Attribute> updated = attributes.isSetAttributes()
+        ? attributes.getAttributes()
+        : ImmutableSet.<Attribute>of();
+    for (String taskId : ImmutableList.copyOf(tasksByHost.get(attributes.getHost()))) {
+      CountedTask task = remove(taskId);
+      add(taskId, task.job, task.host, updated);
+    }
+  }
+
+  /**
+   * Drops all counts, since storage may have been populated without task events.
+   *
+   * @param started Storage start notification.
+   */
+  @Subscribe
+  public synchronized void storageStarted(StorageStarted started) {
+    jobs.clear();
+    counted.clear();
+    tasksByHost.clear();
+  }
+}
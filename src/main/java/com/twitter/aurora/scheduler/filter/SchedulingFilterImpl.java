@@ -15,7 +15,6 @@
  */
 package com.twitter.aurora.scheduler.filter;
 
-import java.util.Collection;
 import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.Set;
@@ -25,29 +24,31 @@ import javax.inject.Inject;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
-import com.google.common.base.Supplier;
-import com.google.common.base.Suppliers;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Ordering;
-import com.google.common.collect.Sets;
+import com.google.common.eventbus.Subscribe;
 
 import com.twitter.aurora.gen.Attribute;
 import com.twitter.aurora.gen.MaintenanceMode;
-import com.twitter.aurora.gen.ScheduleStatus;
 import com.twitter.aurora.gen.TaskConstraint;
 import com.twitter.aurora.scheduler.ResourceSlot;
-import com.twitter.aurora.scheduler.base.Query;
 import com.twitter.aurora.scheduler.base.Tasks;
 import com.twitter.aurora.scheduler.configuration.ConfigurationManager;
+import com.twitter.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import com.twitter.aurora.scheduler.events.PubsubEvent.HostAttributesChanged;
+import com.twitter.aurora.scheduler.events.PubsubEvent.HostMaintenanceStateChange;
+import com.twitter.aurora.scheduler.events.PubsubEvent.StorageStarted;
 import com.twitter.aurora.scheduler.state.MaintenanceController;
 import com.twitter.aurora.scheduler.storage.AttributeStore;
 import com.twitter.aurora.scheduler.storage.Storage;
 import com.twitter.aurora.scheduler.storage.Storage.StoreProvider;
 import com.twitter.aurora.scheduler.storage.Storage.Work.Quiet;
 import com.twitter.aurora.scheduler.storage.entities.IConstraint;
-import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
 import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Data;
@@ -67,7 +68,7 @@ import static com.twitter.aurora.scheduler.filter.SchedulingFilterImpl.ResourceV
  * fulfilled, and that tasks are allowed to run on the given machine.
  *
  */
-public class SchedulingFilterImpl implements SchedulingFilter {
+public class SchedulingFilterImpl implements SchedulingFilter, EventSubscriber {
 
   @VisibleForTesting static final Veto DEDICATED_HOST_VETO =
       Veto.constraintMismatch("Host is dedicated");
@@ -78,23 +79,98 @@ public class SchedulingFilterImpl implements SchedulingFilter {
 
   private final Storage storage;
   private final MaintenanceController maintenance;
+  private final JobAttributeCounts attributeCounts;
+
+  // Host details are read for every (task, offer) pair, but change rarely.  Entries are
+  // invalidated when a host's attributes or maintenance mode change.  A load racing with an
+  // invalidation may cache a stale entry, which is within the weak consistency already accepted
+  // for these reads, and is corrected by the next change to the host.
+  private final LoadingCache<String, HostDetails> hosts = CacheBuilder.newBuilder()
+      .build(new CacheLoader<String, HostDetails>() {
+        @Override public HostDetails load(String host) {
+          return loadHost(host);
+        }
+      });
 
   /**
    * Creates a new scheduling filter.
    *
    * @param storage Interface to accessing the task store.
    * @param maintenance Interface to accessing the maintenance controller
+   * @param attributeCounts Counts of active tasks by host attribute, for limit constraints.
    */
   @Inject
-  public SchedulingFilterImpl(Storage storage, MaintenanceController maintenance) {
+  public SchedulingFilterImpl(
+      Storage storage,
+      MaintenanceController maintenance,
+      JobAttributeCounts attributeCounts) {
+
     this.storage = checkNotNull(storage);
     this.maintenance = checkNotNull(maintenance);
+    this.attributeCounts = checkNotNull(attributeCounts);
+  }
+
+  /**
+   * Details about a host that are needed to filter tasks against the host's offers.
+   */
+  private static final class HostDetails {
+    private final ImmutableSet<Attribute> attributes;
+    private final ImmutableSetMultimap<String, Attribute> attributesByName;
+    private final boolean dedicated;
+    private final MaintenanceMode mode;
+
+    HostDetails(Iterable<Attribute> attributes, MaintenanceMode mode) {
+      this.attributes = ImmutableSet.copyOf(attributes);
+      ImmutableSetMultimap.Builder<String, Attribute> byName = ImmutableSetMultimap.builder();
+      for (Attribute attribute : this.attributes) {
+        byName.put(attribute.getName(), attribute);
+      }
+      this.attributesByName = byName.build();
+      this.dedicated = attributesByName.containsKey(DEDICATED_ATTRIBUTE);
+      this.mode = checkNotNull(mode);
+    }
+  }
+
+  private HostDetails loadHost(final String host) {
+    Iterable<Attribute> attributes = storage.weaklyConsistentRead(
+        new Quiet<Iterable<Attribute>>() {
+          @Override public Iterable<Attribute> apply(StoreProvider storeProvider) {
+            return AttributeStore.Util.attributesOrNone(storeProvider, host);
+          }
+        });
+    return new HostDetails(attributes, maintenance.getMode(host));
   }
 
   /**
-   * A function that fetches attributes associated with a given host.
+   * Drops cached details for a host whose attributes changed.
+   *
+   * @param change Attribute change notification.
    */
-  public interface AttributeLoader extends Function<String, Iterable<Attribute>> { }
+  @Subscribe
+  public void hostAttributesChanged(HostAttributesChanged change) {
+    hosts.invalidate(change.getAttributes().getHost());
+  }
+
+  /**
+   * Drops cached details for a host whose maintenance mode changed.
+   *
+   * @param change Maintenance change notification.
+   */
+  @Subscribe
+  public void hostChangedState(HostMaintenanceStateChange change) {
+    hosts.invalidate(change.getStatus().getHost());
+  }
+
+  /**
+   * Drops all cached host details, since storage may have been populated from a different
+   * source than the events above.
+   *
+   * @param started Storage start notification.
+   */
+  @Subscribe
+  public void storageStarted(StorageStarted started) {
+    hosts.invalidateAll();
+  }
 
   /**
    * A function that may veto a task.
@@ -198,66 +274,43 @@ public class SchedulingFilterImpl implements SchedulingFilter {
         }
       });
 
-  private static final Iterable<ScheduleStatus> ACTIVE_NOT_PENDING_STATES =
-      EnumSet.copyOf(Sets.difference(Tasks.ACTIVE_STATES, EnumSet.of(ScheduleStatus.PENDING)));
-
-  private FilterRule getConstraintFilter(final String slaveHost) {
+  private FilterRule getConstraintFilter(final HostDetails slaveHost) {
     return new FilterRule() {
       @Override public Iterable<Veto> apply(final ITaskConfig task) {
         if (!task.isSetConstraints()) {
           return ImmutableList.of();
         }
 
-        // In the interest of performance, we perform a weakly consistent read here.  The biggest
-        // risk of this is that we might schedule against stale host attributes, or we might fail
-        // to correctly satisfy a diversity constraint.  Given that the likelihood is relatively low
-        // for both of these, and the impact is also low, the weak consistency is acceptable.
-        return storage.weaklyConsistentRead(new Quiet<Iterable<Veto>>() {
-          @Override public Iterable<Veto> apply(final StoreProvider storeProvider) {
-            AttributeLoader attributeLoader = new AttributeLoader() {
-              @Override public Iterable<Attribute> apply(String host) {
-                return AttributeStore.Util.attributesOrNone(storeProvider, host);
-              }
-            };
-
-            Supplier<Collection<IScheduledTask>> activeTasksSupplier =
-                Suppliers.memoize(new Supplier<Collection<IScheduledTask>>() {
-                  @Override public Collection<IScheduledTask> get() {
-                    return storeProvider.getTaskStore().fetchTasks(
-                        Query.jobScoped(Tasks.INFO_TO_JOB_KEY.apply(task))
-                            .byStatus(ACTIVE_NOT_PENDING_STATES));
-                  }
-                });
-
-            ConstraintFilter constraintFilter = new ConstraintFilter(
-                Tasks.INFO_TO_JOB_KEY.apply(task),
-                activeTasksSupplier,
-                attributeLoader,
-                attributeLoader.apply(slaveHost));
-            ImmutableList.Builder<Veto> vetoes = ImmutableList.builder();
-            for (IConstraint constraint : VALUES_FIRST.sortedCopy(task.getConstraints())) {
-              Optional<Veto> veto = constraintFilter.apply(constraint);
-              if (veto.isPresent()) {
-                vetoes.add(veto.get());
-                if (isValueConstraint(constraint)) {
-                  // Break when a value constraint mismatch is found to avoid other
-                  // potentially-expensive operations to satisfy other constraints.
-                  break;
-                }
-              }
+        // In the interest of performance, host attributes are cached and limit constraints are
+        // checked against incrementally maintained counts.  The biggest risk of this is that we
+        // might schedule against stale host attributes, or we might fail to correctly satisfy a
+        // diversity constraint.  Given that the likelihood is relatively low for both of these,
+        // and the impact is also low, the weak consistency is acceptable.
+        ConstraintFilter constraintFilter = new ConstraintFilter(
+            Tasks.INFO_TO_JOB_KEY.apply(task),
+            attributeCounts,
+            slaveHost.attributesByName);
+        ImmutableList.Builder<Veto> vetoes = ImmutableList.builder();
+        for (IConstraint constraint : VALUES_FIRST.sortedCopy(task.getConstraints())) {
+          Optional<Veto> veto = constraintFilter.apply(constraint);
+          if (veto.isPresent()) {
+            vetoes.add(veto.get());
+            if (isValueConstraint(constraint)) {
+              // Break when a value constraint mismatch is found to avoid other
+              // potentially-expensive operations to satisfy other constraints.
+              break;
             }
-
-            return vetoes.build();
           }
-        });
+        }
+
+        return vetoes.build();
       }
     };
   }
 
-  private Optional<Veto> getMaintenanceVeto(String slaveHost) {
-    MaintenanceMode mode = maintenance.getMode(slaveHost);
-    return VETO_MODES.contains(mode)
-        ? Optional.of(ConstraintFilter.maintenanceVeto(mode.toString().toLowerCase()))
+  private static Optional<Veto> getMaintenanceVeto(HostDetails slaveHost) {
+    return VETO_MODES.contains(slaveHost.mode)
+        ? Optional.of(ConstraintFilter.maintenanceVeto(slaveHost.mode.toString().toLowerCase()))
         : NO_VETO;
   }
 
@@ -269,26 +322,16 @@ public class SchedulingFilterImpl implements SchedulingFilter {
     return builder.build();
   }
 
-  private boolean isDedicated(final String slaveHost) {
-    Iterable<Attribute> slaveAttributes =
-        storage.weaklyConsistentRead(new Quiet<Iterable<Attribute>>() {
-          @Override public Iterable<Attribute> apply(final StoreProvider storeProvider) {
-            return AttributeStore.Util.attributesOrNone(storeProvider, slaveHost);
-          }
-        });
-
-    return Iterables.any(slaveAttributes, new ConstraintFilter.NameFilter(DEDICATED_ATTRIBUTE));
-  }
-
   @Override
   public Set<Veto> filter(ResourceSlot offer, String slaveHost, ITaskConfig task, String taskId) {
-    if (!ConfigurationManager.isDedicated(task) && isDedicated(slaveHost)) {
+    HostDetails host = hosts.getUnchecked(slaveHost);
+    if (!ConfigurationManager.isDedicated(task) && host.dedicated) {
       return ImmutableSet.of(DEDICATED_HOST_VETO);
     }
     return ImmutableSet.<Veto>builder()
-        .addAll(getConstraintFilter(slaveHost).apply(task))
+        .addAll(getConstraintFilter(host).apply(task))
         .addAll(getResourceVetoes(offer, task))
-        .addAll(getMaintenanceVeto(slaveHost).asSet())
+        .addAll(getMaintenanceVeto(host).asSet())
         .build();
   }
 }
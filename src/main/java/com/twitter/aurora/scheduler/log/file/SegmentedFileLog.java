@@ -0,0 +1,508 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.log.file;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nullable;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+
+import com.twitter.aurora.scheduler.log.Log;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
+import com.twitter.common.stats.Stats;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A log implementation that appends entries to segment files in a local directory.
+ * <p>
+ * Each entry is stored as a record made up of the entry length, the CRC32 checksum of the length
+ * and the entry contents, and the contents themselves.  Covering the length keeps a zero-filled
+ * segment tail from reading back as a run of empty records.  Records are appended to the newest
+ * segment until it would grow beyond the maximum segment size, at which point a new segment is
+ * started.  An entry's position is the byte offset of its record in the log as a whole and each
+ * segment file is named after the offset of its first record, so truncation deletes whole segments
+ * and only needs to record the truncation point to hide the truncated records of the segment it
+ * falls in.
+ * <p>
+ * Appends are durable once they return.  Concurrent appenders share fsync calls: an appender whose
+ * record was already covered by another appender's fsync returns without syncing again.
+ * <p>
+ * This log is not replicated, so it is only suitable for schedulers that run on a single host.
+ */
+public class SegmentedFileLog implements Log {
+
+  private static final Logger LOG = Logger.getLogger(SegmentedFileLog.class.getName());
+
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final String START_OFFSET_FILE = "start";
+
+  // Each record is prefixed by the length of its contents and a checksum of the length and
+  // contents.
+  private static final int RECORD_HEADER_BYTES = 8;
+
+  private final File directory;
+  private final long maxSegmentBytes;
+
+  /**
+   * Creates a log that stores its segments in the given directory.
+   *
+   * @param directory Directory to store segments in, which is created if it does not exist.
+   * @param maxSegmentSize Size after which appends start a new segment.
+   */
+  public SegmentedFileLog(File directory, Amount<Long, Data> maxSegmentSize) {
+    this.directory = checkNotNull(directory);
+    this.maxSegmentBytes = maxSegmentSize.as(Data.BYTES);
+    checkArgument(maxSegmentBytes > 0 && maxSegmentBytes <= Integer.MAX_VALUE,
+        "Segments must be between 1 byte and 2 GB in size.");
+  }
+
+  @Override
+  public Stream open() throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Failed to create log directory " + directory);
+    }
+    return new SegmentedStream(directory, maxSegmentBytes);
+  }
+
+  private static int checksum(byte[] contents) {
+    CRC32 crc = new CRC32();
+    crc.update(Ints.toByteArray(contents.length));
+    crc.update(contents);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Reads the record at the buffer's position, advancing the buffer past it.
+   *
+   * @param buffer Buffer to read a record from.
+   * @return The contents of the record, or {@code null} if the buffer does not hold a complete
+   *     record with a valid checksum at its position.
+   */
+  @Nullable
+  private static byte[] readRecord(ByteBuffer buffer) {
+    if (buffer.remaining() < RECORD_HEADER_BYTES) {
+      return null;
+    }
+
+    int length = buffer.getInt(buffer.position());
+    int checksum = buffer.getInt(buffer.position() + 4);
+    if (length < 0 || length > buffer.remaining() - RECORD_HEADER_BYTES) {
+      return null;
+    }
+
+    byte[] contents = new byte[length];
+    buffer.position(buffer.position() + RECORD_HEADER_BYTES);
+    buffer.get(contents);
+    return checksum(contents) == checksum ? contents : null;
+  }
+
+  private static class Segment {
+    private final File file;
+    private final long baseOffset;
+    private final FileChannel channel;
+
+    // Only modified while holding the stream's write lock, but read by log readers.
+    private volatile long size;
+
+    Segment(File file, long baseOffset) throws IOException {
+      this.file = file;
+      this.baseOffset = baseOffset;
+      channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+          StandardOpenOption.READ, StandardOpenOption.WRITE);
+      size = channel.size();
+    }
+
+    long endOffset() {
+      return baseOffset + size;
+    }
+
+    ByteBuffer map(long length) throws IOException {
+      return channel.map(MapMode.READ_ONLY, 0, length);
+    }
+
+    /**
+     * Truncates any trailing partial or corrupt record, as may be left behind by a crash during an
+     * append.
+     */
+    void recover() throws IOException {
+      ByteBuffer buffer = map(size);
+      int validBytes = 0;
+      while (readRecord(buffer) != null) {
+        validBytes = buffer.position();
+      }
+      if (validBytes < size) {
+        LOG.warning(String.format("Discarding %d trailing bytes of log segment %s",
+            size - validBytes, file));
+        channel.truncate(validBytes);
+        size = validBytes;
+      }
+    }
+
+    void delete() throws IOException {
+      channel.close();
+      if (!file.delete()) {
+        throw new IOException("Failed to delete log segment " + file);
+      }
+    }
+  }
+
+  @VisibleForTesting
+  static class SegmentPosition implements Position {
+    private final long offset;
+
+    SegmentPosition(long offset) {
+      this.offset = offset;
+    }
+
+    @Override
+    public int compareTo(Position position) {
+      return Longs.compare(offset, ((SegmentPosition) position).offset);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return (o instanceof SegmentPosition) && (offset == ((SegmentPosition) o).offset);
+    }
+
+    @Override
+    public int hashCode() {
+      return Longs.hashCode(offset);
+    }
+
+    @Override
+    public String toString() {
+      return Long.toString(offset);
+    }
+  }
+
+  private static class SegmentedStream implements Stream {
+    private final AtomicLong appends = Stats.exportLong("segmented_log_appends");
+    private final AtomicLong fsyncs = Stats.exportLong("segmented_log_fsyncs");
+    private final AtomicLong segmentsDeleted = Stats.exportLong("segmented_log_segments_deleted");
+
+    private final File directory;
+    private final long maxSegmentBytes;
+
+    // Lock ordering is syncLock before writeLock.  Appenders release the write lock before syncing
+    // so that other appenders may write while an fsync is in progress.
+    private final Object syncLock = new Object();
+    private final Object writeLock = new Object();
+
+    // Segments keyed by base offset, the last of which is being appended to.
+    // Guarded by writeLock.
+    private final NavigableMap<Long, Segment> segments = Maps.newTreeMap();
+    // Offset of the first record that has not been truncated.  Guarded by writeLock.
+    private long startOffset;
+    // Guarded by writeLock.
+    private boolean closed = false;
+    // Offset up to which all records are known to be durable.  Guarded by syncLock.
+    private long syncedOffset;
+
+    SegmentedStream(File directory, long maxSegmentBytes) throws IOException {
+      this.directory = directory;
+      this.maxSegmentBytes = maxSegmentBytes;
+
+      startOffset = readStartOffset();
+      for (File file : listSegmentFiles()) {
+        String name = file.getName();
+        long baseOffset;
+        try {
+          baseOffset = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+          throw new IOException("Unrecognized log segment file " + file, e);
+        }
+        segments.put(baseOffset, new Segment(file, baseOffset));
+      }
+
+      if (!segments.isEmpty()) {
+        segments.lastEntry().getValue().recover();
+      }
+
+      // A crash may have struck between recording a truncation and deleting the segments it covers.
+      Iterator<Segment> truncated = segments.values().iterator();
+      while (truncated.hasNext()) {
+        Segment segment = truncated.next();
+        if (segment.endOffset() <= startOffset) {
+          segment.delete();
+          truncated.remove();
+        }
+      }
+
+      long expectedOffset = -1;
+      for (Segment segment : segments.values()) {
+        if (expectedOffset != -1 && segment.baseOffset != expectedOffset) {
+          throw new IOException(String.format("Log segment %s should start at offset %d",
+              segment.file, expectedOffset));
+        }
+        expectedOffset = segment.endOffset();
+      }
+
+      if (segments.isEmpty()) {
+        createSegment(startOffset);
+      }
+      syncedOffset = active().endOffset();
+    }
+
+    private List<File> listSegmentFiles() throws IOException {
+      File[] files = directory.listFiles(new FilenameFilter() {
+        @Override public boolean accept(File dir, String name) {
+          return name.endsWith(SEGMENT_SUFFIX);
+        }
+      });
+      if (files == null) {
+        throw new IOException("Failed to list log directory " + directory);
+      }
+      return ImmutableList.copyOf(files);
+    }
+
+    private Path startOffsetFile() {
+      return directory.toPath().resolve(START_OFFSET_FILE);
+    }
+
+    private long readStartOffset() throws IOException {
+      Path file = startOffsetFile();
+      if (!Files.exists(file)) {
+        return 0;
+      }
+      byte[] contents = Files.readAllBytes(file);
+      if (contents.length != Longs.BYTES) {
+        throw new IOException("Invalid log start offset file " + file);
+      }
+      return Longs.fromByteArray(contents);
+    }
+
+    private void writeStartOffset(long offset) throws IOException {
+      Path file = startOffsetFile();
+      Path tempFile = directory.toPath().resolve(START_OFFSET_FILE + ".tmp");
+      try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+        ByteBuffer buffer = ByteBuffer.wrap(Longs.toByteArray(offset));
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        channel.force(true);
+      }
+      Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Segment active() {
+      return segments.lastEntry().getValue();
+    }
+
+    private Segment createSegment(long baseOffset) throws IOException {
+      File file = new File(directory, String.format("%020d%s", baseOffset, SEGMENT_SUFFIX));
+      Segment segment = new Segment(file, baseOffset);
+      segments.put(baseOffset, segment);
+      return segment;
+    }
+
+    @Override
+    public Position append(byte[] contents) throws StreamAccessException {
+      checkNotNull(contents);
+
+      int recordBytes = RECORD_HEADER_BYTES + contents.length;
+      ByteBuffer record = ByteBuffer.allocate(recordBytes);
+      record.putInt(contents.length).putInt(checksum(contents)).put(contents).flip();
+
+      long offset;
+      long endOffset;
+      try {
+        synchronized (writeLock) {
+          checkState(!closed, "Log stream is closed.");
+
+          Segment segment = active();
+          if (segment.size > 0 && segment.size + recordBytes > maxSegmentBytes) {
+            // Records in earlier segments are synced here so that syncs need only consider the
+            // active segment.
+            segment.channel.force(false);
+            segment = createSegment(segment.endOffset());
+          }
+
+          offset = segment.endOffset();
+          try {
+            while (record.hasRemaining()) {
+              segment.channel.write(record, segment.size + record.position());
+            }
+          } catch (IOException e) {
+            // Don't leave a partial record behind for the next append to follow.
+            segment.channel.truncate(segment.size);
+            throw e;
+          }
+          segment.size += recordBytes;
+          endOffset = segment.endOffset();
+        }
+        sync(endOffset);
+      } catch (IOException e) {
+        throw new StreamAccessException("Failed to append to log", e);
+      }
+
+      appends.incrementAndGet();
+      return new SegmentPosition(offset);
+    }
+
+    private void sync(long offset) throws IOException {
+      synchronized (syncLock) {
+        if (syncedOffset >= offset) {
+          // Another appender's fsync already covered this record.
+          return;
+        }
+
+        FileChannel channel;
+        long endOffset;
+        synchronized (writeLock) {
+          channel = active().channel;
+          endOffset = active().endOffset();
+        }
+        channel.force(false);
+        syncedOffset = endOffset;
+        fsyncs.incrementAndGet();
+      }
+    }
+
+    @Override
+    public Iterator<Entry> readAll() throws StreamAccessException {
+      final List<Segment> toRead;
+      final long fromOffset;
+      final long toOffset;
+      synchronized (writeLock) {
+        checkState(!closed, "Log stream is closed.");
+
+        toRead = ImmutableList.copyOf(segments.values());
+        fromOffset = startOffset;
+        toOffset = active().endOffset();
+      }
+
+      return new AbstractIterator<Entry>() {
+        private final Iterator<Segment> remaining = toRead.iterator();
+        private Segment segment;
+        private ByteBuffer buffer;
+
+        @Override protected Entry computeNext() {
+          while (true) {
+            while (buffer == null || !buffer.hasRemaining()) {
+              if (!remaining.hasNext()) {
+                return endOfData();
+              }
+              segment = remaining.next();
+              try {
+                buffer = segment.map(Math.min(segment.size, toOffset - segment.baseOffset));
+              } catch (IOException e) {
+                throw new StreamAccessException("Failed to read log segment " + segment.file, e);
+              }
+            }
+
+            long offset = segment.baseOffset + buffer.position();
+            final byte[] contents = readRecord(buffer);
+            if (contents == null) {
+              throw new StreamAccessException("Failed to read log",
+                  new IOException("Corrupt record at offset " + offset + " of " + segment.file));
+            }
+            if (offset >= fromOffset) {
+              return new Entry() {
+                @Override public byte[] contents() {
+                  return contents;
+                }
+              };
+            }
+          }
+        }
+      };
+    }
+
+    @Override
+    public void truncateBefore(Position position)
+        throws InvalidPositionException, StreamAccessException {
+
+      if (!(position instanceof SegmentPosition)) {
+        throw new InvalidPositionException("Unrecognized position " + position);
+      }
+      long offset = ((SegmentPosition) position).offset;
+
+      synchronized (syncLock) {
+        synchronized (writeLock) {
+          checkState(!closed, "Log stream is closed.");
+          if (offset < startOffset || offset > active().endOffset()) {
+            throw new InvalidPositionException("Position is not in the log: " + position);
+          }
+
+          try {
+            // Record the truncation point first, so a crash can not expose truncated records.
+            writeStartOffset(offset);
+            startOffset = offset;
+
+            // The active segment is always kept to preserve the offset of the next append.
+            Map<Long, Segment> inactive = segments.headMap(active().baseOffset);
+            Iterator<Segment> truncated = inactive.values().iterator();
+            while (truncated.hasNext()) {
+              Segment segment = truncated.next();
+              if (segment.endOffset() > offset) {
+                break;
+              }
+              segment.delete();
+              truncated.remove();
+              segmentsDeleted.incrementAndGet();
+            }
+          } catch (IOException e) {
+            throw new StreamAccessException("Failed to truncate log", e);
+          }
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      synchronized (syncLock) {
+        synchronized (writeLock) {
+          if (closed) {
+            return;
+          }
+          closed = true;
+          active().channel.force(false);
+          for (Segment segment : segments.values()) {
+            segment.channel.close();
+          }
+        }
+      }
+    }
+  }
+}
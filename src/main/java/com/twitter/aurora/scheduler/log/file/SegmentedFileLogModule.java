@@ -0,0 +1,55 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.log.file;
+
+import java.io.File;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.PrivateModule;
+
+import com.twitter.aurora.scheduler.log.Log;
+import com.twitter.common.args.Arg;
+import com.twitter.common.args.CmdLine;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
+
+/**
+ * Binds a log stored in segment files on local disk.
+ *
+ * <p>Exports the following bindings:
+ * <ul>
+ *   <li>{@link Log} - a non-replicated log backed by local segment files</li>
+ * </ul>
+ */
+public class SegmentedFileLogModule extends PrivateModule {
+
+  @CmdLine(name = "segmented_log_dir",
+           help = "Directory to store local log segments in.  It will be created if it does not "
+               + "exist.")
+  private static final Arg<File> LOG_DIR = Arg.create(null);
+
+  @CmdLine(name = "segmented_log_max_segment_size",
+           help = "Size after which appends to the local log start a new segment.")
+  private static final Arg<Amount<Long, Data>> MAX_SEGMENT_SIZE =
+      Arg.create(Amount.of(64L, Data.MB));
+
+  @Override
+  protected void configure() {
+    Preconditions.checkNotNull(LOG_DIR.get());
+    bind(Log.class).toInstance(new SegmentedFileLog(LOG_DIR.get(), MAX_SEGMENT_SIZE.get()));
+    expose(Log.class);
+  }
+}
@@ -17,9 +17,17 @@ package com.twitter.aurora.scheduler.log.mesos;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
@@ -31,9 +39,12 @@ import javax.inject.Provider;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Iterables;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.UnmodifiableIterator;
 import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.BindingAnnotation;
 
 import org.apache.mesos.Log;
@@ -75,6 +86,23 @@ public class MesosLog implements com.twitter.aurora.scheduler.log.Log {
   @Target({ PARAMETER, METHOD })
   public @interface ReadTimeout { }
 
+  /**
+   * Binding annotation for the maximum number of log positions to read at a time.
+   */
+  @BindingAnnotation
+  @Retention(RUNTIME)
+  @Target({ PARAMETER, METHOD })
+  public @interface ReadBatchSize { }
+
+  /**
+   * Binding annotation for the number of batches of log positions to read ahead of the batch being
+   * consumed.
+   */
+  @BindingAnnotation
+  @Retention(RUNTIME)
+  @Target({ PARAMETER, METHOD })
+  public @interface ReadPrefetchDepth { }
+
   /**
    * Binding annotation for log write timeouts - used for truncates and appends.
    */
@@ -87,6 +115,8 @@ public class MesosLog implements com.twitter.aurora.scheduler.log.Log {
 
   private final Provider<ReaderInterface> readerFactory;
   private final Amount<Long, Time> readTimeout;
+  private final int readBatchSize;
+  private final int readPrefetchDepth;
 
   private final Provider<WriterInterface> writerFactory;
   private final Amount<Long, Time> writeTimeout;
@@ -99,6 +129,8 @@ public class MesosLog implements com.twitter.aurora.scheduler.log.Log {
    * @param logFactory Factory to provide access to log.
    * @param readerFactory Factory to provide access to log readers.
    * @param readTimeout Log read timeout.
+   * @param readBatchSize Maximum number of log positions to read at a time.
+   * @param readPrefetchDepth Number of batches to read ahead of the batch being consumed.
    * @param writerFactory Factory to provide access to log writers.
    * @param writeTimeout Log write timeout.
    * @param noopEntry A no-op log entry blob.
@@ -108,6 +140,8 @@ public class MesosLog implements com.twitter.aurora.scheduler.log.Log {
       Provider<LogInterface> logFactory,
       Provider<ReaderInterface> readerFactory,
       @ReadTimeout Amount<Long, Time> readTimeout,
+      @ReadBatchSize int readBatchSize,
+      @ReadPrefetchDepth int readPrefetchDepth,
       Provider<WriterInterface> writerFactory,
       @WriteTimeout Amount<Long, Time> writeTimeout,
       @NoopEntry byte[] noopEntry) {
@@ -116,6 +150,10 @@ public class MesosLog implements com.twitter.aurora.scheduler.log.Log {
 
     this.readerFactory = Preconditions.checkNotNull(readerFactory);
     this.readTimeout = readTimeout;
+    Preconditions.checkArgument(readBatchSize > 0, "Read batch size must be positive.");
+    this.readBatchSize = readBatchSize;
+    Preconditions.checkArgument(readPrefetchDepth >= 0, "Read prefetch depth must be >= 0.");
+    this.readPrefetchDepth = readPrefetchDepth;
 
     this.writerFactory = Preconditions.checkNotNull(writerFactory);
     this.writeTimeout = writeTimeout;
@@ -126,7 +164,14 @@ public class MesosLog implements com.twitter.aurora.scheduler.log.Log {
   @Override
   public Stream open() {
     return new LogStream(
-        logFactory.get(), readerFactory.get(), readTimeout, writerFactory, writeTimeout, noopEntry);
+        logFactory.get(),
+        readerFactory.get(),
+        readTimeout,
+        readBatchSize,
+        readPrefetchDepth,
+        writerFactory,
+        writeTimeout,
+        noopEntry);
   }
 
   @VisibleForTesting
@@ -162,12 +207,17 @@ public class MesosLog implements com.twitter.aurora.scheduler.log.Log {
     private final OpStats truncate = new OpStats("truncate");
     private final AtomicLong entriesSkipped =
         Stats.exportLong("scheduler_log_native_native_entries_skipped");
+    private final AtomicLong entriesRead = Stats.exportLong("scheduler_log_native_entries_read");
+    private final AtomicLong bytesRead = Stats.exportLong("scheduler_log_native_bytes_read");
 
     private final LogInterface log;
 
     private final ReaderInterface reader;
     private final long readTimeout;
     private final TimeUnit readTimeUnit;
+    private final int readBatchSize;
+    private final int readPrefetchDepth;
+    private final ExecutorService readExecutor;
 
     private final Provider<WriterInterface> writerFactory;
     private final long writeTimeout;
@@ -178,14 +228,31 @@ public class MesosLog implements com.twitter.aurora.scheduler.log.Log {
     private WriterInterface writer;
 
     LogStream(LogInterface log, ReaderInterface reader, Amount<Long, Time> readTimeout,
-        Provider<WriterInterface> writerFactory, Amount<Long, Time> writeTimeout,
-        byte[] noopEntry) {
+        int readBatchSize, int readPrefetchDepth, Provider<WriterInterface> writerFactory,
+        Amount<Long, Time> writeTimeout, byte[] noopEntry) {
 
       this.log = log;
 
       this.reader = reader;
       this.readTimeout = readTimeout.getValue();
       this.readTimeUnit = readTimeout.getUnit().getTimeUnit();
+      this.readBatchSize = readBatchSize;
+      this.readPrefetchDepth = readPrefetchDepth;
+      if (readPrefetchDepth == 0) {
+        this.readExecutor = MoreExecutors.sameThreadExecutor();
+      } else {
+        // Batches are read one at a time, in order.  The thread exits while the stream is not
+        // being read.
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            1,
+            1,
+            1,
+            TimeUnit.MINUTES,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactoryBuilder().setNameFormat("LogRead-%d").setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+        this.readExecutor = executor;
+      }
 
       this.writerFactory = writerFactory;
       this.writeTimeout = writeTimeout.getValue();
@@ -206,74 +273,104 @@ public class MesosLog implements com.twitter.aurora.scheduler.log.Log {
         throw new StreamAccessException("Error writing noop prior to a read", e);
       }
 
-      final Log.Position from = reader.beginning();
-      final Log.Position to = end().unwrap();
+      final long from = Longs.fromByteArray(reader.beginning().identity());
+      final long to = Longs.fromByteArray(end().unwrap().identity());
 
       // Reading all the entries at once may cause large garbage collections. Instead, we
-      // lazily read the entries one by one as they are requested.
+      // lazily read the entries in batches as they are requested, reading up to a fixed number of
+      // batches ahead.
       // TODO(Benjamin Hindman): Eventually replace this functionality with functionality
       // from the Mesos Log.
       return new UnmodifiableIterator<Entry>() {
-        private long position = Longs.fromByteArray(from.identity());
-        private final long endPosition = Longs.fromByteArray(to.identity());
-        private Entry entry = null;
+        private final Deque<Future<List<Log.Entry>>> pending = new ArrayDeque<>();
+        private long position = from;
+        private Iterator<Log.Entry> batch = Iterators.emptyIterator();
 
         @Override
         public boolean hasNext() {
-          if (entry != null) {
-            return true;
-          }
-
-          while (position <= endPosition) {
-            long start = System.nanoTime();
-            try {
-              Log.Position p = log.position(Longs.toByteArray(position));
-              if (LOG.isLoggable(Level.FINE)) {
-                LOG.fine("Reading position " + position + " from the log");
-              }
-              List<Log.Entry> entries = reader.read(p, p, readTimeout, readTimeUnit);
-
-              // N.B. HACK! There is currently no way to "increment" a position. Until the Mesos
-              // Log actually provides a way to "stream" the log, we approximate as much by
-              // using longs via Log.Position.identity and Log.position.
-              position++;
-
-              // Reading positions in this way means it's possible that we get an "invalid" entry
-              // (e.g., in the underlying log terminology this would be anything but an append)
-              // which will be removed from the returned entries resulting in an empty list.
-              // We skip these.
-              if (entries.isEmpty()) {
-                entriesSkipped.getAndIncrement();
-              } else {
-                entry = MESOS_ENTRY_TO_ENTRY.apply(Iterables.getOnlyElement(entries));
-                return true;
-              }
-            } catch (TimeoutException e) {
-              read.timeouts.getAndIncrement();
-              throw new StreamAccessException("Timeout reading from log.", e);
-            } catch (Log.OperationFailedException e) {
-              read.failures.getAndIncrement();
-              throw new StreamAccessException("Problem reading from log", e);
-            } finally {
-              read.timing.accumulate(System.nanoTime() - start);
+          while (!batch.hasNext()) {
+            while ((position <= to) && (pending.size() <= readPrefetchDepth)) {
+              final long first = position;
+              final long last = Math.min(to, position + readBatchSize - 1);
+              pending.add(readExecutor.submit(new Callable<List<Log.Entry>>() {
+                @Override public List<Log.Entry> call() {
+                  return readBatch(first, last);
+                }
+              }));
+              position = last + 1;
             }
+            if (pending.isEmpty()) {
+              return false;
+            }
+            batch = awaitBatch(pending.remove()).iterator();
           }
-          return false;
+          return true;
         }
 
         @Override
         public Entry next() {
-          if (entry == null && !hasNext()) {
+          if (!hasNext()) {
             throw new NoSuchElementException();
           }
+          return MESOS_ENTRY_TO_ENTRY.apply(batch.next());
+        }
+
+        private List<Log.Entry> awaitBatch(Future<List<Log.Entry>> read) {
+          try {
+            return read.get();
+          } catch (InterruptedException e) {
+            cancelPending();
+            Thread.currentThread().interrupt();
+            throw new StreamAccessException("Interrupted while reading from log.", e);
+          } catch (ExecutionException e) {
+            cancelPending();
+            Throwables.propagateIfInstanceOf(e.getCause(), StreamAccessException.class);
+            throw Throwables.propagate(e.getCause());
+          }
+        }
 
-          Entry result = Preconditions.checkNotNull(entry);
-          entry = null;
-          return result;
+        private void cancelPending() {
+          for (Future<List<Log.Entry>> read : pending) {
+            read.cancel(true);
+          }
+          pending.clear();
         }
       };
     }
 
+    private List<Log.Entry> readBatch(long first, long last) throws StreamAccessException {
+      long start = System.nanoTime();
+      try {
+        // N.B. HACK! There is currently no way to "increment" a position. Until the Mesos
+        // Log actually provides a way to "stream" the log, we approximate as much by
+        // using longs via Log.Position.identity and Log.position.
+        Log.Position from = log.position(Longs.toByteArray(first));
+        Log.Position to = log.position(Longs.toByteArray(last));
+        if (LOG.isLoggable(Level.FINE)) {
+          LOG.fine("Reading positions " + first + " through " + last + " from the log");
+        }
+        List<Log.Entry> entries = reader.read(from, to, readTimeout, readTimeUnit);
+
+        // Reading positions in this way means it's possible that we get "invalid" entries
+        // (e.g., in the underlying log terminology this would be anything but an append)
+        // which are removed from the returned entries.  We skip these.
+        entriesSkipped.getAndAdd(last - first + 1 - entries.size());
+        entriesRead.getAndAdd(entries.size());
+        for (Log.Entry entry : entries) {
+          bytesRead.getAndAdd(entry.data.length);
+        }
+        return entries;
+      } catch (TimeoutException e) {
+        read.timeouts.getAndIncrement();
+        throw new StreamAccessException("Timeout reading from log.", e);
+      } catch (Log.OperationFailedException e) {
+        read.failures.getAndIncrement();
+        throw new StreamAccessException("Problem reading from log", e);
+      } finally {
+        read.timing.accumulate(System.nanoTime() - start);
+      }
+    }
+
     @Override
     public LogPosition append(final byte[] contents) throws StreamAccessException {
       Preconditions.checkNotNull(contents);
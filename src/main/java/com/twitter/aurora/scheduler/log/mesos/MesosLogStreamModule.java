@@ -38,6 +38,8 @@ import com.twitter.aurora.scheduler.log.mesos.LogInterface.ReaderInterface;
 import com.twitter.aurora.scheduler.log.mesos.LogInterface.WriterInterface;
 import com.twitter.common.args.Arg;
 import com.twitter.common.args.CmdLine;
+import com.twitter.common.args.constraints.NotNegative;
+import com.twitter.common.args.constraints.Positive;
 import com.twitter.common.net.InetSocketAddressHelper;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
@@ -91,6 +93,18 @@ public class MesosLogStreamModule extends PrivateModule {
   private static final Arg<Amount<Long, Time>> READ_TIMEOUT =
       Arg.create(Amount.of(5L, Time.SECONDS));
 
+  @Positive
+  @CmdLine(name = "native_log_read_batch_size",
+           help = "The maximum number of log positions to read with a single log read.  The read "
+               + "timeout applies to each such read.")
+  private static final Arg<Integer> READ_BATCH_SIZE = Arg.create(16);
+
+  @NotNegative
+  @CmdLine(name = "native_log_read_prefetch_depth",
+           help = "The number of batches of log positions to read ahead of the batch being "
+               + "replayed.  Zero disables reading ahead.")
+  private static final Arg<Integer> READ_PREFETCH_DEPTH = Arg.create(1);
+
   @CmdLine(name = "native_log_write_timeout",
            help = "The timeout for doing log appends and truncations.")
   private static final Arg<Amount<Long, Time>> WRITE_TIMEOUT =
@@ -106,6 +120,10 @@ public class MesosLogStreamModule extends PrivateModule {
   protected void configure() {
     bind(new TypeLiteral<Amount<Long, Time>>() { }).annotatedWith(MesosLog.ReadTimeout.class)
         .toInstance(READ_TIMEOUT.get());
+    bind(Integer.class).annotatedWith(MesosLog.ReadBatchSize.class)
+        .toInstance(READ_BATCH_SIZE.get());
+    bind(Integer.class).annotatedWith(MesosLog.ReadPrefetchDepth.class)
+        .toInstance(READ_PREFETCH_DEPTH.get());
     bind(new TypeLiteral<Amount<Long, Time>>() { }).annotatedWith(MesosLog.WriteTimeout.class)
         .toInstance(WRITE_TIMEOUT.get());
 
@@ -29,6 +29,6 @@ public class MetadataModule extends AbstractModule {
   @Override
   protected void configure() {
     bind(NearestFit.class).in(Singleton.class);
-    PubsubEventModule.bindSubscriber(binder(), NearestFit.class);
+    PubsubEventModule.bindQueuedSubscriber(binder(), NearestFit.class);
   }
 }
@@ -17,6 +17,9 @@ package com.twitter.aurora.scheduler.state;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -30,25 +33,34 @@ import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.base.Throwables;
-
-import org.apache.commons.lang.builder.HashCodeBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 import com.twitter.aurora.gen.ScheduleStatus;
 import com.twitter.aurora.gen.ScheduledTask;
 import com.twitter.aurora.gen.TaskEvent;
 import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
-import com.twitter.common.base.Closure;
-import com.twitter.common.base.Closures;
-import com.twitter.common.base.Command;
 import com.twitter.common.base.MorePreconditions;
 import com.twitter.common.stats.Stats;
 import com.twitter.common.util.Clock;
-import com.twitter.common.util.StateMachine;
-import com.twitter.common.util.StateMachine.Rule;
-import com.twitter.common.util.StateMachine.Transition;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import static com.twitter.aurora.gen.ScheduleStatus.ASSIGNED;
+import static com.twitter.aurora.gen.ScheduleStatus.FAILED;
+import static com.twitter.aurora.gen.ScheduleStatus.FINISHED;
+import static com.twitter.aurora.gen.ScheduleStatus.INIT;
+import static com.twitter.aurora.gen.ScheduleStatus.KILLED;
+import static com.twitter.aurora.gen.ScheduleStatus.KILLING;
+import static com.twitter.aurora.gen.ScheduleStatus.LOST;
+import static com.twitter.aurora.gen.ScheduleStatus.PENDING;
+import static com.twitter.aurora.gen.ScheduleStatus.PREEMPTING;
+import static com.twitter.aurora.gen.ScheduleStatus.RESTARTING;
+import static com.twitter.aurora.gen.ScheduleStatus.RUNNING;
+import static com.twitter.aurora.gen.ScheduleStatus.STARTING;
+import static com.twitter.aurora.gen.ScheduleStatus.UNKNOWN;
+
 /**
  * State machine for a task.
  * <p>
@@ -56,6 +68,9 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * to different state transitions.  These responses are externally communicated by populating a
  * provided work queue.
  * <p>
+ * The legal transitions and their callbacks are held in a single table shared by all state
+ * machines, so a state machine is cheap to create for each task being changed.
+ * <p>
  * TODO(William Farner): Introduce an interface to allow state machines to be dealt with
  *     abstractly from the consumption side.
  */
@@ -65,21 +80,6 @@ class TaskStateMachine {
   private static final AtomicLong ILLEGAL_TRANSITIONS =
       Stats.exportLong("scheduler_illegal_task_state_transitions");
 
-  // Re-declarations of statuses as wrapped state objects.
-  private static final State ASSIGNED = State.create(ScheduleStatus.ASSIGNED);
-  private static final State FAILED = State.create(ScheduleStatus.FAILED);
-  private static final State FINISHED = State.create(ScheduleStatus.FINISHED);
-  private static final State INIT = State.create(ScheduleStatus.INIT);
-  private static final State KILLED = State.create(ScheduleStatus.KILLED);
-  private static final State KILLING = State.create(ScheduleStatus.KILLING);
-  private static final State LOST = State.create(ScheduleStatus.LOST);
-  private static final State PENDING = State.create(ScheduleStatus.PENDING);
-  private static final State PREEMPTING = State.create(ScheduleStatus.PREEMPTING);
-  private static final State RESTARTING = State.create(ScheduleStatus.RESTARTING);
-  private static final State RUNNING = State.create(ScheduleStatus.RUNNING);
-  private static final State STARTING = State.create(ScheduleStatus.STARTING);
-  private static final State UNKNOWN = State.create(ScheduleStatus.UNKNOWN);
-
   @VisibleForTesting
   static final Supplier<String> LOCAL_HOST_SUPPLIER = Suppliers.memoize(
       new Supplier<String>() {
@@ -93,71 +93,262 @@ class TaskStateMachine {
         }
       });
 
-  private final String taskId;
-  private final WorkSink workSink;
-  private final StateMachine<State> stateMachine;
-  private ScheduleStatus previousState = null;
-  private final Clock clock;
-
   /**
-   * Composes a schedule status and a state change argument.  Only the ScheduleStatuses in two
-   * States must be equal for them to be considered equal.
+   * Action taken when a state machine attempts to leave a state.  Callbacks are invoked for both
+   * allowed and denied transitions, and are shared by all state machines.
    */
-  private static class State {
-    private final ScheduleStatus state;
-    private final Function<IScheduledTask, IScheduledTask> mutation;
+  private interface Callback {
+    /**
+     * Responds to a transition attempt.
+     *
+     * @param machine State machine attempting the transition.
+     * @param to State being transitioned to.
+     * @param mutation Mutation supplied with the transition.
+     */
+    void execute(
+        TaskStateMachine machine,
+        ScheduleStatus to,
+        Function<IScheduledTask, IScheduledTask> mutation);
+  }
 
-    State(ScheduleStatus state, Function<IScheduledTask, IScheduledTask> mutation) {
-      this.state = state;
-      this.mutation = mutation;
-    }
+  private static final Callback NO_OP = new Callback() {
+    @Override public void execute(
+        TaskStateMachine machine,
+        ScheduleStatus to,
+        Function<IScheduledTask, IScheduledTask> mutation) {
 
-    static State create(ScheduleStatus status) {
-      return create(status, Functions.<IScheduledTask>identity());
+      // No-op.
     }
+  };
 
-    static State create(
-        ScheduleStatus status,
+  private static final Callback MANAGE_PENDING_TASK = new Callback() {
+    @Override public void execute(
+        TaskStateMachine machine,
+        ScheduleStatus to,
         Function<IScheduledTask, IScheduledTask> mutation) {
 
-      return new State(status, mutation);
-    }
+      switch (to) {
+        case KILLING:
+          machine.addWork(WorkCommand.DELETE);
+          break;
 
-    @Override
-    public boolean equals(Object o) {
-      if (!(o instanceof State)) {
-        return false;
+        default:
+          // No-op.
       }
+    }
+  };
+
+  private static final Callback MANAGE_ASSIGNED_TASK = new Callback() {
+    @SuppressWarnings("fallthrough")
+    @Override public void execute(
+        TaskStateMachine machine,
+        ScheduleStatus to,
+        Function<IScheduledTask, IScheduledTask> mutation) {
 
-      if (o == this) {
-        return true;
+      switch (to) {
+        case FINISHED:
+          machine.rescheduleIfService();
+          break;
+
+        case PREEMPTING:
+          machine.addWork(WorkCommand.KILL);
+          break;
+
+        case FAILED:
+          machine.incrementFailuresMaybeReschedule();
+          break;
+
+        case RESTARTING:
+          machine.addWork(WorkCommand.KILL);
+          break;
+
+        case KILLED:
+          machine.addWork(WorkCommand.RESCHEDULE);
+          break;
+
+        case LOST:
+          machine.addWork(WorkCommand.RESCHEDULE);
+          // fall through
+        case KILLING:
+          machine.addWork(WorkCommand.KILL);
+          break;
+
+        case UNKNOWN:
+          break;
+
+        default:
+          // No-op.
       }
+    }
+  };
+
+  // Shared by STARTING and RUNNING, where the slave has acknowledged the task.
+  private static final Callback MANAGE_STARTED_TASK = new Callback() {
+    @Override public void execute(
+        TaskStateMachine machine,
+        ScheduleStatus to,
+        Function<IScheduledTask, IScheduledTask> mutation) {
 
-      State other = (State) o;
-      return state == other.state;
+      switch (to) {
+        case FINISHED:
+          machine.rescheduleIfService();
+          break;
+
+        case PREEMPTING:
+          machine.addWork(WorkCommand.KILL);
+          break;
+
+        case RESTARTING:
+          machine.addWork(WorkCommand.KILL);
+          break;
+
+        case FAILED:
+          machine.incrementFailuresMaybeReschedule();
+          break;
+
+        case KILLED:
+          machine.addWork(WorkCommand.RESCHEDULE);
+          break;
+
+        case KILLING:
+          machine.addWork(WorkCommand.KILL);
+          break;
+
+        case LOST:
+          machine.addWork(WorkCommand.RESCHEDULE);
+          break;
+
+        case UNKNOWN:
+          // The slave previously acknowledged that it had the task, and now stopped reporting it.
+          machine.updateState(ScheduleStatus.LOST);
+          break;
+
+        default:
+          // No-op.
+      }
     }
+  };
+
+  private static final Callback MANAGE_RESTARTING_TASK = new Callback() {
+    @SuppressWarnings("fallthrough")
+    @Override public void execute(
+        TaskStateMachine machine,
+        ScheduleStatus to,
+        Function<IScheduledTask, IScheduledTask> mutation) {
 
-    @Override
-    public int hashCode() {
-      return new HashCodeBuilder()
-          .append(state)
-          .toHashCode();
+      switch (to) {
+        case ASSIGNED:
+        case STARTING:
+        case RUNNING:
+          machine.addWork(WorkCommand.KILL);
+          break;
+
+        case LOST:
+          machine.addWork(WorkCommand.KILL);
+          // fall through
+
+        case FINISHED:
+        case FAILED:
+        case KILLED:
+          machine.addWork(WorkCommand.RESCHEDULE, mutation);
+          break;
+
+        case UNKNOWN:
+          machine.updateState(ScheduleStatus.LOST);
+          break;
+
+        default:
+          // No-op.
+      }
     }
+  };
 
-    @Override
-    public String toString() {
-      return state.toString();
+  private static final Callback MANAGE_TERMINATED_TASK = new Callback() {
+    @Override public void execute(
+        TaskStateMachine machine,
+        ScheduleStatus to,
+        Function<IScheduledTask, IScheduledTask> mutation) {
+
+      switch (to) {
+        // Kill a task that we believe to be terminated when an attempt is made to revive.
+        case ASSIGNED:
+        case STARTING:
+        case RUNNING:
+          machine.addWork(WorkCommand.KILL);
+          break;
+
+        // Remove a terminated task that is remotely removed.
+        case UNKNOWN:
+          machine.addWork(WorkCommand.DELETE);
+          break;
+
+        default:
+          // No-op.
+      }
     }
+  };
 
-    private ScheduleStatus getState() {
-      return state;
+  /**
+   * The states that may be entered from a state, and the callback to invoke on any attempt to
+   * leave it.
+   */
+  private static final class Rule {
+    private final Set<ScheduleStatus> to;
+    private final Callback callback;
+
+    Rule(Set<ScheduleStatus> to, Callback callback) {
+      this.to = to;
+      this.callback = callback;
     }
+  }
 
-    private Function<IScheduledTask, IScheduledTask> getMutation() {
-      return mutation;
+  private static final Map<ScheduleStatus, Rule> RULES = buildRules();
+
+  private static Map<ScheduleStatus, Rule> buildRules() {
+    Map<ScheduleStatus, Rule> rules = Maps.newEnumMap(ScheduleStatus.class);
+    addRule(rules, INIT, NO_OP, PENDING, UNKNOWN);
+    addRule(rules, PENDING, MANAGE_PENDING_TASK, ASSIGNED, KILLING);
+    addRule(rules, ASSIGNED, MANAGE_ASSIGNED_TASK,
+        STARTING, RUNNING, FINISHED, FAILED, RESTARTING, KILLED, KILLING, LOST, PREEMPTING);
+    addRule(rules, STARTING, MANAGE_STARTED_TASK,
+        RUNNING, FINISHED, FAILED, RESTARTING, KILLING, KILLED, LOST, PREEMPTING);
+    addRule(rules, RUNNING, MANAGE_STARTED_TASK,
+        FINISHED, RESTARTING, FAILED, KILLING, KILLED, LOST, PREEMPTING);
+    addRule(rules, FINISHED, MANAGE_TERMINATED_TASK, UNKNOWN);
+    addRule(rules, PREEMPTING, MANAGE_RESTARTING_TASK, FINISHED, FAILED, KILLING, KILLED, LOST);
+    addRule(rules, RESTARTING, MANAGE_RESTARTING_TASK, FINISHED, FAILED, KILLING, KILLED, LOST);
+    addRule(rules, FAILED, MANAGE_TERMINATED_TASK, UNKNOWN);
+    addRule(rules, KILLED, MANAGE_TERMINATED_TASK, UNKNOWN);
+    addRule(rules, KILLING, MANAGE_TERMINATED_TASK, FINISHED, FAILED, KILLED, LOST, UNKNOWN);
+    addRule(rules, LOST, MANAGE_TERMINATED_TASK, UNKNOWN);
+    rules.put(UNKNOWN, new Rule(ImmutableSet.<ScheduleStatus>of(), MANAGE_TERMINATED_TASK));
+
+    // Any other state may not be left.
+    for (ScheduleStatus status : ScheduleStatus.values()) {
+      if (!rules.containsKey(status)) {
+        rules.put(status, new Rule(ImmutableSet.<ScheduleStatus>of(), NO_OP));
+      }
     }
+    return Collections.unmodifiableMap(rules);
   }
 
+  private static void addRule(
+      Map<ScheduleStatus, Rule> rules,
+      ScheduleStatus from,
+      Callback callback,
+      ScheduleStatus to,
+      ScheduleStatus... moreTo) {
+
+    rules.put(from, new Rule(Sets.immutableEnumSet(to, moreTo), callback));
+  }
+
+  private final String taskId;
+  @Nullable private final IScheduledTask task;
+  private final WorkSink workSink;
+  private final Clock clock;
+  private ScheduleStatus state;
+  private ScheduleStatus previousState = null;
+
   /**
    * A write-only work acceptor.
    */
@@ -188,315 +379,85 @@ class TaskStateMachine {
    *     loaded from a persistent store.
    */
   public TaskStateMachine(
-      final String taskId,
-      final IScheduledTask task,
-      final WorkSink workSink,
-      final Clock clock,
-      final ScheduleStatus initialState) {
+      String taskId,
+      @Nullable IScheduledTask task,
+      WorkSink workSink,
+      Clock clock,
+      ScheduleStatus initialState) {
 
     this.taskId = MorePreconditions.checkNotBlank(taskId);
+    this.task = task;
     this.workSink = checkNotNull(workSink);
     this.clock = checkNotNull(clock);
-    checkNotNull(initialState);
-
-    @SuppressWarnings("unchecked")
-    Closure<Transition<State>> manageTerminatedTasks = Closures.combine(
-        /* Kill a task that we believe to be terminated when an attempt is made to revive. */
-        Closures.filter(Transition.to(ASSIGNED, STARTING, RUNNING),
-            addWorkClosure(WorkCommand.KILL)),
-        /* Remove a terminated task that is remotely removed. */
-        Closures.filter(Transition.to(UNKNOWN), addWorkClosure(WorkCommand.DELETE)));
-
-    final Closure<Transition<State>> manageRestartingTask = new Closure<Transition<State>>() {
-      @SuppressWarnings("fallthrough")
-      @Override public void execute(Transition<State> transition) {
-        switch (transition.getTo().getState()) {
-          case ASSIGNED:
-          case STARTING:
-          case RUNNING:
-            addWork(WorkCommand.KILL);
-            break;
-
-          case LOST:
-            addWork(WorkCommand.KILL);
-            // fall through
-
-          case FINISHED:
-          case FAILED:
-          case KILLED:
-            addWork(WorkCommand.RESCHEDULE, transition.getTo().getMutation());
-            break;
-
-          case UNKNOWN:
-            updateState(ScheduleStatus.LOST);
-            break;
-
-          default:
-            // No-op.
-        }
-      }
-    };
+    this.state = checkNotNull(initialState);
+  }
 
-    // To be called on a task transitioning into the FINISHED state.
-    final Command rescheduleIfService = new Command() {
-      @Override public void execute() {
-        if (task.getAssignedTask().getTask().isIsService()) {
-          addWork(WorkCommand.RESCHEDULE);
-        }
-      }
-    };
-
-    // To be called on a task transitioning into the FAILED state.
-    final Command incrementFailuresMaybeReschedule = new Command() {
-      @Override public void execute() {
-        addWork(WorkCommand.INCREMENT_FAILURES);
-
-        // Max failures is ignored for service task.
-        boolean isService = task.getAssignedTask().getTask().isIsService();
-
-        // Max failures is ignored when set to -1.
-        int maxFailures = task.getAssignedTask().getTask().getMaxTaskFailures();
-        if (isService || (maxFailures == -1) || (task.getFailureCount() < (maxFailures - 1))) {
-          addWork(WorkCommand.RESCHEDULE);
-        } else {
-          LOG.info("Task " + getTaskId() + " reached failure limit, not rescheduling");
-        }
-      }
-    };
-
-    stateMachine = StateMachine.<State>builder(taskId)
-        .logTransitions()
-        .initialState(State.create(initialState))
-        .addState(
-            Rule.from(INIT)
-                .to(PENDING, UNKNOWN))
-        .addState(
-            Rule.from(PENDING)
-                .to(ASSIGNED, KILLING)
-                .withCallback(
-                    new Closure<Transition<State>>() {
-                      @Override public void execute(Transition<State> transition) {
-                        switch (transition.getTo().getState()) {
-                          case KILLING:
-                            addWork(WorkCommand.DELETE);
-                            break;
-
-                          default:
-                            // No-op.
-                        }
-                      }
-                    }
-                ))
-        .addState(
-            Rule.from(ASSIGNED)
-                .to(STARTING, RUNNING, FINISHED, FAILED, RESTARTING, KILLED,
-                    KILLING, LOST, PREEMPTING)
-                .withCallback(
-                    new Closure<Transition<State>>() {
-                      @SuppressWarnings("fallthrough")
-                      @Override public void execute(Transition<State> transition) {
-                        switch (transition.getTo().getState()) {
-                          case FINISHED:
-                            rescheduleIfService.execute();
-                            break;
-
-                          case PREEMPTING:
-                            addWork(WorkCommand.KILL);
-                            break;
-
-                          case FAILED:
-                            incrementFailuresMaybeReschedule.execute();
-                            break;
-
-                          case RESTARTING:
-                            addWork(WorkCommand.KILL);
-                            break;
-
-                          case KILLED:
-                            addWork(WorkCommand.RESCHEDULE);
-                            break;
-
-                          case LOST:
-                            addWork(WorkCommand.RESCHEDULE);
-                            // fall through
-                          case KILLING:
-                            addWork(WorkCommand.KILL);
-                            break;
-
-                          case UNKNOWN:
-                            break;
-
-                           default:
-                             // No-op.
-                        }
-                      }
-                    }
-                ))
-        .addState(
-            Rule.from(STARTING)
-                .to(RUNNING, FINISHED, FAILED, RESTARTING, KILLING, KILLED, LOST, PREEMPTING)
-                .withCallback(
-                    new Closure<Transition<State>>() {
-                      @SuppressWarnings("fallthrough")
-                      @Override public void execute(Transition<State> transition) {
-                        switch (transition.getTo().getState()) {
-                          case FINISHED:
-                            rescheduleIfService.execute();
-                            break;
-
-                          case RESTARTING:
-                            addWork(WorkCommand.KILL);
-                            break;
-
-                          case PREEMPTING:
-                            addWork(WorkCommand.KILL);
-                            break;
-
-                          case FAILED:
-                            incrementFailuresMaybeReschedule.execute();
-                            break;
-
-                          case KILLED:
-                            addWork(WorkCommand.RESCHEDULE);
-                            break;
-
-                          case KILLING:
-                            addWork(WorkCommand.KILL);
-                            break;
-
-                          case LOST:
-                            addWork(WorkCommand.RESCHEDULE);
-                            break;
-
-                          case UNKNOWN:
-                            // The slave previously acknowledged that it had the task, and now
-                            // stopped reporting it.
-                            updateState(ScheduleStatus.LOST);
-                            break;
-
-                           default:
-                             // No-op.
-                        }
-                      }
-                    }
-                ))
-        .addState(
-            Rule.from(RUNNING)
-                .to(FINISHED, RESTARTING, FAILED, KILLING, KILLED, LOST, PREEMPTING)
-                .withCallback(
-                    new Closure<Transition<State>>() {
-                      @SuppressWarnings("fallthrough")
-                      @Override public void execute(Transition<State> transition) {
-                        switch (transition.getTo().getState()) {
-                          case FINISHED:
-                            rescheduleIfService.execute();
-                            break;
-
-                          case PREEMPTING:
-                            addWork(WorkCommand.KILL);
-                            break;
-
-                          case RESTARTING:
-                            addWork(WorkCommand.KILL);
-                            break;
-
-                          case FAILED:
-                            incrementFailuresMaybeReschedule.execute();
-                            break;
-
-                          case KILLED:
-                            addWork(WorkCommand.RESCHEDULE);
-                            break;
-
-                          case KILLING:
-                            addWork(WorkCommand.KILL);
-                            break;
-
-                          case LOST:
-                            addWork(WorkCommand.RESCHEDULE);
-                            break;
-
-                          case UNKNOWN:
-                            updateState(ScheduleStatus.LOST);
-                            break;
-
-                           default:
-                             // No-op.
-                        }
-                      }
-                    }
-                ))
-        .addState(
-            Rule.from(FINISHED)
-                .to(UNKNOWN)
-                .withCallback(manageTerminatedTasks))
-        .addState(
-            Rule.from(PREEMPTING)
-                .to(FINISHED, FAILED, KILLING, KILLED, LOST)
-                .withCallback(manageRestartingTask))
-        .addState(
-            Rule.from(RESTARTING)
-                .to(FINISHED, FAILED, KILLING, KILLED, LOST)
-                .withCallback(manageRestartingTask))
-        .addState(
-            Rule.from(FAILED)
-                .to(UNKNOWN)
-                .withCallback(manageTerminatedTasks))
-        .addState(
-            Rule.from(KILLED)
-                .to(UNKNOWN)
-                .withCallback(manageTerminatedTasks))
-        .addState(
-            Rule.from(KILLING)
-                .to(FINISHED, FAILED, KILLED, LOST, UNKNOWN)
-                .withCallback(manageTerminatedTasks))
-        .addState(
-            Rule.from(LOST)
-                .to(UNKNOWN)
-                .withCallback(manageTerminatedTasks))
-        .addState(
-            Rule.from(UNKNOWN)
-                .noTransitions()
-                .withCallback(manageTerminatedTasks))
-        // Since we want this action to be performed last in the transition sequence, the callback
-        // must be the last chained transition callback.
-        .onAnyTransition(
-            new Closure<Transition<State>>() {
-              @Override public void execute(final Transition<State> transition) {
-                ScheduleStatus from = transition.getFrom().getState();
-                ScheduleStatus to = transition.getTo().getState();
-
-                if (transition.isValidStateChange() && (to != ScheduleStatus.UNKNOWN)
-                    // Prevent an update when killing a pending task, since the task is deleted
-                    // prior to the update.
-                    && !((from == ScheduleStatus.PENDING) && (to == ScheduleStatus.KILLING))) {
-                  addWork(WorkCommand.UPDATE_STATE, transition.getTo().getMutation());
-                } else if (!transition.isAllowed()) {
-                  LOG.log(Level.SEVERE, "Illegal state transition attempted: " + transition);
-                  ILLEGAL_TRANSITIONS.incrementAndGet();
-                }
-
-                if (transition.isValidStateChange()) {
-                  previousState = from;
-                }
-              }
-            }
-        )
-        // TODO(wfarner): Consider alternatives to allow exceptions to surface.  This would allow
-        // the state machine to surface illegal state transitions and propagate better information
-        // to the caller.  As it stands, the caller must implement logic that really belongs in
-        // the state machine.  For example, preventing RESTARTING->UPDATING transitions
-        // (or for that matter, almost any user-initiated state transition) is awkward.
-        .throwOnBadTransition(false)
-        .build();
+  // To be called on a task transitioning into the FINISHED state.
+  private void rescheduleIfService() {
+    if (task.getAssignedTask().getTask().isIsService()) {
+      addWork(WorkCommand.RESCHEDULE);
+    }
+  }
+
+  // To be called on a task transitioning into the FAILED state.
+  private void incrementFailuresMaybeReschedule() {
+    addWork(WorkCommand.INCREMENT_FAILURES);
+
+    // Max failures is ignored for service task.
+    boolean isService = task.getAssignedTask().getTask().isIsService();
+
+    // Max failures is ignored when set to -1.
+    int maxFailures = task.getAssignedTask().getTask().getMaxTaskFailures();
+    if (isService || (maxFailures == -1) || (task.getFailureCount() < (maxFailures - 1))) {
+      addWork(WorkCommand.RESCHEDULE);
+    } else {
+      LOG.info("Task " + getTaskId() + " reached failure limit, not rescheduling");
+    }
   }
 
-  private Closure<Transition<State>> addWorkClosure(final WorkCommand work) {
-    return new Closure<Transition<State>>() {
-      @Override public void execute(Transition<State> item) {
-        addWork(work);
+  /**
+   * Applies a transition from the shared rule table.
+   * <p>
+   * TODO(wfarner): Consider alternatives to allow exceptions to surface.  This would allow
+   * the state machine to surface illegal state transitions and propagate better information
+   * to the caller.  As it stands, the caller must implement logic that really belongs in
+   * the state machine.  For example, preventing RESTARTING->UPDATING transitions
+   * (or for that matter, almost any user-initiated state transition) is awkward.
+   *
+   * @param to State to transition to.
+   * @param mutation Mutation to apply to the task along with the transition.
+   * @return {@code true} if the transition was allowed, {@code false} otherwise.
+   */
+  private boolean transition(ScheduleStatus to, Function<IScheduledTask, IScheduledTask> mutation) {
+    ScheduleStatus from = state;
+    Rule rule = RULES.get(from);
+    boolean allowed = rule.to.contains(to);
+    if (allowed) {
+      state = to;
+      if (LOG.isLoggable(Level.FINE)) {
+        LOG.fine(taskId + " state machine transition " + from + " -> " + to);
       }
-    };
+    }
+
+    rule.callback.execute(this, to, mutation);
+
+    // Since we want this action to be performed last in the transition sequence, it must follow
+    // the rule callback.
+    if (allowed && (to != ScheduleStatus.UNKNOWN)
+        // Prevent an update when killing a pending task, since the task is deleted
+        // prior to the update.
+        && !((from == ScheduleStatus.PENDING) && (to == ScheduleStatus.KILLING))) {
+      addWork(WorkCommand.UPDATE_STATE, mutation);
+    } else if (!allowed) {
+      LOG.log(Level.SEVERE,
+          "Illegal state transition attempted: " + taskId + " " + from + " -> " + to);
+      ILLEGAL_TRANSITIONS.incrementAndGet();
+    }
+
+    if (allowed) {
+      previousState = from;
+    }
+    return allowed;
   }
 
   private void addWork(WorkCommand work) {
@@ -505,7 +466,7 @@ class TaskStateMachine {
 
   private void addWork(WorkCommand work, Function<IScheduledTask, IScheduledTask> mutation) {
     LOG.info("Adding work command " + work + " for " + this);
-    workSink.addWork(work, TaskStateMachine.this, mutation);
+    workSink.addWork(work, this, mutation);
   }
 
   /**
@@ -567,7 +528,7 @@ class TaskStateMachine {
      * state transition (e.g. storing resource consumption of a running task), we need to find
      * a different way to suppress noop transitions.
      */
-    if (stateMachine.getState().getState() != status) {
+    if (state != status) {
       Function<IScheduledTask, IScheduledTask> operation = Functions.compose(mutation,
           new Function<IScheduledTask, IScheduledTask>() {
             @Override public IScheduledTask apply(IScheduledTask task) {
@@ -580,7 +541,7 @@ class TaskStateMachine {
               return IScheduledTask.build(builder);
             }
           });
-      return stateMachine.transition(State.create(status, operation));
+      return transition(status, operation);
     }
 
     return false;
@@ -592,7 +553,7 @@ class TaskStateMachine {
    * @return The current state.
    */
   public synchronized ScheduleStatus getState() {
-    return stateMachine.getState().getState();
+    return state;
   }
 
   /**
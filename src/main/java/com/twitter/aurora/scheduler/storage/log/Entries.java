@@ -27,6 +27,9 @@ import java.util.zip.InflaterInputStream;
 import com.google.common.base.Preconditions;
 import com.google.common.io.ByteStreams;
 
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+
 import com.twitter.aurora.codec.ThriftBinaryCodec;
 import com.twitter.aurora.codec.ThriftBinaryCodec.CodingException;
 import com.twitter.aurora.gen.storage.LogEntry;
@@ -134,4 +137,25 @@ final class Entries {
   static LogEntry thriftBinaryDecode(byte[] contents) throws CodingException {
     return ThriftBinaryCodec.decodeNonNull(LogEntry.class, contents);
   }
+
+  /**
+   * Decodes a byte array containing thrift binary-encoded data with an existing deserializer,
+   * which may be reused across entries by a single thread.
+   *
+   * @param deserializer Deserializer to decode with.
+   * @param contents The data to decode.
+   * @return The deserialized entry.
+   * @throws CodingException If the entry could not be deserialized.
+   */
+  static LogEntry thriftBinaryDecode(TDeserializer deserializer, byte[] contents)
+      throws CodingException {
+
+    LogEntry entry = new LogEntry();
+    try {
+      deserializer.deserialize(entry, contents);
+    } catch (TException e) {
+      throw new CodingException("Failed to deserialize thrift object.", e);
+    }
+    return entry;
+  }
 }
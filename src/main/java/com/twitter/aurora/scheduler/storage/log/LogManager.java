@@ -26,6 +26,8 @@ import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -35,13 +37,19 @@ import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.primitives.Bytes;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.BindingAnnotation;
 
+import org.apache.thrift.TDeserializer;
+
+import com.twitter.aurora.codec.ThriftBinaryCodec;
 import com.twitter.aurora.codec.ThriftBinaryCodec.CodingException;
 import com.twitter.aurora.gen.ScheduledTask;
 import com.twitter.aurora.gen.storage.Frame;
@@ -93,11 +101,21 @@ public final class LogManager {
   @BindingAnnotation
   public @interface SnapshotSetting { }
 
+  /**
+   * Binding annotation for whether log entries are read and decoded ahead of replay on separate
+   * threads.
+   */
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target({ ElementType.PARAMETER, ElementType.METHOD })
+  @BindingAnnotation
+  public @interface PipelinedRecovery { }
+
   private static final Logger LOG = Logger.getLogger(LogManager.class.getName());
 
   private final Log log;
   private final Amount<Integer, Data> maxEntrySize;
   private final boolean deflateSnapshots;
+  private final boolean pipelinedRecovery;
   private final ShutdownRegistry shutdownRegistry;
 
   @Inject
@@ -105,11 +123,13 @@ public final class LogManager {
       Log log,
       @MaxEntrySize Amount<Integer, Data> maxEntrySize,
       @SnapshotSetting boolean deflateSnapshots,
+      @PipelinedRecovery boolean pipelinedRecovery,
       ShutdownRegistry shutdownRegistry) {
 
     this.log = checkNotNull(log);
     this.maxEntrySize = checkNotNull(maxEntrySize);
     this.deflateSnapshots = deflateSnapshots;
+    this.pipelinedRecovery = pipelinedRecovery;
     this.shutdownRegistry = checkNotNull(shutdownRegistry);
   }
 
@@ -126,7 +146,11 @@ public final class LogManager {
         stream.close();
       }
     });
-    return new StreamManager(stream, deflateSnapshots, maxEntrySize);
+    return new StreamManager(
+        stream,
+        deflateSnapshots,
+        pipelinedRecovery,
+        maxEntrySize);
   }
 
   /**
@@ -157,18 +181,48 @@ public final class LogManager {
       private final AtomicLong deflatedEntriesRead =
           Stats.exportLong("scheduler_log_deflated_entries_read");
       private final AtomicLong snapshots = Stats.exportLong("scheduler_log_snapshots");
+      private final AtomicLong groupCommits = Stats.exportLong("scheduler_log_group_commits");
+      private final AtomicLong groupCommitTransactions =
+          Stats.exportLong("scheduler_log_group_commit_transactions");
     }
     private final Vars vars = new Vars();
 
+    // Bounds the number of raw and decoded entries held ahead of replay in pipelined recovery.
+    private static final int READ_AHEAD_ENTRIES = 64;
+    private static final int DECODE_AHEAD_ENTRIES = 16;
+
     private final Object writeMutex = new Object();
     private final Stream stream;
     private final boolean deflateSnapshots;
+    private final boolean pipelinedRecovery;
     private final MessageDigest digest;
+    // Only used by the thread decoding entries, of which there is one at a time.
+    private final TDeserializer deserializer =
+        new TDeserializer(ThriftBinaryCodec.PROTOCOL_FACTORY);
     private final EntrySerializer entrySerializer;
 
+    // Serializes group commits, so that groups are appended in the order they were opened.
+    private final Object groupCommitMutex = new Object();
+    private final Object openGroupMutex = new Object();
+    // The group that transactions are currently queued to.  Guarded by openGroupMutex.
+    private GroupCommit openGroup = new GroupCommit();
+    // The first group append failure, after which no further groups are appended since the log
+    // would otherwise be missing the failed group's ops.  Guarded by groupCommitMutex.
+    private Exception groupFailure;
+
     StreamManager(Stream stream, boolean deflateSnapshots, Amount<Integer, Data> maxEntrySize) {
+      this(stream, deflateSnapshots, false, maxEntrySize);
+    }
+
+    StreamManager(
+        Stream stream,
+        boolean deflateSnapshots,
+        boolean pipelinedRecovery,
+        Amount<Integer, Data> maxEntrySize) {
+
       this.stream = checkNotNull(stream);
       this.deflateSnapshots = deflateSnapshots;
+      this.pipelinedRecovery = pipelinedRecovery;
       digest = createDigest();
       entrySerializer = new EntrySerializer(digest, maxEntrySize);
     }
@@ -177,6 +231,11 @@ public final class LogManager {
      * Reads all entries in the log stream after the given position.  If the position
      * supplied is {@code null} then all log entries in the stream will be read.
      *
+     * <p>
+     * In pipelined recovery mode, entries are read from the stream on one thread and decoded on
+     * another, each running ahead of the reader, which is still handed entries in log order on the
+     * calling thread.
+     *
      * @param reader A reader that will be handed log entries decoded from the stream.
      * @throws CodingException if there was a problem decoding a log entry from the stream.
      * @throws InvalidPositionException if the given position is not found in the log.
@@ -185,8 +244,74 @@ public final class LogManager {
     public void readFromBeginning(Closure<LogEntry> reader)
         throws CodingException, InvalidPositionException, StreamAccessException {
 
+      if (pipelinedRecovery) {
+        readPipelined(reader);
+        return;
+      }
+
       Iterator<Entry> entries = stream.readAll();
+      LogEntry logEntry;
+      while ((logEntry = readNext(entries)) != null) {
+        reader.execute(logEntry);
+        vars.entriesRead.incrementAndGet();
+      }
+    }
+
+    /**
+     * Signals a decoding failure across the decoding thread.
+     */
+    private static class DecodingFailure extends RuntimeException {
+      private final CodingException codingException;
+
+      DecodingFailure(CodingException codingException) {
+        super(codingException);
+        this.codingException = codingException;
+      }
+    }
 
+    private void readPipelined(Closure<LogEntry> reader) throws CodingException {
+      ExecutorService executor = Executors.newFixedThreadPool(
+          2,
+          new ThreadFactoryBuilder().setNameFormat("LogRecovery-%d").setDaemon(true).build());
+      try {
+        final Iterator<Entry> entries =
+            ReadAheadIterator.start(stream.readAll(), READ_AHEAD_ENTRIES, executor);
+        Iterator<LogEntry> decoded = ReadAheadIterator.start(
+            new AbstractIterator<LogEntry>() {
+              @Override protected LogEntry computeNext() {
+                try {
+                  LogEntry logEntry = readNext(entries);
+                  return (logEntry == null) ? endOfData() : logEntry;
+                } catch (CodingException e) {
+                  throw new DecodingFailure(e);
+                }
+              }
+            },
+            DECODE_AHEAD_ENTRIES,
+            executor);
+
+        while (decoded.hasNext()) {
+          reader.execute(decoded.next());
+          vars.entriesRead.incrementAndGet();
+        }
+      } catch (DecodingFailure e) {
+        throw e.codingException;
+      } finally {
+        // Releases the reading and decoding threads if replay stopped early.
+        executor.shutdownNow();
+      }
+    }
+
+    /**
+     * Reads the next complete entry from the stream, reassembling framed entries and inflating
+     * deflated ones.
+     *
+     * @param entries Raw stream entries.
+     * @return The next entry, or {@code null} if the stream has no more complete entries.
+     * @throws CodingException if there was a problem decoding an entry.
+     */
+    @Nullable
+    private LogEntry readNext(Iterator<Entry> entries) throws CodingException {
       while (entries.hasNext()) {
         LogEntry logEntry = decodeLogEntry(entries.next());
         while (logEntry != null && isFrame(logEntry)) {
@@ -197,11 +322,10 @@ public final class LogManager {
             logEntry = Entries.inflate(logEntry);
             vars.deflatedEntriesRead.incrementAndGet();
           }
-
-          reader.execute(logEntry);
-          vars.entriesRead.incrementAndGet();
+          return logEntry;
         }
       }
+      return null;
     }
 
     @Nullable
@@ -260,7 +384,7 @@ public final class LogManager {
     private LogEntry decodeLogEntry(Entry entry) throws CodingException {
       byte[] contents = entry.contents();
       vars.bytesRead.addAndGet(contents.length);
-      return Entries.thriftBinaryDecode(contents);
+      return Entries.thriftBinaryDecode(deserializer, contents);
     }
 
     /**
@@ -295,38 +419,75 @@ public final class LogManager {
      * @throws InvalidPositionException if there was a problem truncating before the snapshot.
      * @throws StreamAccessException if there was a problem appending the snapshot to the log.
      */
-    @Timed("log_manager_snapshot")
     void snapshot(Snapshot snapshot)
         throws CodingException, InvalidPositionException, StreamAccessException {
 
+      snapshot(encodeSnapshot(snapshot), startTransaction());
+    }
+
+    /**
+     * Encodes a snapshot into the log entries that {@link #snapshot(byte[][], StreamTransaction)}
+     * appends, without appending them.
+     *
+     * @param snapshot The snapshot to encode.
+     * @return The encoded snapshot.
+     * @throws CodingException if there was a problem encoding the snapshot into a log entry.
+     */
+    @Timed("log_manager_snapshot_encode")
+    byte[][] encodeSnapshot(Snapshot snapshot) throws CodingException {
       LogEntry entry = LogEntry.snapshot(snapshot);
       if (deflateSnapshots) {
         entry = Entries.deflate(entry);
       }
+      return entrySerializer.serialize(entry);
+    }
+
+    /**
+     * Adds an encoded snapshot to the log, followed by the ops of a transaction that is committed
+     * along with it, and if successful, truncates the log entries preceding the snapshot.
+     *
+     * @param encodedSnapshot The snapshot to add, as encoded by {@link #encodeSnapshot(Snapshot)}.
+     * @param backlog Ops to replay over the snapshot, which may be empty.
+     * @throws CodingException if there was a problem encoding the backlog into a log entry.
+     * @throws InvalidPositionException if there was a problem truncating before the snapshot.
+     * @throws StreamAccessException if there was a problem appending to the log.
+     */
+    @Timed("log_manager_snapshot")
+    void snapshot(byte[][] encodedSnapshot, StreamTransaction backlog)
+        throws CodingException, InvalidPositionException, StreamAccessException {
 
-      Position position = appendAndGetPosition(entry);
+      Position position = appendAndGetPosition(encodedSnapshot);
       vars.snapshots.incrementAndGet();
       vars.unSnapshottedTransactions.set(0);
+      backlog.commit();
       stream.truncateBefore(position);
     }
 
-    @Timed("log_manager_append")
     private Position appendAndGetPosition(LogEntry logEntry) throws CodingException {
+      return appendAndGetPosition(entrySerializer.serialize(logEntry));
+    }
+
+    @Timed("log_manager_append")
+    private Position appendAndGetPosition(byte[][] entries) {
       Position firstPosition = null;
-      byte[][] entries = entrySerializer.serialize(logEntry);
       synchronized (writeMutex) { // ensure all sub-entries are written as a unit
         for (byte[] entry : entries) {
-          Position position = stream.append(entry);
+          Position position = append(entry);
           if (firstPosition == null) {
             firstPosition = position;
           }
-          vars.bytesWritten.addAndGet(entry.length);
         }
       }
       vars.entriesWritten.incrementAndGet();
       return firstPosition;
     }
 
+    private Position append(byte[] entry) {
+      Position position = stream.append(entry);
+      vars.bytesWritten.addAndGet(entry.length);
+      return position;
+    }
+
     @VisibleForTesting
     public static class EntrySerializer {
       private final MessageDigest digest;
@@ -369,8 +530,11 @@ public final class LogManager {
       }
 
       private byte[] checksum(byte[] data) {
-        digest.reset();
-        return digest.digest(data);
+        // Snapshots may be serialized concurrently with transactions.
+        synchronized (digest) {
+          digest.reset();
+          return digest.digest(data);
+        }
       }
 
       private static byte[] encode(Frame frame) throws CodingException {
@@ -411,6 +575,31 @@ public final class LogManager {
         return position;
       }
 
+      /**
+       * Queues any ops that have been added to this transaction to be appended to the log stream
+       * along with those of other transactions, as a single atomic record.  The ops of all
+       * transactions queued while a group is being appended are appended together as the next
+       * group, in the order they were queued.
+       *
+       * @return The group this transaction will be appended in, or absent if there were no ops.
+       */
+      Optional<GroupCommit> commitGrouped() {
+        Preconditions.checkState(!committed.getAndSet(true),
+            "Can only call commit once per transaction.");
+
+        if (!transaction.isSetOps()) {
+          return Optional.absent();
+        }
+
+        synchronized (openGroupMutex) {
+          for (Op op : transaction.getOps()) {
+            openGroup.transaction.add(op);
+          }
+          openGroup.transactionCount++;
+          return Optional.of(openGroup);
+        }
+      }
+
       /**
        * Adds a local storage operation to this transaction.
        *
@@ -512,5 +701,74 @@ public final class LogManager {
         return false;
       }
     }
+
+    /**
+     * A group of transactions that are appended to the log stream as a single transaction.
+     */
+    final class GroupCommit {
+      private final StreamTransaction transaction = new StreamTransaction();
+      // Guarded by openGroupMutex.
+      private int transactionCount = 0;
+
+      // The remaining fields are guarded by groupCommitMutex.
+      private boolean appended = false;
+      private Position position;
+      private Exception failure;
+
+      private GroupCommit() {
+        // supplied by StreamTransaction.commitGrouped()
+      }
+
+      /**
+       * Waits for this group to be appended to the log stream, appending it if no other caller
+       * has done so yet.  Once a group fails to append, all later groups fail without being
+       * appended.
+       *
+       * @return The position of the log entry committed for this group.
+       * @throws CodingException If there was a problem encoding the group's log entry.
+       * @throws StreamAccessException If the group could not be appended to the log stream.
+       */
+      Position await() throws CodingException {
+        synchronized (groupCommitMutex) {
+          if (!appended) {
+            append();
+          }
+          if (failure == null) {
+            return position;
+          }
+        }
+
+        if (failure instanceof CodingException) {
+          throw new CodingException("Failed to encode transaction group", failure);
+        }
+        throw new StreamAccessException("Failed to append transaction group", failure);
+      }
+
+      private void append() {
+        int transactions;
+        synchronized (openGroupMutex) {
+          // Transactions queued from here on are appended with the next group.
+          openGroup = new GroupCommit();
+          transactions = transactionCount;
+        }
+
+        if (groupFailure != null) {
+          failure = groupFailure;
+          appended = true;
+          return;
+        }
+
+        try {
+          position = transaction.commit();
+          vars.groupCommits.incrementAndGet();
+          vars.groupCommitTransactions.addAndGet(transactions);
+        } catch (CodingException | RuntimeException e) {
+          failure = e;
+          groupFailure = e;
+        } finally {
+          appended = true;
+        }
+      }
+    }
   }
 }
@@ -26,9 +26,11 @@ import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -80,7 +82,9 @@ import com.twitter.aurora.scheduler.storage.entities.IQuota;
 import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
 import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
 import com.twitter.aurora.scheduler.storage.log.LogManager.StreamManager;
+import com.twitter.aurora.scheduler.storage.log.LogManager.StreamManager.GroupCommit;
 import com.twitter.aurora.scheduler.storage.log.LogManager.StreamManager.StreamTransaction;
+import com.twitter.common.application.Lifecycle;
 import com.twitter.common.application.ShutdownRegistry;
 import com.twitter.common.base.Closure;
 import com.twitter.common.inject.TimedInterceptor.Timed;
@@ -125,6 +129,22 @@ import static com.google.common.base.Preconditions.checkNotNull;
  *
  * <p>If the op fails to apply to local storage we will never write the op to the log and if the op
  * fails to apply to the log, it'll throw and abort the local storage transaction as well.
+ *
+ * <p>In group commit mode the op is instead queued for the log before the local transaction commits
+ * and the writer waits for it to reach the log afterwards.  The ops of all writers that queue while
+ * an append is in progress are appended together by the next append, so write throughput scales
+ * with the number of concurrent writers rather than being bound by log append latency.  The cost is
+ * that other readers and writers, and subscribers to the events the mutation produces, may observe
+ * it before it has reached the log, so state that is not yet durable can be acted on outside the
+ * scheduler, for example by launching or killing tasks.  Since such a mutation cannot be taken
+ * back, a failure to append a group shuts the scheduler down rather than failing only the writers
+ * in the group: no later writes or snapshots reach the log, and the next scheduler recovers the
+ * state that was logged.
+ *
+ * <p>Snapshots are created and encoded without blocking writers.  The ops of writes that complete
+ * meanwhile are also appended to the log after the snapshot.  Every op sets or removes a value
+ * outright, so replaying them in order over a snapshot that already includes some of them yields
+ * the same state.  Writers only wait while the snapshot is appended.
  */
 public class LogStorage extends ForwardingStore
     implements NonVolatileStorage, DistributedSnapshotStore {
@@ -171,12 +191,20 @@ public class LogStorage extends ForwardingStore
   private final SchedulingService schedulingService;
   private final SnapshotStore<Snapshot> snapshotStore;
   private final Amount<Long, Time> snapshotInterval;
+  private final boolean groupCommitMode;
+  private final Lifecycle lifecycle;
 
   private StreamManager streamManager;
+  private volatile boolean groupCommitFailed = false;
 
   private boolean recovered = false;
   private StreamTransaction transaction = null;
 
+  // Serializes snapshots, which are created outside of the monitor.
+  private final Object snapshotMutex = new Object();
+  // Ops logged while a snapshot is being created, to be appended after it.  Guarded by this.
+  private StreamTransaction snapshotBacklog = null;
+
   private final MutableStoreProvider logStoreProvider = new MutableStoreProvider() {
     @Override public SchedulerStore.Mutable getSchedulerStore() {
       return LogStorage.this;
@@ -233,12 +261,22 @@ public class LogStorage extends ForwardingStore
   @BindingAnnotation
   public @interface WriteBehind { }
 
+  /**
+   * Binding annotation for whether transactions are committed to the log in groups.
+   */
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target({ ElementType.PARAMETER, ElementType.METHOD })
+  @BindingAnnotation
+  public @interface GroupCommitMode { }
+
   @Inject
   LogStorage(LogManager logManager,
              ShutdownRegistry shutdownRegistry,
              @ShutdownGracePeriod Amount<Long, Time> shutdownGracePeriod,
              SnapshotStore<Snapshot> snapshotStore,
              @SnapshotInterval Amount<Long, Time> snapshotInterval,
+             @GroupCommitMode boolean groupCommitMode,
+             Lifecycle lifecycle,
              @WriteBehind Storage storage,
              @WriteBehind SchedulerStore.Mutable schedulerStore,
              @WriteBehind JobStore.Mutable jobStore,
@@ -251,6 +289,8 @@ public class LogStorage extends ForwardingStore
         new ScheduledExecutorSchedulingService(shutdownRegistry, shutdownGracePeriod),
         snapshotStore,
         snapshotInterval,
+        groupCommitMode,
+        lifecycle,
         storage,
         schedulerStore,
         jobStore,
@@ -265,6 +305,8 @@ public class LogStorage extends ForwardingStore
              SchedulingService schedulingService,
              SnapshotStore<Snapshot> snapshotStore,
              Amount<Long, Time> snapshotInterval,
+             boolean groupCommitMode,
+             Lifecycle lifecycle,
              Storage storage,
              SchedulerStore.Mutable schedulerStore,
              JobStore.Mutable jobStore,
@@ -278,6 +320,8 @@ public class LogStorage extends ForwardingStore
     this.schedulingService = checkNotNull(schedulingService);
     this.snapshotStore = checkNotNull(snapshotStore);
     this.snapshotInterval = checkNotNull(snapshotInterval);
+    this.groupCommitMode = groupCommitMode;
+    this.lifecycle = checkNotNull(lifecycle);
   }
 
   @Override
@@ -448,13 +492,23 @@ public class LogStorage extends ForwardingStore
    */
   @Timed("scheduler_log_snapshot")
   void doSnapshot() throws CodingException, InvalidPositionException, StreamAccessException {
-    super.write(new MutateWork.NoResult<CodingException>() {
-      @Override protected void execute(MutableStoreProvider unused)
-          throws CodingException, InvalidPositionException, StreamAccessException {
-
-        persist(snapshotStore.createSnapshot());
+    synchronized (snapshotMutex) {
+      // The snapshot reads a version that includes every write completed before this point, and
+      // possibly some completed after, so the ops of writes from here on are appended after it.
+      synchronized (this) {
+        snapshotBacklog = streamManager.startTransaction();
       }
-    });
+      try {
+        byte[][] encodedSnapshot = streamManager.encodeSnapshot(snapshotStore.createSnapshot());
+        synchronized (this) {
+          streamManager.snapshot(encodedSnapshot, snapshotBacklog);
+        }
+      } finally {
+        synchronized (this) {
+          snapshotBacklog = null;
+        }
+      }
+    }
   }
 
   @Timed("scheduler_log_snapshot_persist")
@@ -466,8 +520,47 @@ public class LogStorage extends ForwardingStore
   }
 
   @Override
-  public synchronized <T, E extends Exception> T write(final MutateWork<T, E> work)
-      throws StorageException, E {
+  public <T, E extends Exception> T write(MutateWork<T, E> work) throws StorageException, E {
+    if (!groupCommitMode) {
+      return write(work, null);
+    }
+
+    // Wait for the group outside of the monitor, so other writers can queue their transactions to
+    // the next group meanwhile.
+    AtomicReference<GroupCommit> groupCommit = new AtomicReference<>();
+    T result = write(work, groupCommit);
+    if (groupCommit.get() != null) {
+      try {
+        groupCommit.get().await();
+      } catch (CodingException | StreamAccessException e) {
+        throw groupCommitFailed(e);
+      }
+    }
+    return result;
+  }
+
+  private RuntimeException groupCommitFailed(Exception e) {
+    // The mutations in the group have been applied locally and may have been acted on, so the
+    // writers cannot simply be failed.  Stop using the log and shut down instead.
+    if (!groupCommitFailed) {
+      groupCommitFailed = true;
+      LOG.log(Level.SEVERE, "Failed to append a transaction group to the log, shutting down.", e);
+      lifecycle.shutdown();
+    }
+    return new IllegalStateException("Failed to append a transaction group to the log.", e);
+  }
+
+  /**
+   * Performs a write, logging the ops it performs.
+   *
+   * @param work Work to perform.
+   * @param groupCommit If non-null, the top-level transaction is queued for a group commit rather
+   *     than committed and its group is stored here.
+   * @return The result of the work.
+   */
+  private synchronized <T, E extends Exception> T write(
+      final MutateWork<T, E> work,
+      @Nullable final AtomicReference<GroupCommit> groupCommit) throws StorageException, E {
 
     // We don't want to use the log when recovering from it, we just want to update the underlying
     // store - so pass mutations straight through to the underlying storage.
@@ -491,7 +584,11 @@ public class LogStorage extends ForwardingStore
         @Override public T apply(MutableStoreProvider unused) throws E {
           T result = work.apply(logStoreProvider);
           try {
-            transaction.commit();
+            if (groupCommit == null) {
+              transaction.commit();
+            } else {
+              groupCommit.set(transaction.commitGrouped().orNull());
+            }
           } catch (CodingException e) {
             throw new IllegalStateException(
                 "Problem encoding transaction operations to the log stream", e);
@@ -650,7 +747,9 @@ public class LogStorage extends ForwardingStore
         LogStorage.super.saveHostAttributes(attrs);
         Optional<HostAttributes> updated = LogStorage.super.getHostAttributes(attrs.getHost());
         if (!saved.equals(updated)) {
-          log(Op.saveHostAttributes(new SaveHostAttributes(updated.get())));
+          // Logged ops may be modified when they are coalesced, so they must not share the stored
+          // value.
+          log(Op.saveHostAttributes(new SaveHostAttributes(updated.get().deepCopy())));
         }
       }
     });
@@ -684,7 +783,7 @@ public class LogStorage extends ForwardingStore
       @Override protected void execute(MutableStoreProvider unused) {
         Optional<HostAttributes> saved = LogStorage.super.getHostAttributes(host);
         if (saved.isPresent()) {
-          HostAttributes attributes = saved.get().setMode(mode);
+          HostAttributes attributes = saved.get().deepCopy().setMode(mode);
           log(Op.saveHostAttributes(new SaveHostAttributes(attributes)));
           LogStorage.super.saveHostAttributes(attributes);
         }
@@ -695,6 +794,11 @@ public class LogStorage extends ForwardingStore
 
   @Override
   public void snapshot() throws StorageException {
+    if (groupCommitFailed) {
+      // A snapshot would persist mutations that failed to reach the log.
+      throw new StorageException("Not snapshotting since a transaction group failed to append.");
+    }
+
     try {
       doSnapshot();
     } catch (CodingException e) {
@@ -710,6 +814,10 @@ public class LogStorage extends ForwardingStore
   private void log(Op op) {
     if (recovered) {
       transaction.add(op);
+      if (snapshotBacklog != null) {
+        // Ops are coalesced in place once added to a transaction.
+        snapshotBacklog.add(op.deepCopy());
+      }
     }
   }
 }
@@ -28,7 +28,9 @@ import com.twitter.aurora.scheduler.log.Log;
 import com.twitter.aurora.scheduler.storage.CallOrderEnforcingStorage;
 import com.twitter.aurora.scheduler.storage.DistributedSnapshotStore;
 import com.twitter.aurora.scheduler.storage.log.LogManager.MaxEntrySize;
+import com.twitter.aurora.scheduler.storage.log.LogManager.PipelinedRecovery;
 import com.twitter.aurora.scheduler.storage.log.LogManager.SnapshotSetting;
+import com.twitter.aurora.scheduler.storage.log.LogStorage.GroupCommitMode;
 import com.twitter.aurora.scheduler.storage.log.LogStorage.ShutdownGracePeriod;
 import com.twitter.aurora.scheduler.storage.log.LogStorage.SnapshotInterval;
 import com.twitter.common.application.ShutdownRegistry;
@@ -74,6 +76,19 @@ public class LogStorageModule extends AbstractModule {
   @CmdLine(name = "deflate_snapshots", help = "Whether snapshots should be deflate-compressed.")
   private static final Arg<Boolean> DEFLATE_SNAPSHOTS = Arg.create(true);
 
+  @CmdLine(name = "dlog_group_commit",
+           help = "Whether concurrent storage writes should be appended to the log in groups.  "
+                  + "In this mode writes are visible to readers, writers and event subscribers, "
+                  + "and may be acted on outside the scheduler, before they reach the log.  State "
+                  + "that was acted on but not logged is lost if the scheduler fails, and a group "
+                  + "that cannot be logged shuts down the scheduler.")
+  private static final Arg<Boolean> GROUP_COMMIT = Arg.create(false);
+
+  @CmdLine(name = "dlog_pipelined_recovery",
+           help = "Whether log entries should be read and decoded on separate threads, ahead of "
+                  + "being replayed, when recovering from the log.")
+  private static final Arg<Boolean> PIPELINED_RECOVERY = Arg.create(false);
+
   @Override
   protected void configure() {
     requireBinding(Log.class);
@@ -87,7 +102,10 @@ public class LogStorageModule extends AbstractModule {
         .toInstance(MAX_LOG_ENTRY_SIZE.get());
     bind(LogManager.class).in(Singleton.class);
     bind(Boolean.class).annotatedWith(SnapshotSetting.class).toInstance(DEFLATE_SNAPSHOTS.get());
+    bind(Boolean.class).annotatedWith(PipelinedRecovery.class)
+        .toInstance(PIPELINED_RECOVERY.get());
 
+    bind(Boolean.class).annotatedWith(GroupCommitMode.class).toInstance(GROUP_COMMIT.get());
     bind(LogStorage.class).in(Singleton.class);
     install(CallOrderEnforcingStorage.wrappingModule(LogStorage.class));
     bind(DistributedSnapshotStore.class).to(LogStorage.class);
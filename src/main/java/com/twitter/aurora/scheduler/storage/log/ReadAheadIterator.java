@@ -0,0 +1,111 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.storage.log;
+
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An iterator that advances another iterator ahead of the consumer on a separate thread, buffering
+ * up to a fixed number of elements.
+ * <p>
+ * Elements are returned in the order the source iterator produced them.  An exception thrown by
+ * the source iterator is rethrown to the consumer after the elements that preceded it.  The
+ * producing thread exits when the source is exhausted or fails, or when it is interrupted, which
+ * is how a consumer that stops early should release it.
+ *
+ * @param <T> Element type.
+ */
+class ReadAheadIterator<T> extends AbstractIterator<T> {
+
+  private static final Object END = new Object();
+
+  private final BlockingQueue<Object> buffer;
+
+  private ReadAheadIterator(int capacity) {
+    checkArgument(capacity > 0, "Capacity must be positive.");
+    buffer = new LinkedBlockingQueue<>(capacity);
+  }
+
+  private static class Failure {
+    private final Throwable cause;
+
+    Failure(Throwable cause) {
+      this.cause = cause;
+    }
+  }
+
+  /**
+   * Starts reading ahead from a source iterator.
+   *
+   * @param source Iterator to read from.  It is only accessed by the producing thread.
+   * @param capacity Maximum number of elements to read ahead of the consumer.
+   * @param executor Executor to run the producing thread on.
+   * @param <T> Element type.
+   * @return An iterator over the elements of {@code source}.
+   */
+  static <T> Iterator<T> start(final Iterator<T> source, int capacity, Executor executor) {
+    checkNotNull(source);
+    checkNotNull(executor);
+
+    final ReadAheadIterator<T> iterator = new ReadAheadIterator<>(capacity);
+    executor.execute(new Runnable() {
+      @Override public void run() {
+        try {
+          try {
+            while (source.hasNext()) {
+              iterator.buffer.put(checkNotNull(source.next()));
+            }
+            iterator.buffer.put(END);
+          } catch (RuntimeException | Error e) {
+            iterator.buffer.put(new Failure(e));
+          }
+        } catch (InterruptedException e) {
+          // The consumer has stopped reading.
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    return iterator;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  protected T computeNext() {
+    Object next;
+    try {
+      next = buffer.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the next element.", e);
+    }
+
+    if (next == END) {
+      return endOfData();
+    } else if (next instanceof Failure) {
+      throw Throwables.propagate(((Failure) next).cause);
+    }
+    return (T) next;
+  }
+}
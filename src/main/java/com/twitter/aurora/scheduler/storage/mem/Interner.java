@@ -15,84 +15,155 @@
  */
 package com.twitter.aurora.scheduler.storage.mem;
 
-import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
+
+import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * An interning pool that can be used to retrieve the canonical instances of objects, while
  * maintaining a reference count to the canonical instances.
+ * <p>
+ * The pool may be used concurrently.  The hash code of a value is computed once when it is
+ * interned, and is held alongside the canonical instance so that releasing a reference does not
+ * need to hash the value again.
  *
  * @param <T> The interned object type.
- * @param <A> The type used for maintaining associations.
  */
-class Interner<T, A> {
+class Interner<T> {
 
-  private final Map<T, InternEntry<A, T>> pool = Maps.newHashMap();
+  private final ConcurrentMap<Key<T>, Reference<T>> pool = Maps.newConcurrentMap();
 
   /**
-   * Retrieves the canonical instance of {@code t} and maintains {@code association} with the
-   * interned value.  If {@code t} was not previously interned, the provided instance is stored.
+   * A counted reference to a canonical instance.  Each reference obtained from
+   * {@link #intern(Object)} should be released exactly once.
    *
-   * @param t The object to intern, or get the previously-interned value for.
-   * @param association A value to associate with {@code t}.
-   * @return The interned value, which may be reference-equivalent to {@code t}.
+   * @param <T> The interned object type.
    */
-  synchronized T addAssociation(T t, A association) {
-    InternEntry<A, T> entry = pool.get(t);
-    if (entry == null) {
-      entry = new InternEntry<>(t, association);
-      pool.put(t, entry);
-    } else {
-      entry.associations.add(association);
+  static final class Reference<T> {
+    private final Key<T> key;
+    private final AtomicInteger count = new AtomicInteger(1);
+
+    private Reference(Key<T> key) {
+      this.key = key;
+    }
+
+    /**
+     * Gets the canonical instance.
+     *
+     * @return The canonical instance.
+     */
+    T get() {
+      return key.value;
+    }
+
+    /**
+     * Gets the hash code of the canonical instance, which was computed when it was interned.
+     *
+     * @return The hash code of the canonical instance.
+     */
+    int hash() {
+      return key.hash;
+    }
+
+    private boolean retain() {
+      while (true) {
+        int current = count.get();
+        if (current == 0) {
+          // The last reference was released, and this is being removed from the pool.
+          return false;
+        }
+        if (count.compareAndSet(current, current + 1)) {
+          return true;
+        }
+      }
+    }
+
+    private boolean release() {
+      return count.decrementAndGet() == 0;
+    }
+  }
+
+  private static final class Key<T> {
+    private final T value;
+    private final int hash;
+
+    Key(T value) {
+      this.value = checkNotNull(value);
+      this.hash = value.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key<?> other = (Key<?>) o;
+      return (hash == other.hash) && value.equals(other.value);
     }
-    return entry.interned;
   }
 
   /**
-   * Removes an association with an interned value, effectively decrementing the reference count.
+   * Retrieves the canonical instance of {@code t}, incrementing its reference count.  If {@code t}
+   * was not previously interned, the provided instance is stored.
    *
-   * @param t The interned value that {@code association} was associated with.
-   * @param association The association to remove.
+   * @param t The object to intern, or get the previously-interned value for.
+   * @return A reference to the interned value, which may be reference-equivalent to {@code t}.
    */
-  synchronized void removeAssociation(T t, A association) {
-    InternEntry<A, T> entry = pool.get(t);
-    if (entry != null) {
-      entry.associations.remove(association);
-      if (entry.associations.isEmpty()) {
-        pool.remove(t);
+  Reference<T> intern(T t) {
+    Key<T> key = new Key<>(t);
+    while (true) {
+      Reference<T> reference = pool.get(key);
+      if (reference == null) {
+        Reference<T> created = new Reference<>(key);
+        reference = pool.putIfAbsent(key, created);
+        if (reference == null) {
+          return created;
+        }
+      }
+      if (reference.retain()) {
+        return reference;
       }
+      pool.remove(key, reference);
     }
   }
 
   /**
-   * Removes all interned values and associations.
+   * Releases a reference to an interned value, decrementing its reference count.  The value is
+   * removed from the pool when no references remain.
+   *
+   * @param reference The reference to release.
    */
-  synchronized void clear() {
-    pool.clear();
+  void release(Reference<T> reference) {
+    if (reference.release()) {
+      pool.remove(reference.key, reference);
+    }
   }
 
-  @VisibleForTesting
-  synchronized boolean isInterned(T t) {
-    return pool.containsKey(t);
+  /**
+   * Removes all interned values.  References obtained before this call may still be released,
+   * which has no effect on the pool.
+   */
+  void clear() {
+    pool.clear();
   }
 
   @VisibleForTesting
-  synchronized Set<A> getAssociations(T t) {
-    return ImmutableSet.copyOf(pool.get(t).associations);
+  boolean isInterned(T t) {
+    return pool.containsKey(new Key<>(t));
   }
 
-  private static class InternEntry<A, T> {
-    private final T interned;
-    private final Set<A> associations = Sets.newHashSet();
-
-    InternEntry(T interned, A initialAssociation) {
-      this.interned = interned;
-      associations.add(initialAssociation);
-    }
+  @VisibleForTesting
+  int getReferenceCount(T t) {
+    Reference<T> reference = pool.get(new Key<>(t));
+    return (reference == null) ? 0 : reference.count.get();
   }
 }
@@ -16,45 +16,60 @@
 package com.twitter.aurora.scheduler.storage.mem;
 
 import java.util.Set;
-import java.util.concurrent.ConcurrentMap;
 
+import javax.inject.Inject;
+
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Maps;
 
 import com.twitter.aurora.gen.Attribute;
 import com.twitter.aurora.gen.HostAttributes;
 import com.twitter.aurora.gen.MaintenanceMode;
 import com.twitter.aurora.scheduler.storage.AttributeStore.Mutable;
+import com.twitter.aurora.scheduler.storage.mem.Transactions.Versioned;
 
 /**
- * An in-memory attribute store.
+ * An in-memory attribute store.  Stored attributes are never modified, since they may be part of
+ * a published version; updates store a modified copy instead.
  */
 class MemAttributeStore implements Mutable {
-  private final ConcurrentMap<String, HostAttributes> hostAttributes = Maps.newConcurrentMap();
+  private final Versioned<PersistentHashMap<String, HostAttributes>> hostAttributes;
+
+  @VisibleForTesting
+  MemAttributeStore() {
+    this(new Transactions());
+  }
+
+  @Inject
+  MemAttributeStore(Transactions transactions) {
+    hostAttributes = transactions.newVersioned(PersistentHashMap.<String, HostAttributes>empty());
+  }
 
   @Override
   public void deleteHostAttributes() {
-    hostAttributes.clear();
+    hostAttributes.set(PersistentHashMap.<String, HostAttributes>empty());
   }
 
   @Override
   public void saveHostAttributes(HostAttributes attributes) {
-    hostAttributes.putIfAbsent(attributes.getHost(), attributes);
-
-    HostAttributes stored = hostAttributes.get(attributes.getHost());
-    if (!stored.isSetMode()) {
-      stored.setMode(attributes.isSetMode() ? attributes.getMode() : MaintenanceMode.NONE);
+    PersistentHashMap<String, HostAttributes> current = hostAttributes.get();
+    HostAttributes stored = current.get(attributes.getHost());
+    HostAttributes updated = (stored == null) ? attributes.deepCopy() : stored.deepCopy();
+    if (!updated.isSetMode()) {
+      updated.setMode(attributes.isSetMode() ? attributes.getMode() : MaintenanceMode.NONE);
     }
-    stored.setAttributes(attributes.isSetAttributes()
+    updated.setAttributes(attributes.isSetAttributes()
         ? attributes.getAttributes() : ImmutableSet.<Attribute>of());
+    hostAttributes.set(current.plus(attributes.getHost(), updated));
   }
 
   @Override
   public boolean setMaintenanceMode(String host, MaintenanceMode mode) {
-    HostAttributes stored = hostAttributes.get(host);
+    PersistentHashMap<String, HostAttributes> current = hostAttributes.get();
+    HostAttributes stored = current.get(host);
     if (stored != null) {
-      stored.setMode(mode);
+      hostAttributes.set(current.plus(host, stored.deepCopy().setMode(mode)));
       return true;
     } else {
       return false;
@@ -63,11 +78,11 @@ class MemAttributeStore implements Mutable {
 
   @Override
   public Optional<HostAttributes> getHostAttributes(String host) {
-    return Optional.fromNullable(hostAttributes.get(host));
+    return Optional.fromNullable(hostAttributes.get().get(host));
   }
 
   @Override
   public Set<HostAttributes> getHostAttributes() {
-    return ImmutableSet.copyOf(hostAttributes.values());
+    return ImmutableSet.copyOf(hostAttributes.get().values());
   }
 }
@@ -19,18 +19,17 @@ import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.Nullable;
+import javax.inject.Inject;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Maps;
 
 import com.twitter.aurora.scheduler.base.JobKeys;
 import com.twitter.aurora.scheduler.storage.JobStore;
 import com.twitter.aurora.scheduler.storage.entities.IJobConfiguration;
 import com.twitter.aurora.scheduler.storage.entities.IJobKey;
+import com.twitter.aurora.scheduler.storage.mem.Transactions.Versioned;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -39,12 +38,20 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 class MemJobStore implements JobStore.Mutable {
 
-  private final LoadingCache<String, Manager> managers = CacheBuilder.newBuilder()
-      .build(new CacheLoader<String, Manager>() {
-        @Override public Manager load(String key) {
-          return new Manager();
-        }
-      });
+  // Jobs by key, for each manager.
+  private final Versioned<PersistentHashMap<String, PersistentHashMap<IJobKey, IJobConfiguration>>>
+      managers;
+
+  @VisibleForTesting
+  MemJobStore() {
+    this(new Transactions());
+  }
+
+  @Inject
+  MemJobStore(Transactions transactions) {
+    managers = transactions.newVersioned(
+        PersistentHashMap.<String, PersistentHashMap<IJobKey, IJobConfiguration>>empty());
+  }
 
   @Override
   public void saveAcceptedJob(String managerId, IJobConfiguration jobConfig) {
@@ -52,35 +59,42 @@ class MemJobStore implements JobStore.Mutable {
     checkNotNull(jobConfig);
 
     IJobKey key = JobKeys.assertValid(jobConfig.getKey());
-    managers.getUnchecked(managerId).jobs.put(key, jobConfig);
+    PersistentHashMap<String, PersistentHashMap<IJobKey, IJobConfiguration>> current =
+        managers.get();
+    @Nullable PersistentHashMap<IJobKey, IJobConfiguration> jobs = current.get(managerId);
+    if (jobs == null) {
+      jobs = PersistentHashMap.empty();
+    }
+    managers.set(current.plus(managerId, jobs.plus(key, jobConfig)));
   }
 
   @Override
   public void removeJob(IJobKey jobKey) {
     checkNotNull(jobKey);
 
-    for (Manager manager : managers.asMap().values()) {
-      manager.jobs.remove(jobKey);
+    PersistentHashMap<String, PersistentHashMap<IJobKey, IJobConfiguration>> current =
+        managers.get();
+    PersistentHashMap<String, PersistentHashMap<IJobKey, IJobConfiguration>> updated = current;
+    for (Map.Entry<String, PersistentHashMap<IJobKey, IJobConfiguration>> manager : current) {
+      // Managers are retained when their last job is removed.
+      updated = updated.plus(manager.getKey(), manager.getValue().minus(jobKey));
     }
+    managers.set(updated);
   }
 
   @Override
   public void deleteJobs() {
-    managers.invalidateAll();
+    managers.set(PersistentHashMap.<String, PersistentHashMap<IJobKey, IJobConfiguration>>empty());
   }
 
   @Override
   public Iterable<IJobConfiguration> fetchJobs(String managerId) {
     checkNotNull(managerId);
 
-    @Nullable Manager manager = managers.getIfPresent(managerId);
-    if (manager == null) {
-      return ImmutableSet.of();
-    }
-
-    synchronized (manager.jobs) {
-      return ImmutableSet.copyOf(manager.jobs.values());
-    }
+    @Nullable PersistentHashMap<IJobKey, IJobConfiguration> jobs = managers.get().get(managerId);
+    return (jobs == null)
+        ? ImmutableSet.<IJobConfiguration>of()
+        : ImmutableSet.copyOf(jobs.values());
   }
 
   @Override
@@ -88,20 +102,14 @@ class MemJobStore implements JobStore.Mutable {
     checkNotNull(managerId);
     checkNotNull(jobKey);
 
-    Optional<Manager> manager = Optional.fromNullable(managers.getIfPresent(managerId));
-    if (!manager.isPresent()) {
-      return Optional.absent();
-    } else {
-      return Optional.fromNullable(manager.get().jobs.get(jobKey));
-    }
+    @Nullable PersistentHashMap<IJobKey, IJobConfiguration> jobs = managers.get().get(managerId);
+    return (jobs == null)
+        ? Optional.<IJobConfiguration>absent()
+        : Optional.fromNullable(jobs.get(jobKey));
   }
 
   @Override
   public Set<String> fetchManagerIds() {
-    return ImmutableSet.copyOf(managers.asMap().keySet());
-  }
-
-  private static class Manager {
-    private final Map<IJobKey, IJobConfiguration> jobs = Maps.newConcurrentMap();
+    return ImmutableSet.copyOf(managers.get().keys());
   }
 }
@@ -15,46 +15,58 @@
  */
 package com.twitter.aurora.scheduler.storage.mem;
 
-import java.util.Map;
 import java.util.Set;
 
+import javax.inject.Inject;
+
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Maps;
 
 import com.twitter.aurora.scheduler.storage.LockStore;
 import com.twitter.aurora.scheduler.storage.entities.ILock;
 import com.twitter.aurora.scheduler.storage.entities.ILockKey;
+import com.twitter.aurora.scheduler.storage.mem.Transactions.Versioned;
 
 /**
  * An in-memory lock store.
  */
 class MemLockStore implements LockStore.Mutable {
 
-  private final Map<ILockKey, ILock> locks = Maps.newConcurrentMap();
+  private final Versioned<PersistentHashMap<ILockKey, ILock>> locks;
+
+  @VisibleForTesting
+  MemLockStore() {
+    this(new Transactions());
+  }
+
+  @Inject
+  MemLockStore(Transactions transactions) {
+    locks = transactions.newVersioned(PersistentHashMap.<ILockKey, ILock>empty());
+  }
 
   @Override
   public void saveLock(ILock lock) {
-    locks.put(lock.getKey(), lock);
+    locks.set(locks.get().plus(lock.getKey(), lock));
   }
 
   @Override
   public void removeLock(ILockKey lockKey) {
-    locks.remove(lockKey);
+    locks.set(locks.get().minus(lockKey));
   }
 
   @Override
   public void deleteLocks() {
-    locks.clear();
+    locks.set(PersistentHashMap.<ILockKey, ILock>empty());
   }
 
   @Override
   public Set<ILock> fetchLocks() {
-    return ImmutableSet.copyOf(locks.values());
+    return ImmutableSet.copyOf(locks.get().values());
   }
 
   @Override
   public Optional<ILock> fetchLock(ILockKey lockKey) {
-    return Optional.fromNullable(locks.get(lockKey));
+    return Optional.fromNullable(locks.get().get(lockKey));
   }
 }
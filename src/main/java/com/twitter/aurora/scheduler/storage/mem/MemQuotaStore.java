@@ -17,12 +17,15 @@ package com.twitter.aurora.scheduler.storage.mem;
 
 import java.util.Map;
 
+import javax.inject.Inject;
+
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Maps;
 
 import com.twitter.aurora.scheduler.storage.QuotaStore;
 import com.twitter.aurora.scheduler.storage.entities.IQuota;
+import com.twitter.aurora.scheduler.storage.mem.Transactions.Versioned;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -31,18 +34,28 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 class MemQuotaStore implements QuotaStore.Mutable {
 
-  private final Map<String, IQuota> quotas = Maps.newConcurrentMap();
+  private final Versioned<PersistentHashMap<String, IQuota>> quotas;
+
+  @VisibleForTesting
+  MemQuotaStore() {
+    this(new Transactions());
+  }
+
+  @Inject
+  MemQuotaStore(Transactions transactions) {
+    quotas = transactions.newVersioned(PersistentHashMap.<String, IQuota>empty());
+  }
 
   @Override
   public void deleteQuotas() {
-    quotas.clear();
+    quotas.set(PersistentHashMap.<String, IQuota>empty());
   }
 
   @Override
   public void removeQuota(String role) {
     checkNotNull(role);
 
-    quotas.remove(role);
+    quotas.set(quotas.get().minus(role));
   }
 
   @Override
@@ -50,17 +63,21 @@ class MemQuotaStore implements QuotaStore.Mutable {
     checkNotNull(role);
     checkNotNull(quota);
 
-    quotas.put(role, quota);
+    quotas.set(quotas.get().plus(role, quota));
   }
 
   @Override
   public Optional<IQuota> fetchQuota(String role) {
     checkNotNull(role);
-    return Optional.fromNullable(quotas.get(role));
+    return Optional.fromNullable(quotas.get().get(role));
   }
 
   @Override
   public Map<String, IQuota> fetchQuotas() {
-    return ImmutableMap.copyOf(quotas);
+    ImmutableMap.Builder<String, IQuota> builder = ImmutableMap.builder();
+    for (Map.Entry<String, IQuota> entry : quotas.get()) {
+      builder.put(entry);
+    }
+    return builder.build();
   }
 }
@@ -15,19 +15,29 @@
  */
 package com.twitter.aurora.scheduler.storage.mem;
 
-import java.util.concurrent.atomic.AtomicReference;
-
 import javax.annotation.Nullable;
+import javax.inject.Inject;
 
-import com.google.common.util.concurrent.Atomics;
+import com.google.common.annotations.VisibleForTesting;
 
 import com.twitter.aurora.scheduler.storage.SchedulerStore;
+import com.twitter.aurora.scheduler.storage.mem.Transactions.Versioned;
 
 /**
  * An in-memory scheduler store.
  */
 class MemSchedulerStore implements SchedulerStore.Mutable {
-  private final AtomicReference<String> frameworkId = Atomics.newReference();
+  private final Versioned<String> frameworkId;
+
+  @VisibleForTesting
+  MemSchedulerStore() {
+    this(new Transactions());
+  }
+
+  @Inject
+  MemSchedulerStore(Transactions transactions) {
+    frameworkId = transactions.newVersioned(null);
+  }
 
   @Override
   public void saveFrameworkId(String newFrameworkId) {
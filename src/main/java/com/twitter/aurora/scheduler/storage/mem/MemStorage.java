@@ -15,8 +15,6 @@
  */
 package com.twitter.aurora.scheduler.storage.mem;
 
-import java.util.concurrent.atomic.AtomicLong;
-
 import javax.inject.Inject;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -25,34 +23,33 @@ import com.twitter.aurora.scheduler.storage.AttributeStore;
 import com.twitter.aurora.scheduler.storage.JobStore;
 import com.twitter.aurora.scheduler.storage.LockStore;
 import com.twitter.aurora.scheduler.storage.QuotaStore;
-import com.twitter.aurora.scheduler.storage.ReadWriteLockManager;
 import com.twitter.aurora.scheduler.storage.SchedulerStore;
 import com.twitter.aurora.scheduler.storage.Storage;
 import com.twitter.aurora.scheduler.storage.TaskStore;
 import com.twitter.common.inject.TimedInterceptor.Timed;
-import com.twitter.common.stats.Stats;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * A storage implementation comprised of individual in-memory store implementations.
  * <p>
- * This storage has a global read-write lock, which is used when invoking
- * {@link #consistentRead(Work)} and {@link #write(MutateWork)}.  However, no locks are used at this
- * level for {@link #weaklyConsistentRead(Work)}. It is the responsibility of the
- * individual stores to ensure that read operations are thread-safe (optimally supporting
- * concurrency).  Store implementations may assume that all methods invoked on {@code Mutable}
- * store interfaces are protected by the global write lock, and thus invoked serially.
+ * This storage serializes {@link #write(MutateWork)} operations.  All stores are versioned: a
+ * {@link #consistentRead(Work)} reads a point-in-time version of them that was published by the
+ * last completed write, and never waits for, or blocks, writers.  No locks are used at this level
+ * for {@link #weaklyConsistentRead(Work)}.  It is the responsibility of the individual stores to
+ * ensure that read operations are thread-safe (optimally supporting concurrency).  Store
+ * implementations may assume that all methods invoked on {@code Mutable} store interfaces are
+ * invoked serially, as writes are serialized.
+ *
+ * @see Transactions
  */
 public class MemStorage implements Storage {
-  private final AtomicLong readLockWaitNanos = Stats.exportLong("read_lock_wait_nanos");
-  private final AtomicLong writeLockWaitNanos = Stats.exportLong("write_lock_wait_nanos");
-
   private final MutableStoreProvider storeProvider;
-  private final ReadWriteLockManager lockManager = new ReadWriteLockManager();
+  private final Transactions transactions;
 
   @Inject
   MemStorage(
+      Transactions transactions,
       final SchedulerStore.Mutable schedulerStore,
       final JobStore.Mutable jobStore,
       final TaskStore.Mutable taskStore,
@@ -60,6 +57,7 @@ public class MemStorage implements Storage {
       final QuotaStore.Mutable quotaStore,
       final AttributeStore.Mutable attributeStore) {
 
+    this.transactions = checkNotNull(transactions);
     storeProvider = new MutableStoreProvider() {
       @Override public SchedulerStore.Mutable getSchedulerStore() {
         return schedulerStore;
@@ -96,13 +94,15 @@ public class MemStorage implements Storage {
    */
   @VisibleForTesting
   public static MemStorage newEmptyStorage() {
+    Transactions transactions = new Transactions();
     return new MemStorage(
-        new MemSchedulerStore(),
-        new MemJobStore(),
-        new MemTaskStore(),
-        new MemLockStore(),
-        new MemQuotaStore(),
-        new MemAttributeStore());
+        transactions,
+        new MemSchedulerStore(transactions),
+        new MemJobStore(transactions),
+        new MemTaskStore(transactions),
+        new MemLockStore(transactions),
+        new MemQuotaStore(transactions),
+        new MemAttributeStore(transactions));
   }
 
   @Timed("mem_storage_consistent_read_operation")
@@ -110,15 +110,11 @@ public class MemStorage implements Storage {
   public <T, E extends Exception> T consistentRead(Work<T, E> work) throws StorageException, E {
     checkNotNull(work);
 
-    long lockStartNanos = System.nanoTime();
-    boolean topLevelOperation = lockManager.readLock();
-    if (topLevelOperation) {
-      readLockWaitNanos.addAndGet(System.nanoTime() - lockStartNanos);
-    }
+    transactions.beginRead();
     try {
       return work.apply(storeProvider);
     } finally {
-      lockManager.readUnlock();
+      transactions.end();
     }
   }
 
@@ -137,15 +133,11 @@ public class MemStorage implements Storage {
 
     checkNotNull(work);
 
-    long lockStartNanos = System.nanoTime();
-    boolean topLevelOperation = lockManager.writeLock();
-    if (topLevelOperation) {
-      writeLockWaitNanos.addAndGet(System.nanoTime() - lockStartNanos);
-    }
+    transactions.beginWrite();
     try {
       return work.apply(storeProvider);
     } finally {
-      lockManager.writeUnlock();
+      transactions.end();
     }
   }
 
@@ -74,6 +74,7 @@ public final class MemStorageModule extends PrivateModule {
     bind(exposedMemStorageKey).to(MemStorage.class);
     expose(exposedMemStorageKey);
     bind(MemStorage.class).in(Singleton.class);
+    bind(Transactions.class).in(Singleton.class);
 
     bindStore(SchedulerStore.Mutable.class, MemSchedulerStore.class);
     bindStore(JobStore.Mutable.class, MemJobStore.class);
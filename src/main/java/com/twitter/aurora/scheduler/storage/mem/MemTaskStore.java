@@ -15,39 +15,46 @@
  */
 package com.twitter.aurora.scheduler.storage.mem;
 
-import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.inject.Inject;
+
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
-import com.google.common.base.Functions;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.FluentIterable;
-import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
 
 import org.apache.commons.lang.StringUtils;
 
+import com.twitter.aurora.gen.AssignedTask;
+import com.twitter.aurora.gen.ScheduleStatus;
 import com.twitter.aurora.gen.ScheduledTask;
 import com.twitter.aurora.gen.TaskConfig;
+import com.twitter.aurora.gen.TaskEvent;
 import com.twitter.aurora.gen.TaskQuery;
 import com.twitter.aurora.scheduler.base.JobKeys;
 import com.twitter.aurora.scheduler.base.Query;
 import com.twitter.aurora.scheduler.base.Tasks;
 import com.twitter.aurora.scheduler.storage.TaskStore;
+import com.twitter.aurora.scheduler.storage.entities.IAssignedTask;
 import com.twitter.aurora.scheduler.storage.entities.IJobKey;
 import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
 import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
+import com.twitter.aurora.scheduler.storage.entities.ITaskEvent;
+import com.twitter.aurora.scheduler.storage.mem.Transactions.Versioned;
 import com.twitter.common.args.Arg;
 import com.twitter.common.args.CmdLine;
 import com.twitter.common.base.MorePreconditions;
@@ -70,21 +77,56 @@ class MemTaskStore implements TaskStore.Mutable {
   private static final Arg<Amount<Long, Time>> SLOW_QUERY_LOG_THRESHOLD =
       Arg.create(Amount.of(25L, Time.MILLISECONDS));
 
+  @CmdLine(name = "compact_task_store",
+      help = "Store tasks in memory in a compact form, which is converted to a full task when read."
+          + "  This reduces heap usage at the cost of additional work for every task read.")
+  private static final Arg<Boolean> COMPACT_TASK_STORE = Arg.create(false);
+
   private final long slowQueryThresholdNanos = SLOW_QUERY_LOG_THRESHOLD.get().as(Time.NANOSECONDS);
 
-  private final Map<String, Task> tasks = Maps.newConcurrentMap();
-  private final Multimap<IJobKey, String> tasksByJobKey =
-      Multimaps.synchronizedSetMultimap(HashMultimap.<IJobKey, String>create());
+  private final Versioned<PersistentHashMap<String, Task>> tasks;
+  private final List<SecondaryIndex<?>> secondaryIndices;
 
   // An interner is used here to collapse equivalent TaskConfig instances into canonical instances.
   // Ideally this would fall out of the object hierarchy (TaskConfig being associated with the job
   // rather than the task), but we intuit this detail here for performance reasons.
-  private final Interner<TaskConfig, String> configInterner = new Interner<TaskConfig, String>();
+  private final Interner<TaskConfig> configInterner = new Interner<>();
+
+  // Strings that are likely to be repeated across many compact tasks, such as host names.
+  private final com.google.common.collect.Interner<String> stringInterner =
+      Interners.newWeakInterner();
+
+  private final boolean compact;
 
   private final AtomicLong taskQueriesById = Stats.exportLong("task_queries_by_id");
-  private final AtomicLong taskQueriesByJob = Stats.exportLong("task_queries_by_job");
   private final AtomicLong taskQueriesAll = Stats.exportLong("task_queries_all");
 
+  @Inject
+  MemTaskStore(Transactions transactions) {
+    this(transactions, COMPACT_TASK_STORE.get());
+  }
+
+  @VisibleForTesting
+  MemTaskStore(boolean compact) {
+    this(new Transactions(), compact);
+  }
+
+  /**
+   * Creates an empty task store.
+   *
+   * @param transactions Transactions to version the store contents with.
+   * @param compact Whether tasks should be stored in compact form.
+   */
+  MemTaskStore(Transactions transactions, boolean compact) {
+    this.compact = compact;
+    tasks = transactions.newVersioned(PersistentHashMap.<String, Task>empty());
+    secondaryIndices = ImmutableList.<SecondaryIndex<?>>of(
+        new SecondaryIndex<>(transactions, Tasks.SCHEDULED_TO_JOB_KEY, QUERY_TO_JOB_KEY, "job"),
+        new SecondaryIndex<>(transactions, Tasks.GET_STATUS, QUERY_TO_STATUSES, "status"),
+        new SecondaryIndex<>(transactions, SCHEDULED_TO_SLAVE_HOST, QUERY_TO_SLAVE_HOST, "host"),
+        new SecondaryIndex<>(transactions, SCHEDULED_TO_ROLE, QUERY_TO_ROLE, "role"));
+  }
+
   @Timed("mem_storage_fetch_tasks")
   @Override
   public ImmutableSet<IScheduledTask> fetchTasks(Query.Builder query) {
@@ -102,13 +144,6 @@ class MemTaskStore implements TaskStore.Mutable {
     return result;
   }
 
-  private final Function<IScheduledTask, Task> toTask =
-      new Function<IScheduledTask, Task>() {
-        @Override public Task apply(IScheduledTask task) {
-          return new Task(task, configInterner);
-        }
-      };
-
   @Timed("mem_storage_save_tasks")
   @Override
   public void saveTasks(Set<IScheduledTask> newTasks) {
@@ -116,22 +151,57 @@ class MemTaskStore implements TaskStore.Mutable {
     Preconditions.checkState(Tasks.ids(newTasks).size() == newTasks.size(),
         "Proposed new tasks would create task ID collision.");
 
-    Iterable<Task> canonicalized = Iterables.transform(newTasks, toTask);
-    tasks.putAll(Maps.uniqueIndex(canonicalized, TO_ID));
-    tasksByJobKey.putAll(taskIdsByJobKey(canonicalized));
+    for (IScheduledTask task : newTasks) {
+      store(task);
+    }
   }
 
-  private Multimap<IJobKey, String> taskIdsByJobKey(Iterable<Task> toIndex) {
-    return Multimaps.transformValues(
-        Multimaps.index(toIndex, Functions.compose(Tasks.SCHEDULED_TO_JOB_KEY, TO_SCHEDULED)),
-        TO_ID);
+  /**
+   * Stores a task, replacing any existing task with the same ID and keeping secondary indices
+   * in sync with the replacement.
+   *
+   * @param task Task to store.
+   */
+  private void store(IScheduledTask task) {
+    String id = Tasks.id(task);
+    PersistentHashMap<String, Task> current = tasks.get();
+    Task replaced = current.get(id);
+
+    // Most mutations, such as state transitions, leave the configuration unchanged, in which case
+    // the replaced task's reference to the canonical configuration is handed over.
+    ITaskConfig config = task.getAssignedTask().getTask();
+    Interner.Reference<TaskConfig> configReference =
+        ((replaced != null) && replaced.hasConfig(config))
+            ? replaced.getConfig()
+            : configInterner.intern(config.newBuilder());
+
+    Task stored = compact
+        ? new CompactTask(task, configReference, stringInterner)
+        : new ExpandedTask(task, configReference);
+    tasks.set(current.plus(id, stored));
+
+    IScheduledTask replacedTask = null;
+    if (replaced != null) {
+      if (replaced.getConfig() != configReference) {
+        configInterner.release(replaced.getConfig());
+      }
+      replacedTask = replaced.get();
+    }
+    for (SecondaryIndex<?> index : secondaryIndices) {
+      if (replacedTask != null) {
+        index.remove(replacedTask);
+      }
+      index.insert(task);
+    }
   }
 
   @Timed("mem_storage_delete_all_tasks")
   @Override
   public void deleteAllTasks() {
-    tasks.clear();
-    tasksByJobKey.clear();
+    tasks.set(PersistentHashMap.<String, Task>empty());
+    for (SecondaryIndex<?> index : secondaryIndices) {
+      index.clear();
+    }
     configInterner.clear();
   }
 
@@ -141,10 +211,15 @@ class MemTaskStore implements TaskStore.Mutable {
     checkNotNull(taskIds);
 
     for (String id : taskIds) {
-      Task removed = tasks.remove(id);
+      PersistentHashMap<String, Task> current = tasks.get();
+      Task removed = current.get(id);
       if (removed != null) {
-        tasksByJobKey.remove(Tasks.SCHEDULED_TO_JOB_KEY.apply(removed.task), id);
-        configInterner.removeAssociation(removed.task.getAssignedTask().getTask().newBuilder(), id);
+        tasks.set(current.minus(id));
+        IScheduledTask removedTask = removed.get();
+        for (SecondaryIndex<?> index : secondaryIndices) {
+          index.remove(removedTask);
+        }
+        configInterner.release(removed.getConfig());
       }
     }
   }
@@ -165,7 +240,7 @@ class MemTaskStore implements TaskStore.Mutable {
         Preconditions.checkState(
             Tasks.id(original).equals(Tasks.id(maybeMutated)),
             "A task's ID may not be mutated.");
-        tasks.put(Tasks.id(maybeMutated), toTask.apply(maybeMutated));
+        store(maybeMutated);
         mutated.add(maybeMutated);
       }
     }
@@ -179,13 +254,13 @@ class MemTaskStore implements TaskStore.Mutable {
     MorePreconditions.checkNotBlank(taskId);
     checkNotNull(taskConfiguration);
 
-    Task stored = tasks.get(taskId);
+    Task stored = tasks.get().get(taskId);
     if (stored == null) {
       return false;
     } else {
-      ScheduledTask updated = stored.task.newBuilder();
+      ScheduledTask updated = stored.get().newBuilder();
       updated.getAssignedTask().setTask(taskConfiguration.newBuilder());
-      tasks.put(taskId, toTask.apply(IScheduledTask.build(updated)));
+      store(IScheduledTask.buildNoCopy(updated));
       return true;
     }
   }
@@ -244,7 +319,10 @@ class MemTaskStore implements TaskStore.Mutable {
     };
   }
 
-  private Iterable<Task> fromIdIndex(Iterable<String> taskIds) {
+  private static Iterable<Task> fromIdIndex(
+      PersistentHashMap<String, Task> tasks,
+      Iterable<String> taskIds) {
+
     ImmutableList.Builder<Task> matches = ImmutableList.builder();
     for (String id : taskIds) {
       Task match = tasks.get(id);
@@ -257,22 +335,31 @@ class MemTaskStore implements TaskStore.Mutable {
 
   private FluentIterable<IScheduledTask> matches(TaskQuery query) {
     // Apply the query against the working set.
+    PersistentHashMap<String, Task> current = tasks.get();
     Iterable<Task> from;
-    Optional<IJobKey> jobKey = JobKeys.from(Query.arbitrary(query));
     if (query.isSetTaskIds()) {
       taskQueriesById.incrementAndGet();
-      from = fromIdIndex(query.getTaskIds());
-    } else if (jobKey.isPresent()) {
-      taskQueriesByJob.incrementAndGet();
-      Collection<String> taskIds = tasksByJobKey.get(jobKey.get());
-      if (taskIds == null) {
-        from = ImmutableList.of();
+      from = fromIdIndex(current, query.getTaskIds());
+    } else {
+      // Pick the most selective index that applies to the query.  Conditions covered by other
+      // indices are still enforced by the query filter, which is equivalent to intersecting the
+      // candidates with those indices, without materializing the larger ID sets.
+      Optional<SecondaryIndex<?>> bestIndex = Optional.absent();
+      int bestSize = Integer.MAX_VALUE;
+      for (SecondaryIndex<?> index : secondaryIndices) {
+        Optional<Integer> size = index.matchCount(query);
+        if (size.isPresent() && size.get() < bestSize) {
+          bestIndex = Optional.<SecondaryIndex<?>>of(index);
+          bestSize = size.get();
+        }
+      }
+
+      if (bestIndex.isPresent()) {
+        from = fromIdIndex(current, bestIndex.get().getMatches(query));
       } else {
-        from = fromIdIndex(taskIds);
+        taskQueriesAll.incrementAndGet();
+        from = current.values();
       }
-    } else {
-      taskQueriesAll.incrementAndGet();
-      from = tasks.values();
     }
 
     return FluentIterable.from(from).transform(TO_SCHEDULED).filter(queryFilter(query));
@@ -281,24 +368,392 @@ class MemTaskStore implements TaskStore.Mutable {
   private static final Function<Task, IScheduledTask> TO_SCHEDULED =
       new Function<Task, IScheduledTask>() {
         @Override public IScheduledTask apply(Task task) {
-          return task.task;
+          return task.get();
         }
       };
 
-  private static final Function<Task, String> TO_ID =
-      Functions.compose(Tasks.SCHEDULED_TO_ID, TO_SCHEDULED);
+  private static final Function<IScheduledTask, String> SCHEDULED_TO_SLAVE_HOST =
+      new Function<IScheduledTask, String>() {
+        @Override public String apply(IScheduledTask task) {
+          return task.getAssignedTask().getSlaveHost();
+        }
+      };
+
+  private static final Function<IScheduledTask, String> SCHEDULED_TO_ROLE =
+      new Function<IScheduledTask, String>() {
+        @Override public String apply(IScheduledTask task) {
+          return Tasks.getRole(task);
+        }
+      };
+
+  private static final Function<TaskQuery, Optional<Set<IJobKey>>> QUERY_TO_JOB_KEY =
+      new Function<TaskQuery, Optional<Set<IJobKey>>>() {
+        @Override public Optional<Set<IJobKey>> apply(TaskQuery query) {
+          Optional<IJobKey> jobKey = JobKeys.from(Query.arbitrary(query));
+          return jobKey.isPresent()
+              ? Optional.<Set<IJobKey>>of(ImmutableSet.of(jobKey.get()))
+              : Optional.<Set<IJobKey>>absent();
+        }
+      };
+
+  private static final Function<TaskQuery, Optional<Set<ScheduleStatus>>> QUERY_TO_STATUSES =
+      new Function<TaskQuery, Optional<Set<ScheduleStatus>>>() {
+        @Override public Optional<Set<ScheduleStatus>> apply(TaskQuery query) {
+          // An empty set of statuses is treated as no constraint by the query filter.
+          return query.getStatusesSize() > 0
+              ? Optional.<Set<ScheduleStatus>>of(query.getStatuses())
+              : Optional.<Set<ScheduleStatus>>absent();
+        }
+      };
+
+  private static final Function<TaskQuery, Optional<Set<String>>> QUERY_TO_SLAVE_HOST =
+      new Function<TaskQuery, Optional<Set<String>>>() {
+        @Override public Optional<Set<String>> apply(TaskQuery query) {
+          return StringUtils.isEmpty(query.getSlaveHost())
+              ? Optional.<Set<String>>absent()
+              : Optional.<Set<String>>of(ImmutableSet.of(query.getSlaveHost()));
+        }
+      };
+
+  private static final Function<TaskQuery, Optional<Set<String>>> QUERY_TO_ROLE =
+      new Function<TaskQuery, Optional<Set<String>>>() {
+        @Override public Optional<Set<String>> apply(TaskQuery query) {
+          return (query.getOwner() == null || StringUtils.isBlank(query.getOwner().getRole()))
+              ? Optional.<Set<String>>absent()
+              : Optional.<Set<String>>of(ImmutableSet.of(query.getOwner().getRole()));
+        }
+      };
+
+  /**
+   * A non-unique index of task IDs, keyed by a field of the task.  Indices are maintained by the
+   * store on every write, and consulted when a query constrains the indexed field.
+   *
+   * @param <K> Type of the indexed field.
+   */
+  private static class SecondaryIndex<K> {
+    private final Versioned<PersistentHashMap<K, PersistentHashMap<String, Boolean>>> index;
+    private final Function<IScheduledTask, K> indexer;
+    private final Function<TaskQuery, Optional<Set<K>>> queryExtractor;
+    private final AtomicLong hitCount;
+
+    /**
+     * Creates a secondary index.
+     *
+     * @param transactions Transactions to version the index with.
+     * @param indexer Function to extract the indexed field from a task.  Tasks for which the
+     *                indexer returns {@code null} are not indexed.
+     * @param queryExtractor Function to extract the values of the indexed field that a query is
+     *                       constrained to, if any.
+     * @param name Name of the index, used for stats.
+     */
+    SecondaryIndex(
+        Transactions transactions,
+        Function<IScheduledTask, K> indexer,
+        Function<TaskQuery, Optional<Set<K>>> queryExtractor,
+        String name) {
+
+      this.index = transactions.newVersioned(
+          PersistentHashMap.<K, PersistentHashMap<String, Boolean>>empty());
+      this.indexer = indexer;
+      this.queryExtractor = queryExtractor;
+      this.hitCount = Stats.exportLong("task_queries_by_" + name);
+    }
+
+    void insert(IScheduledTask task) {
+      K key = indexer.apply(task);
+      if (key != null) {
+        PersistentHashMap<K, PersistentHashMap<String, Boolean>> current = index.get();
+        PersistentHashMap<String, Boolean> ids = current.get(key);
+        if (ids == null) {
+          ids = PersistentHashMap.empty();
+        }
+        index.set(current.plus(key, ids.plus(Tasks.id(task), Boolean.TRUE)));
+      }
+    }
+
+    void remove(IScheduledTask task) {
+      K key = indexer.apply(task);
+      if (key != null) {
+        PersistentHashMap<K, PersistentHashMap<String, Boolean>> current = index.get();
+        PersistentHashMap<String, Boolean> ids = current.get(key);
+        if (ids != null) {
+          PersistentHashMap<String, Boolean> remaining = ids.minus(Tasks.id(task));
+          index.set(remaining.isEmpty() ? current.minus(key) : current.plus(key, remaining));
+        }
+      }
+    }
 
-  private static class Task {
+    void clear() {
+      index.set(PersistentHashMap.<K, PersistentHashMap<String, Boolean>>empty());
+    }
+
+    /**
+     * Gets the number of task IDs the index would return for a query.
+     *
+     * @param query Query to estimate.
+     * @return The number of candidate task IDs, or absent if the query does not constrain the
+     *         indexed field.
+     */
+    Optional<Integer> matchCount(TaskQuery query) {
+      Optional<Set<K>> keys = queryExtractor.apply(query);
+      if (!keys.isPresent()) {
+        return Optional.absent();
+      }
+
+      PersistentHashMap<K, PersistentHashMap<String, Boolean>> current = index.get();
+      int count = 0;
+      for (K key : keys.get()) {
+        PersistentHashMap<String, Boolean> ids = current.get(key);
+        if (ids != null) {
+          count += ids.size();
+        }
+      }
+      return Optional.of(count);
+    }
+
+    /**
+     * Gets the IDs of all tasks whose indexed field matches the query.  The caller must ensure
+     * that the query constrains the indexed field.
+     *
+     * @param query Query to fetch candidates for.
+     * @return A copy of the matching task IDs.
+     */
+    Iterable<String> getMatches(TaskQuery query) {
+      hitCount.incrementAndGet();
+      PersistentHashMap<K, PersistentHashMap<String, Boolean>> current = index.get();
+      ImmutableSet.Builder<String> matches = ImmutableSet.builder();
+      for (K key : queryExtractor.apply(query).get()) {
+        PersistentHashMap<String, Boolean> ids = current.get(key);
+        if (ids != null) {
+          matches.addAll(ids.keys());
+        }
+      }
+      return matches.build();
+    }
+  }
+
+  /**
+   * A task held by the store.
+   */
+  private interface Task {
+    /**
+     * Gets the stored task.
+     *
+     * @return The stored task, which may be created on every call.
+     */
+    IScheduledTask get();
+
+    /**
+     * Gets the reference to the canonical configuration of the task, which is released when the
+     * task is removed or replaced.
+     *
+     * @return The task configuration reference.
+     */
+    Interner.Reference<TaskConfig> getConfig();
+
+    /**
+     * Checks whether the task has a configuration.
+     *
+     * @param config Configuration to compare against.
+     * @return {@code true} if the task's configuration is equal to {@code config}.
+     */
+    boolean hasConfig(ITaskConfig config);
+  }
+
+  /**
+   * Creates a task that shares the canonical configuration, and the immutable fields of another
+   * task.  Only the task events, which are small, are copied.
+   *
+   * @param task Task to copy.
+   * @param canonical Canonical configuration, which is equal to the configuration of {@code task}.
+   *                  It must never be modified.
+   * @return A task equal to {@code task}.
+   */
+  private static IScheduledTask withCanonicalConfig(IScheduledTask task, TaskConfig canonical) {
+    IAssignedTask assigned = task.getAssignedTask();
+    AssignedTask assignedBuilder = new AssignedTask()
+        .setTaskId(assigned.getTaskId())
+        .setSlaveId(assigned.getSlaveId())
+        .setSlaveHost(assigned.getSlaveHost())
+        .setTask(canonical)
+        .setInstanceId(assigned.getInstanceId());
+    if (assigned.isSetAssignedPorts()) {
+      // The immutable map is reused by the wrapper rather than copied.
+      assignedBuilder.setAssignedPorts(assigned.getAssignedPorts());
+    }
+
+    ScheduledTask builder = new ScheduledTask()
+        .setAssignedTask(assignedBuilder)
+        .setStatus(task.getStatus())
+        .setFailureCount(task.getFailureCount())
+        .setAncestorId(task.getAncestorId());
+    if (task.isSetTaskEvents()) {
+      builder.setTaskEvents(ITaskEvent.toBuildersList(task.getTaskEvents()));
+    }
+    return IScheduledTask.buildNoCopy(builder);
+  }
+
+  /**
+   * A task that is held as the immutable task object.
+   */
+  private static class ExpandedTask implements Task {
     private final IScheduledTask task;
+    private final Interner.Reference<TaskConfig> config;
+
+    ExpandedTask(IScheduledTask task, Interner.Reference<TaskConfig> config) {
+      this.task = withCanonicalConfig(task, config.get());
+      this.config = config;
+    }
+
+    @Override
+    public IScheduledTask get() {
+      return task;
+    }
+
+    @Override
+    public Interner.Reference<TaskConfig> getConfig() {
+      return config;
+    }
+
+    @Override
+    public boolean hasConfig(ITaskConfig other) {
+      return task.getAssignedTask().getTask().equals(other);
+    }
+  }
+
+  /**
+   * A task that is held in a compact form, and is converted to an immutable task object when read.
+   * <p>
+   * The task configuration is the canonical instance shared with other tasks, and frequently
+   * repeated strings are interned.  Task events are held as parallel arrays rather than as
+   * objects.  A {@code null} array represents an unset collection, and {@code null} elements
+   * represent unset fields, so that a task reads back equal to the task that was stored.
+   */
+  private static final class CompactTask implements Task {
+    private static final ScheduleStatus[] STATUSES = ScheduleStatus.values();
+    private static final byte NO_STATUS = -1;
+
+    private final String taskId;
+    private final String slaveId;
+    private final String slaveHost;
+    private final Interner.Reference<TaskConfig> config;
+    private final String[] portNames;
+    private final int[] ports;
+    private final int instanceId;
+    private final byte status;
+    private final int failureCount;
+    private final String ancestorId;
+    private final long[] eventTimestamps;
+    private final byte[] eventStatuses;
+    private final String[] eventMessages;
+    private final String[] eventSchedulers;
+
+    CompactTask(
+        IScheduledTask task,
+        Interner.Reference<TaskConfig> config,
+        com.google.common.collect.Interner<String> stringInterner) {
+
+      IAssignedTask assigned = task.getAssignedTask();
+      taskId = assigned.getTaskId();
+      slaveId = intern(stringInterner, assigned.getSlaveId());
+      slaveHost = intern(stringInterner, assigned.getSlaveHost());
+      this.config = config;
+      if (assigned.isSetAssignedPorts()) {
+        portNames = new String[assigned.getAssignedPorts().size()];
+        ports = new int[portNames.length];
+        int i = 0;
+        for (Entry<String, Integer> port : assigned.getAssignedPorts().entrySet()) {
+          portNames[i] = intern(stringInterner, port.getKey());
+          ports[i] = port.getValue();
+          i++;
+        }
+      } else {
+        portNames = null;
+        ports = null;
+      }
+      instanceId = assigned.getInstanceId();
+
+      status = pack(task.getStatus());
+      failureCount = task.getFailureCount();
+      ancestorId = task.getAncestorId();
+
+      if (task.isSetTaskEvents()) {
+        List<ITaskEvent> events = task.getTaskEvents();
+        eventTimestamps = new long[events.size()];
+        eventStatuses = new byte[events.size()];
+        eventMessages = new String[events.size()];
+        eventSchedulers = new String[events.size()];
+        for (int i = 0; i < events.size(); i++) {
+          ITaskEvent event = events.get(i);
+          eventTimestamps[i] = event.getTimestamp();
+          eventStatuses[i] = pack(event.getStatus());
+          eventMessages[i] = intern(stringInterner, event.getMessage());
+          eventSchedulers[i] = intern(stringInterner, event.getScheduler());
+        }
+      } else {
+        eventTimestamps = null;
+        eventStatuses = null;
+        eventMessages = null;
+        eventSchedulers = null;
+      }
+    }
+
+    private static String intern(com.google.common.collect.Interner<String> interner, String s) {
+      return (s == null) ? null : interner.intern(s);
+    }
+
+    private static byte pack(ScheduleStatus status) {
+      return (status == null) ? NO_STATUS : (byte) status.ordinal();
+    }
+
+    private static ScheduleStatus unpack(byte status) {
+      return (status == NO_STATUS) ? null : STATUSES[status];
+    }
+
+    @Override
+    public IScheduledTask get() {
+      AssignedTask assigned = new AssignedTask()
+          .setTaskId(taskId)
+          .setSlaveId(slaveId)
+          .setSlaveHost(slaveHost)
+          .setTask(config.get())
+          .setInstanceId(instanceId);
+      if (portNames != null) {
+        Map<String, Integer> assignedPorts = Maps.newHashMapWithExpectedSize(portNames.length);
+        for (int i = 0; i < portNames.length; i++) {
+          assignedPorts.put(portNames[i], ports[i]);
+        }
+        assigned.setAssignedPorts(assignedPorts);
+      }
+
+      ScheduledTask task = new ScheduledTask()
+          .setAssignedTask(assigned)
+          .setStatus(unpack(status))
+          .setFailureCount(failureCount)
+          .setAncestorId(ancestorId);
+      if (eventTimestamps != null) {
+        List<TaskEvent> events = Lists.newArrayListWithCapacity(eventTimestamps.length);
+        for (int i = 0; i < eventTimestamps.length; i++) {
+          events.add(new TaskEvent()
+              .setTimestamp(eventTimestamps[i])
+              .setStatus(unpack(eventStatuses[i]))
+              .setMessage(eventMessages[i])
+              .setScheduler(eventSchedulers[i]));
+        }
+        task.setTaskEvents(events);
+      }
+      // The task is built without copying, sharing the canonical configuration.
+      return IScheduledTask.buildNoCopy(task);
+    }
+
+    @Override
+    public Interner.Reference<TaskConfig> getConfig() {
+      return config;
+    }
 
-    Task(IScheduledTask task, Interner<TaskConfig, String> interner) {
-      interner.removeAssociation(task.getAssignedTask().getTask().newBuilder(), Tasks.id(task));
-      TaskConfig canonical = interner.addAssociation(
-          task.getAssignedTask().getTask().newBuilder(),
-          Tasks.id(task));
-      ScheduledTask builder = task.newBuilder();
-      builder.getAssignedTask().setTask(canonical);
-      this.task = IScheduledTask.build(builder);
+    @Override
+    public boolean hasConfig(ITaskConfig other) {
+      return ITaskConfig.buildNoCopy(config.get()).equals(other);
     }
   }
 }
@@ -0,0 +1,410 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.storage.mem;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Function;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An immutable hash map whose modifications return a new map, sharing all but the modified path
+ * of an underlying hash trie with the original.
+ * <p>
+ * Adding or removing an entry copies {@code O(log n)} small nodes, so a writer can publish a new
+ * version of a large map cheaply while readers continue to use the previous version.
+ *
+ * @param <K> Key type.
+ * @param <V> Value type.
+ */
+final class PersistentHashMap<K, V> implements Iterable<Map.Entry<K, V>> {
+
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+
+  private static final PersistentHashMap<Object, Object> EMPTY =
+      new PersistentHashMap<>(null, 0);
+
+  // Either null for an empty map, or a Leaf, Collision or Branch node.
+  @Nullable private final Object root;
+  private final int size;
+
+  private PersistentHashMap(@Nullable Object root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  /**
+   * Gets the empty map.
+   *
+   * @param <K> Key type.
+   * @param <V> Value type.
+   * @return An empty map.
+   */
+  @SuppressWarnings("unchecked")
+  static <K, V> PersistentHashMap<K, V> empty() {
+    return (PersistentHashMap<K, V>) EMPTY;
+  }
+
+  private static final class Leaf {
+    private final int hash;
+    private final Object key;
+    private final Object value;
+
+    Leaf(int hash, Object key, Object value) {
+      this.hash = hash;
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+  // Entries with distinct keys of equal hash.
+  private static final class Collision {
+    private final int hash;
+    private final Leaf[] leaves;
+
+    Collision(int hash, Leaf[] leaves) {
+      this.hash = hash;
+      this.leaves = leaves;
+    }
+
+    int find(Object key) {
+      for (int i = 0; i < leaves.length; i++) {
+        if (leaves[i].key.equals(key)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+  }
+
+  // An interior node, with a child for each bit set in the bitmap.
+  private static final class Branch {
+    private final int bitmap;
+    private final Object[] children;
+
+    Branch(int bitmap, Object[] children) {
+      this.bitmap = bitmap;
+      this.children = children;
+    }
+
+    int index(int bit) {
+      return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    Branch replace(int index, Object child) {
+      Object[] copy = children.clone();
+      copy[index] = child;
+      return new Branch(bitmap, copy);
+    }
+
+    Branch insert(int bit, int index, Object child) {
+      Object[] copy = new Object[children.length + 1];
+      System.arraycopy(children, 0, copy, 0, index);
+      copy[index] = child;
+      System.arraycopy(children, index, copy, index + 1, children.length - index);
+      return new Branch(bitmap | bit, copy);
+    }
+
+    Branch remove(int bit, int index) {
+      Object[] copy = new Object[children.length - 1];
+      System.arraycopy(children, 0, copy, 0, index);
+      System.arraycopy(children, index + 1, copy, index, copy.length - index);
+      return new Branch(bitmap & ~bit, copy);
+    }
+  }
+
+  private static int hash(Object key) {
+    int h = key.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  private static int bit(int hash, int shift) {
+    return 1 << ((hash >>> shift) & MASK);
+  }
+
+  private static int nodeHash(Object node) {
+    return (node instanceof Leaf) ? ((Leaf) node).hash : ((Collision) node).hash;
+  }
+
+  /**
+   * Gets the number of entries in the map.
+   *
+   * @return The map size.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Checks whether the map is empty.
+   *
+   * @return {@code true} if the map has no entries.
+   */
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Gets the value associated with a key.
+   *
+   * @param key Key to look up.
+   * @return The value associated with {@code key}, or {@code null} if there is none.
+   */
+  @SuppressWarnings("unchecked")
+  @Nullable
+  V get(Object key) {
+    checkNotNull(key);
+
+    int hash = hash(key);
+    Object node = root;
+    int shift = 0;
+    while (node instanceof Branch) {
+      Branch branch = (Branch) node;
+      int bit = bit(hash, shift);
+      if ((branch.bitmap & bit) == 0) {
+        return null;
+      }
+      node = branch.children[branch.index(bit)];
+      shift += BITS;
+    }
+
+    if (node instanceof Leaf) {
+      Leaf leaf = (Leaf) node;
+      return ((leaf.hash == hash) && leaf.key.equals(key)) ? (V) leaf.value : null;
+    } else if (node instanceof Collision) {
+      Collision collision = (Collision) node;
+      if (collision.hash == hash) {
+        int index = collision.find(key);
+        return (index == -1) ? null : (V) collision.leaves[index].value;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Checks whether the map has an entry for a key.
+   *
+   * @param key Key to look up.
+   * @return {@code true} if the map has an entry for {@code key}.
+   */
+  boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  /**
+   * Creates a map with an entry added or replaced.
+   *
+   * @param key Key of the entry.
+   * @param value Value of the entry.
+   * @return A map with the entry, which may be this map if it already has the entry.
+   */
+  PersistentHashMap<K, V> plus(K key, V value) {
+    checkNotNull(key);
+    checkNotNull(value);
+
+    boolean[] added = new boolean[1];
+    Object newRoot = plus(root, 0, new Leaf(hash(key), key, value), added);
+    return (newRoot == root)
+        ? this
+        : new PersistentHashMap<K, V>(newRoot, added[0] ? size + 1 : size);
+  }
+
+  private static Object plus(@Nullable Object node, int shift, Leaf leaf, boolean[] added) {
+    if (node == null) {
+      added[0] = true;
+      return leaf;
+    } else if (node instanceof Branch) {
+      Branch branch = (Branch) node;
+      int bit = bit(leaf.hash, shift);
+      int index = branch.index(bit);
+      if ((branch.bitmap & bit) == 0) {
+        added[0] = true;
+        return branch.insert(bit, index, leaf);
+      }
+      Object child = branch.children[index];
+      Object newChild = plus(child, shift + BITS, leaf, added);
+      return (newChild == child) ? branch : branch.replace(index, newChild);
+    } else if (node instanceof Leaf) {
+      Leaf existing = (Leaf) node;
+      if (existing.hash != leaf.hash) {
+        added[0] = true;
+        return merge(existing, leaf, shift);
+      } else if (existing.key.equals(leaf.key)) {
+        return (existing.value == leaf.value) ? existing : leaf;
+      } else {
+        added[0] = true;
+        return new Collision(leaf.hash, new Leaf[] {existing, leaf});
+      }
+    } else {
+      Collision collision = (Collision) node;
+      if (collision.hash != leaf.hash) {
+        added[0] = true;
+        return merge(collision, leaf, shift);
+      }
+      int index = collision.find(leaf.key);
+      Leaf[] leaves;
+      if (index == -1) {
+        added[0] = true;
+        leaves = Arrays.copyOf(collision.leaves, collision.leaves.length + 1);
+        leaves[collision.leaves.length] = leaf;
+      } else if (collision.leaves[index].value == leaf.value) {
+        return collision;
+      } else {
+        leaves = collision.leaves.clone();
+        leaves[index] = leaf;
+      }
+      return new Collision(leaf.hash, leaves);
+    }
+  }
+
+  // Creates a branch holding two nodes of different hashes.
+  private static Object merge(Object a, Object b, int shift) {
+    int indexA = (nodeHash(a) >>> shift) & MASK;
+    int indexB = (nodeHash(b) >>> shift) & MASK;
+    if (indexA == indexB) {
+      return new Branch(1 << indexA, new Object[] {merge(a, b, shift + BITS)});
+    }
+    int bitmap = (1 << indexA) | (1 << indexB);
+    return (indexA < indexB)
+        ? new Branch(bitmap, new Object[] {a, b})
+        : new Branch(bitmap, new Object[] {b, a});
+  }
+
+  /**
+   * Creates a map without the entry for a key.
+   *
+   * @param key Key to remove.
+   * @return A map without an entry for {@code key}, which may be this map if it had no entry.
+   */
+  PersistentHashMap<K, V> minus(Object key) {
+    checkNotNull(key);
+
+    Object newRoot = minus(root, 0, hash(key), key);
+    return (newRoot == root) ? this : new PersistentHashMap<K, V>(newRoot, size - 1);
+  }
+
+  @Nullable
+  private static Object minus(@Nullable Object node, int shift, int hash, Object key) {
+    if (node == null) {
+      return null;
+    } else if (node instanceof Branch) {
+      Branch branch = (Branch) node;
+      int bit = bit(hash, shift);
+      if ((branch.bitmap & bit) == 0) {
+        return branch;
+      }
+      int index = branch.index(bit);
+      Object child = branch.children[index];
+      Object newChild = minus(child, shift + BITS, hash, key);
+      if (newChild == child) {
+        return branch;
+      } else if (newChild == null) {
+        return (branch.children.length == 1) ? null : branch.remove(bit, index);
+      } else if ((branch.children.length == 1) && !(newChild instanceof Branch)) {
+        // A leaf may be found at any depth along its hash path, so collapse single-entry paths.
+        return newChild;
+      } else {
+        return branch.replace(index, newChild);
+      }
+    } else if (node instanceof Leaf) {
+      Leaf leaf = (Leaf) node;
+      return ((leaf.hash == hash) && leaf.key.equals(key)) ? null : leaf;
+    } else {
+      Collision collision = (Collision) node;
+      int index = (collision.hash == hash) ? collision.find(key) : -1;
+      if (index == -1) {
+        return collision;
+      } else if (collision.leaves.length == 2) {
+        return collision.leaves[1 - index];
+      }
+      Leaf[] leaves = new Leaf[collision.leaves.length - 1];
+      System.arraycopy(collision.leaves, 0, leaves, 0, index);
+      System.arraycopy(collision.leaves, index + 1, leaves, index, leaves.length - index);
+      return new Collision(hash, leaves);
+    }
+  }
+
+  /**
+   * Iterates over the entries of the map, in no particular order.
+   *
+   * @return An iterator over the map entries.
+   */
+  @Override
+  public Iterator<Map.Entry<K, V>> iterator() {
+    final Deque<Object> pending = new ArrayDeque<>();
+    if (root != null) {
+      pending.push(root);
+    }
+    return new AbstractIterator<Map.Entry<K, V>>() {
+      @SuppressWarnings("unchecked")
+      @Override protected Map.Entry<K, V> computeNext() {
+        while (!pending.isEmpty()) {
+          Object node = pending.pop();
+          if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            return Maps.immutableEntry((K) leaf.key, (V) leaf.value);
+          } else if (node instanceof Collision) {
+            for (Leaf leaf : ((Collision) node).leaves) {
+              pending.push(leaf);
+            }
+          } else {
+            for (Object child : ((Branch) node).children) {
+              pending.push(child);
+            }
+          }
+        }
+        return endOfData();
+      }
+    };
+  }
+
+  /**
+   * Gets the keys of the map.
+   *
+   * @return A view of the map keys.
+   */
+  Iterable<K> keys() {
+    return Iterables.transform(this, new Function<Map.Entry<K, V>, K>() {
+      @Override public K apply(Map.Entry<K, V> entry) {
+        return entry.getKey();
+      }
+    });
+  }
+
+  /**
+   * Gets the values of the map.
+   *
+   * @return A view of the map values.
+   */
+  Iterable<V> values() {
+    return Iterables.transform(this, new Function<Map.Entry<K, V>, V>() {
+      @Override public V apply(Map.Entry<K, V> entry) {
+        return entry.getValue();
+      }
+    });
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.storage.mem;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+import com.twitter.common.stats.Stats;
+
+/**
+ * Multi-version concurrency control for in-memory stores.
+ * <p>
+ * Stores keep their contents in immutable values held by {@link Versioned} cells.  Write
+ * operations are serialized with a lock, and replace the values of cells as they modify stores.
+ * When the outermost write operation completes, the latest values of all cells are published
+ * together as a new version.  A consistent read operation captures the published version when it
+ * starts, and reads from it for its full duration without locking, so readers and writers never
+ * wait for one another.  Readers that are not part of an operation, such as weakly-consistent
+ * readers, and writers see the latest values.
+ */
+class Transactions {
+  private final AtomicLong writeLockWaitNanos = Stats.exportLong("write_lock_wait_nanos");
+  private final AtomicLong versionsPublished = Stats.exportLong("storage_versions_published");
+
+  private final ReentrantLock writerLock = new ReentrantLock();
+  private final List<Versioned<?>> cells = Lists.newArrayList();
+  private volatile Object[] published = new Object[0];
+
+  private static class Operation {
+    private final boolean write;
+    @Nullable private final Object[] snapshot;
+    private int depth = 1;
+
+    Operation(boolean write, @Nullable Object[] snapshot) {
+      this.write = write;
+      this.snapshot = snapshot;
+    }
+  }
+
+  private final ThreadLocal<Operation> operation = new ThreadLocal<>();
+
+  /**
+   * A mutable reference to an immutable value, which is versioned along with all other cells
+   * created by the same {@link Transactions}.
+   *
+   * @param <T> Value type.
+   */
+  class Versioned<T> {
+    private final int index;
+    private volatile T latest;
+
+    private Versioned(int index, T initial) {
+      this.index = index;
+      this.latest = initial;
+    }
+
+    /**
+     * Gets the value of the cell in the version read by the current operation.
+     *
+     * @return The value captured by this thread's consistent read operation, or the latest value
+     *         if this thread is not performing one.
+     */
+    @SuppressWarnings("unchecked")
+    T get() {
+      Operation current = operation.get();
+      // Cells created after the version was captured are read at their latest value.
+      if ((current != null) && (current.snapshot != null) && (index < current.snapshot.length)) {
+        return (T) current.snapshot[index];
+      }
+      return latest;
+    }
+
+    /**
+     * Replaces the value of the cell.  The new value is published when the current write
+     * operation completes, or immediately if this thread is not performing an operation.
+     *
+     * @param value New value.
+     * @throws IllegalStateException If this thread is performing a read operation.
+     */
+    void set(T value) {
+      Operation current = operation.get();
+      Preconditions.checkState((current == null) || current.write,
+          "Stores may not be modified by a read operation.");
+
+      latest = value;
+      if (current == null) {
+        publish();
+      }
+    }
+  }
+
+  /**
+   * Creates a versioned cell.  Cells are expected to be created when stores are constructed,
+   * before operations are performed.
+   *
+   * @param initial Initial value of the cell.
+   * @param <T> Value type.
+   * @return A new cell.
+   */
+  synchronized <T> Versioned<T> newVersioned(T initial) {
+    Versioned<T> cell = new Versioned<>(cells.size(), initial);
+    cells.add(cell);
+    Object[] values = Arrays.copyOf(published, cells.size());
+    values[cell.index] = initial;
+    published = values;
+    return cell;
+  }
+
+  private synchronized void publish() {
+    Object[] values = new Object[cells.size()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = cells.get(i).latest;
+    }
+    published = values;
+    versionsPublished.incrementAndGet();
+  }
+
+  /**
+   * Starts a read operation that reads the latest published version, or joins the operation
+   * this thread is already performing.
+   */
+  void beginRead() {
+    Operation current = operation.get();
+    if (current == null) {
+      operation.set(new Operation(false, published));
+    } else {
+      current.depth++;
+    }
+  }
+
+  /**
+   * Starts a write operation, blocking until other writers have finished, or joins the write
+   * operation this thread is already performing.
+   *
+   * @throws IllegalStateException If this thread is performing a read operation.
+   */
+  void beginWrite() {
+    Operation current = operation.get();
+    if (current == null) {
+      long lockStartNanos = System.nanoTime();
+      writerLock.lock();
+      writeLockWaitNanos.addAndGet(System.nanoTime() - lockStartNanos);
+      operation.set(new Operation(true, null));
+    } else {
+      Preconditions.checkState(current.write,
+          "A read operation may not be upgraded to a write operation.");
+      current.depth++;
+    }
+  }
+
+  /**
+   * Ends the innermost operation started by this thread.  Completing the outermost write
+   * operation publishes its modifications, even if the operation failed, as modifications are
+   * not rolled back.
+   */
+  void end() {
+    Operation current = operation.get();
+    Preconditions.checkState(current != null, "No operation in progress.");
+
+    current.depth--;
+    if (current.depth == 0) {
+      operation.remove();
+      if (current.write) {
+        try {
+          publish();
+        } finally {
+          writerLock.unlock();
+        }
+      }
+    }
+  }
+}
@@ -143,7 +143,14 @@ public final class %(name)s {
     this.wrapped = Preconditions.checkNotNull(wrapped);%(assignments)s
   }
 
-  static %(name)s buildNoCopy(%(wrapped)s wrapped) {
+  /**
+   * Wraps a struct without copying it.  Neither {@code wrapped} nor any struct reachable from it
+   * may be modified after this call, which allows them to be shared between immutable wrappers.
+   *
+   * @param wrapped Struct to wrap.
+   * @return An immutable wrapper of {@code wrapped}.
+   */
+  public static %(name)s buildNoCopy(%(wrapped)s wrapped) {
     return new %(name)s(wrapped);
   }
 
@@ -22,6 +22,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.testing.TearDown;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
@@ -41,12 +42,15 @@ import org.apache.mesos.SchedulerDriver;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.twitter.aurora.gen.Attribute;
+import com.twitter.aurora.gen.HostAttributes;
 import com.twitter.aurora.scheduler.base.Conversions;
 import com.twitter.aurora.scheduler.base.SchedulerException;
 import com.twitter.aurora.scheduler.configuration.Resources;
 import com.twitter.aurora.scheduler.events.PubsubEvent;
 import com.twitter.aurora.scheduler.events.PubsubEvent.DriverDisconnected;
 import com.twitter.aurora.scheduler.events.PubsubEvent.DriverRegistered;
+import com.twitter.aurora.scheduler.events.PubsubEvent.HostAttributesChanged;
 import com.twitter.aurora.scheduler.events.PubsubEventModule;
 import com.twitter.aurora.scheduler.state.SchedulerCore;
 import com.twitter.aurora.scheduler.storage.Storage;
@@ -257,6 +261,32 @@ public class MesosSchedulerImplTest extends EasyMockTest {
     }.run();
   }
 
+  @Test
+  public void testUnchangedAttributesNotSaved() throws Exception {
+    new OfferFixture() {
+      @Override void respondToOffer() throws Exception {
+        expectStoredAttributes(OFFER, Optional.of(Conversions.getAttributes(OFFER)));
+        expect(systemLauncher.createTask(OFFER)).andReturn(Optional.<TaskInfo>absent());
+        expect(userLauncher.createTask(OFFER)).andReturn(Optional.<TaskInfo>absent());
+      }
+    }.run();
+  }
+
+  @Test
+  public void testChangedAttributesSaved() throws Exception {
+    new OfferFixture() {
+      @Override void respondToOffer() throws Exception {
+        HostAttributes stale = Conversions.getAttributes(OFFER)
+            .setAttributes(ImmutableSet.of(new Attribute("rack", ImmutableSet.of("a"))));
+        expectStoredAttributes(OFFER, Optional.of(stale));
+        storageUtil.attributeStore.saveHostAttributes(Conversions.getAttributes(OFFER));
+        eventBus.execute(new HostAttributesChanged(Conversions.getAttributes(OFFER)));
+        expect(systemLauncher.createTask(OFFER)).andReturn(Optional.<TaskInfo>absent());
+        expect(userLauncher.createTask(OFFER)).andReturn(Optional.<TaskInfo>absent());
+      }
+    }.run();
+  }
+
   @Test
   public void testDisconnected() throws Exception {
     new RegisteredFixture() {
@@ -271,7 +301,13 @@ public class MesosSchedulerImplTest extends EasyMockTest {
   }
 
   private void expectOfferAttributesSaved(Offer offer) {
+    expectStoredAttributes(offer, Optional.<HostAttributes>absent());
     storageUtil.attributeStore.saveHostAttributes(Conversions.getAttributes(offer));
+    eventBus.execute(new HostAttributesChanged(Conversions.getAttributes(offer)));
+  }
+
+  private void expectStoredAttributes(Offer offer, Optional<HostAttributes> stored) {
+    expect(storageUtil.attributeStore.getHostAttributes(offer.getHostname())).andReturn(stored);
   }
 
   private abstract class RegisteredFixture {
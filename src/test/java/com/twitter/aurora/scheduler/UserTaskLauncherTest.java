@@ -15,12 +15,17 @@
  */
 package com.twitter.aurora.scheduler;
 
+import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import org.apache.mesos.Protos.Attribute;
 import org.apache.mesos.Protos.FrameworkID;
@@ -36,22 +41,30 @@ import org.apache.mesos.Protos.Value.Ranges;
 import org.apache.mesos.Protos.Value.Scalar;
 import org.apache.mesos.Protos.Value.Text;
 import org.apache.mesos.Protos.Value.Type;
+import org.easymock.IExpectationSetters;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.twitter.aurora.gen.ScheduleStatus;
+import com.twitter.aurora.scheduler.UserTaskLauncher.BatchOptions;
 import com.twitter.aurora.scheduler.async.OfferQueue;
 import com.twitter.aurora.scheduler.base.Query;
 import com.twitter.aurora.scheduler.configuration.Resources;
 import com.twitter.aurora.scheduler.state.StateManager;
 import com.twitter.aurora.scheduler.storage.Storage.StorageException;
+import com.twitter.aurora.scheduler.storage.testing.StorageTestUtil;
+import com.twitter.common.application.Lifecycle;
+import com.twitter.common.base.Command;
 import com.twitter.common.collections.Pair;
 import com.twitter.common.testing.easymock.EasyMockTest;
 
 import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import static com.twitter.aurora.gen.ScheduleStatus.FAILED;
+import static com.twitter.aurora.gen.ScheduleStatus.FINISHED;
 import static com.twitter.aurora.gen.ScheduleStatus.RUNNING;
 import static com.twitter.aurora.scheduler.configuration.ConfigurationManager.HOST_CONSTRAINT;
 
@@ -63,12 +76,16 @@ public class UserTaskLauncherTest extends EasyMockTest {
   private static final String SLAVE_HOST_1 = "SlaveHost1";
 
   private static final String TASK_ID_A = "task_id_a";
+  private static final String TASK_ID_B = "task_id_b";
 
   private static final OfferID OFFER_ID = OfferID.newBuilder().setValue("OfferId").build();
   private static final Offer OFFER = createOffer(SLAVE_ID, SLAVE_HOST_1, 4, 1024, 1024);
 
   private OfferQueue offerQueue;
   private StateManager stateManager;
+  private StorageTestUtil storageUtil;
+  private Command shutdownCommand;
+  private Lifecycle lifecycle;
 
   private TaskLauncher launcher;
 
@@ -76,7 +93,28 @@ public class UserTaskLauncherTest extends EasyMockTest {
   public void setUp() {
     offerQueue = createMock(OfferQueue.class);
     stateManager = createMock(StateManager.class);
-    launcher = new UserTaskLauncher(offerQueue, stateManager);
+    storageUtil = new StorageTestUtil(this);
+    shutdownCommand = createMock(Command.class);
+    lifecycle = new Lifecycle(shutdownCommand, createMock(UncaughtExceptionHandler.class));
+    launcher = new UserTaskLauncher(
+        offerQueue,
+        stateManager,
+        storageUtil.storage,
+        BatchOptions.DISABLED,
+        MoreExecutors.sameThreadExecutor(),
+        lifecycle);
+  }
+
+  private IExpectationSetters<Integer> expectStateChange(String taskId, ScheduleStatus status) {
+    return expect(
+        stateManager.changeState(Query.taskScoped(taskId), status, Optional.<String>absent()));
+  }
+
+  private static TaskStatus makeStatus(String taskId, TaskState state) {
+    return TaskStatus.newBuilder()
+        .setState(state)
+        .setTaskId(TaskID.newBuilder().setValue(taskId))
+        .build();
   }
 
   @Test
@@ -171,6 +209,69 @@ public class UserTaskLauncherTest extends EasyMockTest {
     launcher.statusUpdate(status);
   }
 
+  @Test
+  public void testBatchedStatusUpdates() throws Exception {
+    final List<Runnable> drains = Lists.newArrayList();
+    Executor executor = new Executor() {
+      @Override public void execute(Runnable command) {
+        drains.add(command);
+      }
+    };
+    launcher = new UserTaskLauncher(
+        offerQueue,
+        stateManager,
+        storageUtil.storage,
+        new BatchOptions(true, 2),
+        executor,
+        lifecycle);
+
+    storageUtil.expectOperations();
+    expectStateChange(TASK_ID_A, RUNNING).andReturn(1);
+    expectStateChange(TASK_ID_B, RUNNING).andReturn(1);
+    expectStateChange(TASK_ID_A, FINISHED).andReturn(1);
+
+    control.replay();
+
+    assertTrue(launcher.statusUpdate(makeStatus(TASK_ID_A, TaskState.TASK_RUNNING)));
+    assertTrue(launcher.statusUpdate(makeStatus(TASK_ID_B, TaskState.TASK_RUNNING)));
+    assertTrue(launcher.statusUpdate(makeStatus(TASK_ID_A, TaskState.TASK_FINISHED)));
+
+    // Only one drain is scheduled while updates are pending.
+    assertEquals(1, drains.size());
+    Iterables.getOnlyElement(drains).run();
+  }
+
+  @Test
+  public void testPartiallyAppliedBatchShutsDown() throws Exception {
+    final List<Runnable> drains = Lists.newArrayList();
+    Executor executor = new Executor() {
+      @Override public void execute(Runnable command) {
+        drains.add(command);
+      }
+    };
+    launcher = new UserTaskLauncher(
+        offerQueue,
+        stateManager,
+        storageUtil.storage,
+        new BatchOptions(true, 2),
+        executor,
+        lifecycle);
+
+    storageUtil.expectOperations();
+    // The first update is applied before the batch fails, and is not rolled back.
+    expectStateChange(TASK_ID_A, RUNNING).andReturn(1);
+    expectStateChange(TASK_ID_B, RUNNING).andThrow(new StorageException("Injected error"));
+    shutdownCommand.execute();
+
+    control.replay();
+
+    assertTrue(launcher.statusUpdate(makeStatus(TASK_ID_A, TaskState.TASK_RUNNING)));
+    assertTrue(launcher.statusUpdate(makeStatus(TASK_ID_B, TaskState.TASK_RUNNING)));
+    assertTrue(launcher.statusUpdate(makeStatus(TASK_ID_A, TaskState.TASK_FINISHED)));
+    // The batch is not retried, and later updates are not applied on top of it.
+    Iterables.getOnlyElement(drains).run();
+  }
+
   private static Offer createOffer(SlaveID slave, String slaveHost, double cpu,
       double ramMb, double diskMb) {
     return createOffer(slave, slaveHost, cpu, ramMb, diskMb,
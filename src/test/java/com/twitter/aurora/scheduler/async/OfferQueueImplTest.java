@@ -15,6 +15,7 @@
  */
 package com.twitter.aurora.scheduler.async;
 
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -24,29 +25,43 @@ import java.util.concurrent.ThreadFactory;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.testing.TearDown;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.apache.mesos.Protos.Offer;
+import org.apache.mesos.Protos.OfferID;
+import org.apache.mesos.Protos.SlaveID;
+import org.apache.mesos.Protos.TaskID;
 import org.apache.mesos.Protos.TaskInfo;
 import org.easymock.IAnswer;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.twitter.aurora.gen.HostStatus;
 import com.twitter.aurora.gen.MaintenanceMode;
 import com.twitter.aurora.scheduler.Driver;
+import com.twitter.aurora.scheduler.ResourceSlot;
 import com.twitter.aurora.scheduler.async.OfferQueue.LaunchException;
 import com.twitter.aurora.scheduler.async.OfferQueue.OfferQueueImpl;
 import com.twitter.aurora.scheduler.async.OfferQueue.OfferReturnDelay;
+import com.twitter.aurora.scheduler.events.PubsubEvent;
 import com.twitter.aurora.scheduler.events.PubsubEvent.DriverDisconnected;
+import com.twitter.aurora.scheduler.events.PubsubEvent.HostMaintenanceStateChange;
+import com.twitter.aurora.scheduler.events.PubsubEvent.OfferAvailable;
 import com.twitter.aurora.scheduler.state.MaintenanceController;
+import com.twitter.common.base.Closure;
 import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.testing.easymock.EasyMockTest;
 import com.twitter.common.util.concurrent.ExecutorServiceShutdown;
 
 import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class OfferQueueImplTest extends EasyMockTest {
 
@@ -57,12 +72,15 @@ public class OfferQueueImplTest extends EasyMockTest {
   private static final Offer OFFER_B = Offers.makeOffer("OFFER_B", HOST_B);
   private static final String HOST_C = "HOST_C";
   private static final Offer OFFER_C = Offers.makeOffer("OFFER_C", HOST_C);
+  private static final ResourceSlot TASK_RESOURCES =
+      ResourceSlot.from(1, Amount.of(1L, Data.GB), Amount.of(1L, Data.GB), 1);
 
   private Driver driver;
   private ScheduledExecutorService executor;
   private ExecutorService testExecutor;
   private MaintenanceController maintenanceController;
   private Function<Offer, Optional<TaskInfo>> offerAcceptor;
+  private List<PubsubEvent> events;
   private OfferQueueImpl offerQueue;
 
   @Before
@@ -84,7 +102,14 @@ public class OfferQueueImplTest extends EasyMockTest {
         return RETURN_DELAY;
       }
     };
-    offerQueue = new OfferQueueImpl(driver, returnDelay, executor, maintenanceController);
+    events = Lists.newCopyOnWriteArrayList();
+    Closure<PubsubEvent> eventSink = new Closure<PubsubEvent>() {
+      @Override public void execute(PubsubEvent event) {
+        events.add(event);
+      }
+    };
+    offerQueue =
+        new OfferQueueImpl(driver, returnDelay, executor, maintenanceController, eventSink);
   }
 
   @Test
@@ -111,7 +136,7 @@ public class OfferQueueImplTest extends EasyMockTest {
     testExecutor.submit(new Runnable() {
       @Override public void run() {
         try {
-          offerQueue.launchFirst(offerAcceptor);
+          offerQueue.launchFirst(TASK_RESOURCES, offerAcceptor);
           launchAttempted.countDown();
         } catch (LaunchException e) {
           throw Throwables.propagate(e);
@@ -137,7 +162,144 @@ public class OfferQueueImplTest extends EasyMockTest {
     offerQueue.addOffer(OFFER_A);
     offerQueue.addOffer(OFFER_B);
     offerQueue.addOffer(OFFER_C);
-    assertFalse(offerQueue.launchFirst(offerAcceptor));
+    assertFalse(offerQueue.launchFirst(TASK_RESOURCES, offerAcceptor));
+  }
+
+  @Test
+  public void testSameSlaveOffersReturned() throws Exception {
+    Offer sameSlave = OFFER_A.toBuilder().setId(OfferID.newBuilder().setValue("OFFER_A_2")).build();
+    expect(maintenanceController.getMode(HOST_A)).andReturn(MaintenanceMode.NONE).times(2);
+    driver.declineOffer(sameSlave.getId());
+    driver.declineOffer(OFFER_A.getId());
+
+    control.replay();
+
+    offerQueue.addOffer(OFFER_A);
+    offerQueue.addOffer(sameSlave);
+    assertEquals(ImmutableList.<Offer>of(), ImmutableList.copyOf(offerQueue.getOffers()));
+    // Only the first offer was made available to scheduling.
+    assertEquals(ImmutableList.of(available(OFFER_A)), events);
+  }
+
+  @Test
+  public void testCancelOffer() throws Exception {
+    expect(maintenanceController.getMode(HOST_A)).andReturn(MaintenanceMode.NONE);
+    expect(maintenanceController.getMode(HOST_B)).andReturn(MaintenanceMode.NONE);
+
+    control.replay();
+
+    offerQueue.addOffer(OFFER_A);
+    offerQueue.addOffer(OFFER_B);
+    offerQueue.cancelOffer(OFFER_A.getId());
+    assertEquals(ImmutableList.of(OFFER_B), ImmutableList.copyOf(offerQueue.getOffers()));
+  }
+
+  @Test
+  public void testHostChangedState() throws Exception {
+    expect(maintenanceController.getMode(HOST_A)).andReturn(MaintenanceMode.NONE);
+    expect(maintenanceController.getMode(HOST_B)).andReturn(MaintenanceMode.NONE);
+
+    control.replay();
+
+    offerQueue.addOffer(OFFER_A);
+    offerQueue.addOffer(OFFER_B);
+    offerQueue.hostChangedState(
+        new HostMaintenanceStateChange(new HostStatus(HOST_A, MaintenanceMode.DRAINING)));
+    assertEquals(ImmutableList.of(OFFER_B, OFFER_A), ImmutableList.copyOf(offerQueue.getOffers()));
+  }
+
+  @Test
+  public void testSmallOffersSkipped() throws Exception {
+    Offer small = Offers.makeOffer("OFFER_SMALL", HOST_C, 0.5);
+    expect(maintenanceController.getMode(HOST_C)).andReturn(MaintenanceMode.NONE);
+    expect(maintenanceController.getMode(HOST_B)).andReturn(MaintenanceMode.DRAINING);
+    // The small offer is preferred, but is never presented since it cannot hold the task.
+    expect(offerAcceptor.apply(OFFER_B)).andReturn(Optional.<TaskInfo>absent());
+
+    control.replay();
+
+    offerQueue.addOffer(small);
+    offerQueue.addOffer(OFFER_B);
+    assertFalse(offerQueue.launchFirst(TASK_RESOURCES, offerAcceptor));
+  }
+
+  @Test
+  public void testArrivalOrderKeptWithinMode() throws Exception {
+    Offer small = Offers.makeOffer("OFFER_SMALL", HOST_C, 2);
+    TaskInfo task = makeTask("a");
+    expect(maintenanceController.getMode(HOST_A)).andReturn(MaintenanceMode.NONE);
+    expect(maintenanceController.getMode(HOST_C)).andReturn(MaintenanceMode.NONE);
+    // Both offers can hold the task, so the one that arrived first is used even though it is
+    // larger.
+    expect(offerAcceptor.apply(OFFER_A)).andReturn(Optional.of(task));
+    driver.launchTask(OFFER_A.getId(), task);
+
+    control.replay();
+
+    offerQueue.addOffer(OFFER_A);
+    offerQueue.addOffer(small);
+    assertEquals(ImmutableList.of(OFFER_A, small), ImmutableList.copyOf(offerQueue.getOffers()));
+    assertTrue(offerQueue.launchFirst(TASK_RESOURCES, offerAcceptor));
+  }
+
+  @Test
+  public void testReservedOfferSkipped() throws Exception {
+    final Function<Offer, Optional<TaskInfo>> otherAcceptor =
+        createMock(new Clazz<Function<Offer, Optional<TaskInfo>>>() { });
+    final TaskInfo task = makeTask("a");
+    expect(maintenanceController.getMode(HOST_A)).andReturn(MaintenanceMode.NONE);
+    expect(maintenanceController.getMode(HOST_B)).andReturn(MaintenanceMode.DRAINING);
+    // A second scheduling attempt made while OFFER_A is being considered is only shown OFFER_B.
+    expect(offerAcceptor.apply(OFFER_A)).andAnswer(new IAnswer<Optional<TaskInfo>>() {
+      @Override public Optional<TaskInfo> answer() throws LaunchException {
+        assertTrue(offerQueue.launchFirst(TASK_RESOURCES, otherAcceptor));
+        return Optional.absent();
+      }
+    });
+    expect(otherAcceptor.apply(OFFER_B)).andReturn(Optional.of(task));
+    driver.launchTask(OFFER_B.getId(), task);
+
+    control.replay();
+
+    offerQueue.addOffer(OFFER_A);
+    offerQueue.addOffer(OFFER_B);
+    assertFalse(offerQueue.launchFirst(TASK_RESOURCES, offerAcceptor));
+    // The declined offer is released for later attempts, and announced again since an attempt
+    // skipped it.
+    assertEquals(ImmutableList.of(OFFER_A), ImmutableList.copyOf(offerQueue.getOffers()));
+    assertEquals(
+        ImmutableList.of(available(OFFER_A), available(OFFER_B), available(OFFER_A)),
+        events);
+  }
+
+  private static PubsubEvent available(Offer offer) {
+    return new OfferAvailable(ResourceSlot.from(offer));
+  }
+
+  @Test
+  public void testLaunchAll() throws Exception {
+    Function<Offer, List<TaskInfo>> batchAcceptor =
+        createMock(new Clazz<Function<Offer, List<TaskInfo>>>() { });
+    List<TaskInfo> tasks = ImmutableList.of(makeTask("a"), makeTask("b"));
+    expect(maintenanceController.getMode(HOST_A)).andReturn(MaintenanceMode.NONE);
+    expect(maintenanceController.getMode(HOST_B)).andReturn(MaintenanceMode.DRAINING);
+    expect(batchAcceptor.apply(OFFER_A)).andReturn(tasks);
+    driver.launchTasks(OFFER_A.getId(), tasks);
+
+    control.replay();
+
+    offerQueue.addOffer(OFFER_A);
+    offerQueue.addOffer(OFFER_B);
+    // OFFER_B is not considered, since the maximum number of tasks was launched on OFFER_A.
+    assertEquals(2, offerQueue.launchAll(batchAcceptor, 2));
+  }
+
+  private static TaskInfo makeTask(String taskId) {
+    return TaskInfo.newBuilder()
+        .setName(taskId)
+        .setTaskId(TaskID.newBuilder().setValue(taskId))
+        .setSlaveId(SlaveID.newBuilder().setValue("slave-" + taskId))
+        .build();
   }
 
   @Test
@@ -150,6 +312,6 @@ public class OfferQueueImplTest extends EasyMockTest {
     offerQueue.addOffer(OFFER_A);
     offerQueue.addOffer(OFFER_B);
     offerQueue.driverDisconnected(new DriverDisconnected());
-    assertFalse(offerQueue.launchFirst(offerAcceptor));
+    assertFalse(offerQueue.launchFirst(TASK_RESOURCES, offerAcceptor));
   }
 }
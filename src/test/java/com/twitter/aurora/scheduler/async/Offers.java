@@ -18,7 +18,13 @@ package com.twitter.aurora.scheduler.async;
 import org.apache.mesos.Protos.FrameworkID;
 import org.apache.mesos.Protos.Offer;
 import org.apache.mesos.Protos.OfferID;
+import org.apache.mesos.Protos.Resource;
 import org.apache.mesos.Protos.SlaveID;
+import org.apache.mesos.Protos.Value.Range;
+import org.apache.mesos.Protos.Value.Ranges;
+import org.apache.mesos.Protos.Value.Type;
+
+import com.twitter.aurora.scheduler.configuration.Resources;
 
 /**
  * Utility class for creating resource offers.
@@ -30,16 +36,34 @@ final class Offers {
 
   static final String DEFAULT_HOST = "hostname";
 
+  // Large enough that resources are never the reason an offer is not used.
+  private static final double DEFAULT_CPUS = 64;
+  private static final long DEFAULT_RAM_MB = 256 * 1024;
+  private static final long DEFAULT_DISK_MB = 1024 * 1024;
+  private static final Resource DEFAULT_PORTS = Resource.newBuilder()
+      .setName(Resources.PORTS)
+      .setType(Type.RANGES)
+      .setRanges(Ranges.newBuilder().addRange(Range.newBuilder().setBegin(10000).setEnd(10100)))
+      .build();
+
   static Offer makeOffer(String offerId) {
     return Offers.makeOffer(offerId, DEFAULT_HOST);
   }
 
   static Offer makeOffer(String offerId, String hostName) {
+    return makeOffer(offerId, hostName, DEFAULT_CPUS);
+  }
+
+  static Offer makeOffer(String offerId, String hostName, double cpus) {
     return Offer.newBuilder()
         .setId(OfferID.newBuilder().setValue(offerId))
         .setFrameworkId(FrameworkID.newBuilder().setValue("framework_id"))
         .setSlaveId(SlaveID.newBuilder().setValue("slave_id-" + offerId))
         .setHostname(hostName)
+        .addResources(Resources.makeMesosResource(Resources.CPUS, cpus))
+        .addResources(Resources.makeMesosResource(Resources.RAM_MB, DEFAULT_RAM_MB))
+        .addResources(Resources.makeMesosResource(Resources.DISK_MB, DEFAULT_DISK_MB))
+        .addResources(DEFAULT_PORTS)
         .build();
   }
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.async;
+
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.aurora.gen.Identity;
+import com.twitter.aurora.gen.TaskConfig;
+import com.twitter.aurora.scheduler.async.TaskGroups.GroupKey;
+import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.testing.easymock.EasyMockTest;
+import com.twitter.common.util.TruncatedBinaryBackoff;
+
+import static org.easymock.EasyMock.expect;
+
+public class PreemptionPassTest extends EasyMockTest {
+
+  private static final Amount<Long, Time> INTERVAL = Amount.of(10L, Time.SECONDS);
+
+  private ScheduledExecutorService executor;
+  private TaskGroups taskGroups;
+  private Preemptor preemptor;
+  private PreemptionPass pass;
+
+  @Before
+  public void setUp() {
+    executor = createMock(ScheduledExecutorService.class);
+    taskGroups = createMock(TaskGroups.class);
+    preemptor = createMock(Preemptor.class);
+    pass = new PreemptionPass(executor, INTERVAL, taskGroups, preemptor);
+  }
+
+  private static TaskGroup makeGroup(String jobName, String... taskIds) {
+    ITaskConfig task = ITaskConfig.build(new TaskConfig()
+        .setOwner(new Identity("role", "user"))
+        .setEnvironment("test")
+        .setJobName(jobName));
+    TaskGroup group = new TaskGroup(
+        new GroupKey(task),
+        new TruncatedBinaryBackoff(Amount.of(1L, Time.SECONDS), Amount.of(1L, Time.MINUTES)));
+    for (String taskId : taskIds) {
+      group.push(taskId, 0);
+    }
+    return group;
+  }
+
+  @Test
+  public void testSchedulesPasses() {
+    long intervalMs = INTERVAL.as(Time.MILLISECONDS);
+    expect(executor.scheduleWithFixedDelay(pass, intervalMs, intervalMs, TimeUnit.MILLISECONDS))
+        .andReturn(createMock(ScheduledFuture.class));
+
+    control.replay();
+
+    pass.execute();
+  }
+
+  @Test
+  public void testPreemptsForGroups() {
+    expect(taskGroups.getGroups()).andReturn(ImmutableSet.of(
+        makeGroup("jobA", "a1", "a2"),
+        makeGroup("jobB"),
+        makeGroup("jobC", "c1")));
+    expect(preemptor.preemptForGroups(ImmutableList.<Set<String>>of(
+        ImmutableSet.of("a1", "a2"),
+        ImmutableSet.of("c1"))))
+        .andReturn(ImmutableSet.of("a1"));
+
+    control.replay();
+
+    pass.run();
+  }
+
+  @Test
+  public void testNoPendingTasks() {
+    expect(taskGroups.getGroups()).andReturn(ImmutableSet.of(makeGroup("jobA")));
+
+    control.replay();
+
+    pass.run();
+  }
+
+  @Test
+  public void testFailureDoesNotStopPasses() {
+    expect(taskGroups.getGroups()).andReturn(ImmutableSet.of(makeGroup("jobA", "a1")));
+    expect(preemptor.preemptForGroups(ImmutableList.<Set<String>>of(ImmutableSet.of("a1"))))
+        .andThrow(new IllegalStateException("Injected failure."));
+
+    control.replay();
+
+    pass.run();
+  }
+}
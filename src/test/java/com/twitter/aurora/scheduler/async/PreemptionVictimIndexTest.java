@@ -0,0 +1,199 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.async;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.aurora.gen.AssignedTask;
+import com.twitter.aurora.gen.Identity;
+import com.twitter.aurora.gen.ScheduleStatus;
+import com.twitter.aurora.gen.ScheduledTask;
+import com.twitter.aurora.gen.TaskConfig;
+import com.twitter.aurora.scheduler.base.Tasks;
+import com.twitter.aurora.scheduler.events.PubsubEvent.StorageStarted;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import com.twitter.aurora.scheduler.storage.entities.IAssignedTask;
+import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+import com.twitter.aurora.scheduler.storage.testing.StorageTestUtil;
+import com.twitter.common.testing.easymock.EasyMockTest;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+
+import static com.twitter.aurora.gen.ScheduleStatus.ASSIGNED;
+import static com.twitter.aurora.gen.ScheduleStatus.FINISHED;
+import static com.twitter.aurora.gen.ScheduleStatus.PENDING;
+import static com.twitter.aurora.gen.ScheduleStatus.PREEMPTING;
+import static com.twitter.aurora.gen.ScheduleStatus.RUNNING;
+
+public class PreemptionVictimIndexTest extends EasyMockTest {
+
+  private static final String SLAVE_A = "slaveA";
+  private static final String SLAVE_B = "slaveB";
+
+  private StorageTestUtil storageUtil;
+  private PreemptionVictimIndex index;
+
+  @Before
+  public void setUp() {
+    storageUtil = new StorageTestUtil(this);
+    storageUtil.expectOperations();
+    index = new PreemptionVictimIndex(storageUtil.storage);
+  }
+
+  private IScheduledTask makeTask(
+      String taskId,
+      String slaveId,
+      ScheduleStatus status,
+      boolean production) {
+
+    return IScheduledTask.build(new ScheduledTask()
+        .setStatus(status)
+        .setAssignedTask(new AssignedTask()
+            .setTaskId(taskId)
+            .setSlaveId(slaveId)
+            .setTask(new TaskConfig()
+                .setOwner(new Identity("role", "user"))
+                .setEnvironment("test")
+                .setJobName("job")
+                .setProduction(production))));
+  }
+
+  private IScheduledTask makeTask(String taskId, String slaveId, ScheduleStatus status) {
+    return makeTask(taskId, slaveId, status, false);
+  }
+
+  private void expectLoad(IScheduledTask... tasks) {
+    expect(storageUtil.taskStore.fetchTasks(PreemptionVictimIndex.CANDIDATE_QUERY))
+        .andReturn(ImmutableSet.copyOf(tasks));
+  }
+
+  private void expectVictims(IScheduledTask... tasks) {
+    expect(storageUtil.taskStore.fetchTasks(
+        PreemptionVictimIndex.victimQuery(Tasks.ids(tasks))))
+        .andReturn(ImmutableSet.copyOf(tasks));
+  }
+
+  private void changeState(IScheduledTask task, ScheduleStatus oldState) {
+    index.taskChangedState(new TaskStateChange(task, oldState));
+  }
+
+  private static ImmutableList<IAssignedTask> assigned(IScheduledTask... tasks) {
+    ImmutableList.Builder<IAssignedTask> builder = ImmutableList.builder();
+    for (IScheduledTask task : tasks) {
+      builder.add(task.getAssignedTask());
+    }
+    return builder.build();
+  }
+
+  @Test
+  public void testVictimOrder() {
+    IScheduledTask a = makeTask("a", SLAVE_A, RUNNING);
+    IScheduledTask b = makeTask("b", SLAVE_A, RUNNING);
+    IScheduledTask production = makeTask("c", SLAVE_A, RUNNING, true);
+    IScheduledTask other = makeTask("d", SLAVE_B, ASSIGNED);
+    expectLoad(a, production, b, other);
+    expectVictims(a, production, b);
+    expectVictims(other);
+
+    control.replay();
+
+    assertEquals(ImmutableSet.of(SLAVE_A, SLAVE_B), index.getSlaves());
+    assertEquals(assigned(b, a, production), index.getVictims(SLAVE_A));
+    assertEquals(assigned(other), index.getVictims(SLAVE_B));
+    assertEquals(ImmutableList.<IAssignedTask>of(), index.getVictims("unknown"));
+  }
+
+  @Test
+  public void testEventsIgnoredBeforeLoad() {
+    IScheduledTask a = makeTask("a", SLAVE_A, RUNNING);
+    expectLoad(a);
+    expectVictims(a);
+
+    control.replay();
+
+    changeState(makeTask("b", SLAVE_A, RUNNING), ASSIGNED);
+    index.tasksDeleted(new TasksDeleted(ImmutableSet.of(a)));
+    assertEquals(assigned(a), index.getVictims(SLAVE_A));
+  }
+
+  @Test
+  public void testTaskEvents() {
+    IScheduledTask a = makeTask("a", SLAVE_A, RUNNING);
+    IScheduledTask b = makeTask("b", SLAVE_B, ASSIGNED);
+    IScheduledTask bRunning = makeTask("b", SLAVE_B, RUNNING);
+    expectLoad(a);
+    expectVictims(a);
+    expectVictims(b);
+    expectVictims(bRunning);
+
+    control.replay();
+
+    assertEquals(assigned(a), index.getVictims(SLAVE_A));
+
+    changeState(makeTask("b", null, PENDING), ASSIGNED);
+    assertEquals(ImmutableSet.of(SLAVE_A), index.getSlaves());
+
+    changeState(b, PENDING);
+    assertEquals(assigned(b), index.getVictims(SLAVE_B));
+
+    changeState(makeTask("a", SLAVE_A, PREEMPTING), RUNNING);
+    assertEquals(ImmutableSet.of(SLAVE_B), index.getSlaves());
+
+    changeState(bRunning, ASSIGNED);
+    assertEquals(assigned(bRunning), index.getVictims(SLAVE_B));
+
+    index.tasksDeleted(new TasksDeleted(ImmutableSet.of(bRunning)));
+    assertEquals(ImmutableSet.<String>of(), index.getSlaves());
+
+    changeState(makeTask("c", SLAVE_A, FINISHED), RUNNING);
+    assertEquals(ImmutableSet.<String>of(), index.getSlaves());
+  }
+
+  @Test
+  public void testReloadOnStorageStart() {
+    IScheduledTask a = makeTask("a", SLAVE_A, RUNNING);
+    IScheduledTask b = makeTask("b", SLAVE_B, RUNNING);
+    expectLoad(a);
+    expectLoad(b);
+
+    control.replay();
+
+    assertEquals(ImmutableSet.of(SLAVE_A), index.getSlaves());
+    index.storageStarted(new StorageStarted());
+    assertEquals(ImmutableSet.of(SLAVE_B), index.getSlaves());
+  }
+
+  @Test
+  public void testReadsCurrentConfig() {
+    IScheduledTask a = makeTask("a", SLAVE_A, RUNNING);
+    // The task config was rewritten in place, which does not send a task event.
+    IScheduledTask rewritten = makeTask("a", SLAVE_A, RUNNING, true);
+    expectLoad(a);
+    expect(storageUtil.taskStore.fetchTasks(
+        PreemptionVictimIndex.victimQuery(ImmutableSet.of("a"))))
+        .andReturn(ImmutableSet.of(rewritten));
+
+    control.replay();
+
+    assertEquals(assigned(rewritten), index.getVictims(SLAVE_A));
+  }
+}
@@ -16,15 +16,18 @@
 package com.twitter.aurora.scheduler.async;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.SetMultimap;
 
 import org.easymock.EasyMock;
 import org.easymock.IAnswer;
@@ -45,6 +48,7 @@ import com.twitter.aurora.scheduler.ResourceSlot;
 import com.twitter.aurora.scheduler.base.Query;
 import com.twitter.aurora.scheduler.base.Tasks;
 import com.twitter.aurora.scheduler.configuration.Resources;
+import com.twitter.aurora.scheduler.filter.JobAttributeCounts;
 import com.twitter.aurora.scheduler.filter.SchedulingFilter;
 import com.twitter.aurora.scheduler.filter.SchedulingFilterImpl;
 import com.twitter.aurora.scheduler.state.MaintenanceController;
@@ -62,6 +66,7 @@ import com.twitter.common.util.testing.FakeClock;
 import static org.apache.mesos.Protos.Offer;
 import static org.apache.mesos.Protos.Resource;
 import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
 
 import static com.twitter.aurora.gen.MaintenanceMode.NONE;
 import static com.twitter.aurora.gen.ScheduleStatus.PENDING;
@@ -109,16 +114,19 @@ public class PreemptorImplTest extends EasyMockTest {
     offerQueue = createMock(OfferQueue.class);
   }
 
-  private void runPreemptor(ScheduledTask pendingTask) {
-    PreemptorImpl preemptor = new PreemptorImpl(
+  private PreemptorImpl createPreemptor() {
+    return new PreemptorImpl(
         storageUtil.storage,
+        new PreemptionVictimIndex(storageUtil.storage),
         scheduler,
         offerQueue,
         schedulingFilter,
         PREEMPTION_DELAY,
         clock);
+  }
 
-    preemptor.findPreemptionSlotFor(pendingTask.getAssignedTask().getTaskId());
+  private void runPreemptor(ScheduledTask pendingTask) {
+    createPreemptor().findPreemptionSlotFor(pendingTask.getAssignedTask().getTaskId());
   }
 
   // TODO(zmanji): Put together a SchedulerPreemptorIntegrationTest as well.
@@ -133,9 +141,24 @@ public class PreemptorImplTest extends EasyMockTest {
   }
 
   private void expectGetActiveTasks(ScheduledTask... returnedTasks) {
-    storageUtil.expectTaskFetch(
-        PreemptorImpl.CANDIDATE_QUERY,
-        IScheduledTask.setFromBuilders(Arrays.asList(returnedTasks)));
+    ImmutableSet<IScheduledTask> tasks =
+        IScheduledTask.setFromBuilders(Arrays.asList(returnedTasks));
+    storageUtil.expectTaskFetch(PreemptionVictimIndex.CANDIDATE_QUERY, tasks);
+
+    // The candidates on a slave are read again when the slave is evaluated, which does not happen
+    // for slaves after the one where a slot is found.
+    SetMultimap<String, IScheduledTask> bySlave = HashMultimap.create();
+    for (IScheduledTask task : tasks) {
+      if (task.getAssignedTask().getSlaveId() != null) {
+        bySlave.put(task.getAssignedTask().getSlaveId(), task);
+      }
+    }
+    for (Collection<IScheduledTask> slaveTasks : bySlave.asMap().values()) {
+      storageUtil.expectTaskFetch(
+          PreemptionVictimIndex.victimQuery(Tasks.ids(slaveTasks)),
+          ImmutableSet.copyOf(slaveTasks))
+          .anyTimes();
+    }
   }
 
   @Test
@@ -293,7 +316,10 @@ public class PreemptorImplTest extends EasyMockTest {
   // Ensures a production task can preempt 2 tasks on the same host.
   @Test
   public void testProductionPreemptingManyNonProduction() throws Exception {
-    schedulingFilter = new SchedulingFilterImpl(storageUtil.storage, maintenance);
+    schedulingFilter = new SchedulingFilterImpl(
+        storageUtil.storage,
+        maintenance,
+        new JobAttributeCounts(storageUtil.storage, clock));
     ScheduledTask a1 = makeTask(USER_A, JOB_A, TASK_ID_A + "_a1");
     a1.getAssignedTask().getTask().setNumCpus(1).setRamMb(512);
 
@@ -325,7 +351,10 @@ public class PreemptorImplTest extends EasyMockTest {
   // Ensures we select the minimal number of tasks to preempt
   @Test
   public void testMinimalSetPreempted() throws Exception {
-    schedulingFilter = new SchedulingFilterImpl(storageUtil.storage, maintenance);
+    schedulingFilter = new SchedulingFilterImpl(
+        storageUtil.storage,
+        maintenance,
+        new JobAttributeCounts(storageUtil.storage, clock));
     ScheduledTask a1 = makeTask(USER_A, JOB_A, TASK_ID_A + "_a1");
     a1.getAssignedTask().getTask().setNumCpus(4).setRamMb(4096);
 
@@ -360,7 +389,10 @@ public class PreemptorImplTest extends EasyMockTest {
   // Ensures a production task *never* preempts a production task from another job.
   @Test
   public void testProductionJobNeverPreemptsProductionJob() throws Exception {
-    schedulingFilter = new SchedulingFilterImpl(storageUtil.storage, maintenance);
+    schedulingFilter = new SchedulingFilterImpl(
+        storageUtil.storage,
+        maintenance,
+        new JobAttributeCounts(storageUtil.storage, clock));
     ScheduledTask p1 = makeProductionTask(USER_A, JOB_A, TASK_ID_A + "_p1");
     p1.getAssignedTask().getTask().setNumCpus(2).setRamMb(1024);
 
@@ -385,7 +417,10 @@ public class PreemptorImplTest extends EasyMockTest {
   // Ensures that we can preempt if a task + offer can satisfy a pending task.
   @Test
   public void testPreemptWithOfferAndTask() throws Exception {
-    schedulingFilter = new SchedulingFilterImpl(storageUtil.storage, maintenance);
+    schedulingFilter = new SchedulingFilterImpl(
+        storageUtil.storage,
+        maintenance,
+        new JobAttributeCounts(storageUtil.storage, clock));
 
     setUpHost(HOST_A, RACK_A);
 
@@ -413,7 +448,10 @@ public class PreemptorImplTest extends EasyMockTest {
   // Ensures we can preempt if two tasks and an offer can satisfy a pending task.
   @Test
   public void testPreemptWithOfferAndMultipleTasks() throws Exception {
-    schedulingFilter = new SchedulingFilterImpl(storageUtil.storage, maintenance);
+    schedulingFilter = new SchedulingFilterImpl(
+        storageUtil.storage,
+        maintenance,
+        new JobAttributeCounts(storageUtil.storage, clock));
 
     setUpHost(HOST_A, RACK_A);
 
@@ -446,7 +484,10 @@ public class PreemptorImplTest extends EasyMockTest {
   // Ensures we don't preempt if a host has enough slack to satisfy a pending task.
   @Test
   public void testPreemptWithLargeOffer() throws Exception {
-    schedulingFilter = new SchedulingFilterImpl(storageUtil.storage, maintenance);
+    schedulingFilter = new SchedulingFilterImpl(
+        storageUtil.storage,
+        maintenance,
+        new JobAttributeCounts(storageUtil.storage, clock));
 
     setUpHost(HOST_A, RACK_A);
 
@@ -469,6 +510,35 @@ public class PreemptorImplTest extends EasyMockTest {
     runPreemptor(p1);
   }
 
+  // Ensures a slave is only claimed by one pending task when preempting for many tasks at once.
+  @Test
+  public void testPreemptForGroups() throws Exception {
+    schedulingFilter = createMock(SchedulingFilter.class);
+    ScheduledTask a1 = makeTask(USER_A, JOB_A, TASK_ID_A + "_a1");
+    runOnHost(a1, HOST_A);
+
+    ScheduledTask p1 = makeTask(USER_A, JOB_B, TASK_ID_B + "_p1", 100);
+    ScheduledTask p2 = makeTask(USER_A, JOB_B, TASK_ID_B + "_p2", 100);
+    ScheduledTask p3 = makeTask(USER_A, JOB_C, TASK_ID_C + "_p3", 100);
+    clock.advance(PREEMPTION_DELAY);
+
+    expectNoOffers();
+
+    expectGetPendingTasks(p1, p2, p3);
+    expectGetActiveTasks(a1);
+
+    expectFiltering();
+    expectPreempted(a1, p1);
+
+    control.replay();
+
+    Set<String> p1Group = ImmutableSet.of(TASK_ID_B + "_p1", TASK_ID_B + "_p2");
+    Set<String> p3Group = ImmutableSet.of(TASK_ID_C + "_p3");
+    assertEquals(
+        ImmutableSet.of(TASK_ID_B + "_p1"),
+        createPreemptor().preemptForGroups(ImmutableList.of(p1Group, p3Group)));
+  }
+
   // TODO(zmanji) spread tasks across slave ids on the same host and see if preemption fails.
 
   private Offer makeOffer(String offerId,
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.async;
+
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.aurora.gen.Identity;
+import com.twitter.aurora.gen.TaskConfig;
+import com.twitter.aurora.scheduler.async.TaskGroup.GroupState;
+import com.twitter.aurora.scheduler.async.TaskGroups.GroupKey;
+import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.util.TruncatedBinaryBackoff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TaskGroupTest {
+
+  private TaskGroup group;
+
+  @Before
+  public void setUp() {
+    ITaskConfig task = ITaskConfig.build(new TaskConfig()
+        .setOwner(new Identity("role", "user"))
+        .setEnvironment("test")
+        .setJobName("job"));
+    group = new TaskGroup(
+        new GroupKey(task),
+        new TruncatedBinaryBackoff(Amount.of(1L, Time.SECONDS), Amount.of(1L, Time.MINUTES)));
+  }
+
+  @Test
+  public void testReadyOrder() {
+    group.push("c", 30);
+    group.push("a", 10);
+    group.push("b", 10);
+
+    assertEquals(3, group.size());
+    assertEquals(ImmutableList.of("a", "b", "c"), ImmutableList.copyOf(group.getTaskIds()));
+    assertEquals(GroupState.NOT_READY, group.isReady(5));
+    assertEquals(GroupState.READY, group.isReady(10));
+    assertEquals(ImmutableSet.of("a", "b"), group.pop(5, 20));
+    assertEquals("c", group.pop());
+    assertTrue(group.isEmpty());
+    assertEquals(GroupState.EMPTY, group.isReady(100));
+  }
+
+  @Test
+  public void testRemove() {
+    group.push("a", 10);
+    group.push("b", 20);
+
+    group.remove("a");
+    group.remove("unknown");
+    assertEquals(ImmutableSet.of("b"), group.getTaskIds());
+    assertEquals(GroupState.NOT_READY, group.isReady(10));
+
+    group.remove("b");
+    assertTrue(group.isEmpty());
+  }
+
+  @Test
+  public void testPushReplacesReadyTime() {
+    group.push("a", 10);
+    group.push("b", 20);
+    group.push("a", 30);
+
+    assertEquals(2, group.size());
+    assertEquals(ImmutableList.of("b", "a"), ImmutableList.copyOf(group.getTaskIds()));
+
+    group.remove("a");
+    assertFalse(group.isEmpty());
+    assertEquals(ImmutableSet.of("b"), group.pop(5, 100));
+    assertTrue(group.isEmpty());
+  }
+
+  @Test
+  public void testTaskIdsSnapshot() {
+    group.push("a", 10);
+    group.push("b", 20);
+
+    Set<String> snapshot = group.getTaskIds();
+    assertSame(snapshot, group.getTaskIds());
+
+    group.push("c", 30);
+    assertNotSame(snapshot, group.getTaskIds());
+    assertEquals(ImmutableSet.of("a", "b"), snapshot);
+    assertEquals(ImmutableList.of("a", "b", "c"), ImmutableList.copyOf(group.getTaskIds()));
+
+    snapshot = group.getTaskIds();
+    group.remove("unknown");
+    assertSame(snapshot, group.getTaskIds());
+  }
+}
@@ -15,7 +15,9 @@
  */
 package com.twitter.aurora.scheduler.async;
 
+import java.util.Collection;
 import java.util.EnumSet;
+import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -46,6 +48,7 @@ import com.twitter.aurora.gen.ScheduledTask;
 import com.twitter.aurora.gen.TaskConfig;
 import com.twitter.aurora.gen.TaskEvent;
 import com.twitter.aurora.scheduler.Driver;
+import com.twitter.aurora.scheduler.ResourceSlot;
 import com.twitter.aurora.scheduler.async.OfferQueue.OfferQueueImpl;
 import com.twitter.aurora.scheduler.async.OfferQueue.OfferReturnDelay;
 import com.twitter.aurora.scheduler.async.TaskGroups.SchedulingAction;
@@ -53,10 +56,15 @@ import com.twitter.aurora.scheduler.async.RescheduleCalculator.RescheduleCalcula
 import com.twitter.aurora.scheduler.async.RescheduleCalculator.RescheduleCalculatorImpl.RescheduleCalculatorSettings;
 import com.twitter.aurora.scheduler.base.Query;
 import com.twitter.aurora.scheduler.base.Tasks;
+import com.twitter.aurora.scheduler.configuration.Resources;
+import com.twitter.aurora.scheduler.events.PubsubEvent;
 import com.twitter.aurora.scheduler.events.PubsubEvent.HostMaintenanceStateChange;
+import com.twitter.aurora.scheduler.events.PubsubEvent.OfferAvailable;
 import com.twitter.aurora.scheduler.events.PubsubEvent.StorageStarted;
 import com.twitter.aurora.scheduler.events.PubsubEvent.TaskStateChange;
 import com.twitter.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import com.twitter.aurora.scheduler.filter.SchedulingFilter;
+import com.twitter.aurora.scheduler.filter.SchedulingFilter.Veto;
 import com.twitter.aurora.scheduler.state.MaintenanceController;
 import com.twitter.aurora.scheduler.state.StateManager;
 import com.twitter.aurora.scheduler.state.TaskAssigner;
@@ -66,8 +74,11 @@ import com.twitter.aurora.scheduler.storage.Storage.MutateWork;
 import com.twitter.aurora.scheduler.storage.Storage.StorageException;
 import com.twitter.aurora.scheduler.storage.TaskStore;
 import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
 import com.twitter.aurora.scheduler.storage.mem.MemStorage;
+import com.twitter.common.base.Closure;
 import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.testing.easymock.EasyMockTest;
 import com.twitter.common.util.BackoffStrategy;
@@ -99,6 +110,21 @@ public class TaskSchedulerTest extends EasyMockTest {
   private static final Offer OFFER_B = Offers.makeOffer("OFFER_B", "HOST_B");
   private static final Offer OFFER_C = Offers.makeOffer("OFFER_C", "HOST_C");
   private static final Offer OFFER_D = Offers.makeOffer("OFFER_D", "HOST_D");
+  private static final ResourceSlot TASK_RESOURCES =
+      ResourceSlot.from(1, Amount.of(1L, Data.GB), Amount.of(1L, Data.GB), 1);
+
+  // Offers are matched against tasks by the assigner mock, so the scheduler's own check passes.
+  private static final SchedulingFilter NO_VETOES = new SchedulingFilter() {
+    @Override
+    public Set<Veto> filter(
+        ResourceSlot offer,
+        String slaveHost,
+        ITaskConfig task,
+        String taskId) {
+
+      return ImmutableSet.of();
+    }
+  };
 
   private Storage storage;
   private MaintenanceController maintenance;
@@ -113,7 +139,6 @@ public class TaskSchedulerTest extends EasyMockTest {
   private TaskGroups taskGroups;
   private FakeClock clock;
   private BackoffStrategy flappingStrategy;
-  private Preemptor preemptor;
 
   @Before
   public void setUp() {
@@ -129,16 +154,20 @@ public class TaskSchedulerTest extends EasyMockTest {
     clock = new FakeClock();
     clock.setNowMillis(0);
     flappingStrategy = createMock(BackoffStrategy.class);
-    preemptor = createMock(Preemptor.class);
   }
 
   private void replayAndCreateScheduler() {
     control.replay();
-    offerQueue = new OfferQueueImpl(driver, returnDelay, executor, maintenance);
+    Closure<PubsubEvent> eventSink = new Closure<PubsubEvent>() {
+      @Override public void execute(PubsubEvent event) {
+        // Offer availability is delivered to the task groups explicitly by tests.
+      }
+    };
+    offerQueue = new OfferQueueImpl(driver, returnDelay, executor, maintenance, eventSink);
     RateLimiter rateLimiter = RateLimiter.create(1);
     Amount<Long, Time> flappingThreshold = Amount.of(5L, Time.MINUTES);
     SchedulingAction scheduler =
-        new TaskScheduler(storage, stateManager, assigner, offerQueue);
+        new TaskScheduler(storage, stateManager, assigner, NO_VETOES, offerQueue);
     taskGroups = new TaskGroups(
         executor,
         storage,
@@ -152,8 +181,7 @@ public class TaskSchedulerTest extends EasyMockTest {
                 flappingStrategy,
                 flappingThreshold,
                 Amount.of(5, Time.SECONDS)),
-            clock),
-        preemptor);
+            clock));
   }
 
   private Capture<Runnable> expectOffer() {
@@ -196,6 +224,12 @@ public class TaskSchedulerTest extends EasyMockTest {
     return capture;
   }
 
+  private Capture<Runnable> expectWakePass() {
+    Capture<Runnable> capture = createCapture();
+    executor.execute(capture(capture));
+    return capture;
+  }
+
   private Capture<Runnable> expectTaskGroupBackoff(long previousPenaltyMs, long nextPenaltyMs) {
     expect(retryStrategy.calculateBackoffMs(previousPenaltyMs)).andReturn(nextPenaltyMs);
     return expectTaskRetryIn(nextPenaltyMs);
@@ -221,7 +255,6 @@ public class TaskSchedulerTest extends EasyMockTest {
   public void testNoOffers() {
     Capture<Runnable> timeoutCapture = expectTaskGroupBackoff(10);
     expectTaskGroupBackoff(10, 20);
-    expect(preemptor.findPreemptionSlotFor("a")).andReturn(Optional.<String>absent());
 
     replayAndCreateScheduler();
 
@@ -284,7 +317,6 @@ public class TaskSchedulerTest extends EasyMockTest {
 
     Capture<Runnable> timeoutCapture = expectTaskGroupBackoff(10);
     expect(assigner.maybeAssign(OFFER_A, task)).andReturn(Optional.<TaskInfo>absent());
-    expect(preemptor.findPreemptionSlotFor("a")).andReturn(Optional.<String>absent());
 
     Capture<Runnable> timeoutCapture2 = expectTaskGroupBackoff(10, 20);
     expect(assigner.maybeAssign(OFFER_A, task)).andReturn(Optional.of(mesosTask));
@@ -292,7 +324,6 @@ public class TaskSchedulerTest extends EasyMockTest {
 
     Capture<Runnable> timeoutCapture3 = expectTaskGroupBackoff(10);
     expectTaskGroupBackoff(10, 20);
-    expect(preemptor.findPreemptionSlotFor("b")).andReturn(Optional.<String>absent());
 
     replayAndCreateScheduler();
 
@@ -349,7 +380,6 @@ public class TaskSchedulerTest extends EasyMockTest {
     expect(assigner.maybeAssign(OFFER_A, task)).andThrow(new StorageException("Injected failure."));
 
     Capture<Runnable> timeoutCapture2 = expectTaskGroupBackoff(10, 20);
-    expect(preemptor.findPreemptionSlotFor("a")).andReturn(Optional.<String>absent());
     expect(assigner.maybeAssign(OFFER_A, task)).andReturn(Optional.of(mesosTask));
     driver.launchTask(OFFER_A.getId(), mesosTask);
     expectLastCall();
@@ -371,10 +401,8 @@ public class TaskSchedulerTest extends EasyMockTest {
     expectAnyMaintenanceCalls();
     expect(assigner.maybeAssign(OFFER_A, task)).andReturn(Optional.<TaskInfo>absent());
     Capture<Runnable> timeoutCapture2 = expectTaskGroupBackoff(10, 20);
-    expect(preemptor.findPreemptionSlotFor("a")).andReturn(Optional.<String>absent());
     driver.declineOffer(OFFER_A.getId());
     expectTaskGroupBackoff(20, 30);
-    expect(preemptor.findPreemptionSlotFor("a")).andReturn(Optional.<String>absent());
 
     replayAndCreateScheduler();
 
@@ -417,7 +445,7 @@ public class TaskSchedulerTest extends EasyMockTest {
     replayAndCreateScheduler();
 
     offerQueue.addOffer(OFFER_A);
-    offerQueue.launchFirst(offerAcceptor);
+    offerQueue.launchFirst(TASK_RESOURCES, offerAcceptor);
     offerExpirationCapture.getValue().run();
   }
 
@@ -559,6 +587,40 @@ public class TaskSchedulerTest extends EasyMockTest {
         ImmutableSet.of(firstScheduled.getValue(), secondScheduled.getValue()));
   }
 
+  @Test
+  public void testOfferWakesBackedOffGroup() {
+    expectAnyMaintenanceCalls();
+
+    IScheduledTask task = makeTask("a", PENDING);
+    TaskInfo mesosTask = makeTaskInfo(task);
+
+    Capture<Runnable> timeoutCapture = expectTaskGroupBackoff(10);
+    expectTaskGroupBackoff(10, 20);
+    expectOfferDeclineIn(10);
+    expect(future.cancel(false)).andReturn(true);
+    Capture<Runnable> wakeCapture = expectTaskRetryIn(0);
+    expect(assigner.maybeAssign(OFFER_A, task)).andReturn(Optional.of(mesosTask));
+    driver.launchTask(OFFER_A.getId(), mesosTask);
+    Capture<Runnable> firstWakePass = expectWakePass();
+    Capture<Runnable> secondWakePass = expectWakePass();
+
+    replayAndCreateScheduler();
+
+    OfferAvailable offerAvailable = new OfferAvailable(ResourceSlot.from(OFFER_A));
+    changeState(task, INIT, PENDING);
+    // The group has not failed to schedule yet, so it is not woken.  Offers that arrive before
+    // the wake pass runs share that pass.
+    taskGroups.offerAvailable(offerAvailable);
+    taskGroups.offerAvailable(offerAvailable);
+    firstWakePass.getValue().run();
+    timeoutCapture.getValue().run();
+
+    offerQueue.addOffer(OFFER_A);
+    taskGroups.offerAvailable(offerAvailable);
+    secondWakePass.getValue().run();
+    wakeCapture.getValue().run();
+  }
+
   @Test
   public void testTaskDeleted() {
     expectAnyMaintenanceCalls();
@@ -569,7 +631,6 @@ public class TaskSchedulerTest extends EasyMockTest {
     Capture<Runnable> timeoutCapture = expectTaskGroupBackoff(10);
     expect(assigner.maybeAssign(OFFER_A, task)).andReturn(Optional.<TaskInfo>absent());
     expectTaskGroupBackoff(10, 20);
-    expect(preemptor.findPreemptionSlotFor("a")).andReturn(Optional.<String>absent());
 
     replayAndCreateScheduler();
 
@@ -588,6 +649,120 @@ public class TaskSchedulerTest extends EasyMockTest {
     timeoutCapture.getValue().run();
   }
 
+  // Assigns a task wherever a CPU remains, so that tests can observe how a batch is packed.
+  private static final TaskAssigner CPU_ASSIGNER = new TaskAssigner() {
+    @Override public Optional<TaskInfo> maybeAssign(Offer offer, IScheduledTask task) {
+      if (Resources.from(offer).getNumCpus() < 1) {
+        return Optional.absent();
+      }
+      return Optional.of(TaskInfo.newBuilder()
+          .setName(Tasks.id(task))
+          .setTaskId(TaskID.newBuilder().setValue(Tasks.id(task)))
+          .setSlaveId(offer.getSlaveId())
+          .addResources(Resources.makeMesosResource(Resources.CPUS, 1))
+          .build());
+    }
+  };
+
+  private SchedulingAction createBatchScheduler(final IScheduledTask... tasks) {
+    replayAndCreateScheduler();
+    storage.write(new MutateWork.NoResult.Quiet() {
+      @Override protected void execute(MutableStoreProvider store) {
+        store.getUnsafeTaskStore().saveTasks(ImmutableSet.copyOf(tasks));
+      }
+    });
+    return new TaskScheduler(storage, stateManager, CPU_ASSIGNER, NO_VETOES, offerQueue);
+  }
+
+  private static Set<String> launchedIds(Capture<Collection<TaskInfo>> launched) {
+    ImmutableSet.Builder<String> ids = ImmutableSet.builder();
+    for (TaskInfo task : launched.getValue()) {
+      ids.add(task.getTaskId().getValue());
+    }
+    return ids.build();
+  }
+
+  @Test
+  public void testScheduleBatchPacksOffers() {
+    expectAnyMaintenanceCalls();
+    expectOfferDeclineIn(10);
+    expectOfferDeclineIn(10);
+    Offer offerA = Offers.makeOffer("OFFER_A", "HOST_A", 2);
+    Offer offerB = Offers.makeOffer("OFFER_B", "HOST_B", 2);
+    Capture<Collection<TaskInfo>> launchedA = createCapture();
+    driver.launchTasks(eq(offerA.getId()), capture(launchedA));
+    Capture<Collection<TaskInfo>> launchedB = createCapture();
+    driver.launchTasks(eq(offerB.getId()), capture(launchedB));
+
+    SchedulingAction scheduler = createBatchScheduler(
+        makeTask("a", PENDING),
+        makeTask("b", PENDING),
+        makeTask("c", PENDING));
+    offerQueue.addOffer(offerA);
+    offerQueue.addOffer(offerB);
+
+    assertEquals(
+        ImmutableSet.of("a", "b", "c"),
+        scheduler.scheduleBatch(ImmutableSet.of("a", "b", "c")));
+    // The first offer is filled before the next one is used.
+    assertEquals(2, launchedA.getValue().size());
+    assertEquals(1, launchedB.getValue().size());
+  }
+
+  @Test
+  public void testScheduleBatchLeavesUnassignedTasks() {
+    expectAnyMaintenanceCalls();
+    expectOfferDeclineIn(10);
+    Offer offerA = Offers.makeOffer("OFFER_A", "HOST_A", 2);
+    Capture<Collection<TaskInfo>> launched = createCapture();
+    driver.launchTasks(eq(offerA.getId()), capture(launched));
+
+    SchedulingAction scheduler = createBatchScheduler(
+        makeTask("a", PENDING),
+        makeTask("b", PENDING),
+        makeTask("c", PENDING));
+    offerQueue.addOffer(offerA);
+
+    // The task that did not fit is not reported, so that it is retried.
+    Set<String> scheduled = scheduler.scheduleBatch(ImmutableSet.of("a", "b", "c"));
+    assertEquals(2, scheduled.size());
+    assertEquals(launchedIds(launched), scheduled);
+  }
+
+  @Test
+  public void testScheduleBatchPartialLaunchFailure() {
+    expectAnyMaintenanceCalls();
+    expectOfferDeclineIn(10);
+    expectOfferDeclineIn(10);
+    Offer offerA = Offers.makeOffer("OFFER_A", "HOST_A", 2);
+    Offer offerB = Offers.makeOffer("OFFER_B", "HOST_B", 2);
+    Capture<Collection<TaskInfo>> launchedA = createCapture();
+    driver.launchTasks(eq(offerA.getId()), capture(launchedA));
+    Capture<Collection<TaskInfo>> launchedB = createCapture();
+    driver.launchTasks(eq(offerB.getId()), capture(launchedB));
+    expectLastCall().andThrow(new IllegalStateException("Driver not ready."));
+    Capture<Query.Builder> lostQuery = createCapture();
+    expect(stateManager.changeState(
+        capture(lostQuery),
+        eq(LOST),
+        eq(TaskScheduler.LAUNCH_FAILED_MSG)))
+        .andReturn(1);
+
+    SchedulingAction scheduler = createBatchScheduler(
+        makeTask("a", PENDING),
+        makeTask("b", PENDING),
+        makeTask("c", PENDING));
+    offerQueue.addOffer(offerA);
+    offerQueue.addOffer(offerB);
+
+    assertEquals(
+        ImmutableSet.of("a", "b", "c"),
+        scheduler.scheduleBatch(ImmutableSet.of("a", "b", "c")));
+    // Only the task on the offer that failed to launch is moved to LOST.
+    assertEquals(2, launchedA.getValue().size());
+    assertEquals(Query.taskScoped(launchedIds(launchedB)), lostQuery.getValue());
+  }
+
   @Test
   public void testNoPenaltyForNoAncestor() {
     // If a task doesn't have an ancestor there should be no penality for flapping.
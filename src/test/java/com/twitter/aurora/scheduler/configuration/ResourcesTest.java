@@ -103,6 +103,35 @@ public class ResourcesTest {
     assertEquals(NEGATIVE_ONE, Resources.subtract(TWO, THREE));
   }
 
+  @Test
+  public void testSubtractFromOffer() {
+    Protos.Offer offer = createOffer(createPortRange(Pair.of(1, 5))).toBuilder()
+        .addResources(Resources.makeMesosResource(Resources.CPUS, 4))
+        .addResources(Resources.makeMesosResource(Resources.RAM_MB, 1024))
+        .addResources(Resources.makeMesosResource(Resources.DISK_MB, 2048))
+        .build();
+    Protos.TaskInfo task = Protos.TaskInfo.newBuilder()
+        .setName("task")
+        .setTaskId(Protos.TaskID.newBuilder().setValue("task-id"))
+        .setSlaveId(offer.getSlaveId())
+        .addAllResources(
+            new Resources(1.0, Amount.of(256L, Data.MB), Amount.of(512L, Data.MB), 2)
+                .toResourceList(ImmutableSet.of(2, 3)))
+        .setExecutor(Protos.ExecutorInfo.newBuilder()
+            .setExecutorId(Protos.ExecutorID.newBuilder().setValue("executor-id"))
+            .setCommand(Protos.CommandInfo.newBuilder().setValue("executor"))
+            .addResources(Resources.makeMesosResource(Resources.CPUS, 0.5))
+            .addResources(Resources.makeMesosResource(Resources.RAM_MB, 128)))
+        .build();
+
+    Protos.Offer remainder = Resources.subtract(offer, task);
+    assertEquals(offer.getId(), remainder.getId());
+    assertEquals(
+        new Resources(2.5, Amount.of(640L, Data.MB), Amount.of(1536L, Data.MB), 3),
+        Resources.from(remainder));
+    assertEquals(ImmutableSet.of(1, 4, 5), Resources.getPorts(remainder, 3));
+  }
+
   @Test(expected = Resources.InsufficientResourcesException.class)
   public void testPortRangeScarcity() {
     Resource portsResource = createPortRange(Pair.of(1, 2));
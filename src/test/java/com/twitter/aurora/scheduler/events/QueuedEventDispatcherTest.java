@@ -0,0 +1,147 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.events;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.Subscribe;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import com.twitter.aurora.scheduler.events.PubsubEvent.StorageStarted;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QueuedEventDispatcherTest {
+
+  private QueuedEventDispatcher dispatcher;
+
+  @Before
+  public void setUp() {
+    dispatcher = new QueuedEventDispatcher(100);
+  }
+
+  private static class Recorder implements EventSubscriber {
+    private final List<PubsubEvent> events = Lists.newCopyOnWriteArrayList();
+    private final CountDownLatch received;
+
+    Recorder(int expectedEvents) {
+      received = new CountDownLatch(expectedEvents);
+    }
+
+    @Subscribe
+    public void tasksDeleted(TasksDeleted deleted) {
+      events.add(deleted);
+      received.countDown();
+    }
+
+    void await() throws InterruptedException {
+      assertTrue(received.await(10, TimeUnit.SECONDS));
+    }
+  }
+
+  private static class BlockingSubscriber implements EventSubscriber {
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Subscribe
+    public void tasksDeleted(TasksDeleted deleted) throws InterruptedException {
+      release.await();
+    }
+  }
+
+  private static TasksDeleted deleted() {
+    return new TasksDeleted(ImmutableSet.<IScheduledTask>of());
+  }
+
+  @Test
+  public void testDeliversInOrder() throws Exception {
+    Recorder recorder = new Recorder(3);
+    dispatcher.register(recorder);
+
+    TasksDeleted a = deleted();
+    TasksDeleted b = deleted();
+    TasksDeleted c = deleted();
+    dispatcher.post(a);
+    dispatcher.post(new StorageStarted());
+    dispatcher.post(b);
+    dispatcher.post(c);
+
+    recorder.await();
+    assertEquals(ImmutableList.<PubsubEvent>of(a, b, c), recorder.events);
+  }
+
+  @Test
+  public void testSlowSubscriberDoesNotBlockOthers() throws Exception {
+    BlockingSubscriber blocked = new BlockingSubscriber();
+    Recorder recorder = new Recorder(2);
+    dispatcher.register(blocked);
+    dispatcher.register(recorder);
+
+    dispatcher.post(deleted());
+    dispatcher.post(deleted());
+
+    recorder.await();
+    blocked.release.countDown();
+  }
+
+  @Test
+  public void testFullQueueBlocksPoster() throws Exception {
+    dispatcher = new QueuedEventDispatcher(1);
+    BlockingSubscriber blocked = new BlockingSubscriber();
+    dispatcher.register(blocked);
+
+    // The subscriber holds at most one event and the queue one more, so the third post waits.
+    Thread poster = new Thread() {
+      @Override public void run() {
+        dispatcher.post(deleted());
+        dispatcher.post(deleted());
+        dispatcher.post(deleted());
+      }
+    };
+    poster.start();
+    poster.join(100);
+    assertTrue(poster.isAlive());
+
+    blocked.release.countDown();
+    poster.join(10000);
+    assertFalse(poster.isAlive());
+  }
+
+  @Test
+  public void testHandledEventTypes() {
+    assertEquals(
+        ImmutableSet.<Class<?>>of(TasksDeleted.class),
+        QueuedEventDispatcher.handledEventTypes(Recorder.class));
+  }
+
+  @Test
+  public void testSubscriberName() {
+    assertEquals(
+        Recorder.class.getName(),
+        QueuedEventDispatcher.subscriberName(Recorder.class));
+  }
+}
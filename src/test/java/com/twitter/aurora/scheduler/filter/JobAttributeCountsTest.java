@@ -0,0 +1,202 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.filter;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.aurora.gen.AssignedTask;
+import com.twitter.aurora.gen.Attribute;
+import com.twitter.aurora.gen.HostAttributes;
+import com.twitter.aurora.gen.Identity;
+import com.twitter.aurora.gen.ScheduleStatus;
+import com.twitter.aurora.gen.ScheduledTask;
+import com.twitter.aurora.gen.TaskConfig;
+import com.twitter.aurora.scheduler.base.JobKeys;
+import com.twitter.aurora.scheduler.base.Query;
+import com.twitter.aurora.scheduler.events.PubsubEvent.HostAttributesChanged;
+import com.twitter.aurora.scheduler.events.PubsubEvent.StorageStarted;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import com.twitter.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import com.twitter.aurora.scheduler.storage.entities.IJobKey;
+import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
+import com.twitter.aurora.scheduler.storage.testing.StorageTestUtil;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.testing.easymock.EasyMockTest;
+import com.twitter.common.util.testing.FakeClock;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+
+import static com.twitter.aurora.gen.ScheduleStatus.ASSIGNED;
+import static com.twitter.aurora.gen.ScheduleStatus.FINISHED;
+import static com.twitter.aurora.gen.ScheduleStatus.PENDING;
+import static com.twitter.aurora.gen.ScheduleStatus.RUNNING;
+
+public class JobAttributeCountsTest extends EasyMockTest {
+
+  private static final IJobKey JOB_A = JobKeys.from("role", "test", "jobA");
+  private static final IJobKey JOB_B = JobKeys.from("role", "test", "jobB");
+  private static final String HOST_A = "hostA";
+  private static final String HOST_B = "hostB";
+  private static final Attribute RACK_A = new Attribute("rack", ImmutableSet.of("a"));
+  private static final Attribute RACK_B = new Attribute("rack", ImmutableSet.of("b"));
+
+  private static final Amount<Long, Time> RELOAD_INTERVAL = Amount.of(1L, Time.MINUTES);
+
+  private StorageTestUtil storageUtil;
+  private FakeClock clock;
+  private JobAttributeCounts counts;
+
+  @Before
+  public void setUp() {
+    storageUtil = new StorageTestUtil(this);
+    storageUtil.expectOperations();
+    clock = new FakeClock();
+    counts = new JobAttributeCounts(storageUtil.storage, clock, RELOAD_INTERVAL);
+  }
+
+  private IScheduledTask makeTask(String taskId, IJobKey job, String host, ScheduleStatus status) {
+    return IScheduledTask.build(new ScheduledTask()
+        .setStatus(status)
+        .setAssignedTask(new AssignedTask()
+            .setTaskId(taskId)
+            .setSlaveHost(host)
+            .setTask(new TaskConfig()
+                .setOwner(new Identity(job.getRole(), job.getRole()))
+                .setEnvironment(job.getEnvironment())
+                .setJobName(job.getName()))));
+  }
+
+  private void expectHostAttributes(String host, Attribute... attributes) {
+    expect(storageUtil.attributeStore.getHostAttributes(host)).andReturn(Optional.of(
+        new HostAttributes().setHost(host).setAttributes(ImmutableSet.copyOf(attributes))))
+        .anyTimes();
+  }
+
+  private void expectJobLoad(IScheduledTask... tasks) {
+    expect(storageUtil.taskStore.fetchTasks(anyObject(Query.Builder.class)))
+        .andReturn(ImmutableSet.copyOf(tasks));
+  }
+
+  private void changeState(IScheduledTask task, ScheduleStatus oldState) {
+    counts.taskChangedState(new TaskStateChange(task, oldState));
+  }
+
+  @Test
+  public void testLoadsJobOnce() {
+    expectHostAttributes(HOST_A, RACK_A);
+    expectHostAttributes(HOST_B, RACK_B);
+    expectJobLoad(
+        makeTask("a1", JOB_A, HOST_A, RUNNING),
+        makeTask("a2", JOB_A, HOST_A, RUNNING),
+        makeTask("a3", JOB_A, HOST_B, RUNNING),
+        makeTask("b1", JOB_B, HOST_A, RUNNING));
+
+    control.replay();
+
+    assertEquals(2, counts.count(JOB_A, ImmutableSet.of(RACK_A)));
+    assertEquals(1, counts.count(JOB_A, ImmutableSet.of(RACK_B)));
+    assertEquals(3, counts.count(JOB_A, ImmutableSet.of(RACK_A, RACK_B)));
+  }
+
+  @Test
+  public void testTaskEvents() {
+    expectHostAttributes(HOST_A, RACK_A);
+    IScheduledTask a1 = makeTask("a1", JOB_A, HOST_A, RUNNING);
+    expectJobLoad(a1);
+
+    control.replay();
+
+    assertEquals(1, counts.count(JOB_A, ImmutableSet.of(RACK_A)));
+
+    changeState(makeTask("a2", JOB_A, null, PENDING), ASSIGNED);
+    IScheduledTask a2 = makeTask("a2", JOB_A, HOST_A, ASSIGNED);
+    changeState(a2, PENDING);
+    assertEquals(2, counts.count(JOB_A, ImmutableSet.of(RACK_A)));
+
+    changeState(makeTask("a1", JOB_A, HOST_A, FINISHED), RUNNING);
+    assertEquals(1, counts.count(JOB_A, ImmutableSet.of(RACK_A)));
+
+    counts.tasksDeleted(new TasksDeleted(ImmutableSet.of(a2)));
+    assertEquals(0, counts.count(JOB_A, ImmutableSet.of(RACK_A)));
+  }
+
+  @Test
+  public void testIgnoresUnloadedJob() {
+    control.replay();
+
+    // No storage reads are expected for a job that has not been queried.
+    changeState(makeTask("b1", JOB_B, HOST_A, RUNNING), ASSIGNED);
+  }
+
+  @Test
+  public void testHostAttributesChanged() {
+    expectHostAttributes(HOST_A, RACK_A);
+    expectJobLoad(makeTask("a1", JOB_A, HOST_A, RUNNING));
+
+    control.replay();
+
+    assertEquals(1, counts.count(JOB_A, ImmutableSet.of(RACK_A)));
+
+    counts.hostAttributesChanged(new HostAttributesChanged(
+        new HostAttributes().setHost(HOST_A).setAttributes(ImmutableSet.of(RACK_B))));
+    assertEquals(0, counts.count(JOB_A, ImmutableSet.of(RACK_A)));
+    assertEquals(1, counts.count(JOB_A, ImmutableSet.of(RACK_B)));
+  }
+
+  @Test
+  public void testStorageStartedReloads() {
+    expectHostAttributes(HOST_A, RACK_A);
+    expectJobLoad(makeTask("a1", JOB_A, HOST_A, RUNNING));
+    expectJobLoad(
+        makeTask("a1", JOB_A, HOST_A, RUNNING),
+        makeTask("a2", JOB_A, HOST_A, RUNNING));
+
+    control.replay();
+
+    assertEquals(1, counts.count(JOB_A, ImmutableSet.of(RACK_A)));
+    counts.storageStarted(new StorageStarted());
+    assertEquals(2, counts.count(JOB_A, ImmutableSet.of(RACK_A)));
+  }
+
+  @Test
+  public void testReloadsAfterInterval() {
+    expectHostAttributes(HOST_A, RACK_A);
+    expectJobLoad(makeTask("a1", JOB_A, HOST_A, RUNNING));
+    // A task whose event was missed is counted once the job is reloaded.
+    expectJobLoad(
+        makeTask("a1", JOB_A, HOST_A, RUNNING),
+        makeTask("a2", JOB_A, HOST_A, RUNNING));
+
+    control.replay();
+
+    assertEquals(1, counts.count(JOB_A, ImmutableSet.of(RACK_A)));
+    clock.advance(Amount.of(30L, Time.SECONDS));
+    assertEquals(1, counts.count(JOB_A, ImmutableSet.of(RACK_A)));
+    clock.advance(Amount.of(30L, Time.SECONDS));
+    assertEquals(2, counts.count(JOB_A, ImmutableSet.of(RACK_A)));
+
+    // Counts are still maintained from events after a reload.
+    changeState(makeTask("a2", JOB_A, HOST_A, FINISHED), RUNNING);
+    assertEquals(1, counts.count(JOB_A, ImmutableSet.of(RACK_A)));
+  }
+}
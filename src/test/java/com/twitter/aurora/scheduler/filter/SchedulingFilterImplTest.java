@@ -34,6 +34,7 @@ import com.twitter.aurora.gen.Attribute;
 import com.twitter.aurora.gen.Constraint;
 import com.twitter.aurora.gen.ExecutorConfig;
 import com.twitter.aurora.gen.HostAttributes;
+import com.twitter.aurora.gen.HostStatus;
 import com.twitter.aurora.gen.Identity;
 import com.twitter.aurora.gen.LimitConstraint;
 import com.twitter.aurora.gen.MaintenanceMode;
@@ -44,6 +45,8 @@ import com.twitter.aurora.gen.ValueConstraint;
 import com.twitter.aurora.scheduler.ResourceSlot;
 import com.twitter.aurora.scheduler.base.Query;
 import com.twitter.aurora.scheduler.configuration.ConfigurationManager;
+import com.twitter.aurora.scheduler.events.PubsubEvent.HostAttributesChanged;
+import com.twitter.aurora.scheduler.events.PubsubEvent.HostMaintenanceStateChange;
 import com.twitter.aurora.scheduler.filter.SchedulingFilter.Veto;
 import com.twitter.aurora.scheduler.state.MaintenanceController;
 import com.twitter.aurora.scheduler.storage.AttributeStore;
@@ -56,6 +59,7 @@ import com.twitter.aurora.scheduler.storage.entities.ITaskConfig;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Data;
 import com.twitter.common.testing.easymock.EasyMockTest;
+import com.twitter.common.util.testing.FakeClock;
 
 import static org.easymock.EasyMock.anyObject;
 import static org.easymock.EasyMock.expect;
@@ -107,7 +111,7 @@ public class SchedulingFilterImplTest extends EasyMockTest {
 
   private final AtomicLong taskIdCounter = new AtomicLong();
 
-  private SchedulingFilter defaultFilter;
+  private SchedulingFilterImpl defaultFilter;
   private MaintenanceController maintenance;
   private Storage storage;
   private StoreProvider storeProvider;
@@ -118,7 +122,11 @@ public class SchedulingFilterImplTest extends EasyMockTest {
   public void setUp() throws Exception {
     storage = createMock(Storage.class);
     maintenance = createMock(MaintenanceController.class);
-    defaultFilter = new SchedulingFilterImpl(storage, maintenance);
+    defaultFilter =
+        new SchedulingFilterImpl(
+            storage,
+            maintenance,
+            new JobAttributeCounts(storage, new FakeClock()));
     storeProvider = createMock(StoreProvider.class);
     taskStore = createMock(TaskStore.Mutable.class);
     attributeStore = createMock(AttributeStore.Mutable.class);
@@ -143,8 +151,8 @@ public class SchedulingFilterImplTest extends EasyMockTest {
   @Test
   public void testMeetsOffer() throws Exception {
     expectGetHostAttributes(HOST_A, host(HOST_A), rack(RACK_A)).atLeastOnce();
-    expectGetHostMaintenanceStatus(HOST_A).times(2);
-    expectGetTasks().times(2);
+    expectGetHostMaintenanceStatus(HOST_A);
+    expectGetTasks();
 
     control.replay();
 
@@ -155,8 +163,8 @@ public class SchedulingFilterImplTest extends EasyMockTest {
   @Test
   public void testSufficientPorts() throws Exception {
     expectGetHostAttributes(HOST_A, host(HOST_A), rack(RACK_A)).atLeastOnce();
-    expectGetHostMaintenanceStatus(HOST_A).times(4);
-    expectGetTasks().times(4);
+    expectGetHostMaintenanceStatus(HOST_A);
+    expectGetTasks();
 
     control.replay();
 
@@ -191,8 +199,8 @@ public class SchedulingFilterImplTest extends EasyMockTest {
   @Test
   public void testInsufficientResources() throws Exception {
     expectGetHostAttributes(HOST_A, host(HOST_A), rack(RACK_A)).atLeastOnce();
-    expectGetHostMaintenanceStatus(HOST_A).times(4);
-    expectGetTasks().times(4);
+    expectGetHostMaintenanceStatus(HOST_A);
+    expectGetTasks();
 
     control.replay();
 
@@ -207,7 +215,7 @@ public class SchedulingFilterImplTest extends EasyMockTest {
   @Test
   public void testDedicatedRole() throws Exception {
     expectGetHostAttributes(HOST_A, dedicated(ROLE_A)).anyTimes();
-    expectGetHostMaintenanceStatus(HOST_A).times(2);
+    expectGetHostMaintenanceStatus(HOST_A);
 
     control.replay();
 
@@ -332,7 +340,6 @@ public class SchedulingFilterImplTest extends EasyMockTest {
 
   @Test
   public void testUnderLimitNoTasks() throws Exception {
-    expectGetHostAttributes(HOST_A);
     expectGetHostAttributes(HOST_A, host(HOST_A));
     expectGetTasks();
     expectGetHostMaintenanceStatus(HOST_A);
@@ -342,6 +349,41 @@ public class SchedulingFilterImplTest extends EasyMockTest {
     assertNoVetoes(hostLimitTask(2), HOST_A);
   }
 
+  @Test
+  public void testHostDetailsCached() throws Exception {
+    expectGetHostAttributes(HOST_A, host(HOST_A), rack(RACK_A));
+    expectGetHostMaintenanceStatus(HOST_A);
+
+    control.replay();
+
+    checkConstraint(HOST_A, RACK_ATTRIBUTE, true, RACK_A);
+    checkConstraint(HOST_A, RACK_ATTRIBUTE, false, RACK_B);
+  }
+
+  @Test
+  public void testHostDetailsInvalidated() throws Exception {
+    expectGetHostAttributes(HOST_A, host(HOST_A), rack(RACK_A));
+    expectGetHostMaintenanceStatus(HOST_A);
+    expectGetHostAttributes(HOST_A, host(HOST_A), rack(RACK_B));
+    expectGetHostMaintenanceStatus(HOST_A);
+    expectGetHostAttributes(HOST_A, host(HOST_A), rack(RACK_B));
+    expectGetHostMaintenanceStatus(HOST_A, MaintenanceMode.DRAINING);
+
+    control.replay();
+
+    checkConstraint(HOST_A, RACK_ATTRIBUTE, true, RACK_A);
+
+    defaultFilter.hostAttributesChanged(
+        new HostAttributesChanged(new HostAttributes().setHost(HOST_A)));
+    checkConstraint(HOST_A, RACK_ATTRIBUTE, true, RACK_B);
+
+    defaultFilter.hostChangedState(new HostMaintenanceStateChange(
+        new HostStatus(HOST_A, MaintenanceMode.DRAINING)));
+    assertVetoes(
+        makeTask(OWNER_A, JOB_A, makeConstraint(RACK_ATTRIBUTE, RACK_B)),
+        ConstraintFilter.maintenanceVeto("draining"));
+  }
+
   private Attribute host(String host) {
     return valueAttribute(HOST_ATTRIBUTE, host);
   }
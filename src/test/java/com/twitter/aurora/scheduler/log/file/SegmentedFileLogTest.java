@@ -0,0 +1,213 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.log.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.twitter.aurora.scheduler.log.Log.Entry;
+import com.twitter.aurora.scheduler.log.Log.Position;
+import com.twitter.aurora.scheduler.log.Log.Stream;
+import com.twitter.aurora.scheduler.log.Log.Stream.InvalidPositionException;
+import com.twitter.aurora.scheduler.log.file.SegmentedFileLog.SegmentPosition;
+import com.twitter.common.io.FileUtils;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentedFileLogTest {
+
+  // Small enough that a segment holds only a few entries.
+  private static final Amount<Long, Data> SEGMENT_SIZE = Amount.of(32L, Data.BYTES);
+
+  private static final Function<Entry, String> TO_STRING = new Function<Entry, String>() {
+    @Override public String apply(Entry entry) {
+      return new String(entry.contents(), Charsets.UTF_8);
+    }
+  };
+
+  private File logDir;
+  private Stream stream;
+
+  @Before
+  public void setUp() throws IOException {
+    logDir = FileUtils.createTempDir();
+    stream = open();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    stream.close();
+    org.apache.commons.io.FileUtils.deleteDirectory(logDir);
+  }
+
+  private Stream open() throws IOException {
+    return new SegmentedFileLog(logDir, SEGMENT_SIZE).open();
+  }
+
+  private Stream reopen() throws IOException {
+    stream.close();
+    stream = open();
+    return stream;
+  }
+
+  private Position append(String contents) {
+    return stream.append(contents.getBytes(Charsets.UTF_8));
+  }
+
+  private List<String> readAll() {
+    return ImmutableList.copyOf(Iterators.transform(stream.readAll(), TO_STRING));
+  }
+
+  private File[] segmentFiles() {
+    return logDir.listFiles(new FilenameFilter() {
+      @Override public boolean accept(File dir, String name) {
+        return name.endsWith(".log");
+      }
+    });
+  }
+
+  private int segmentCount() {
+    return segmentFiles().length;
+  }
+
+  @Test
+  public void testEmptyLog() throws IOException {
+    assertEquals(ImmutableList.<String>of(), readAll());
+    reopen();
+    assertEquals(ImmutableList.<String>of(), readAll());
+  }
+
+  @Test
+  public void testAppendAndRead() throws IOException {
+    Position a = append("a");
+    Position b = append("bb");
+    Position c = append("ccc");
+    assertTrue(a.compareTo(b) < 0);
+    assertTrue(b.compareTo(c) < 0);
+    assertEquals(ImmutableList.of("a", "bb", "ccc"), readAll());
+
+    reopen();
+    assertEquals(ImmutableList.of("a", "bb", "ccc"), readAll());
+    append("dddd");
+    assertEquals(ImmutableList.of("a", "bb", "ccc", "dddd"), readAll());
+  }
+
+  @Test
+  public void testRollsSegments() throws IOException {
+    for (int i = 0; i < 10; i++) {
+      append("entry" + i);
+    }
+    assertTrue(segmentCount() > 1);
+    assertEquals(10, readAll().size());
+  }
+
+  @Test
+  public void testTruncateBefore() throws IOException {
+    append("a");
+    append("b");
+    append("c");
+    Position d = append("d");
+    append("e");
+    append("f");
+    int segments = segmentCount();
+
+    stream.truncateBefore(d);
+    assertTrue(segmentCount() < segments);
+    assertEquals(ImmutableList.of("d", "e", "f"), readAll());
+
+    reopen();
+    assertEquals(ImmutableList.of("d", "e", "f"), readAll());
+    append("g");
+    assertEquals(ImmutableList.of("d", "e", "f", "g"), readAll());
+  }
+
+  @Test
+  public void testTruncateToEnd() throws IOException {
+    append("a");
+    append("b");
+    Position c = append("c");
+    stream.truncateBefore(c);
+    stream.truncateBefore(append("d"));
+    assertEquals(ImmutableList.of("d"), readAll());
+
+    reopen();
+    assertEquals(ImmutableList.of("d"), readAll());
+  }
+
+  @Test(expected = InvalidPositionException.class)
+  public void testTruncateBeforeUnknownPosition() {
+    append("a");
+    stream.truncateBefore(new SegmentPosition(1000));
+  }
+
+  private void appendToLastSegment(byte[] bytes) throws IOException {
+    File[] segments = segmentFiles();
+    File last = segments[0];
+    for (File segment : segments) {
+      if (segment.getName().compareTo(last.getName()) > 0) {
+        last = segment;
+      }
+    }
+    try (FileOutputStream out = new FileOutputStream(last, true)) {
+      out.write(bytes);
+    }
+  }
+
+  @Test
+  public void testDiscardsTornRecord() throws IOException {
+    append("a");
+    append("b");
+    stream.close();
+
+    // Simulate a crash part way through appending a record.
+    appendToLastSegment(new byte[] {0, 0, 0, 5, 1, 2});
+
+    stream = open();
+    assertEquals(ImmutableList.of("a", "b"), readAll());
+    append("c");
+    assertEquals(ImmutableList.of("a", "b", "c"), readAll());
+  }
+
+  @Test
+  public void testDiscardsZeroFilledTail() throws IOException {
+    append("a");
+    append("b");
+    stream.close();
+
+    // Simulate a segment tail that was extended but never written.
+    appendToLastSegment(new byte[24]);
+
+    stream = open();
+    assertEquals(ImmutableList.of("a", "b"), readAll());
+    append("c");
+    assertEquals(ImmutableList.of("a", "b", "c"), readAll());
+  }
+}
@@ -1,9 +1,14 @@
 package com.twitter.aurora.scheduler.log.mesos;
 
+import java.lang.reflect.Constructor;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
-import javax.inject.Provider;
-
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
 import com.google.inject.util.Providers;
 
 import org.apache.mesos.Log;
@@ -11,6 +16,7 @@ import org.easymock.EasyMock;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.twitter.aurora.scheduler.log.Log.Entry;
 import com.twitter.aurora.scheduler.log.Log.Stream.StreamAccessException;
 import com.twitter.aurora.scheduler.log.mesos.LogInterface.ReaderInterface;
 import com.twitter.aurora.scheduler.log.mesos.LogInterface.WriterInterface;
@@ -18,7 +24,9 @@ import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.testing.easymock.EasyMockTest;
 
+import static org.easymock.EasyMock.aryEq;
 import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
 
 public class MesosLogTest extends EasyMockTest {
 
@@ -28,7 +36,7 @@ public class MesosLogTest extends EasyMockTest {
 
   private LogInterface logInterface;
   private ReaderInterface reader;
-  private Provider<WriterInterface> writerFactory;
+  private WriterInterface writer;
   private MesosLog.LogStream logStream;
   private MesosLog.LogStream.Mutation<String> dummyMutation;
   private MesosLog.LogStream.OpStats stats;
@@ -37,12 +45,16 @@ public class MesosLogTest extends EasyMockTest {
   public void setUp() {
     logInterface = createMock(LogInterface.class);
     reader = createMock(ReaderInterface.class);
-    writerFactory = Providers.of(createMock(WriterInterface.class));
+    writer = createMock(WriterInterface.class);
 
     dummyMutation = createMock(new Clazz<MesosLog.LogStream.Mutation<String>>() { });
     stats = new MesosLog.LogStream.OpStats("test");
-    logStream = new MesosLog.LogStream(logInterface, reader, READ_TIMEOUT,
-        writerFactory, WRITE_TIMEOUT, DUMMY_CONTENT);
+    logStream = createStream(1, 0);
+  }
+
+  private MesosLog.LogStream createStream(int readBatchSize, int readPrefetchDepth) {
+    return new MesosLog.LogStream(logInterface, reader, READ_TIMEOUT, readBatchSize,
+        readPrefetchDepth, Providers.of(writer), WRITE_TIMEOUT, DUMMY_CONTENT);
   }
 
   @Test(expected = StreamAccessException.class)
@@ -61,4 +73,82 @@ public class MesosLogTest extends EasyMockTest {
     control.replay();
     logStream.mutate(stats, dummyMutation);
   }
+
+  @Test
+  public void testReadAllInBatches() throws Exception {
+    expectReadAll();
+
+    control.replay();
+
+    assertEquals(ImmutableList.of("a", "b", "c"), readAll(createStream(2, 0)));
+  }
+
+  @Test
+  public void testReadAllPrefetch() throws Exception {
+    expectReadAll();
+
+    control.replay();
+
+    assertEquals(ImmutableList.of("a", "b", "c"), readAll(createStream(2, 2)));
+  }
+
+  @Test(expected = StreamAccessException.class)
+  public void testReadTimeout() throws Exception {
+    expectNoopAppend(2);
+    expectPositions(1, 2);
+    expect(reader.read(position(1), position(2), 5L, TimeUnit.SECONDS))
+        .andThrow(new TimeoutException());
+
+    control.replay();
+
+    readAll(createStream(2, 1));
+  }
+
+  private void expectReadAll() throws Exception {
+    expectNoopAppend(5);
+    expectPositions(1, 5);
+    expect(reader.read(position(1), position(2), 5L, TimeUnit.SECONDS))
+        .andReturn(ImmutableList.of(entry(1, "a"), entry(2, "b")));
+    // Position 3 is not an append.
+    expect(reader.read(position(3), position(4), 5L, TimeUnit.SECONDS))
+        .andReturn(ImmutableList.of(entry(4, "c")));
+    expect(reader.read(position(5), position(5), 5L, TimeUnit.SECONDS))
+        .andReturn(ImmutableList.<Log.Entry>of());
+  }
+
+  private void expectNoopAppend(long end) throws Exception {
+    expect(writer.append(DUMMY_CONTENT, 3L, TimeUnit.SECONDS)).andReturn(position(end));
+    expect(reader.beginning()).andReturn(position(1));
+    expect(reader.ending()).andReturn(position(end));
+  }
+
+  private void expectPositions(long first, long last) throws Exception {
+    for (long i = first; i <= last; i++) {
+      expect(logInterface.position(aryEq(Longs.toByteArray(i)))).andReturn(position(i))
+          .anyTimes();
+    }
+  }
+
+  private static List<String> readAll(MesosLog.LogStream stream) {
+    return Lists.newArrayList(Lists.transform(
+        ImmutableList.copyOf(stream.readAll()),
+        new Function<Entry, String>() {
+          @Override public String apply(Entry entry) {
+            return new String(entry.contents());
+          }
+        }));
+  }
+
+  private static Log.Position position(long value) throws Exception {
+    Constructor<Log.Position> constructor = Log.Position.class.getDeclaredConstructor(long.class);
+    constructor.setAccessible(true);
+    return constructor.newInstance(value);
+  }
+
+  private static Log.Entry entry(long position, String data) throws Exception {
+    Constructor<Log.Entry> constructor =
+        Log.Entry.class.getDeclaredConstructor(Log.Position.class, byte[].class);
+    constructor.setAccessible(true);
+    return constructor.newInstance(position(position), data.getBytes());
+  }
 }
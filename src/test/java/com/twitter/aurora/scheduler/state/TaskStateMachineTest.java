@@ -40,6 +40,7 @@ import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expectLastCall;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
@@ -54,6 +55,7 @@ import static com.twitter.aurora.gen.ScheduleStatus.PENDING;
 import static com.twitter.aurora.gen.ScheduleStatus.RESTARTING;
 import static com.twitter.aurora.gen.ScheduleStatus.RUNNING;
 import static com.twitter.aurora.gen.ScheduleStatus.STARTING;
+import static com.twitter.aurora.gen.ScheduleStatus.THROTTLED;
 import static com.twitter.aurora.gen.ScheduleStatus.UNKNOWN;
 import static com.twitter.aurora.scheduler.state.WorkCommand.DELETE;
 import static com.twitter.aurora.scheduler.state.WorkCommand.INCREMENT_FAILURES;
@@ -317,6 +319,20 @@ public class TaskStateMachineTest extends EasyMockTest {
     transition(stateMachine, PENDING, ASSIGNED, STARTING, RUNNING, KILLING, KILLED);
   }
 
+  @Test
+  public void testStateWithoutRulesCannotTransition() {
+    control.replay();
+
+    stateMachine = new TaskStateMachine(
+        "test",
+        IScheduledTask.build(makeTask(false)),
+        workSink,
+        clock,
+        THROTTLED);
+    assertFalse(stateMachine.updateState(PENDING));
+    assertEquals(THROTTLED, stateMachine.getState());
+  }
+
   private static void transition(TaskStateMachine stateMachine, ScheduleStatus... states) {
     for (ScheduleStatus status : states) {
       stateMachine.updateState(status);
@@ -62,6 +62,7 @@ import com.twitter.aurora.scheduler.log.Log.Entry;
 import com.twitter.aurora.scheduler.log.Log.Position;
 import com.twitter.aurora.scheduler.log.Log.Stream;
 import com.twitter.aurora.scheduler.storage.log.LogManager.StreamManager;
+import com.twitter.aurora.scheduler.storage.log.LogManager.StreamManager.GroupCommit;
 import com.twitter.aurora.scheduler.storage.log.LogManager.StreamManager.StreamTransaction;
 import com.twitter.common.application.ShutdownRegistry;
 import com.twitter.common.base.Closure;
@@ -79,6 +80,7 @@ import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class LogManagerTest extends EasyMockTest {
 
@@ -128,7 +130,7 @@ public class LogManagerTest extends EasyMockTest {
 
     control.replay();
 
-    new LogManager(log, NO_FRAMES_EVER_SIZE, false, shutdownRegistry).open();
+    new LogManager(log, NO_FRAMES_EVER_SIZE, false, false, shutdownRegistry).open();
 
     assertTrue(shutdownAction.hasCaptured());
     shutdownAction.getValue().execute();
@@ -421,6 +423,115 @@ public class LogManagerTest extends EasyMockTest {
     }
   }
 
+  @Test
+  public void testGroupCommit() throws Exception {
+    control.replay(); // No easymock expectations used here
+
+    final CountDownLatch firstAppendStarted = new CountDownLatch(1);
+    final CountDownLatch firstAppendReleased = new CountDownLatch(1);
+    final FakeStream fakeStream = new FakeStream() {
+      @Override public Position append(byte[] contents) {
+        Position position = super.append(contents);
+        if (appends.size() == 1) {
+          firstAppendStarted.countDown();
+          try {
+            firstAppendReleased.await();
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+        }
+        return position;
+      }
+    };
+    StreamManager streamManager = new StreamManager(fakeStream, false, NO_FRAMES_EVER_SIZE);
+
+    Op op1 = Op.removeJob(new RemoveJob(JobKeys.from("r1", "env", "name").newBuilder()));
+    Op op2 = Op.removeJob(new RemoveJob(JobKeys.from("r2", "env", "name").newBuilder()));
+    Op op3 = Op.removeJob(new RemoveJob(JobKeys.from("r3", "env", "name").newBuilder()));
+
+    final GroupCommit group1 = commitGrouped(streamManager, op1);
+    Thread leader = new Thread() {
+      @Override public void run() {
+        try {
+          group1.await();
+        } catch (CodingException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    leader.setDaemon(true);
+    leader.start();
+    firstAppendStarted.await();
+
+    // Transactions queued while the first group is being appended should be appended together.
+    GroupCommit group2 = commitGrouped(streamManager, op2);
+    GroupCommit group3 = commitGrouped(streamManager, op3);
+    assertNotSame(group1, group2);
+    assertSame(group2, group3);
+
+    firstAppendReleased.countDown();
+    group3.await();
+    group2.await();
+    leader.join();
+
+    assertEquals(
+        ImmutableList.of(createLogEntry(op1), createLogEntry(op2, op3)),
+        ImmutableList.copyOf(Iterators.transform(fakeStream.readAll(), DECODE)));
+  }
+
+  @Test
+  public void testGroupCommitFailureStopsAppends() throws Exception {
+    control.replay(); // No easymock expectations used here
+
+    final FakeStream fakeStream = new FakeStream() {
+      @Override public Position append(byte[] contents) {
+        if (appends.isEmpty()) {
+          appends.add(contents);
+          throw new StreamAccessException("Injected failure.", new IOException());
+        }
+        return super.append(contents);
+      }
+    };
+    StreamManager streamManager = new StreamManager(fakeStream, false, NO_FRAMES_EVER_SIZE);
+
+    GroupCommit group1 = commitGrouped(
+        streamManager,
+        Op.removeJob(new RemoveJob(JobKeys.from("r1", "env", "name").newBuilder())));
+    assertGroupFails(group1);
+
+    // The second group must not reach the log, since the first group's ops are missing from it.
+    GroupCommit group2 = commitGrouped(
+        streamManager,
+        Op.removeJob(new RemoveJob(JobKeys.from("r2", "env", "name").newBuilder())));
+    assertGroupFails(group2);
+    assertEquals(1, fakeStream.appends.size());
+  }
+
+  private static void assertGroupFails(GroupCommit group) throws CodingException {
+    try {
+      group.await();
+      fail("Group append should have failed.");
+    } catch (Stream.StreamAccessException e) {
+      // Expected.
+    }
+  }
+
+  private static final Function<Entry, LogEntry> DECODE = new Function<Entry, LogEntry>() {
+    @Override public LogEntry apply(Entry entry) {
+      try {
+        return ThriftBinaryCodec.decodeNonNull(LogEntry.class, entry.contents());
+      } catch (CodingException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  };
+
+  private static GroupCommit commitGrouped(StreamManager streamManager, Op op) {
+    StreamTransaction transaction = streamManager.startTransaction();
+    transaction.add(op);
+    return transaction.commitGrouped().get();
+  }
+
   @Test
   public void testStreamManagerReadFrames() throws Exception {
     LogEntry transaction1 = createLogEntry(
@@ -499,6 +610,80 @@ public class LogManagerTest extends EasyMockTest {
     streamManager.readFromBeginning(reader);
   }
 
+  @Test
+  public void testPipelinedRecovery() throws Exception {
+    control.replay(); // No easymock expectations used here
+
+    FakeStream fakeStream = new FakeStream();
+    StreamManager writer = new StreamManager(fakeStream, true, SMALL_CHUNK_SIZE);
+    LogEntry first = createLogEntry(Op.saveFrameworkId(new SaveFrameworkId("a")));
+    fakeStream.append(encode(first));
+    Snapshot snapshot = createSnapshot();
+    writer.snapshot(snapshot);
+    LogEntry last = createLogEntry(Op.saveFrameworkId(new SaveFrameworkId("b")));
+    fakeStream.append(encode(last));
+
+    StreamManager reader = new StreamManager(fakeStream, false, true, NO_FRAMES_EVER_SIZE);
+    assertEquals(ImmutableList.of(first, LogEntry.snapshot(snapshot), last), readAll(reader));
+  }
+
+  @Test(expected = CodingException.class)
+  public void testPipelinedRecoveryDecodingFailure() throws Exception {
+    control.replay(); // No easymock expectations used here
+
+    FakeStream fakeStream = new FakeStream();
+    fakeStream.append(encode(createLogEntry(Op.saveFrameworkId(new SaveFrameworkId("a")))));
+    fakeStream.append(new byte[] {127, 1, 2, 3});
+
+    readAll(new StreamManager(fakeStream, false, true, NO_FRAMES_EVER_SIZE));
+  }
+
+  private static final Amount<Integer, Data> SMALL_CHUNK_SIZE = Amount.of(16, Data.BYTES);
+
+  private static List<LogEntry> readAll(StreamManager streamManager) throws CodingException {
+    final List<LogEntry> entries = Lists.newArrayList();
+    streamManager.readFromBeginning(new Closure<LogEntry>() {
+      @Override public void execute(LogEntry entry) {
+        entries.add(entry);
+      }
+    });
+    return entries;
+  }
+
+  private static class FakeStream implements Stream {
+    protected final List<byte[]> appends = Lists.newArrayList();
+
+    @Override
+    public Position append(byte[] contents) {
+      appends.add(contents);
+      return null;
+    }
+
+    @Override
+    public Iterator<Entry> readAll() {
+      return Iterators.transform(ImmutableList.copyOf(appends).iterator(),
+          new Function<byte[], Entry>() {
+            @Override public Entry apply(final byte[] contents) {
+              return new Entry() {
+                @Override public byte[] contents() {
+                  return contents;
+                }
+              };
+            }
+          });
+    }
+
+    @Override
+    public void truncateBefore(Position position) {
+      // noop
+    }
+
+    @Override
+    public void close() {
+      // noop
+    }
+  }
+
   private Snapshot createSnapshot() {
     return new Snapshot()
         .setTimestamp(1L)
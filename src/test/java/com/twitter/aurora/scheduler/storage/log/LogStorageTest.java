@@ -16,6 +16,7 @@
 package com.twitter.aurora.scheduler.storage.log;
 
 import java.io.IOException;
+import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -83,6 +84,7 @@ import com.twitter.aurora.scheduler.storage.log.LogStorage.SchedulingService;
 import com.twitter.aurora.scheduler.storage.log.testing.LogOpMatcher;
 import com.twitter.aurora.scheduler.storage.log.testing.LogOpMatcher.StreamMatcher;
 import com.twitter.aurora.scheduler.storage.testing.StorageTestUtil;
+import com.twitter.common.application.Lifecycle;
 import com.twitter.common.application.ShutdownRegistry;
 import com.twitter.common.base.Command;
 import com.twitter.common.base.ExceptionalCommand;
@@ -119,7 +121,8 @@ public class LogStorageTest extends EasyMockTest {
     log = createMock(Log.class);
 
     shutdownRegistry = createMock(ShutdownRegistry.class);
-    LogManager logManager = new LogManager(log, Amount.of(1, Data.GB), false, shutdownRegistry);
+    LogManager logManager =
+        new LogManager(log, Amount.of(1, Data.GB), false, false, shutdownRegistry);
 
     schedulingService = createMock(SchedulingService.class);
     snapshotStore = createMock(new Clazz<SnapshotStore<Snapshot>>() { });
@@ -130,6 +133,8 @@ public class LogStorageTest extends EasyMockTest {
             schedulingService,
             snapshotStore,
             SNAPSHOT_INTERVAL,
+            false,
+            new Lifecycle(createMock(Command.class), createMock(UncaughtExceptionHandler.class)),
             storageUtil.storage,
             storageUtil.schedulerStore,
             storageUtil.jobStore,
@@ -223,7 +228,7 @@ public class LogStorageTest extends EasyMockTest {
             snapshotWork.getValue().apply(storageUtil.mutableStoreProvider);
             return null;
           }
-        }).times(2);
+        });
     storageUtil.storage.snapshot();
 
     control.replay();
@@ -323,6 +328,43 @@ public class LogStorageTest extends EasyMockTest {
     }.run();
   }
 
+  @Test
+  public void testWriteDuringSnapshotAppendedAfterSnapshot() throws Exception {
+    final String frameworkId = "bob";
+    final Snapshot snapshotContents = new Snapshot().setTimestamp(NOW);
+    new MutationFixture() {
+      @Override protected void setupExpectations() throws Exception {
+        storageUtil.expectOperations();
+        storageUtil.schedulerStore.saveFrameworkId(frameworkId);
+        expect(snapshotStore.createSnapshot()).andAnswer(new IAnswer<Snapshot>() {
+          @Override public Snapshot answer() throws InterruptedException {
+            // Writers must not be blocked while the snapshot is being created.
+            Thread writer = new Thread() {
+              @Override public void run() {
+                logStorage.saveFrameworkId(frameworkId);
+              }
+            };
+            writer.start();
+            writer.join();
+            return snapshotContents;
+          }
+        });
+
+        // The write is appended when it commits, and again after the snapshot.
+        streamMatcher.expectTransaction(Op.saveFrameworkId(new SaveFrameworkId(frameworkId)))
+            .andReturn(position)
+            .times(2);
+        streamMatcher.expectSnapshot(snapshotContents).andReturn(position);
+        stream.truncateBefore(position);
+        storageUtil.storage.snapshot();
+      }
+
+      @Override protected void performMutations() {
+        logStorage.snapshot();
+      }
+    }.run();
+  }
+
   @Test
   public void testSaveAcceptedJob() throws Exception {
     final IJobConfiguration jobConfig =
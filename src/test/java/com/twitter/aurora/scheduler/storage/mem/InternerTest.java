@@ -15,13 +15,22 @@
  */
 package com.twitter.aurora.scheduler.storage.mem;
 
-import com.google.common.collect.ImmutableSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.Lists;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import com.twitter.aurora.scheduler.storage.mem.Interner.Reference;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
@@ -31,11 +40,7 @@ public class InternerTest {
   private static final Internable SAME_JOAN = new Internable("joan");
   private static final Internable STEVE = new Internable("steve");
 
-  private static final String BOB = "bob";
-  private static final String BOB2 = "bob2";
-  private static final String BARRY = "barry";
-
-  private Interner<Internable, String> interner;
+  private Interner<Internable> interner;
 
   @Before
   public void setUp() {
@@ -44,58 +49,94 @@ public class InternerTest {
 
   @Test
   public void testReferenceCounting() {
-    assertSame(JOAN, interner.addAssociation(JOAN, BOB));
-    assertSame(JOAN, interner.addAssociation(SAME_JOAN, BOB2));
-    assertEquals(ImmutableSet.of(BOB2, BOB), interner.getAssociations(JOAN));
+    Reference<Internable> first = interner.intern(JOAN);
+    assertSame(JOAN, first.get());
+    Reference<Internable> second = interner.intern(SAME_JOAN);
+    assertSame(JOAN, second.get());
+    assertEquals(2, interner.getReferenceCount(JOAN));
     assertTrue(interner.isInterned(JOAN));
     assertTrue(interner.isInterned(SAME_JOAN));
 
-    // Re-associate.
-    assertSame(JOAN, interner.addAssociation(JOAN, BOB));
-    assertEquals(ImmutableSet.of(BOB2, BOB), interner.getAssociations(JOAN));
-
-    // Noop.
-    interner.removeAssociation(JOAN, "bob3");
-    assertEquals(ImmutableSet.of(BOB2, BOB), interner.getAssociations(JOAN));
+    interner.release(first);
+    assertEquals(1, interner.getReferenceCount(JOAN));
 
-    interner.removeAssociation(JOAN, BOB);
-    assertEquals(ImmutableSet.of(BOB2), interner.getAssociations(JOAN));
-
-    interner.removeAssociation(JOAN, BOB2);
+    interner.release(second);
     assertFalse(interner.isInterned(JOAN));
+    assertEquals(0, interner.getReferenceCount(JOAN));
   }
 
   @Test
   public void testNonEqual() {
-    assertSame(JOAN, interner.addAssociation(JOAN, BOB));
-    assertSame(STEVE, interner.addAssociation(STEVE, BOB));
-    assertSame(JOAN, interner.addAssociation(JOAN, BOB));
-    assertSame(STEVE, interner.addAssociation(STEVE, BOB));
-    assertSame(STEVE, interner.addAssociation(STEVE, BARRY));
-    assertEquals(ImmutableSet.of(BOB), interner.getAssociations(JOAN));
-    assertEquals(ImmutableSet.of(BARRY, BOB), interner.getAssociations(STEVE));
-
-    interner.removeAssociation(JOAN, BOB);
+    Reference<Internable> joan = interner.intern(JOAN);
+    Reference<Internable> steve = interner.intern(STEVE);
+    Reference<Internable> steve2 = interner.intern(STEVE);
+    assertSame(JOAN, joan.get());
+    assertSame(STEVE, steve.get());
+    assertEquals(1, interner.getReferenceCount(JOAN));
+    assertEquals(2, interner.getReferenceCount(STEVE));
+
+    interner.release(joan);
     assertFalse(interner.isInterned(JOAN));
 
-    interner.removeAssociation(STEVE, BOB);
-    assertEquals(ImmutableSet.of(BARRY), interner.getAssociations(STEVE));
-    interner.removeAssociation(STEVE, BARRY);
+    interner.release(steve);
+    assertEquals(1, interner.getReferenceCount(STEVE));
+    interner.release(steve2);
     assertFalse(interner.isInterned(STEVE));
   }
 
   @Test
-  public void testNoopRemoveAssociation() {
-    interner.removeAssociation(JOAN, BOB);
-    assertFalse(interner.isInterned(JOAN));
+  public void testReinternAfterRelease() {
+    Reference<Internable> first = interner.intern(JOAN);
+    interner.release(first);
+
+    Reference<Internable> second = interner.intern(SAME_JOAN);
+    assertNotSame(first, second);
+    assertSame(SAME_JOAN, second.get());
+    assertEquals(1, interner.getReferenceCount(JOAN));
   }
 
   @Test
   public void testClear() {
-    assertSame(JOAN, interner.addAssociation(JOAN, BOB));
+    Reference<Internable> reference = interner.intern(JOAN);
 
     interner.clear();
     assertFalse(interner.isInterned(JOAN));
+
+    // Releasing a reference from before the clear has no effect.
+    Reference<Internable> current = interner.intern(JOAN);
+    interner.release(reference);
+    assertEquals(1, interner.getReferenceCount(JOAN));
+    interner.release(current);
+    assertFalse(interner.isInterned(JOAN));
+  }
+
+  @Test
+  public void testConcurrentInternAndRelease() throws Exception {
+    int threads = 4;
+    final int iterations = 10000;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> results = Lists.newArrayList();
+      for (int i = 0; i < threads; i++) {
+        results.add(executor.submit(new Callable<Void>() {
+          @Override public Void call() {
+            for (int j = 0; j < iterations; j++) {
+              Reference<Internable> reference = interner.intern(new Internable("joan"));
+              assertEquals(JOAN, reference.get());
+              interner.release(reference);
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<?> result : results) {
+        result.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertFalse(interner.isInterned(JOAN));
   }
 
   private static class Internable {
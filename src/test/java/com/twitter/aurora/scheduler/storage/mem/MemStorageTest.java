@@ -18,10 +18,12 @@ package com.twitter.aurora.scheduler.storage.mem;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -33,7 +35,11 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.twitter.aurora.gen.AssignedTask;
+import com.twitter.aurora.gen.Attribute;
+import com.twitter.aurora.gen.HostAttributes;
 import com.twitter.aurora.gen.Identity;
+import com.twitter.aurora.gen.MaintenanceMode;
+import com.twitter.aurora.gen.Quota;
 import com.twitter.aurora.gen.ScheduledTask;
 import com.twitter.aurora.gen.TaskConfig;
 import com.twitter.aurora.scheduler.base.Query;
@@ -43,6 +49,7 @@ import com.twitter.aurora.scheduler.storage.Storage.MutableStoreProvider;
 import com.twitter.aurora.scheduler.storage.Storage.MutateWork;
 import com.twitter.aurora.scheduler.storage.Storage.StoreProvider;
 import com.twitter.aurora.scheduler.storage.Storage.Work;
+import com.twitter.aurora.scheduler.storage.entities.IQuota;
 import com.twitter.aurora.scheduler.storage.entities.IScheduledTask;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
@@ -106,6 +113,159 @@ public class MemStorageTest extends TearDownTestCase {
     assertEquals("slowResult", future.get());
   }
 
+  @Test
+  public void testReadDuringWrite() throws Exception {
+    // Validate that a slow write does not block a read, which sees the last completed write.
+
+    final CountDownLatch slowWriteStarted = new CountDownLatch(1);
+    final CountDownLatch slowWriteFinished = new CountDownLatch(1);
+
+    storage.write(new MutateWork.NoResult.Quiet() {
+      @Override protected void execute(MutableStoreProvider storeProvider) {
+        storeProvider.getUnsafeTaskStore().saveTasks(ImmutableSet.of(makeTask("a")));
+      }
+    });
+
+    Future<?> future = executor.submit(new Runnable() {
+      @Override public void run() {
+        storage.write(new MutateWork.NoResult.Quiet() {
+          @Override protected void execute(MutableStoreProvider storeProvider) {
+            storeProvider.getUnsafeTaskStore().deleteAllTasks();
+            storeProvider.getUnsafeTaskStore().saveTasks(ImmutableSet.of(makeTask("b")));
+            slowWriteStarted.countDown();
+            try {
+              slowWriteFinished.await();
+            } catch (InterruptedException e) {
+              fail(e.getMessage());
+            }
+          }
+        });
+      }
+    });
+
+    slowWriteStarted.await();
+    expectTasks("a");
+    slowWriteFinished.countDown();
+    future.get();
+    expectTasks("b");
+  }
+
+  @Test
+  public void testReadIsPointInTime() throws Exception {
+    // Validate that a read does not observe a write that completes while it is in progress.
+
+    storage.consistentRead(new Work.Quiet<Void>() {
+      @Override public Void apply(StoreProvider storeProvider) {
+        try {
+          executor.submit(new Runnable() {
+            @Override public void run() {
+              storage.write(new MutateWork.NoResult.Quiet() {
+                @Override protected void execute(MutableStoreProvider storeProvider) {
+                  storeProvider.getUnsafeTaskStore().saveTasks(ImmutableSet.of(makeTask("a")));
+                }
+              });
+            }
+          }).get();
+        } catch (InterruptedException | ExecutionException e) {
+          fail(e.getMessage());
+        }
+        assertEquals(
+            ImmutableSet.<IScheduledTask>of(),
+            storeProvider.getTaskStore().fetchTasks(Query.unscoped()));
+        return null;
+      }
+    });
+    expectTasks("a");
+  }
+
+  @Test
+  public void testAttributeReadDuringTaskWrite() throws Exception {
+    // Validate that a write holding the task store does not block a read of host attributes.
+
+    final CountDownLatch slowWriteStarted = new CountDownLatch(1);
+    final CountDownLatch slowWriteFinished = new CountDownLatch(1);
+
+    Future<?> future = executor.submit(new Runnable() {
+      @Override public void run() {
+        storage.write(new MutateWork.NoResult.Quiet() {
+          @Override protected void execute(MutableStoreProvider storeProvider) {
+            storeProvider.getUnsafeTaskStore().saveTasks(ImmutableSet.of(makeTask("a")));
+            slowWriteStarted.countDown();
+            try {
+              slowWriteFinished.await();
+            } catch (InterruptedException e) {
+              fail(e.getMessage());
+            }
+          }
+        });
+      }
+    });
+
+    slowWriteStarted.await();
+
+    Optional<HostAttributes> attributes = storage.consistentRead(
+        new Work.Quiet<Optional<HostAttributes>>() {
+          @Override public Optional<HostAttributes> apply(StoreProvider storeProvider) {
+            return storeProvider.getAttributeStore().getHostAttributes("host");
+          }
+        });
+    assertEquals(Optional.<HostAttributes>absent(), attributes);
+    slowWriteFinished.countDown();
+    future.get();
+    expectTasks("a");
+  }
+
+  @Test
+  public void testAttributeAndQuotaReadIsPointInTime() throws Exception {
+    // Validate that a read sees the attributes and quotas of the version it captured.
+
+    final HostAttributes attributes = new HostAttributes()
+        .setHost("host")
+        .setAttributes(ImmutableSet.<Attribute>of())
+        .setMode(MaintenanceMode.NONE);
+    final IQuota quota = IQuota.build(new Quota(1.0, 1, 1));
+    storage.write(new MutateWork.NoResult.Quiet() {
+      @Override protected void execute(MutableStoreProvider storeProvider) {
+        storeProvider.getAttributeStore().saveHostAttributes(attributes);
+      }
+    });
+
+    storage.consistentRead(new Work.Quiet<Void>() {
+      @Override public Void apply(StoreProvider storeProvider) {
+        try {
+          executor.submit(new Runnable() {
+            @Override public void run() {
+              storage.write(new MutateWork.NoResult.Quiet() {
+                @Override protected void execute(MutableStoreProvider storeProvider) {
+                  storeProvider.getAttributeStore()
+                      .setMaintenanceMode("host", MaintenanceMode.DRAINING);
+                  storeProvider.getQuotaStore().saveQuota("role", quota);
+                }
+              });
+            }
+          }).get();
+        } catch (InterruptedException | ExecutionException e) {
+          fail(e.getMessage());
+        }
+        assertEquals(
+            Optional.of(attributes),
+            storeProvider.getAttributeStore().getHostAttributes("host"));
+        assertEquals(Optional.<IQuota>absent(), storeProvider.getQuotaStore().fetchQuota("role"));
+        return null;
+      }
+    });
+
+    storage.consistentRead(new Work.Quiet<Void>() {
+      @Override public Void apply(StoreProvider storeProvider) {
+        assertEquals(
+            MaintenanceMode.DRAINING,
+            storeProvider.getAttributeStore().getHostAttributes("host").get().getMode());
+        assertEquals(Optional.of(quota), storeProvider.getQuotaStore().fetchQuota("role"));
+        return null;
+      }
+    });
+  }
+
   private IScheduledTask makeTask(String taskId) {
     return IScheduledTask.build(new ScheduledTask().setAssignedTask(
         new AssignedTask()
@@ -19,6 +19,7 @@ import java.util.Map;
 import java.util.Set;
 
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -33,6 +34,7 @@ import com.twitter.aurora.gen.Identity;
 import com.twitter.aurora.gen.ScheduleStatus;
 import com.twitter.aurora.gen.ScheduledTask;
 import com.twitter.aurora.gen.TaskConfig;
+import com.twitter.aurora.gen.TaskEvent;
 import com.twitter.aurora.gen.TaskQuery;
 import com.twitter.aurora.scheduler.base.JobKeys;
 import com.twitter.aurora.scheduler.base.Query;
@@ -58,7 +60,11 @@ public class MemTaskStoreTest {
 
   @Before
   public void setUp() {
-    store = new MemTaskStore();
+    store = createStore();
+  }
+
+  protected MemTaskStore createStore() {
+    return new MemTaskStore(false);
   }
 
   @Test
@@ -221,6 +227,77 @@ public class MemTaskStoreTest {
     assertQueryResults(joesJob);
   }
 
+  @Test
+  public void testConsistentSecondaryIndices() {
+    final IScheduledTask a = makeTask("a", "jim", "test", "job");
+    final IScheduledTask b = makeTask("b", "jim", "test", "job");
+    final IScheduledTask c = makeTask("c", "joe", "test", "job");
+    final Query.Builder pending = Query.statusScoped(ScheduleStatus.PENDING);
+    final Query.Builder running = Query.statusScoped(RUNNING);
+    final Query.Builder hostA = Query.slaveScoped("host-a");
+    final Query.Builder jim = Query.roleScoped("jim");
+
+    store.saveTasks(ImmutableSet.of(a, b, c));
+    assertQueryResults(pending, a, b, c);
+    assertQueryResults(running);
+    assertQueryResults(hostA);
+    assertQueryResults(jim, a, b);
+    assertQueryResults(jim.byStatus(ScheduleStatus.PENDING), a, b);
+
+    store.mutateTasks(Query.taskScoped("a", "c"), new TaskMutation() {
+      @Override public IScheduledTask apply(IScheduledTask task) {
+        ScheduledTask builder = task.newBuilder().setStatus(RUNNING);
+        builder.getAssignedTask().setSlaveHost("host-a");
+        return IScheduledTask.build(builder);
+      }
+    });
+    IScheduledTask aRunning = Iterables.getOnlyElement(store.fetchTasks(Query.taskScoped("a")));
+    IScheduledTask cRunning = Iterables.getOnlyElement(store.fetchTasks(Query.taskScoped("c")));
+    assertQueryResults(pending, b);
+    assertQueryResults(running, aRunning, cRunning);
+    assertQueryResults(hostA, aRunning, cRunning);
+    assertQueryResults(hostA.byRole("joe"), cRunning);
+    assertQueryResults(jim.byStatus(RUNNING), aRunning);
+
+    // Overwriting a task should replace its index entries.
+    store.saveTasks(ImmutableSet.of(a));
+    assertQueryResults(pending, a, b);
+    assertQueryResults(running, cRunning);
+    assertQueryResults(hostA, cRunning);
+
+    store.deleteTasks(ImmutableSet.of("c"));
+    assertQueryResults(running);
+    assertQueryResults(hostA);
+    assertQueryResults(Query.roleScoped("joe"));
+    assertQueryResults(Query.statusScoped(ScheduleStatus.PENDING, RUNNING), a, b);
+
+    store.deleteAllTasks();
+    assertQueryResults(pending);
+    assertQueryResults(jim);
+  }
+
+  @Test
+  public void testReadBackAllFields() {
+    ScheduledTask builder = makeTask("a").newBuilder()
+        .setStatus(RUNNING)
+        .setFailureCount(2)
+        .setAncestorId("ancestor")
+        .setTaskEvents(ImmutableList.of(
+            new TaskEvent(100L, ScheduleStatus.PENDING).setScheduler("scheduler"),
+            new TaskEvent(200L, ScheduleStatus.ASSIGNED).setMessage("assigned"),
+            new TaskEvent(300L, RUNNING)));
+    builder.getAssignedTask()
+        .setSlaveId("slave-a")
+        .setSlaveHost("host-a")
+        .setAssignedPorts(ImmutableMap.of("http", 1000, "admin", 1001));
+    IScheduledTask a = IScheduledTask.build(builder);
+    IScheduledTask b = IScheduledTask.build(makeTask("b").newBuilder()
+        .setTaskEvents(ImmutableList.<TaskEvent>of()));
+
+    store.saveTasks(ImmutableSet.of(a, b));
+    assertStoreContents(a, b);
+  }
+
   @Test
   public void testCanonicalTaskConfigs() {
     IScheduledTask a = makeTask("a", "role", "env", "job");
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2013 Twitter, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.twitter.aurora.scheduler.storage.mem;
+
+import java.util.Map;
+import java.util.Random;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PersistentHashMapTest {
+
+  // A key with a fixed hash code, to exercise hash collisions.
+  private static class Key {
+    private final int hash;
+    private final String name;
+
+    Key(int hash, String name) {
+      this.hash = hash;
+      this.name = name;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return (o instanceof Key) && ((Key) o).name.equals(name);
+    }
+  }
+
+  private static <K, V> void assertContents(Map<K, V> expected, PersistentHashMap<K, V> map) {
+    assertEquals(expected.size(), map.size());
+    Map<K, V> actual = Maps.newHashMap();
+    for (Map.Entry<K, V> entry : map) {
+      actual.put(entry.getKey(), entry.getValue());
+    }
+    assertEquals(expected, actual);
+    for (Map.Entry<K, V> entry : expected.entrySet()) {
+      assertEquals(entry.getValue(), map.get(entry.getKey()));
+    }
+  }
+
+  @Test
+  public void testPlusAndMinus() {
+    PersistentHashMap<String, Integer> empty = PersistentHashMap.empty();
+    PersistentHashMap<String, Integer> a = empty.plus("a", 1);
+    PersistentHashMap<String, Integer> ab = a.plus("b", 2);
+    PersistentHashMap<String, Integer> replaced = ab.plus("a", 3);
+    PersistentHashMap<String, Integer> removed = replaced.minus("b");
+
+    assertTrue(empty.isEmpty());
+    assertContents(ImmutableMap.of("a", 1), a);
+    assertContents(ImmutableMap.of("a", 1, "b", 2), ab);
+    assertContents(ImmutableMap.of("a", 3, "b", 2), replaced);
+    assertContents(ImmutableMap.of("a", 3), removed);
+    assertSame(removed, removed.minus("b"));
+    assertNull(removed.get("b"));
+    assertEquals(ImmutableSet.of("a", "b"), ImmutableSet.copyOf(ab.keys()));
+  }
+
+  @Test
+  public void testCollisions() {
+    Key a = new Key(7, "a");
+    Key b = new Key(7, "b");
+    Key c = new Key(7, "c");
+    Key d = new Key(8, "d");
+    PersistentHashMap<Key, String> map = PersistentHashMap.<Key, String>empty()
+        .plus(a, "a")
+        .plus(b, "b")
+        .plus(c, "c")
+        .plus(d, "d");
+
+    assertContents(ImmutableMap.of(a, "a", b, "b", c, "c", d, "d"), map);
+    assertContents(ImmutableMap.of(a, "a", c, "c", d, "d"), map.minus(b));
+    assertContents(ImmutableMap.of(d, "d"), map.minus(a).minus(b).minus(c));
+    assertNull(map.get(new Key(7, "e")));
+  }
+
+  @Test
+  public void testVersionsAreIndependent() {
+    Random random = new Random(0);
+    Map<Integer, Integer> expected = Maps.newHashMap();
+    PersistentHashMap<Integer, Integer> map = PersistentHashMap.empty();
+
+    for (int i = 0; i < 10000; i++) {
+      Map<Integer, Integer> previousExpected = ImmutableMap.copyOf(expected);
+      PersistentHashMap<Integer, Integer> previous = map;
+
+      int key = random.nextInt(2000);
+      if (random.nextInt(3) == 0) {
+        expected.remove(key);
+        map = map.minus(key);
+      } else {
+        expected.put(key, i);
+        map = map.plus(key, i);
+      }
+
+      if (i % 1000 == 0) {
+        assertContents(previousExpected, previous);
+        assertContents(expected, map);
+      }
+    }
+    assertContents(expected, map);
+  }
+}